@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import org.fedai.osx.broker.constants.MessageFlag;
+import org.fedai.osx.broker.message.MessageDecoder;
+import org.fedai.osx.broker.message.MessageExtBrokerInner;
+import org.fedai.osx.broker.provider.FateTechProvider;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.constant.Dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * 各基准测试共用的数据目录、消息与路由表构造
+ */
+public final class BenchmarkSupport {
+
+    public static final String SELF_PARTY_ID = "10000";
+    public static final String REMOTE_PARTY_ID = "9999";
+    public static final String SESSION_ID = "benchmark-session";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 创建临时目录作为配置目录和数据目录，写入路由表和厂商实现配置
+     */
+    public static Path prepareBrokerDirs() throws IOException {
+        Path root = Files.createTempDirectory("osx-benchmark");
+        Path brokerDir = Files.createDirectories(root.resolve("broker"));
+        Files.write(brokerDir.resolve("route_table.json"), routeTableJson(16).getBytes(MessageDecoder.CHARSET_UTF8));
+        Path componentsDir = Files.createDirectories(root.resolve("components"));
+        Files.write(componentsDir.resolve("provider.properties"),
+                ("FATE=" + FateTechProvider.class.getName() + "\ndefault=" + FateTechProvider.class.getName() + "\n").getBytes(MessageDecoder.CHARSET_UTF8));
+        MetaInfo.PROPERTY_CONFIG_DIR = root.toString();
+        MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE = root.resolve("mapped").toString();
+        MetaInfo.PROPERTY_SELF_PARTY.add(SELF_PARTY_ID);
+        return root;
+    }
+
+    /**
+     * 路由表包含本方和 partyCount 个其他party，每个party有一个默认地址和一个 host 角色地址
+     */
+    public static String routeTableJson(int partyCount) {
+        StringBuilder sb = new StringBuilder("{\"route_table\":{");
+        for (int i = 0; i < partyCount; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            int port = 9000 + i;
+            sb.append('"').append(Integer.parseInt(REMOTE_PARTY_ID) - i).append("\":{")
+                    .append("\"default\":[{\"ip\":\"127.0.0.1\",\"port\":").append(port).append("}],")
+                    .append("\"host\":[{\"ip\":\"127.0.0.2\",\"port\":").append(port).append("}]}");
+        }
+        sb.append("},\"self_party\":[\"").append(SELF_PARTY_ID).append("\"]}");
+        return sb.toString();
+    }
+
+    public static byte[] randomBody(int size) {
+        byte[] body = new byte[size];
+        ThreadLocalRandom.current().nextBytes(body);
+        return body;
+    }
+
+    public static MessageExtBrokerInner buildMessage(String topic, byte[] body) {
+        MessageExtBrokerInner message = MessageDecoder.buildMessageExtBrokerInner(topic, body, Long.toString(System.nanoTime()),
+                MessageFlag.SENDMSG, SELF_PARTY_ID, REMOTE_PARTY_ID);
+        message.getProperties().put(Dict.SESSION_ID, SESSION_ID);
+        return message;
+    }
+
+    public static void deleteQuietly(Path root) {
+        if (root == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException ignore) {
+        }
+    }
+}
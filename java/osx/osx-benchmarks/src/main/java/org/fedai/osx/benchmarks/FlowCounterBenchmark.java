@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import org.fedai.osx.core.flow.FlowCounter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流判断，GCRA 实现与原滑动窗口实现对比。阈值都是有限值，每次判断都会走 CAS 路径：
+ * 1000000000 时基本全部放行，10000000 接近8线程的调用速率，放行与拒绝交替出现，CAS 竞争最激烈，
+ * 1000 时几乎全部拒绝
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowCounterBenchmark {
+
+    @Param({"1000000000", "10000000", "1000"})
+    double qpsAllowed;
+
+    FlowCounter flowCounter;
+    LeapArrayFlowCounter leapArrayFlowCounter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        flowCounter = new FlowCounter(qpsAllowed);
+        leapArrayFlowCounter = new LeapArrayFlowCounter(qpsAllowed);
+    }
+
+    @Benchmark
+    public boolean tryPass() {
+        return flowCounter.tryPass(1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean tryPassContended() {
+        return flowCounter.tryPass(1);
+    }
+
+    @Benchmark
+    public boolean leapArrayTryPass() {
+        return leapArrayFlowCounter.tryPass(1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean leapArrayTryPassContended() {
+        return leapArrayFlowCounter.tryPass(1);
+    }
+
+    @Benchmark
+    public double getQps() {
+        return flowCounter.getQps();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.protobuf.ByteString;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.fedai.osx.broker.flow.AdmissionController;
+import org.fedai.osx.broker.grpc.PcpInnerService;
+import org.fedai.osx.broker.grpc.ServiceExceptionHandler;
+import org.fedai.osx.broker.provider.TechProviderRegister;
+import org.fedai.osx.broker.queue.TransferQueueManager;
+import org.fedai.osx.broker.service.ServiceRegisterManager;
+import org.fedai.osx.broker.token.TokenValidatorRegister;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.constant.StatusCode;
+import org.fedai.osx.core.constant.UriConstants;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.frame.ContextPrepareInterceptor;
+import org.fedai.osx.guice.BrokerModule;
+import org.openjdk.jmh.annotations.*;
+import org.ppc.ptp.Osx;
+import org.ppc.ptp.PrivateTransferTransportGrpc;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 端到端的生产和消费：客户端通过 in-process 传输调用 PrivateTransferTransport 的 push/pop ，
+ * 服务端走完整的拦截器、上下文组装、准入控制、队列写入和读取，不经过网络和 TLS
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InProcessTransferBenchmark {
+
+    private static final AtomicInteger TOPIC_SEQUENCE = new AtomicInteger();
+
+    @Param({"1024", "65536"})
+    int bodySize;
+
+    Path root;
+    Injector injector;
+    Server server;
+    ManagedChannel channel;
+    ByteString payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = BenchmarkSupport.prepareBrokerDirs();
+        injector = Guice.createInjector(new BrokerModule());
+        // 只启动处理 push/pop 所需的组件，不启动 OsxServer 的网络监听
+        String[] args = new String[0];
+        injector.getInstance(TechProviderRegister.class).run(args);
+        injector.getInstance(TokenValidatorRegister.class).run(args);
+        injector.getInstance(ServiceRegisterManager.class).run(args);
+        injector.getInstance(AdmissionController.class).run(args);
+
+        String serverName = "osx-benchmark-" + System.nanoTime();
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(ServerInterceptors.intercept(injector.getInstance(PcpInnerService.class),
+                        new ServiceExceptionHandler(), new ContextPrepareInterceptor()))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+        payload = ByteString.copyFrom(BenchmarkSupport.randomBody(bodySize));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        injector.getInstance(TransferQueueManager.class).destroyAll();
+        BenchmarkSupport.deleteQuietly(root);
+    }
+
+    /**
+     * 每个线程使用独立的 topic ，避免线程之间互相消费
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        String topic;
+        PrivateTransferTransportGrpc.PrivateTransferTransportBlockingStub stub;
+        OsxContext pushContext;
+        OsxContext popContext;
+
+        @Setup(Level.Trial)
+        public void setup(InProcessTransferBenchmark benchmark) {
+            topic = "benchmark-topic-" + TOPIC_SEQUENCE.incrementAndGet();
+            stub = PrivateTransferTransportGrpc.newBlockingStub(ClientInterceptors.intercept(benchmark.channel, new ContextPrepareInterceptor()));
+            pushContext = buildContext(topic, UriConstants.PUSH);
+            popContext = buildContext(topic, UriConstants.POP);
+        }
+
+        private static OsxContext buildContext(String topic, String uri) {
+            OsxContext context = new OsxContext();
+            context.setTraceId("benchmark");
+            context.setSessionId(BenchmarkSupport.SESSION_ID);
+            context.setTopic(topic);
+            context.setSrcNodeId(BenchmarkSupport.SELF_PARTY_ID);
+            context.setDesNodeId(BenchmarkSupport.SELF_PARTY_ID);
+            context.setTechProviderCode(MetaInfo.PROPERTY_FATE_TECH_PROVIDER);
+            context.setUri(uri);
+            return context;
+        }
+    }
+
+    @Benchmark
+    public Osx.TransportOutbound push(Client client) {
+        return push(client, payload);
+    }
+
+    @Benchmark
+    public Osx.TransportOutbound pushThenPop(Client client) {
+        push(client, payload);
+        OsxContext.pushThreadLocalContext(client.popContext);
+        Osx.TransportOutbound outbound = client.stub.pop(Osx.PopInbound.newBuilder().setTopic(client.topic).setTimeout(5000).build());
+        checkSuccess(outbound);
+        return outbound;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Osx.TransportOutbound pushThenPopConcurrent(Client client) {
+        return pushThenPop(client);
+    }
+
+    private static Osx.TransportOutbound push(Client client, ByteString payload) {
+        OsxContext.pushThreadLocalContext(client.pushContext);
+        Osx.TransportOutbound outbound = client.stub.push(Osx.PushInbound.newBuilder().setTopic(client.topic).setPayload(payload).build());
+        checkSuccess(outbound);
+        return outbound;
+    }
+
+    private static void checkSuccess(Osx.TransportOutbound outbound) {
+        if (!StatusCode.PTP_SUCCESS.equals(outbound.getCode())) {
+            throw new IllegalStateException(outbound.getCode() + " " + outbound.getMessage());
+        }
+    }
+}
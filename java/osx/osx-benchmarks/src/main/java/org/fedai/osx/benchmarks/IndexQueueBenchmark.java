@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import org.fedai.osx.broker.message.SelectMappedBufferResult;
+import org.fedai.osx.broker.store.IndexQueue;
+import org.fedai.osx.core.config.MetaInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按逻辑序号查找消息的物理偏移，即每次消费前对索引文件的定位
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexQueueBenchmark {
+
+    /**
+     * 跨越多个索引文件，覆盖 findMappedFileByOffset 的查找
+     */
+    @Param({"1000", "1000000"})
+    int messageCount;
+
+    Path root;
+    IndexQueue indexQueue;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = BenchmarkSupport.prepareBrokerDirs();
+        indexQueue = new IndexQueue("benchmark-topic", root.resolve("index").toString(), MetaInfo.PROPERTY_INDEX_MAP_FILE_SIZE);
+        long offset = 0;
+        for (int i = 0; i < messageCount; i++) {
+            indexQueue.putMessagePositionInfoWrapper(offset, 1024);
+            offset += 1024;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        indexQueue.destroy();
+        BenchmarkSupport.deleteQuietly(root);
+    }
+
+    @Benchmark
+    public long lookupSequential(Cursor cursor) {
+        return lookup(cursor.next(messageCount));
+    }
+
+    @Benchmark
+    public long lookupRandom(Cursor cursor) {
+        return lookup(cursor.random(messageCount));
+    }
+
+    @Benchmark
+    public long appendIndex(Cursor cursor) {
+        return indexQueue.putMessagePositionInfoWrapper(cursor.nextPhysicOffset(), 1024);
+    }
+
+    private long lookup(long logicIndex) {
+        SelectMappedBufferResult result = indexQueue.getIndexBuffer(logicIndex);
+        try {
+            return result.getByteBuffer().getLong();
+        } finally {
+            result.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        long index;
+        long seed = 88172645463325252L;
+        long physicOffset = Long.MAX_VALUE / 2;
+
+        long next(int count) {
+            return (index++ % count) + 1;
+        }
+
+        long random(int count) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return Math.floorMod(seed, (long) count) + 1;
+        }
+
+        long nextPhysicOffset() {
+            physicOffset += 1024;
+            return physicOffset;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import org.fedai.osx.core.flow.LeapArray;
+import org.fedai.osx.core.flow.UnaryLeapArray;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 改为 GCRA 之前的 FlowCounter ，按滑动窗口统计的 qps 先判断再累加，作为基准对比。
+ * 判断与累加不是原子的，并发时可能超过阈值
+ */
+class LeapArrayFlowCounter {
+
+    private final LeapArray<LongAdder> data = new UnaryLeapArray(10, 1000);
+    private final double qpsAllowed;
+
+    LeapArrayFlowCounter(double qpsAllowed) {
+        this.qpsAllowed = qpsAllowed;
+    }
+
+    long getSum() {
+        data.currentWindow();
+        long success = 0;
+        List<LongAdder> list = data.values();
+        for (LongAdder window : list) {
+            success += window.sum();
+        }
+        return success;
+    }
+
+    double getQps() {
+        return getSum() / data.getIntervalInSecond();
+    }
+
+    boolean canPass(int times) {
+        return getQps() + times <= qpsAllowed;
+    }
+
+    boolean tryPass(int times) {
+        if (canPass(times)) {
+            data.currentWindow().value().add(times);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import org.fedai.osx.broker.message.AppendMessageResult;
+import org.fedai.osx.broker.message.DefaultAppendMessageHandler;
+import org.fedai.osx.broker.message.MessageDecoder;
+import org.fedai.osx.broker.message.MessageExt;
+import org.fedai.osx.broker.message.MessageExtBrokerInner;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息写入 commit log 前的编码（ DefaultAppendMessageHandler ）和消费时的解码（ MessageDecoder ），不涉及文件
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"256", "4096", "65536"})
+    int bodySize;
+
+    DefaultAppendMessageHandler appendMessageHandler;
+    MessageExtBrokerInner message;
+    ByteBuffer encodeBuffer;
+    ByteBuffer encoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int capacity = bodySize + 4096;
+        appendMessageHandler = new DefaultAppendMessageHandler(capacity);
+        message = BenchmarkSupport.buildMessage("benchmark-topic", BenchmarkSupport.randomBody(bodySize));
+        encodeBuffer = ByteBuffer.allocate(capacity);
+        AppendMessageResult result = appendMessageHandler.doAppend(0, encodeBuffer, capacity, message);
+        encoded = ByteBuffer.wrap(encodeBuffer.array(), 0, result.getWroteBytes()).slice();
+    }
+
+    @Benchmark
+    public AppendMessageResult encode() {
+        encodeBuffer.clear();
+        return appendMessageHandler.doAppend(0, encodeBuffer, encodeBuffer.capacity(), message);
+    }
+
+    @Benchmark
+    public MessageExt decode() {
+        return MessageDecoder.decode(encoded.duplicate());
+    }
+
+    @Benchmark
+    public MessageExt decodeWithoutBody() {
+        return MessageDecoder.decode(encoded.duplicate(), false);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import org.fedai.osx.broker.message.AllocateMappedFileService;
+import org.fedai.osx.broker.message.MessageExtBrokerInner;
+import org.fedai.osx.broker.message.SelectMappedBufferResult;
+import org.fedai.osx.broker.queue.PutMessageResult;
+import org.fedai.osx.broker.store.MessageStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * commit log 的写入与按物理偏移读取，写入路径包含 putMessageLock 、消息编码和 mmap 拷贝
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageStoreBenchmark {
+
+    private static final int PREFILL_COUNT = 1024;
+
+    @Param({"256", "4096", "65536"})
+    int bodySize;
+
+    Path root;
+    AllocateMappedFileService allocateMappedFileService;
+    MessageStore writeStore;
+    MessageStore readStore;
+    MessageExtBrokerInner message;
+    long[] offsets = new long[PREFILL_COUNT];
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = BenchmarkSupport.prepareBrokerDirs();
+        allocateMappedFileService = new AllocateMappedFileService();
+        allocateMappedFileService.start();
+        message = BenchmarkSupport.buildMessage("benchmark-topic", BenchmarkSupport.randomBody(bodySize));
+        writeStore = new MessageStore(allocateMappedFileService, root.resolve("write").toString());
+        writeStore.start();
+        readStore = new MessageStore(allocateMappedFileService, root.resolve("read").toString());
+        readStore.start();
+        for (int i = 0; i < PREFILL_COUNT; i++) {
+            offsets[i] = readStore.putMessage(message).getAppendMessageResult().getWroteOffset();
+        }
+    }
+
+    /**
+     * 写满的文件在每轮结束后删除，避免长时间运行占满磁盘
+     */
+    @TearDown(Level.Iteration)
+    public void reclaim() {
+        writeStore.deleteFileBeforeOffset(writeStore.getMaxPhysicOffset());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        allocateMappedFileService.shutdown();
+        BenchmarkSupport.deleteQuietly(root);
+    }
+
+    @Benchmark
+    public PutMessageResult putMessage() {
+        return writeStore.putMessage(message);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PutMessageResult putMessageContended() {
+        return writeStore.putMessage(message);
+    }
+
+    @Benchmark
+    public int consumeOneMessage(Cursor cursor) {
+        SelectMappedBufferResult result = readStore.consumeOneMessage(offsets[cursor.next() & (PREFILL_COUNT - 1)]);
+        try {
+            return result.getSize();
+        } finally {
+            result.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        int next() {
+            return index++;
+        }
+    }
+}
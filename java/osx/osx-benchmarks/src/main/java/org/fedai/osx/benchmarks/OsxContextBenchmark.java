@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import org.fedai.osx.core.constant.Dict;
+import org.fedai.osx.core.constant.UriConstants;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.context.Protocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个请求都会创建并填充一个 OsxContext ，转发和消费时还会复制子上下文
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OsxContextBenchmark {
+
+    OsxContext prepared;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        prepared = populate(new OsxContext());
+    }
+
+    @Benchmark
+    public OsxContext create() {
+        return new OsxContext();
+    }
+
+    @Benchmark
+    public OsxContext createAndPopulate() {
+        return populate(new OsxContext());
+    }
+
+    @Benchmark
+    public OsxContext subContext() {
+        return prepared.subContext();
+    }
+
+    static OsxContext populate(OsxContext context) {
+        context.setTraceId("benchmark-trace");
+        context.setSessionId(BenchmarkSupport.SESSION_ID);
+        context.setTopic("benchmark-topic");
+        context.setSrcNodeId(BenchmarkSupport.SELF_PARTY_ID);
+        context.setDesNodeId(BenchmarkSupport.REMOTE_PARTY_ID);
+        context.setSelfPartyId(BenchmarkSupport.SELF_PARTY_ID);
+        context.setUri(UriConstants.PUSH);
+        context.setProtocol(Protocol.grpc);
+        context.setTechProviderCode("FATE");
+        context.putData(Dict.MESSAGE_FLAG, "SENDMSG");
+        return context;
+    }
+}
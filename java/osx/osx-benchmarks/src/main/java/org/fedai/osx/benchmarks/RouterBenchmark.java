@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.benchmarks;
+
+import org.fedai.osx.broker.router.DefaultFateRouterServiceImpl;
+import org.fedai.osx.core.constant.Dict;
+import org.fedai.osx.core.router.RouterInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按目标party和角色查路由表，每条转发的请求都会调用一次
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    Path root;
+    DefaultFateRouterServiceImpl routerService;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = BenchmarkSupport.prepareBrokerDirs();
+        routerService = new DefaultFateRouterServiceImpl();
+        routerService.start();
+        if (routerService.route(BenchmarkSupport.SELF_PARTY_ID, Dict.DEFAULT, BenchmarkSupport.REMOTE_PARTY_ID, Dict.DEFAULT) == null) {
+            throw new IllegalStateException("route table is not loaded");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        routerService.destroy();
+        BenchmarkSupport.deleteQuietly(root);
+    }
+
+    @Benchmark
+    public RouterInfo routeDefaultRole() {
+        return routerService.route(BenchmarkSupport.SELF_PARTY_ID, Dict.DEFAULT, BenchmarkSupport.REMOTE_PARTY_ID, Dict.DEFAULT);
+    }
+
+    @Benchmark
+    public RouterInfo routeWithRole() {
+        return routerService.route(BenchmarkSupport.SELF_PARTY_ID, "guest", BenchmarkSupport.REMOTE_PARTY_ID, "host");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public RouterInfo routeContended() {
+        return routerService.route(BenchmarkSupport.SELF_PARTY_ID, Dict.DEFAULT, BenchmarkSupport.REMOTE_PARTY_ID, Dict.DEFAULT);
+    }
+}
@@ -103,6 +103,9 @@ public class ConsumerManager   {
         });
         logger.info("consumer monitor,long pulling waiting {} ,total num {}", longPullingSize.get(), unaryConsumerMap.size());
     }
+    public UnaryConsumer getUnaryConsumer(String indexKey) {
+        return unaryConsumerMap.get(indexKey);
+    }
     public UnaryConsumer getOrCreateUnaryConsumer(String sessionId, String topic) {
         String indexKey = TransferQueueManager.assembleTopic(sessionId, topic);
         if (unaryConsumerMap.get(indexKey) == null) {
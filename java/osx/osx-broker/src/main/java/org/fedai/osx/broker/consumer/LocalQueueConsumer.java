@@ -23,6 +23,7 @@ import org.fedai.osx.core.constant.StatusCode;
 import org.fedai.osx.core.constant.TransferStatus;
 import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.exceptions.AckIndexException;
+import org.fedai.osx.core.metric.MonitorContention;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +40,7 @@ public class LocalQueueConsumer implements Consumer<TransferQueueConsumeResult>
     volatile TransferStatus transferStatus = TransferStatus.INIT;
     long createTimestamp = System.currentTimeMillis();
     TransferQueueManager transferQueueManager;
+    protected final MonitorContention monitorContention = new MonitorContention();
 
     public LocalQueueConsumer(TransferQueueManager transferQueueManager, long consumerId, String sessionId, String topic) {
         this.consumerId = consumerId;
@@ -50,7 +52,7 @@ public class LocalQueueConsumer implements Consumer<TransferQueueConsumeResult>
     public boolean checkMsgIsArrive(long consumeOffset) {
         AbstractQueue transferQueue = transferQueueManager.getQueue(sessionId, topic);
         if (transferQueue != null) {
-            long indexFileOffset = ((TransferQueue) transferQueue).getIndexQueue().getLogicOffset().get();
+            long indexFileOffset = ((TransferQueue) transferQueue).getLogicOffset();
             // logger.info("topic {} need consume {} ,  {} inqueue",transferId,consumeOffset, indexFileOffset);
             return consumeOffset <= indexFileOffset;
         }
@@ -78,26 +80,30 @@ public class LocalQueueConsumer implements Consumer<TransferQueueConsumeResult>
         this.consumeOffset = consumeOffset;
     }
 
-    public synchronized TransferQueueConsumeResult consume(OsxContext context, long beginOffset) {
-        TransferQueueConsumeResult result;
-        long offset = beginOffset;
-        TransferQueue transferQueue = (TransferQueue) transferQueueManager.getQueue(sessionId, topic);
-        if (transferQueue != null) {
-            SelectMappedBufferResult selectMappedBufferResult = null;
-            if (offset <= 0) {
-                offset = consumeOffset.get();
-            }
-            result = transferQueue.consumeOneMessage(context, offset);
-            //兼容互联互通 ，改成自动ack
-            if (StatusCode.SUCCESS.equals(result.getCode())) {
-                this.ack(offset);
+    public TransferQueueConsumeResult consume(OsxContext context, long beginOffset) {
+        long monitorBegin = monitorContention.begin(this);
+        synchronized (this) {
+            monitorContention.entered(monitorBegin);
+            TransferQueueConsumeResult result;
+            long offset = beginOffset;
+            TransferQueue transferQueue = (TransferQueue) transferQueueManager.getQueue(sessionId, topic);
+            if (transferQueue != null) {
+                SelectMappedBufferResult selectMappedBufferResult = null;
+                if (offset <= 0) {
+                    offset = consumeOffset.get();
+                }
+                result = transferQueue.consumeOneMessage(context, offset);
+                //兼容互联互通 ，改成自动ack
+                if (StatusCode.SUCCESS.equals(result.getCode())) {
+                    this.ack(offset);
+                    transferQueue.onConsumed(offset);
+                }
+            } else {
+                logger.error("session id {} topic {} is not found", sessionId, topic);
+                result = new TransferQueueConsumeResult(StatusCode.TRANSFER_QUEUE_NOT_FIND, null, beginOffset, 0);
             }
-        } else {
-            logger.error("session id {} topic {} is not found", sessionId, topic);
-            result = new TransferQueueConsumeResult(StatusCode.TRANSFER_QUEUE_NOT_FIND, null, beginOffset, 0);
+            return result;
         }
-        return result;
-
     }
 
     @Override
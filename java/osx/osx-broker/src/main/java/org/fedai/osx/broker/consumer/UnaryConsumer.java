@@ -28,6 +28,8 @@ import org.fedai.osx.core.constant.StatusCode;
 import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.exceptions.ErrorMessageUtil;
 import org.fedai.osx.core.exceptions.TransferQueueNotExistException;
+import org.fedai.osx.core.trace.Span;
+import org.fedai.osx.core.trace.Tracer;
 import org.fedai.osx.core.utils.FlowLogUtil;
 import org.fedai.osx.core.utils.JsonUtil;
 import org.ppc.ptp.Osx;
@@ -126,7 +128,7 @@ public class UnaryConsumer extends LocalQueueConsumer {
                 }
                 if (consumeResult != null) {
                     if (consumeResult.getMessage() != null && consumeResult.getMessage().getBody() != null)
-                        context.setDataSize(consumeResult.getMessage().getBody().length);
+                        context.setDataSize(consumeResult.getBodySize());
                     answerCount++;
                     longPullingHold.answer(consumeResult, StatusCode.PTP_SUCCESS, Dict.SUCCESS);
                     context.setTopic(transferQueue.getTransferId());
@@ -166,16 +168,30 @@ public class UnaryConsumer extends LocalQueueConsumer {
         AsyncContext asyncContext;
         long expireTimestamp;
         long needOffset;
+        /**
+         * 开始挂起的时间，应答时记录挂起耗时
+         */
+        long holdNanos = System.nanoTime();
 
         public void answer(TransferQueueConsumeResult consumeResult, String statusCode, String message) {
+            Span span = context != null ? context.startSpan("consume.long-poll", holdNanos) : Span.NOOP;
+            try {
+                answerInner(consumeResult, statusCode, message);
+            } finally {
+                span.setAttribute("status.code", statusCode).end();
+                Tracer.finish(context);
+            }
+        }
+
+        private void answerInner(TransferQueueConsumeResult consumeResult, String statusCode, String message) {
             if (streamObserver != null) {
                 Osx.TransportOutbound consumeResponse = TransferUtil.buildTransportOutbound(statusCode, message, consumeResult);
                 streamObserver.onNext(consumeResponse);
                 streamObserver.onCompleted();
             } else if (asyncContext != null) {
                 byte[] content = null;
-                if (consumeResult != null && consumeResult.getMessage() != null) {
-                    content = consumeResult.getMessage().getBody();
+                if (consumeResult != null) {
+                    content = consumeResult.getBody();
                 }
                 ConsumerResponse consumerResponse = new ConsumerResponse();
                 consumerResponse.setCode(statusCode);
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.flow;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.datasource.FileRefreshableDataSource;
+import org.fedai.osx.core.exceptions.FlowControlException;
+import org.fedai.osx.core.flow.ClusterFlowChecker;
+import org.fedai.osx.core.flow.FlowCounterManager;
+import org.fedai.osx.core.flow.FlowRule;
+import org.fedai.osx.core.flow.PropertyListener;
+import org.fedai.osx.core.flow.RuleConstant;
+import org.fedai.osx.core.service.ApplicationStartedRunner;
+import org.fedai.osx.core.token.TokenResult;
+import org.fedai.osx.core.token.TokenResultStatus;
+import org.fedai.osx.core.utils.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 入口准入控制，按来源party、目标party、topic三个维度分别计数，任一维度超过阈值即拒绝。
+ * 规则来自 flow.rule 配置的文件，文件变更后自动生效，只使用非集群模式的QPS规则，resource 格式为：
+ * src:partyId 、des:partyId 、topic:topicName ，维度后跟 * 表示该维度下每个取值各自使用的默认阈值，如 src:*
+ * 集群模式的规则在所有副本间共享阈值，由集群令牌服务统一计数，除上述维度外还支持按字节数限速的 bytes:src:partyId 与 bytes:des:partyId ，
+ * 令牌服务不可用或未配置时退化为本地限流，阈值为 集群阈值/cluster.token.fallback.replicas
+ */
+@Singleton
+public class AdmissionController implements ApplicationStartedRunner {
+
+    public static final String RESOURCE_SRC = "src:";
+    public static final String RESOURCE_DES = "des:";
+    public static final String RESOURCE_TOPIC = "topic:";
+    public static final String RESOURCE_BYTES = "bytes:";
+
+    Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+    FlowCounterManager flowCounterManager = new FlowCounterManager("admission");
+    /**
+     * 集群规则在令牌服务不可用时使用的本地计数
+     */
+    FlowCounterManager clusterFallbackFlowCounterManager = new FlowCounterManager("admission-cluster");
+    FileRefreshableDataSource fileRefreshableDataSource;
+    @Inject
+    ClusterTokenClient clusterTokenClient;
+
+    public void admit(OsxContext context, String topic) {
+        admit(context, topic, 0);
+    }
+
+    public void admit(OsxContext context, String topic, long bytes) {
+        List<String> resources = null;
+        if (flowCounterManager.hasAllowedQps()) {
+            resources = new ArrayList<>(3);
+            addLimitedResource(flowCounterManager, resources, RESOURCE_SRC, context.getSrcNodeId());
+            addLimitedResource(flowCounterManager, resources, RESOURCE_DES, context.getDesNodeId());
+            addLimitedResource(flowCounterManager, resources, RESOURCE_TOPIC, topic);
+            // 被拒绝的请求不占用其他维度的配额
+            String limitedResource = resources.isEmpty() ? null : flowCounterManager.passAll(resources, 1);
+            if (limitedResource != null) {
+                logger.warn("{} is limited by flow control", limitedResource);
+                throw new FlowControlException("flow control limited : " + limitedResource);
+            }
+        }
+        if (clusterFallbackFlowCounterManager.hasAllowedQps()) {
+            String limitedResource = admitCluster(context, topic, bytes);
+            if (limitedResource != null) {
+                if (resources != null && !resources.isEmpty()) {
+                    flowCounterManager.refundAll(resources, 1);
+                }
+                logger.warn("{} is limited by cluster flow control", limitedResource);
+                throw new FlowControlException("cluster flow control limited : " + limitedResource);
+            }
+        }
+    }
+
+    private String admitCluster(OsxContext context, String topic, long bytes) {
+        List<String> resources = new ArrayList<>(5);
+        addLimitedResource(clusterFallbackFlowCounterManager, resources, RESOURCE_SRC, context.getSrcNodeId());
+        addLimitedResource(clusterFallbackFlowCounterManager, resources, RESOURCE_DES, context.getDesNodeId());
+        addLimitedResource(clusterFallbackFlowCounterManager, resources, RESOURCE_TOPIC, topic);
+        int requestCount = resources.size();
+        if (bytes > 0) {
+            addLimitedResource(clusterFallbackFlowCounterManager, resources, RESOURCE_BYTES + RESOURCE_SRC, context.getSrcNodeId());
+            addLimitedResource(clusterFallbackFlowCounterManager, resources, RESOURCE_BYTES + RESOURCE_DES, context.getDesNodeId());
+        }
+        if (resources.isEmpty()) {
+            return null;
+        }
+        List<Integer> counts = new ArrayList<>(resources.size());
+        for (int i = 0; i < resources.size(); i++) {
+            counts.add(i < requestCount ? 1 : (int) Math.min(bytes, Integer.MAX_VALUE));
+        }
+        if (clusterTokenClient.isEnabled()) {
+            TokenResult tokenResult = clusterTokenClient.acquire(resources, counts);
+            if (tokenResult.getStatus() == TokenResultStatus.OK) {
+                return null;
+            }
+            if (tokenResult.getStatus() == TokenResultStatus.BLOCKED) {
+                return tokenResult.getAttachments() != null ? tokenResult.getAttachments().get(ClusterFlowChecker.ATTACHMENT_LIMITED_RESOURCE) : resources.get(0);
+            }
+        }
+        return clusterFallbackFlowCounterManager.passAll(resources, counts);
+    }
+
+    private void addLimitedResource(FlowCounterManager manager, List<String> resources, String dimension, String value) {
+        if (StringUtils.isEmpty(value)) {
+            return;
+        }
+        String resource = dimension + value;
+        if (manager.getAllowedQps(resource) != null) {
+            resources.add(resource);
+        }
+    }
+
+    public FlowCounterManager getFlowCounterManager() {
+        return flowCounterManager;
+    }
+
+    private void applyRules(List<FlowRule> rules) {
+        Map<String, Double> allowMap = new HashMap<>();
+        Map<String, Double> clusterAllowMap = new HashMap<>();
+        if (rules != null) {
+            for (FlowRule rule : rules) {
+                if (rule.getGrade() != RuleConstant.FLOW_GRADE_QPS || StringUtils.isEmpty(rule.getResource())) {
+                    continue;
+                }
+                if (rule.isClusterMode()) {
+                    clusterAllowMap.put(rule.getResource(), rule.getCount() / MetaInfo.PROPERTY_CLUSTER_TOKEN_FALLBACK_REPLICAS);
+                } else {
+                    allowMap.put(rule.getResource(), rule.getCount());
+                }
+            }
+        }
+        flowCounterManager.refreshAllowedQps(allowMap);
+        clusterFallbackFlowCounterManager.refreshAllowedQps(clusterAllowMap);
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        String currentPath = MetaInfo.PROPERTY_CONFIG_DIR + File.separator + MetaInfo.PROPERTY_FLOW_RULE_TABLE;
+        logger.info("load admission flow rule {}", currentPath);
+        try {
+            fileRefreshableDataSource = new FileRefreshableDataSource(new File(currentPath), (source) -> {
+                return JsonUtil.json2List((String) source, new TypeReference<List<FlowRule>>() {
+                });
+            });
+            fileRefreshableDataSource.getProperty().addListener(new FlowRuleListener());
+        } catch (FileNotFoundException e) {
+            logger.error("flow rule file {} is not found", currentPath);
+        }
+        flowCounterManager.startReport();
+        clusterFallbackFlowCounterManager.startReport();
+    }
+
+    private class FlowRuleListener implements PropertyListener<List<FlowRule>> {
+
+        @Override
+        public void configUpdate(List<FlowRule> value) {
+            logger.warn("found flow rule file has been changed, reload");
+            applyRules(value);
+        }
+
+        @Override
+        public void configLoad(List<FlowRule> value) {
+            applyRules(value);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.flow;
+
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.core.config.MetaInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 按目标party与优先级对出口流量限速，规则见 bandwidth.limit.rule ，未配置规则的目标不限速
+ */
+public final class BandwidthShaper {
+
+    static final String WILDCARD = "*";
+    static Logger logger = LoggerFactory.getLogger(BandwidthShaper.class);
+    /**
+     * 流式发送在等待令牌偿还后由该线程恢复读取，不阻塞业务线程
+     */
+    static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bandwidth-shaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<String, TokenBucket> TOKEN_BUCKET_MAP = new ConcurrentHashMap<>();
+    private static volatile Map<String, Long> ruleMap;
+
+    private BandwidthShaper() {
+    }
+
+    static Map<String, Long> parseRule(String rule) {
+        Map<String, Long> result = new ConcurrentHashMap<>();
+        if (StringUtils.isEmpty(rule)) {
+            return result;
+        }
+        for (String item : rule.split(",")) {
+            String[] elements = item.trim().split(":");
+            if (elements.length != 3) {
+                logger.error("invalid bandwidth limit rule {}", item);
+                continue;
+            }
+            try {
+                TrafficPriority priority = TrafficPriority.valueOf(elements[1].trim());
+                result.put(buildKey(elements[0].trim(), priority), Long.parseLong(elements[2].trim()));
+            } catch (IllegalArgumentException e) {
+                logger.error("invalid bandwidth limit rule {}", item);
+            }
+        }
+        logger.info("bandwidth limit rule {}", result);
+        return result;
+    }
+
+    private static String buildKey(String desPartyId, TrafficPriority priority) {
+        return desPartyId + ":" + priority.name();
+    }
+
+    private static Map<String, Long> getRuleMap() {
+        if (ruleMap == null) {
+            ruleMap = parseRule(MetaInfo.PROPERTY_BANDWIDTH_LIMIT_RULE);
+        }
+        return ruleMap;
+    }
+
+    public static boolean isEnabled() {
+        return !getRuleMap().isEmpty();
+    }
+
+    public static ScheduledExecutorService getScheduler() {
+        return SCHEDULER;
+    }
+
+    public static TrafficPriority priorityOf(long size) {
+        return size <= MetaInfo.PROPERTY_BANDWIDTH_CONTROL_MESSAGE_SIZE ? TrafficPriority.CONTROL : TrafficPriority.BULK;
+    }
+
+    /**
+     * 返回目标party在该优先级下的令牌桶，不限速时返回null
+     */
+    public static TokenBucket getTokenBucket(String desPartyId, TrafficPriority priority) {
+        Map<String, Long> rules = getRuleMap();
+        if (rules.isEmpty() || desPartyId == null) {
+            return null;
+        }
+        String key = buildKey(desPartyId, priority);
+        TokenBucket tokenBucket = TOKEN_BUCKET_MAP.get(key);
+        if (tokenBucket == null) {
+            Long bytesPerSecond = rules.get(key);
+            if (bytesPerSecond == null) {
+                bytesPerSecond = rules.get(buildKey(WILDCARD, priority));
+            }
+            if (bytesPerSecond == null || bytesPerSecond <= 0) {
+                return null;
+            }
+            long rate = bytesPerSecond;
+            tokenBucket = TOKEN_BUCKET_MAP.computeIfAbsent(key, k -> new TokenBucket(rate, rate * MetaInfo.PROPERTY_BANDWIDTH_BURST_TIME / 1000));
+        }
+        return tokenBucket;
+    }
+}
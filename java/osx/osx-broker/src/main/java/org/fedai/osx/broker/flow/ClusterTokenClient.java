@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.flow;
+
+import com.google.inject.Singleton;
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.context.Protocol;
+import org.fedai.osx.core.flow.ClusterFlowChecker;
+import org.fedai.osx.core.frame.GrpcConnectionFactory;
+import org.fedai.osx.core.router.RouterInfo;
+import org.fedai.osx.core.token.TokenResult;
+import org.fedai.osx.core.token.TokenResultStatus;
+import org.fedai.osx.token.ClusterToken;
+import org.fedai.osx.token.ClusterTokenServiceGrpc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向集群限流令牌服务申请令牌，按 cluster.token.server.address 的顺序使用第一个可用的地址，
+ * 调用失败的地址在 cluster.token.server.retry.interval 内不再使用，全部不可用时返回 FAIL 由调用方退化为本地限流
+ */
+@Singleton
+public class ClusterTokenClient {
+
+    Logger logger = LoggerFactory.getLogger(ClusterTokenClient.class);
+    Map<String, Long> unavailableUntil = new ConcurrentHashMap<>();
+    volatile List<RouterInfo> servers;
+
+    public boolean isEnabled() {
+        return StringUtils.isNotEmpty(MetaInfo.PROPERTY_CLUSTER_TOKEN_SERVER_ADDRESS);
+    }
+
+    private List<RouterInfo> getServers() {
+        if (servers == null) {
+            List<RouterInfo> result = new ArrayList<>();
+            for (String address : MetaInfo.PROPERTY_CLUSTER_TOKEN_SERVER_ADDRESS.split(",")) {
+                String[] elements = address.trim().split(":");
+                if (elements.length != 2) {
+                    logger.error("invalid cluster token server address {}", address);
+                    continue;
+                }
+                RouterInfo routerInfo = new RouterInfo();
+                routerInfo.setProtocol(Protocol.grpc);
+                routerInfo.setHost(elements[0]);
+                routerInfo.setPort(Integer.parseInt(elements[1]));
+                result.add(routerInfo);
+            }
+            servers = result;
+        }
+        return servers;
+    }
+
+    public TokenResult acquire(List<String> resources, List<Integer> counts) {
+        ClusterToken.TokenInbound.Builder inboundBuilder = ClusterToken.TokenInbound.newBuilder();
+        for (int i = 0; i < resources.size(); i++) {
+            inboundBuilder.addAcquire(ClusterToken.TokenAcquire.newBuilder().setResource(resources.get(i)).setCount(counts.get(i)));
+        }
+        ClusterToken.TokenInbound inbound = inboundBuilder.build();
+        for (RouterInfo server : getServers()) {
+            String key = server.toKey();
+            Long until = unavailableUntil.get(key);
+            if (until != null && System.currentTimeMillis() < until) {
+                continue;
+            }
+            try {
+                ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(server);
+                ClusterToken.TokenOutbound outbound = ClusterTokenServiceGrpc.newBlockingStub(managedChannel)
+                        .withDeadlineAfter(MetaInfo.PROPERTY_CLUSTER_TOKEN_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS)
+                        .acquire(inbound);
+                if (until != null) {
+                    logger.info("cluster token server {} is available again", key);
+                    unavailableUntil.remove(key);
+                }
+                TokenResult tokenResult = new TokenResult(outbound.getStatus());
+                if (StringUtils.isNotEmpty(outbound.getLimitedResource())) {
+                    tokenResult.setAttachments(Collections.singletonMap(ClusterFlowChecker.ATTACHMENT_LIMITED_RESOURCE, outbound.getLimitedResource()));
+                }
+                return tokenResult;
+            } catch (StatusRuntimeException e) {
+                logger.warn("cluster token server {} is unavailable : {}", key, e.getStatus());
+                unavailableUntil.put(key, System.currentTimeMillis() + MetaInfo.PROPERTY_CLUSTER_TOKEN_SERVER_RETRY_INTERVAL);
+            } catch (Exception e) {
+                logger.warn("cluster token server {} is unavailable", key, e);
+                unavailableUntil.put(key, System.currentTimeMillis() + MetaInfo.PROPERTY_CLUSTER_TOKEN_SERVER_RETRY_INTERVAL);
+            }
+        }
+        return new TokenResult(TokenResultStatus.FAIL);
+    }
+}
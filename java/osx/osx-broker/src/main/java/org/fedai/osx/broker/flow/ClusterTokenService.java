@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.flow;
+
+import com.google.inject.Singleton;
+import io.grpc.stub.StreamObserver;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.flow.ClusterFlowChecker;
+import org.fedai.osx.core.flow.ClusterFlowRuleManager;
+import org.fedai.osx.core.service.ApplicationStartedRunner;
+import org.fedai.osx.core.token.TokenResult;
+import org.fedai.osx.token.ClusterToken;
+import org.fedai.osx.token.ClusterTokenServiceGrpc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 集群限流令牌服务，cluster.token.server.enabled 为 true 时注册到 grpc 服务端。
+ * 使用 flow.rule 中 clusterMode 为 true 的规则，所有副本的申请在此统一计数
+ */
+@Singleton
+public class ClusterTokenService extends ClusterTokenServiceGrpc.ClusterTokenServiceImplBase implements ApplicationStartedRunner {
+
+    Logger logger = LoggerFactory.getLogger(ClusterTokenService.class);
+
+    @Override
+    public void acquire(ClusterToken.TokenInbound request, StreamObserver<ClusterToken.TokenOutbound> responseObserver) {
+        List<String> resources = new ArrayList<>(request.getAcquireCount());
+        List<Integer> counts = new ArrayList<>(request.getAcquireCount());
+        for (ClusterToken.TokenAcquire acquire : request.getAcquireList()) {
+            resources.add(acquire.getResource());
+            counts.add(acquire.getCount());
+        }
+        TokenResult tokenResult = ClusterFlowChecker.acquireClusterToken(resources, counts);
+        ClusterToken.TokenOutbound.Builder builder = ClusterToken.TokenOutbound.newBuilder().setStatus(tokenResult.getStatus());
+        if (tokenResult.getAttachments() != null) {
+            String limitedResource = tokenResult.getAttachments().get(ClusterFlowChecker.ATTACHMENT_LIMITED_RESOURCE);
+            if (limitedResource != null) {
+                builder.setLimitedResource(limitedResource);
+            }
+        }
+        responseObserver.onNext(builder.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        if (MetaInfo.PROPERTY_CLUSTER_TOKEN_SERVER_ENABLED) {
+            logger.info("cluster token server is enabled, cluster flow rules {}", ClusterFlowRuleManager.getResourceRules().keySet());
+        }
+    }
+}
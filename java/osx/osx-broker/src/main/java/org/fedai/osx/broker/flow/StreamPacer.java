@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.flow;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 流式转发的发送节奏控制：关闭入口流的自动流控，每转发一条消息后，
+ * 等待令牌偿还且出口流 isReady 后才向上游请求下一条消息，等待期间不占用线程。
+ * 关闭自动流控后 grpc 不再请求第一条消息，创建时由本类请求
+ */
+public class StreamPacer {
+
+    final ServerCallStreamObserver<?> inbound;
+    final AtomicBoolean pending = new AtomicBoolean(false);
+    volatile TokenBucket tokenBucket;
+    volatile ClientCallStreamObserver<?> outbound;
+    volatile long resumeAtNanos;
+
+    StreamPacer(ServerCallStreamObserver<?> inbound) {
+        this.inbound = inbound;
+    }
+
+    /**
+     * 目的方已知时使用，必须在服务方法返回之前调用。入口不是服务端流或目的方没有限速规则时返回null，保持自动流控
+     */
+    public static StreamPacer create(StreamObserver<?> inboundResponseObserver, String desPartyId) {
+        TokenBucket tokenBucket = BandwidthShaper.getTokenBucket(desPartyId, TrafficPriority.BULK);
+        if (tokenBucket == null) {
+            return null;
+        }
+        StreamPacer streamPacer = create(inboundResponseObserver);
+        if (streamPacer != null) {
+            streamPacer.setTokenBucket(tokenBucket);
+        }
+        return streamPacer;
+    }
+
+    /**
+     * 目的方要在收到第一条消息后才能确定时使用，必须在服务方法返回之前调用。
+     * 入口不是服务端流或没有配置任何限速规则时返回null；目的方没有限速规则时只跟随出口流的 isReady
+     */
+    public static StreamPacer create(StreamObserver<?> inboundResponseObserver) {
+        if (!BandwidthShaper.isEnabled() || !(inboundResponseObserver instanceof ServerCallStreamObserver)) {
+            return null;
+        }
+        ServerCallStreamObserver<?> serverCallStreamObserver = (ServerCallStreamObserver<?>) inboundResponseObserver;
+        serverCallStreamObserver.disableAutoInboundFlowControl();
+        StreamPacer streamPacer = new StreamPacer(serverCallStreamObserver);
+        serverCallStreamObserver.request(1);
+        return streamPacer;
+    }
+
+    public void setTokenBucket(TokenBucket tokenBucket) {
+        this.tokenBucket = tokenBucket;
+    }
+
+    /**
+     * 只能在 ClientResponseObserver.beforeStart 中调用
+     */
+    public void setOutbound(ClientCallStreamObserver<?> outbound) {
+        this.outbound = outbound;
+        outbound.setOnReadyHandler(this::tryResume);
+    }
+
+    public void onForwarded(long bytes) {
+        TokenBucket bucket = this.tokenBucket;
+        long delay = bucket != null ? bucket.reserve(bytes) : 0;
+        pending.set(true);
+        if (delay > 0) {
+            resumeAtNanos = System.nanoTime() + delay;
+            BandwidthShaper.SCHEDULER.schedule(this::tryResume, delay, TimeUnit.NANOSECONDS);
+        } else {
+            resumeAtNanos = 0;
+            tryResume();
+        }
+    }
+
+    void tryResume() {
+        if (resumeAtNanos != 0 && System.nanoTime() < resumeAtNanos) {
+            return;
+        }
+        ClientCallStreamObserver<?> out = this.outbound;
+        if (out != null && !out.isReady()) {
+            return;
+        }
+        if (pending.compareAndSet(true, false)) {
+            inbound.request(1);
+        }
+    }
+}
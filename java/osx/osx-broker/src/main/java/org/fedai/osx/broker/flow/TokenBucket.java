@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.flow;
+
+/**
+ * 按字节计数的令牌桶，令牌允许透支，透支部分按速率偿还后才能继续发送
+ */
+public class TokenBucket {
+
+    final double bytesPerNano;
+    final double burstBytes;
+    double tokens;
+    long lastRefillNanos;
+
+    public TokenBucket(long bytesPerSecond, long burstBytes) {
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.burstBytes = Math.max(burstBytes, 1);
+        this.tokens = this.burstBytes;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burstBytes, tokens + (now - lastRefillNanos) * bytesPerNano);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * 扣除令牌并返回偿还透支需要等待的纳秒数，用于流式发送在下一次发送前等待
+     */
+    public synchronized long reserve(long bytes) {
+        refill(System.nanoTime());
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens / bytesPerNano);
+    }
+
+    /**
+     * 偿还透支需要等待的时间不超过 maxWaitNanos 时扣除令牌并返回等待的纳秒数，否则不扣除令牌并返回-1
+     */
+    public synchronized long reserve(long bytes, long maxWaitNanos) {
+        refill(System.nanoTime());
+        double remaining = tokens - bytes;
+        long waitNanos = remaining >= 0 ? 0 : (long) (-remaining / bytesPerNano);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        tokens = remaining;
+        return waitNanos;
+    }
+
+    public long getBytesPerSecond() {
+        return (long) (bytesPerNano * 1e9);
+    }
+}
@@ -17,19 +17,23 @@ package org.fedai.osx.broker.grpc;
 
 import com.webank.ai.eggroll.api.networking.proxy.Proxy;
 import com.webank.eggroll.core.transfer.Transfer;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import org.fedai.osx.broker.callback.CompleteCallback;
 import org.fedai.osx.broker.callback.ErrorCallback;
+import org.fedai.osx.broker.flow.StreamPacer;
 import org.fedai.osx.core.context.OsxContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ForwardPushRespSO implements StreamObserver<Proxy.Metadata> {
+public class ForwardPushRespSO implements ClientResponseObserver<Proxy.Packet, Proxy.Metadata> {
     Logger logger = LoggerFactory.getLogger(ForwardPushRespSO.class);
     StreamObserver backPushRespSO;
     CompleteCallback completeCallback;
     ErrorCallback errorCallback;
     OsxContext context;
+    StreamPacer streamPacer;
 
     public ForwardPushRespSO(OsxContext context, StreamObserver backPushRespSO, CompleteCallback completeCallback, ErrorCallback errorCallback) {
         this.backPushRespSO = backPushRespSO;
@@ -39,6 +43,17 @@ public class ForwardPushRespSO implements StreamObserver<Proxy.Metadata> {
     }
 
 
+    public void setStreamPacer(StreamPacer streamPacer) {
+        this.streamPacer = streamPacer;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Proxy.Packet> requestStream) {
+        if (streamPacer != null) {
+            streamPacer.setOutbound(requestStream);
+        }
+    }
+
     public StreamObserver getBackPushRespSO() {
         return backPushRespSO;
     }
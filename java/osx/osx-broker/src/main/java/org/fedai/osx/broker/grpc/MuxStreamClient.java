@@ -0,0 +1,279 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.grpc;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Singleton;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.broker.util.TransferUtil;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.context.Protocol;
+import org.fedai.osx.core.frame.GrpcConnectionFactory;
+import org.fedai.osx.core.router.RouterInfo;
+import org.fedai.osx.mux.BrokerMux;
+import org.fedai.osx.mux.BrokerMuxServiceGrpc;
+import org.ppc.ptp.Osx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fedai.osx.core.frame.ContextPrepareInterceptor.CALLOPTION_RAW_HEADERS;
+
+/**
+ * 发往其他broker的小消息复用每个对端一条的 BrokerMuxService.transport 流。消息先进入待发送批次，
+ * 达到 grpc.mux.batch.max.messages 条、grpc.mux.batch.max.bytes 字节或等待 grpc.mux.linger.us 微秒后整批发送，
+ * 对端逐条应答；流断开时已发送未应答的消息以错误返回，下一条消息重新建立流
+ */
+@Singleton
+public class MuxStreamClient {
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "grpc-mux-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * 流断开时在这里让未应答的消息失败，其回调不在持有锁的线程或 grpc 的回调线程中执行
+     */
+    private static final ExecutorService COMPLETER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "grpc-mux-complete");
+        thread.setDaemon(true);
+        return thread;
+    });
+    Logger logger = LoggerFactory.getLogger(MuxStreamClient.class);
+    final Map<String, PeerStream> peers = new ConcurrentHashMap<>();
+
+    /**
+     * @return 消息或路由不适合合批、对端不支持或未应答的消息过多时返回 null ，由调用方单独转发
+     */
+    public ListenableFuture<Osx.TransportOutbound> push(OsxContext context, Osx.PushInbound inbound, RouterInfo routerInfo) {
+        if (!MetaInfo.PROPERTY_GRPC_MUX_ENABLED || Protocol.http.equals(routerInfo.getProtocol())
+                || inbound.getSerializedSize() > MetaInfo.PROPERTY_GRPC_MUX_MAX_MESSAGE_SIZE) {
+            return null;
+        }
+        PeerStream peer = peers.computeIfAbsent(routerInfo.toKey(), k -> new PeerStream(routerInfo));
+        SettableFuture<Osx.TransportOutbound> future = peer.send(buildFrame(context, inbound));
+        if (future == null) {
+            return null;
+        }
+        long timeout = TransferUtil.callDeadline(routerInfo).timeRemaining(TimeUnit.MILLISECONDS);
+        return Futures.withTimeout(future, timeout, TimeUnit.MILLISECONDS, FLUSHER);
+    }
+
+    private BrokerMux.MuxFrame.Builder buildFrame(OsxContext context, Osx.PushInbound inbound) {
+        BrokerMux.MuxFrame.Builder builder = BrokerMux.MuxFrame.newBuilder()
+                .setTopic(inbound.getTopic())
+                .setPayload(inbound.getPayload())
+                .setSessionId(StringUtils.defaultString(context.getSessionId()))
+                .setSrcNodeId(StringUtils.defaultString(context.getSrcNodeId()))
+                .setSrcInstId(StringUtils.defaultString(context.getSrcInstId()))
+                .setDesNodeId(StringUtils.defaultString(context.getDesNodeId()))
+                .setDesInstId(StringUtils.defaultString(context.getDesInstId()))
+                .setQueueType(StringUtils.defaultString(context.getQueueType()))
+                .setMessageFlag(StringUtils.defaultString(context.getMessageFlag()))
+                .setTechProviderCode(StringUtils.defaultString(context.getTechProviderCode()))
+                .setTraceId(StringUtils.defaultString(context.getTraceId()))
+                .setToken(StringUtils.defaultString(context.getToken()));
+        if (context.getSampled() != null) {
+            builder.setSampled(context.getSampled() ? "1" : "0");
+            builder.setParentSpanId(StringUtils.defaultString(context.getSpanId()));
+        }
+        return builder;
+    }
+
+    class PeerStream {
+
+        final RouterInfo routerInfo;
+        final Object lock = new Object();
+        final AtomicInteger inflight = new AtomicInteger();
+        List<BrokerMux.MuxFrame> frames = new ArrayList<>();
+        List<SettableFuture<Osx.TransportOutbound>> futures = new ArrayList<>();
+        long batchBytes;
+        long seq;
+        boolean flushScheduled;
+        StreamHandle current;
+        volatile long unsupportedUntil;
+
+        PeerStream(RouterInfo routerInfo) {
+            this.routerInfo = routerInfo;
+        }
+
+        SettableFuture<Osx.TransportOutbound> send(BrokerMux.MuxFrame.Builder frameBuilder) {
+            if (unsupportedUntil != 0 && System.currentTimeMillis() < unsupportedUntil) {
+                return null;
+            }
+            SettableFuture<Osx.TransportOutbound> future = SettableFuture.create();
+            synchronized (lock) {
+                if (inflight.get() >= MetaInfo.PROPERTY_GRPC_MUX_MAX_INFLIGHT) {
+                    return null;
+                }
+                inflight.incrementAndGet();
+                // 无论应答、出错还是超时，完成后都归还名额
+                future.addListener(inflight::decrementAndGet, MoreExecutors.directExecutor());
+                BrokerMux.MuxFrame frame = frameBuilder.setSeq(++seq).build();
+                // 超时或被取消时 withTimeout 会取消该 future ，不再等待应答
+                future.addListener(() -> {
+                    if (future.isCancelled()) {
+                        removePending(frame.getSeq());
+                    }
+                }, MoreExecutors.directExecutor());
+                frames.add(frame);
+                futures.add(future);
+                batchBytes += frame.getSerializedSize();
+                if (frames.size() >= MetaInfo.PROPERTY_GRPC_MUX_BATCH_MAX_MESSAGES || batchBytes >= MetaInfo.PROPERTY_GRPC_MUX_BATCH_MAX_BYTES) {
+                    flushLocked();
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    FLUSHER.schedule(this::flush, MetaInfo.PROPERTY_GRPC_MUX_LINGER_US, TimeUnit.MICROSECONDS);
+                }
+            }
+            return future;
+        }
+
+        private void removePending(long frameSeq) {
+            synchronized (lock) {
+                if (current != null) {
+                    current.pending.remove(frameSeq);
+                }
+            }
+        }
+
+        void flush() {
+            synchronized (lock) {
+                flushScheduled = false;
+                if (!frames.isEmpty()) {
+                    flushLocked();
+                }
+            }
+        }
+
+        private void flushLocked() {
+            List<BrokerMux.MuxFrame> batchFrames = frames;
+            List<SettableFuture<Osx.TransportOutbound>> batchFutures = futures;
+            frames = new ArrayList<>();
+            futures = new ArrayList<>();
+            batchBytes = 0;
+            StreamHandle handle = current;
+            try {
+                if (handle == null) {
+                    handle = open();
+                    current = handle;
+                }
+                for (int i = 0; i < batchFrames.size(); i++) {
+                    if (!batchFutures.get(i).isDone()) {
+                        handle.pending.put(batchFrames.get(i).getSeq(), batchFutures.get(i));
+                    }
+                }
+                handle.requestObserver.onNext(BrokerMux.MuxBatch.newBuilder().addAllFrames(batchFrames).build());
+            } catch (Exception e) {
+                logger.error("send mux batch to {} error", routerInfo, e);
+                if (handle != null) {
+                    handle.close(e);
+                } else {
+                    COMPLETER.execute(() -> batchFutures.forEach(future -> future.setException(e)));
+                }
+            }
+        }
+
+        private StreamHandle open() throws Exception {
+            ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
+            StreamHandle handle = new StreamHandle(this);
+            // 流的生命周期与当前处理的请求无关，不继承其截止时间和取消，也不附带当前请求的请求头
+            handle.requestObserver = Context.ROOT.call(() -> BrokerMuxServiceGrpc.newStub(managedChannel)
+                    .withOption(CALLOPTION_RAW_HEADERS, true)
+                    .transport(handle));
+            logger.info("open mux stream to {}", routerInfo);
+            return handle;
+        }
+    }
+
+    class StreamHandle implements StreamObserver<BrokerMux.MuxAckBatch> {
+
+        final PeerStream peer;
+        final Map<Long, SettableFuture<Osx.TransportOutbound>> pending = new ConcurrentHashMap<>();
+        StreamObserver<BrokerMux.MuxBatch> requestObserver;
+
+        StreamHandle(PeerStream peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public void onNext(BrokerMux.MuxAckBatch ackBatch) {
+            for (BrokerMux.MuxResult result : ackBatch.getResultsList()) {
+                SettableFuture<Osx.TransportOutbound> future = pending.remove(result.getSeq());
+                if (future != null) {
+                    future.set(Osx.TransportOutbound.newBuilder().setCode(result.getCode()).setMessage(result.getMessage()).build());
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            Status status = Status.fromThrowable(t);
+            if (status.getCode() == Status.Code.UNIMPLEMENTED) {
+                logger.warn("{} does not support mux stream, send messages separately", peer.routerInfo);
+                peer.unsupportedUntil = System.currentTimeMillis() + MetaInfo.PROPERTY_GRPC_MUX_RETRY_INTERVAL;
+            } else {
+                logger.warn("mux stream to {} closed : {}", peer.routerInfo, status);
+            }
+            close(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            close(Status.UNAVAILABLE.withDescription("mux stream completed by peer").asRuntimeException());
+        }
+
+        void close(Throwable t) {
+            synchronized (peer.lock) {
+                if (peer.current == this) {
+                    peer.current = null;
+                    try {
+                        requestObserver.onError(t);
+                    } catch (Exception ignore) {
+                    }
+                }
+            }
+            List<SettableFuture<Osx.TransportOutbound>> failed = new ArrayList<>();
+            for (Long seq : pending.keySet()) {
+                SettableFuture<Osx.TransportOutbound> future = pending.remove(seq);
+                if (future != null) {
+                    failed.add(future);
+                }
+            }
+            if (!failed.isEmpty()) {
+                COMPLETER.execute(() -> failed.forEach(future -> future.setException(t)));
+            }
+        }
+    }
+}
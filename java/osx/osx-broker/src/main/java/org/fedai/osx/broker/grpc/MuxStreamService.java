@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.grpc;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.grpc.stub.StreamObserver;
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.broker.provider.TechProviderRegister;
+import org.fedai.osx.broker.util.ContextUtil;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.constant.StatusCode;
+import org.fedai.osx.core.constant.UriConstants;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.context.Protocol;
+import org.fedai.osx.core.provider.TechProvider;
+import org.fedai.osx.mux.BrokerMux;
+import org.fedai.osx.mux.BrokerMuxServiceGrpc;
+import org.ppc.ptp.Osx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 接收其他broker通过 MuxStreamClient 合批发送的消息，逐条按推送请求处理：目的方是本方时直接写入队列，
+ * 否则继续转发。消息在单独的线程池中处理，处理完成的结果等待 grpc.mux.linger.us 合并后应答，
+ * 不等待同一批中的其他消息
+ */
+@Singleton
+public class MuxStreamService extends BrokerMuxServiceGrpc.BrokerMuxServiceImplBase {
+
+    private static final ScheduledExecutorService ACK_FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "grpc-mux-ack-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    Logger logger = LoggerFactory.getLogger(MuxStreamService.class);
+    @Inject
+    TechProviderRegister techProviderRegister;
+
+    /**
+     * 首次收到合批流时才创建，此时配置已加载。队列不设上限，每个对端未应答的消息数已由发送方的
+     * grpc.mux.max.inflight 限制
+     */
+    private static class Dispatcher {
+        static final ThreadPoolExecutor EXECUTOR;
+
+        static {
+            AtomicInteger index = new AtomicInteger();
+            EXECUTOR = new ThreadPoolExecutor(MetaInfo.PROPERTY_GRPC_MUX_DISPATCH_THREADS, MetaInfo.PROPERTY_GRPC_MUX_DISPATCH_THREADS,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "grpc-mux-dispatch-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    @Override
+    public StreamObserver<BrokerMux.MuxBatch> transport(StreamObserver<BrokerMux.MuxAckBatch> responseObserver) {
+        return new InboundStream(responseObserver);
+    }
+
+    /**
+     * 以下状态都由 responseObserver 加锁保护，对 responseObserver 的调用也在锁内进行
+     */
+    class InboundStream implements StreamObserver<BrokerMux.MuxBatch> {
+
+        final StreamObserver<BrokerMux.MuxAckBatch> responseObserver;
+        List<BrokerMux.MuxResult> pending = new ArrayList<>();
+        int inflight;
+        boolean halfClosed;
+        boolean closed;
+
+        InboundStream(StreamObserver<BrokerMux.MuxAckBatch> responseObserver) {
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public void onNext(BrokerMux.MuxBatch batch) {
+            synchronized (responseObserver) {
+                inflight += batch.getFramesCount();
+            }
+            for (BrokerMux.MuxFrame frame : batch.getFramesList()) {
+                Dispatcher.EXECUTOR.execute(() -> dispatch(frame, new StreamObserver<Osx.TransportOutbound>() {
+                    @Override
+                    public void onNext(Osx.TransportOutbound outbound) {
+                        complete(frame.getSeq(), outbound.getCode(), outbound.getMessage());
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        complete(frame.getSeq(), StatusCode.NET_ERROR, t.getMessage());
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                }));
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.warn("mux stream closed by peer : {}", t.getMessage());
+            synchronized (responseObserver) {
+                closed = true;
+                pending.clear();
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            synchronized (responseObserver) {
+                halfClosed = true;
+                if (inflight == 0) {
+                    finish();
+                }
+            }
+        }
+
+        private void complete(long seq, String code, String message) {
+            BrokerMux.MuxResult result = BrokerMux.MuxResult.newBuilder().setSeq(seq)
+                    .setCode(StringUtils.defaultString(code)).setMessage(StringUtils.defaultString(message)).build();
+            synchronized (responseObserver) {
+                inflight--;
+                if (closed) {
+                    return;
+                }
+                pending.add(result);
+                if (halfClosed && inflight == 0) {
+                    finish();
+                } else if (pending.size() >= MetaInfo.PROPERTY_GRPC_MUX_BATCH_MAX_MESSAGES) {
+                    flush();
+                } else if (pending.size() == 1) {
+                    ACK_FLUSHER.schedule(() -> {
+                        synchronized (responseObserver) {
+                            flush();
+                        }
+                    }, MetaInfo.PROPERTY_GRPC_MUX_LINGER_US, TimeUnit.MICROSECONDS);
+                }
+            }
+        }
+
+        private void flush() {
+            if (closed || pending.isEmpty()) {
+                return;
+            }
+            BrokerMux.MuxAckBatch ackBatch = BrokerMux.MuxAckBatch.newBuilder().addAllResults(pending).build();
+            pending = new ArrayList<>();
+            try {
+                responseObserver.onNext(ackBatch);
+            } catch (Exception e) {
+                logger.warn("reply mux ack error : {}", e.getMessage());
+                closed = true;
+            }
+        }
+
+        private void finish() {
+            flush();
+            if (!closed) {
+                closed = true;
+                try {
+                    responseObserver.onCompleted();
+                } catch (Exception e) {
+                    logger.warn("complete mux stream error : {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void dispatch(BrokerMux.MuxFrame frame, StreamObserver<Osx.TransportOutbound> resultObserver) {
+        OsxContext context = buildContext(frame);
+        try {
+            TechProvider techProvider = techProviderRegister.getTechProvider(context);
+            Osx.PushInbound inbound = Osx.PushInbound.newBuilder().setTopic(frame.getTopic()).setPayload(frame.getPayload()).build();
+            techProvider.processGrpcPush(context, inbound, resultObserver);
+        } catch (Exception e) {
+            logger.error("dispatch mux frame of topic {} error", frame.getTopic(), e);
+            resultObserver.onError(e);
+        }
+    }
+
+    /**
+     * 与 ContextUtil.assableContextFromInbound 相同，只是信息取自消息而不是请求头
+     */
+    private OsxContext buildContext(BrokerMux.MuxFrame frame) {
+        OsxContext context = new OsxContext();
+        context.setProtocol(Protocol.grpc);
+        context.setUri(UriConstants.PUSH);
+        context.setTraceId(frame.getTraceId());
+        context.setToken(frame.getToken());
+        context.setSrcNodeId(StringUtils.defaultIfEmpty(frame.getSrcNodeId(), frame.getSrcInstId()));
+        context.setSrcInstId(frame.getSrcInstId());
+        context.setDesNodeId(StringUtils.defaultIfEmpty(frame.getDesNodeId(), frame.getDesInstId()));
+        context.setDesInstId(frame.getDesInstId());
+        context.setSessionId(frame.getSessionId());
+        context.setTopic(frame.getTopic());
+        context.setQueueType(StringUtils.defaultIfEmpty(frame.getQueueType(), null));
+        context.setMessageFlag(StringUtils.defaultIfEmpty(frame.getMessageFlag(), null));
+        context.setTechProviderCode(frame.getTechProviderCode());
+        ContextUtil.assableTraceContext(context, frame.getSampled(), frame.getParentSpanId());
+        if (MetaInfo.PROPERTY_SELF_PARTY.contains(context.getDesNodeId())) {
+            context.setSelfPartyId(context.getDesNodeId());
+        } else {
+            context.setSelfPartyId(MetaInfo.PROPERTY_SELF_PARTY.toArray()[0].toString());
+        }
+        return context;
+    }
+}
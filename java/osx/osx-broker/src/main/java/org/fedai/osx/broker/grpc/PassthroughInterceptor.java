@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.grpc;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.grpc.*;
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.broker.flow.AdmissionController;
+import org.fedai.osx.broker.router.RouterServiceRegister;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.constant.ActionType;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.context.Protocol;
+import org.fedai.osx.core.exceptions.ErrorMessageUtil;
+import org.fedai.osx.core.exceptions.ExceptionInfo;
+import org.fedai.osx.core.exceptions.FlowControlException;
+import org.fedai.osx.core.frame.GrpcConnectionFactory;
+import org.fedai.osx.core.router.RouterInfo;
+import org.fedai.osx.core.utils.FlowLogUtil;
+import org.fedai.osx.core.utils.UrlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.fedai.osx.core.frame.ContextPrepareInterceptor.*;
+
+/**
+ * 透传模式：目的方不是本方时，只根据请求头路由，消息体不解析、不重新序列化，直接转发给下一跳，
+ * 响应原样返回。本方的请求、没有路由或下一跳为http的请求仍交给原有的服务处理
+ */
+@Singleton
+public class PassthroughInterceptor implements ServerInterceptor {
+
+    private static final String PTP_HEADER_PREFIX = "x-ptp-";
+    Logger logger = LoggerFactory.getLogger(PassthroughInterceptor.class);
+    @Inject
+    RouterServiceRegister routerServiceRegister;
+    @Inject
+    AdmissionController admissionController;
+
+    /**
+     * 将服务定义转为按原始字节收发，再由本拦截器决定转发还是交给原有的服务
+     */
+    public ServerServiceDefinition wrap(ServerServiceDefinition definition) {
+        return ServerInterceptors.intercept(ServerInterceptors.useMarshalledMessages(definition,
+                RawMessage.REQUEST_MARSHALLER, RawMessage.RESPONSE_MARSHALLER), this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        String desNodeId = StringUtils.defaultIfEmpty(headers.get(METAKEY_TARGET_NODE_ID), headers.get(METAKEY_TARGET_INST_ID));
+        if (StringUtils.isEmpty(desNodeId) || MetaInfo.PROPERTY_SELF_PARTY.contains(desNodeId)) {
+            return releasing(next.startCall(call, headers));
+        }
+        String srcNodeId = StringUtils.defaultIfEmpty(headers.get(METAKEY_FROM_NODE_ID), headers.get(METAKEY_FROM_INST_ID));
+        RouterInfo routerInfo = routerServiceRegister.select(MetaInfo.PROPERTY_FATE_TECH_PROVIDER).route(srcNodeId, "", desNodeId, "");
+        if (routerInfo == null || Protocol.http.equals(routerInfo.getProtocol())) {
+            return releasing(next.startCall(call, headers));
+        }
+        OsxContext context = buildContext(headers, srcNodeId, desNodeId, routerInfo);
+        try {
+            admissionController.admit(context, context.getTopic());
+            PassthroughCall passthroughCall = new PassthroughCall((ServerCall<RawMessage, InputStream>) call, context, routerInfo);
+            return (ServerCall.Listener<ReqT>) passthroughCall.start(headers);
+        } catch (Exception e) {
+            ExceptionInfo exceptionInfo = ErrorMessageUtil.handleExceptionExceptionInfo(context, e);
+            context.setReturnCode(exceptionInfo.getCode());
+            context.setReturnMsg(exceptionInfo.getMessage());
+            FlowLogUtil.printFlowLog(context);
+            // 限流拒绝时返回 RESOURCE_EXHAUSTED ，调用方可以据此退避后重试
+            Status status = e instanceof FlowControlException ? Status.RESOURCE_EXHAUSTED : Status.INTERNAL;
+            call.close(status.withCause(e).withDescription(exceptionInfo.getMessage()), new Metadata());
+            return releasing(new ServerCall.Listener<ReqT>() {
+            });
+        }
+    }
+
+    private OsxContext buildContext(Metadata headers, String srcNodeId, String desNodeId, RouterInfo routerInfo) {
+        OsxContext context = new OsxContext();
+        context.setProtocol(Protocol.grpc);
+        context.setActionType(ActionType.MSG_PASSTHROUGH.name());
+        context.setTraceId(headers.get(METAKEY_TRACE_ID));
+        context.setSrcNodeId(srcNodeId);
+        context.setDesNodeId(desNodeId);
+        context.setSessionId(headers.get(METAKEY_SESSION_ID));
+        context.setTopic(headers.get(METAKEY_TOPIC_KEY));
+        context.setTechProviderCode(headers.get(METAKEY_TECH_PROVIDER_CODE));
+        String uri = headers.get(METAKEY_URI);
+        if (StringUtils.isNotEmpty(uri)) {
+            context.setUri(UrlUtil.parseUri(uri));
+        }
+        context.setRouterInfo(routerInfo);
+        return context;
+    }
+
+    /**
+     * 只转发 x-ptp- 开头的请求头，其余由grpc在各自的连接上重新生成
+     */
+    static Metadata copyPtpHeaders(Metadata source) {
+        Metadata target = new Metadata();
+        if (source == null) {
+            return target;
+        }
+        for (String name : source.keys()) {
+            if (name.startsWith(PTP_HEADER_PREFIX) && !name.endsWith(Metadata.BINARY_HEADER_SUFFIX)) {
+                Metadata.Key<String> key = Metadata.Key.of(name, Metadata.ASCII_STRING_MARSHALLER);
+                Iterable<String> values = source.getAll(key);
+                if (values != null) {
+                    for (String value : values) {
+                        target.put(key, value);
+                    }
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 交给原有服务处理时，消息在解析为protobuf后即可归还缓冲区
+     */
+    private static <ReqT> ServerCall.Listener<ReqT> releasing(ServerCall.Listener<ReqT> delegate) {
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(delegate) {
+            @Override
+            public void onMessage(ReqT message) {
+                try {
+                    super.onMessage(message);
+                } finally {
+                    ((RawMessage) message).release();
+                }
+            }
+        };
+    }
+
+    /**
+     * 一次转发调用。两个方向都只在对端可写时才继续读取，避免在本节点堆积消息；
+     * 转发使用不重试的连接，消息由 grpc 写出后即归还缓冲区，调用结束时归还仍未写出的消息
+     */
+    class PassthroughCall extends ClientCall.Listener<InputStream> {
+
+        final ServerCall<RawMessage, InputStream> serverCall;
+        final ClientCall<RawMessage, InputStream> clientCall;
+        final OsxContext context;
+        final Object lock = new Object();
+        /**
+         * 已交给 grpc 但可能尚未写出的消息，按发送顺序排列
+         */
+        final Deque<RawMessage> unwritten = new ArrayDeque<>();
+        boolean serverRequestPending;
+        boolean clientRequestPending;
+        long dataSize;
+
+        PassthroughCall(ServerCall<RawMessage, InputStream> serverCall, OsxContext context, RouterInfo routerInfo) {
+            this.serverCall = serverCall;
+            this.context = context;
+            // 在服务端调用的grpc上下文中创建，超时时间和取消会传递给下一跳
+            MethodDescriptor<RawMessage, InputStream> method = serverCall.getMethodDescriptor()
+                    .toBuilder(RawMessage.PASSTHROUGH_MARSHALLER, RawMessage.RESPONSE_MARSHALLER).build();
+            this.clientCall = GrpcConnectionFactory.createManagedChannel(routerInfo, false)
+                    .newCall(method, CallOptions.DEFAULT.withOption(CALLOPTION_RAW_HEADERS, true));
+        }
+
+        ServerCall.Listener<RawMessage> start(Metadata headers) {
+            clientCall.start(this, copyPtpHeaders(headers));
+            clientCall.request(1);
+            serverCall.request(1);
+            return new ServerCall.Listener<RawMessage>() {
+                @Override
+                public void onMessage(RawMessage message) {
+                    synchronized (lock) {
+                        dataSize += message.getLength();
+                        clientCall.sendMessage(message);
+                        unwritten.add(message);
+                        // grpc 按发送顺序写出，写出后的消息已归还缓冲区
+                        while (!unwritten.isEmpty() && unwritten.peekFirst().isReleased()) {
+                            unwritten.pollFirst();
+                        }
+                        if (clientCall.isReady()) {
+                            serverCall.request(1);
+                        } else {
+                            serverRequestPending = true;
+                        }
+                    }
+                }
+
+                @Override
+                public void onHalfClose() {
+                    clientCall.halfClose();
+                }
+
+                @Override
+                public void onCancel() {
+                    clientCall.cancel("caller cancelled", null);
+                }
+
+                @Override
+                public void onReady() {
+                    synchronized (lock) {
+                        if (clientRequestPending) {
+                            clientRequestPending = false;
+                            clientCall.request(1);
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void onHeaders(Metadata headers) {
+            serverCall.sendHeaders(copyPtpHeaders(headers));
+        }
+
+        @Override
+        public void onMessage(InputStream message) {
+            serverCall.sendMessage(message);
+            synchronized (lock) {
+                if (serverCall.isReady()) {
+                    clientCall.request(1);
+                } else {
+                    clientRequestPending = true;
+                }
+            }
+        }
+
+        @Override
+        public void onReady() {
+            synchronized (lock) {
+                if (serverRequestPending) {
+                    serverRequestPending = false;
+                    serverCall.request(1);
+                }
+            }
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            synchronized (lock) {
+                releaseUnwritten();
+                context.setDataSize(dataSize);
+            }
+            context.setReturnCode(status.getCode().name());
+            if (!status.isOk()) {
+                context.setReturnMsg(status.getDescription());
+                logger.error("passthrough to {} failed, {} {}", context.getRouterInfo(), status.getCode(), status.getDescription());
+            }
+            FlowLogUtil.printFlowLog(context);
+            serverCall.close(status, copyPtpHeaders(trailers));
+        }
+
+        private void releaseUnwritten() {
+            for (RawMessage message : unwritten) {
+                message.release();
+            }
+            unwritten.clear();
+        }
+    }
+}
@@ -19,10 +19,13 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import io.grpc.stub.StreamObserver;
 import lombok.extern.slf4j.Slf4j;
+import org.fedai.osx.broker.flow.AdmissionController;
 import org.fedai.osx.broker.provider.TechProviderRegister;
 import org.fedai.osx.broker.util.ContextUtil;
 import org.fedai.osx.broker.util.DebugUtil;
 import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.exceptions.ErrorMessageUtil;
+import org.fedai.osx.core.exceptions.FlowControlException;
 import org.fedai.osx.core.exceptions.SysException;
 import org.fedai.osx.core.provider.TechProvider;
 import org.ppc.ptp.Osx;
@@ -38,6 +41,8 @@ public class PcpInterService extends PrivateTransferProtocolGrpc.PrivateTransfer
 
     @Inject
     TechProviderRegister techProviderRegister;
+    @Inject
+    AdmissionController admissionController;
 
     /**
      * 流式接口
@@ -120,6 +125,11 @@ public class PcpInterService extends PrivateTransferProtocolGrpc.PrivateTransfer
                 init(inbound);
             }
             if (requestObserver != null) {
+                try {
+                    admissionController.admit(osxContext, osxContext.getTopic(), inbound.getSerializedSize());
+                } catch (FlowControlException e) {
+                    throw ErrorMessageUtil.toGrpcRuntimeException(e);
+                }
                 requestObserver.onNext(inbound);
             } else {
                 throw new SysException("requestObserver is null");
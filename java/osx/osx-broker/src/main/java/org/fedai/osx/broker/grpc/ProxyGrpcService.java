@@ -17,7 +17,6 @@ package org.fedai.osx.broker.grpc;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.webank.ai.eggroll.api.networking.proxy.DataTransferServiceGrpc;
-import com.webank.ai.eggroll.api.networking.proxy.Proxy;
 import io.grpc.stub.StreamObserver;
 import org.fedai.osx.broker.service.PushService;
 import org.fedai.osx.broker.service.UnaryCallService;
@@ -25,7 +24,6 @@ import org.fedai.osx.broker.util.ContextUtil;
 import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.context.Protocol;
 import org.fedai.osx.core.service.InboundPackage;
-import org.fedai.osx.core.utils.FlowLogUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,18 +52,8 @@ public class ProxyGrpcService extends DataTransferServiceGrpc.DataTransferServic
     public void unaryCall(com.webank.ai.eggroll.api.networking.proxy.Proxy.Packet request,
                           io.grpc.stub.StreamObserver<com.webank.ai.eggroll.api.networking.proxy.Proxy.Packet> responseObserver) {
         OsxContext context = ContextUtil.buildFateContext(Protocol.grpc);
-        try {
-            InboundPackage<Proxy.Packet> data = new InboundPackage<>();
-            data.setBody(request);
-            context.setDataSize(request.getSerializedSize());
-            Proxy.Packet result = unaryCallService.service(context, request);
-            responseObserver.onNext(result);
-            responseObserver.onCompleted();
-        } catch (Exception e) {
-            responseObserver.onError(e);
-        } finally {
-            FlowLogUtil.printFlowLog(context);
-        }
+        context.setDataSize(request.getSerializedSize());
+        unaryCallService.unaryCallAsync(context, request, responseObserver);
     }
     public io.grpc.stub.StreamObserver<com.webank.ai.eggroll.api.networking.proxy.Proxy.PollingFrame> polling(
             io.grpc.stub.StreamObserver<com.webank.ai.eggroll.api.networking.proxy.Proxy.PollingFrame> responseObserver) {
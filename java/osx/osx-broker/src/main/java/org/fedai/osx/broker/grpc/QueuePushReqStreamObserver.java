@@ -29,8 +29,13 @@ import io.grpc.ManagedChannel;
 import io.grpc.stub.StreamObserver;
 import org.apache.commons.lang3.StringUtils;
 import org.fedai.osx.broker.eggroll.*;
+import org.fedai.osx.broker.flow.AdmissionController;
+import org.fedai.osx.broker.flow.BandwidthShaper;
+import org.fedai.osx.broker.flow.StreamPacer;
+import org.fedai.osx.broker.flow.TrafficPriority;
 import org.fedai.osx.broker.queue.TransferQueueManager;
 import org.fedai.osx.broker.router.RouterService;
+import org.fedai.osx.broker.util.ContextUtil;
 import org.fedai.osx.broker.util.TransferUtil;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.ActionType;
@@ -40,8 +45,11 @@ import org.fedai.osx.core.constant.UriConstants;
 import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.context.Protocol;
 import org.fedai.osx.core.exceptions.*;
+import org.fedai.osx.core.frame.ContextPrepareInterceptor;
 import org.fedai.osx.core.frame.GrpcConnectionFactory;
 import org.fedai.osx.core.router.RouterInfo;
+import org.fedai.osx.core.trace.Span;
+import org.fedai.osx.core.trace.Tracer;
 import org.fedai.osx.core.utils.FlowLogUtil;
 import org.fedai.osx.core.utils.ToStringUtils;
 import org.slf4j.Logger;
@@ -72,6 +80,14 @@ public class QueuePushReqStreamObserver implements StreamObserver<Proxy.Packet>
     private RouterService routerService;
     private TransferQueueManager transferQueueManager;
     private ManagedChannel channel;
+    /**
+     * 按目标party带宽控制向上游请求数据的节奏，入口不是grpc服务端流时为null
+     */
+    private StreamPacer streamPacer;
+    /**
+     * 流中的每个包都按字节数做准入检查
+     */
+    private AdmissionController admissionController;
 
     public QueuePushReqStreamObserver(OsxContext context, RouterService routerService, TransferQueueManager transferQueueManager,
                                       StreamObserver backRespSO
@@ -80,7 +96,9 @@ public class QueuePushReqStreamObserver implements StreamObserver<Proxy.Packet>
         this.routerService = routerService;
         this.backRespSO = backRespSO;
         this.context.setServiceName("pushTransfer");
+        ContextUtil.assableTraceContext(context, ContextPrepareInterceptor.CONTEXTKEY_SAMPLED.get(), ContextPrepareInterceptor.CONTEXTKEY_PARENT_SPAN_ID.get());
         this.transferQueueManager = transferQueueManager;
+        this.streamPacer = StreamPacer.create(backRespSO);
     }
 
     public StreamObserver<Proxy.Packet> getForwardPushReqSO() {
@@ -91,6 +109,10 @@ public class QueuePushReqStreamObserver implements StreamObserver<Proxy.Packet>
         this.forwardPushReqSO = forwardPushReqSO;
     }
 
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
     public void init(Proxy.Packet packet) throws Exception {
         TransferUtil.assableContextFromProxyPacket(context, packet);
         Proxy.Metadata metadata = packet.getHeader();
@@ -117,10 +139,15 @@ public class QueuePushReqStreamObserver implements StreamObserver<Proxy.Packet>
             }
         }
         if (isDst) {
-            if (MetaInfo.PROPERTY_OPEN_MOCK_EGGPAIR) {
-                mockEggroll(context, packet);
-            } else {
-                initEggroll(context, packet);
+            Span span = context.startSpan("egg.init");
+            try {
+                if (MetaInfo.PROPERTY_OPEN_MOCK_EGGPAIR) {
+                    mockEggroll(context, packet);
+                } else {
+                    initEggroll(context, packet);
+                }
+            } finally {
+                span.end();
             }
         } else {
             context.setActionType(ActionType.PUSH_REMOTE.name());
@@ -138,6 +165,10 @@ public class QueuePushReqStreamObserver implements StreamObserver<Proxy.Packet>
                 }, (t) -> {
                     finishLatch.countDown();
                 });
+                if (streamPacer != null) {
+                    streamPacer.setTokenBucket(BandwidthShaper.getTokenBucket(routerInfo.getDesPartyId(), TrafficPriority.BULK));
+                    forwardPushRespSO.setStreamPacer(streamPacer);
+                }
                 forwardPushReqSO = stub.push(forwardPushRespSO);
             }
         }
@@ -254,6 +285,10 @@ public class QueuePushReqStreamObserver implements StreamObserver<Proxy.Packet>
                 init(value);
             }
             if (transferStatus.equals(TransferStatus.TRANSFERING)) {
+                if (admissionController != null) {
+                    admissionController.admit(context, context.getTopic(), value.getSerializedSize());
+                }
+                Span span = context.startSpan(isDst ? "egg.put-batch" : "stream.forward");
                 if (isDst) {
                     context.setActionType(ActionType.PUSH_EGGPAIR.name());
                     Transfer.TransferHeader.Builder transferHeaderBuilder = Transfer.TransferHeader.newBuilder();
@@ -268,6 +303,10 @@ public class QueuePushReqStreamObserver implements StreamObserver<Proxy.Packet>
                 } else {
                     forwardPushReqSO.onNext(value);
                 }
+                span.setAttribute("bytes", value.getSerializedSize()).end();
+                if (streamPacer != null) {
+                    streamPacer.onForwarded(value.getSerializedSize());
+                }
             }
         } catch (Exception e) {
             logger.error("push error1", e);
@@ -278,6 +317,7 @@ public class QueuePushReqStreamObserver implements StreamObserver<Proxy.Packet>
 
         } finally {
             FlowLogUtil.printFlowLog(context);
+            Tracer.finish(context);
         }
     }
 
@@ -7,6 +7,7 @@ import com.google.protobuf.Parser;
 import com.webank.ai.eggroll.api.networking.proxy.Proxy;
 import io.grpc.stub.StreamObserver;
 import org.fedai.osx.broker.constants.MessageFlag;
+import org.fedai.osx.broker.flow.StreamPacer;
 import org.fedai.osx.broker.queue.CreateQueueResult;
 import org.fedai.osx.broker.queue.DataParser;
 import org.fedai.osx.broker.queue.DirectQueue;
@@ -84,6 +85,10 @@ public class QueueStreamBuilder {
                 return null;
             }
         });
+        StreamPacer streamPacer = StreamPacer.create(respStreamObserver, desPartyId);
+        if (streamPacer != null) {
+            context.putData(Dict.BANDWIDTH_PACED, Boolean.TRUE);
+        }
         StreamObserver forwardPushReqSO = new StreamObserver<AbstractMessage>() {
 
             @Override
@@ -97,8 +102,12 @@ public class QueueStreamBuilder {
                     pushInboundBuilder.setPayload(message.toByteString());
                     pushInboundBuilder.setTopic(sendTopic);
                     inboundBuilder.setPayload(pushInboundBuilder.build().toByteString());
-                    Osx.Outbound outbound = (Osx.Outbound) TransferUtil.redirect(context, inboundBuilder.build(), routerInfo, true);
+                    Osx.Inbound inbound = inboundBuilder.build();
+                    Osx.Outbound outbound = (Osx.Outbound) TransferUtil.redirect(context, inbound, routerInfo, true);
                     TransferUtil.checkResponse(outbound);
+                    if (streamPacer != null) {
+                        streamPacer.onForwarded(inbound.getSerializedSize());
+                    }
                 } catch (Exception e) {
                     throw ErrorMessageUtil.toGrpcRuntimeException(e);
                 } finally {
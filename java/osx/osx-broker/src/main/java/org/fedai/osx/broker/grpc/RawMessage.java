@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.grpc;
+
+import io.grpc.Detachable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import org.fedai.osx.core.exceptions.SysException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 未解析的请求消息体。netty 传输下直接摘取 grpc 收到的引用计数缓冲区，不做拷贝，
+ * 可以多次读取，用完后需要 release 归还缓冲区
+ */
+public class RawMessage {
+
+    /**
+     * 请求方向的 marshaller ，解析时只摘取缓冲区
+     */
+    public static final MethodDescriptor.Marshaller<RawMessage> REQUEST_MARSHALLER = new MethodDescriptor.Marshaller<RawMessage>() {
+        @Override
+        public InputStream stream(RawMessage value) {
+            return value.openStream();
+        }
+
+        @Override
+        public RawMessage parse(InputStream stream) {
+            return RawMessage.from(stream);
+        }
+    };
+
+    /**
+     * 透传给下一跳时使用的 marshaller ，grpc 写出消息后关闭流时即归还缓冲区，
+     * 只能用于不重试的调用，重试时消息会被再次读取
+     */
+    public static final MethodDescriptor.Marshaller<RawMessage> PASSTHROUGH_MARSHALLER = new MethodDescriptor.Marshaller<RawMessage>() {
+        @Override
+        public InputStream stream(RawMessage value) {
+            return value.openStream(true);
+        }
+
+        @Override
+        public RawMessage parse(InputStream stream) {
+            return RawMessage.from(stream);
+        }
+    };
+
+    /**
+     * 响应方向的 marshaller ，原样传递输入流，写出后由 grpc 关闭
+     */
+    public static final MethodDescriptor.Marshaller<InputStream> RESPONSE_MARSHALLER = new MethodDescriptor.Marshaller<InputStream>() {
+        @Override
+        public InputStream stream(InputStream value) {
+            return value;
+        }
+
+        @Override
+        public InputStream parse(InputStream stream) {
+            return stream;
+        }
+    };
+
+    private final InputStream buffer;
+    private final int length;
+    private volatile boolean released;
+
+    private RawMessage(InputStream buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+        buffer.mark(length);
+    }
+
+    static RawMessage from(InputStream stream) {
+        try {
+            if (stream instanceof Detachable) {
+                InputStream detached = ((Detachable) stream).detach();
+                if (detached.markSupported()) {
+                    return new RawMessage(detached, detached.available());
+                }
+                stream = detached;
+            }
+            // 进程内传输或解压后的消息无法摘取缓冲区，拷贝一次
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(stream.available(), 32));
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = stream.read(chunk)) != -1) {
+                out.write(chunk, 0, n);
+            }
+            stream.close();
+            byte[] bytes = out.toByteArray();
+            return new RawMessage(new ByteArrayInputStream(bytes), bytes.length);
+        } catch (IOException e) {
+            throw new SysException("read grpc message error : " + e.getMessage());
+        }
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * 每次都从头读取，关闭返回的流不会释放缓冲区
+     */
+    InputStream openStream() {
+        return openStream(false);
+    }
+
+    private InputStream openStream(boolean releaseOnClose) {
+        if (released) {
+            throw new SysException("grpc message is released");
+        }
+        try {
+            buffer.reset();
+        } catch (IOException e) {
+            throw new SysException("reset grpc message error : " + e.getMessage());
+        }
+        return new View(releaseOnClose);
+    }
+
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        try {
+            buffer.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private class View extends InputStream implements KnownLength {
+
+        private final boolean releaseOnClose;
+
+        View(boolean releaseOnClose) {
+            this.releaseOnClose = releaseOnClose;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buffer.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return buffer.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.available();
+        }
+
+        @Override
+        public void close() {
+            if (releaseOnClose) {
+                release();
+            }
+        }
+    }
+}
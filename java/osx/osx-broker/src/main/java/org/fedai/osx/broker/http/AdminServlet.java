@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.http;
+
+import com.google.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.exceptions.ErrorMessageUtil;
+import org.fedai.osx.core.exceptions.ExceptionInfo;
+import org.fedai.osx.core.exceptions.ParameterException;
+import org.fedai.osx.core.jvm.JVMThreadUtils;
+import org.fedai.osx.core.jvm.JfrRecorder;
+import org.fedai.osx.core.metric.HotPathCounters;
+import org.fedai.osx.core.utils.JsonUtil;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 诊断接口，挂在单独监听 admin.port 的http服务的 admin.servlet.path 下：
+ * GET counters 热点路径计数；GET threads?interval=1000&top=20 线程CPU与内存分配速率；
+ * GET jfr 当前录制；POST jfr/start?name=&settings=default|profile&duration=秒 （不超过 admin.jfr.max.duration ）；POST jfr/stop?name=
+ */
+@Singleton
+@Slf4j
+public class AdminServlet extends HttpServlet {
+
+    private static final long MAX_SAMPLE_INTERVAL = 10000;
+    /**
+     * 线程采样异步等待采样间隔，不占用请求线程
+     */
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "admin-thread-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        dispatch(req, resp, false);
+    }
+
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        dispatch(req, resp, true);
+    }
+
+    private void dispatch(HttpServletRequest req, HttpServletResponse resp, boolean post) throws IOException {
+        String path = StringUtils.defaultString(req.getPathInfo());
+        Object result;
+        try {
+            switch (path) {
+                case "/counters":
+                    result = HotPathCounters.snapshot();
+                    break;
+                case "/threads":
+                    sampleThreads(req, Math.min(getLong(req, "interval", 1000), MAX_SAMPLE_INTERVAL), (int) getLong(req, "top", 20));
+                    return;
+                case "/jfr":
+                    result = singleton("recordings", JfrRecorder.check());
+                    break;
+                case "/jfr/start":
+                    checkPost(post, path);
+                    long duration = getLong(req, "duration", 0);
+                    if (duration <= 0 || duration > MetaInfo.PROPERTY_ADMIN_JFR_MAX_DURATION) {
+                        duration = MetaInfo.PROPERTY_ADMIN_JFR_MAX_DURATION;
+                    }
+                    result = singleton("filename", JfrRecorder.start(req.getParameter("name"),
+                            StringUtils.defaultIfEmpty(req.getParameter("settings"), "default"), duration));
+                    break;
+                case "/jfr/stop":
+                    checkPost(post, path);
+                    result = singleton("result", JfrRecorder.stop(req.getParameter("name")));
+                    break;
+                default:
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND, "invalid request " + path);
+                    return;
+            }
+        } catch (Exception e) {
+            ExceptionInfo exceptionInfo = ErrorMessageUtil.handleExceptionExceptionInfo(new OsxContext(), e);
+            write(resp, HttpServletResponse.SC_BAD_REQUEST, exceptionInfo);
+            return;
+        }
+        write(resp, HttpServletResponse.SC_OK, result);
+    }
+
+    private static void sampleThreads(HttpServletRequest req, long interval, int top) {
+        JVMThreadUtils.ThreadUsageSample sample = JVMThreadUtils.beginThreadUsageSample();
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(interval + MAX_SAMPLE_INTERVAL);
+        SAMPLER.schedule(() -> {
+            try {
+                write((HttpServletResponse) asyncContext.getResponse(), HttpServletResponse.SC_OK, sample.finish(top));
+            } catch (Exception e) {
+                log.error("write thread usage error", e);
+            } finally {
+                asyncContext.complete();
+            }
+        }, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static void checkPost(boolean post, String path) {
+        if (!post) {
+            throw new ParameterException(path + " only supports POST");
+        }
+    }
+
+    private static long getLong(HttpServletRequest req, String name, long defaultValue) {
+        String value = req.getParameter(name);
+        if (StringUtils.isEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            long result = Long.parseLong(value);
+            if (result < 0) {
+                throw new ParameterException(name + " must not be negative");
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new ParameterException("invalid " + name + " " + value);
+        }
+    }
+
+    private static Map<String, Object> singleton(String key, Object value) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put(key, value);
+        return result;
+    }
+
+    private static void write(HttpServletResponse resp, int status, Object result) throws IOException {
+        byte[] content = JsonUtil.object2Json(result).getBytes(StandardCharsets.UTF_8);
+        resp.setStatus(status);
+        resp.setContentType("application/json;charset=utf-8");
+        resp.setContentLength(content.length);
+        try (OutputStream outputStream = resp.getOutputStream()) {
+            outputStream.write(content);
+        }
+    }
+}
@@ -41,6 +41,8 @@ import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.util.EntityUtils;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.Dict;
+import org.fedai.osx.core.frame.RouteCompression;
+import org.fedai.osx.core.router.RouterInfo;
 import org.fedai.osx.core.service.ApplicationStartedRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -106,14 +108,37 @@ public class HttpClientPool implements ApplicationStartedRunner {
     }
 
     public static HttpDataWrapper sendPost(String url, byte[] body, Map<String, String> headers) {
+        return sendPost(url, body, headers, null);
+    }
+
+    public static HttpDataWrapper sendPost(String url, byte[] body, Map<String, String> headers, RouterInfo routerInfo) {
 
         HttpPost httpPost = new HttpPost(url);
         config(httpPost, headers);
         if (body != null) {
-            ByteArrayEntity byteArrayEntity = new ByteArrayEntity(body);
-            httpPost.setEntity(byteArrayEntity);
+            httpPost.setEntity(buildEntity(body, routerInfo));
+        }
+        HttpDataWrapper httpDataWrapper = getHttpResponse(httpPost);
+        if (httpDataWrapper != null) {
+            RouteCompression.onHttpResponse(routerInfo, httpDataWrapper.getHeaders());
+        }
+        return httpDataWrapper;
+    }
+
+    /**
+     * 路由开启压缩、对端声明接受 gzip 且消息体足够大时发送 gzip 压缩后的消息体，压缩后没有变小时仍发送原始内容
+     */
+    static HttpEntity buildEntity(byte[] body, RouterInfo routerInfo) {
+        RouteCompression compression = RouteCompression.of(routerInfo);
+        if (compression != null && compression.shouldCompressHttp(body.length)) {
+            byte[] compressed = compression.compress(body);
+            if (compressed != null) {
+                ByteArrayEntity entity = new ByteArrayEntity(compressed);
+                entity.setContentEncoding(RouteCompression.GZIP);
+                return entity;
+            }
         }
-        return getHttpResponse(httpPost);
+        return new ByteArrayEntity(body);
     }
 
     private static HttpDataWrapper getHttpResponse(HttpRequestBase request) {
@@ -16,17 +16,18 @@ import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.Dict;
 import org.fedai.osx.core.constant.PtpHttpHeader;
+import org.fedai.osx.core.frame.RouteCompression;
+import org.fedai.osx.core.frame.SslContextCache;
 import org.fedai.osx.core.router.RouterInfo;
 import org.fedai.osx.core.utils.OSXCertUtils;
 import org.fedai.osx.core.utils.OsxX509TrustManager;
@@ -40,32 +41,84 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import java.io.IOException;
 import java.security.*;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class HttpsClientPool {
     private static final Logger logger = LoggerFactory.getLogger(HttpsClientPool.class);
-    private static final Map<String, CloseableHttpClient> httpsClientPool = new HashMap<>();
+    private static final String SSL_SCOPE = "https";
+    private static final Map<String, PooledClient> httpsClientPool = new ConcurrentHashMap<>();
+    /**
+     * 证书更新后替换下来的客户端，每隔 RETIRE_CHECK_INTERVAL 毫秒关闭其空闲连接，没有进行中的请求后再关闭
+     */
+    private static final long RETIRE_CHECK_INTERVAL = 1000;
+    private static final ScheduledExecutorService CLOSER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "https-client-closer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public static CloseableHttpClient getConnection(String caPath, String clientCertPath, String clientKeyPath) throws Exception {
         String certKey = buildCertKey(caPath, clientCertPath, clientKeyPath);
-        CloseableHttpClient httpClient = httpsClientPool.get(certKey);
-        if (httpClient == null) {
-            httpClient = createConnection(caPath, clientCertPath, clientKeyPath);
-            httpsClientPool.put(certKey, httpClient);
-        }
-        return httpClient;
+        SSLContext sslContext = SslContextCache.get(SSL_SCOPE, () -> OSXCertUtils.getSSLContext(caPath, clientCertPath, clientKeyPath),
+                caPath, clientCertPath, clientKeyPath);
+        return getConnection(certKey, sslContext);
     }
 
     public static CloseableHttpClient getConnection(RouterInfo routerInfo) throws Exception {
-        //  String certKey = buildCertKey(caPath, clientCertPath, clientKeyPath);
-        CloseableHttpClient httpClient = httpsClientPool.get(routerInfo.toKey());
-        if (httpClient == null) {
-            httpClient = createConnection(routerInfo);
-            httpsClientPool.put(routerInfo.toKey(), httpClient);
+        SSLContext sslContext;
+        if (routerInfo.isUseKeyStore()) {
+            sslContext = SslContextCache.get(SSL_SCOPE, () -> OSXCertUtils.getSSLContext(routerInfo),
+                    routerInfo.getKeyStoreFilePath(), routerInfo.getTrustStoreFilePath());
+        } else {
+            sslContext = SslContextCache.get(SSL_SCOPE, () -> OSXCertUtils.getSSLContext(routerInfo),
+                    routerInfo.getCaFile(), routerInfo.getCertChainFile(), routerInfo.getPrivateKeyFile());
+        }
+        return getConnection(routerInfo.toKey(), sslContext);
+    }
+
+    /**
+     * 同一组证书的客户端共用连接池和SSL上下文，证书重新加载后才换用新的客户端
+     */
+    private static CloseableHttpClient getConnection(String key, SSLContext sslContext) {
+        PooledClient pooled = httpsClientPool.get(key);
+        if (pooled != null && pooled.sslContext == sslContext) {
+            return pooled.httpClient;
+        }
+        synchronized (httpsClientPool) {
+            pooled = httpsClientPool.get(key);
+            if (pooled != null && pooled.sslContext == sslContext) {
+                return pooled.httpClient;
+            }
+            PooledClient created = createPooledClient(sslContext);
+            httpsClientPool.put(key, created);
+            if (pooled != null) {
+                retire(pooled);
+            }
+            return created.httpClient;
         }
-        return httpClient;
+    }
+
+    /**
+     * 已取得旧客户端的请求仍可完成，连接全部归还且没有等待连接的请求时才关闭
+     */
+    private static void retire(PooledClient retired) {
+        CLOSER.schedule(() -> {
+            PoolStats stats = retired.connectionManager.getTotalStats();
+            if (stats.getLeased() > 0 || stats.getPending() > 0) {
+                retired.connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+                retire(retired);
+                return;
+            }
+            try {
+                retired.httpClient.close();
+            } catch (IOException e) {
+                logger.error("close https client error", e);
+            }
+        }, RETIRE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     private static String buildCertKey(String caPath, String clientCertPath, String clientKeyPath) {
@@ -73,75 +126,44 @@ public class HttpsClientPool {
     }
 
     public static CloseableHttpClient createConnection(String caPath, String clientCertPath, String clientKeyPath) throws Exception {
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setConnectionRequestTimeout(MetaInfo.PROPERTY_HTTP_CLIENT_CONFIG_CONN_REQ_TIME_OUT)
-                .setConnectTimeout(MetaInfo.PROPERTY_HTTP_CLIENT_CONFIG_CONN_TIME_OUT)
-                .setSocketTimeout(MetaInfo.PROPERTY_HTTP_CLIENT_CONFIG_SOCK_TIME_OUT).build();
-        CloseableHttpClient httpClient = null;
-        try {
-            SSLContextBuilder builder = new SSLContextBuilder();
-            builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-            SSLConnectionSocketFactory sslsf;
-            if (MetaInfo.PROPERTY_HTTP_SSL_HOSTNAME_VERIFY) {
-                sslsf = new SSLConnectionSocketFactory(OSXCertUtils.getSSLContext(caPath, clientCertPath, clientKeyPath));
-            } else {
-                sslsf = new SSLConnectionSocketFactory(OSXCertUtils.getSSLContext(caPath, clientCertPath, clientKeyPath), OsxX509TrustManager.HostnameVerifier2.getInstance());
-            }
-            Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create().register(
-                    Dict.HTTP, PlainConnectionSocketFactory.getSocketFactory()).register(
-                    Dict.HTTPS, sslsf).build();
-            PoolingHttpClientConnectionManager poolConnManager = new PoolingHttpClientConnectionManager(
-                    socketFactoryRegistry);
-            poolConnManager.setMaxTotal(MetaInfo.PROPERTY_HTTP_CLIENT_INIT_POOL_MAX_TOTAL);
-            poolConnManager.setDefaultMaxPerRoute(MetaInfo.PROPERTY_HTTP_CLIENT_INIT_POOL_DEF_MAX_PER_ROUTE);
-            httpClient = HttpClients.custom()
-                    .setSSLSocketFactory(sslsf)
-                    .setConnectionManager(poolConnManager)
-                    .setDefaultRequestConfig(requestConfig)
-                    .evictExpiredConnections()
-                    .evictIdleConnections(MetaInfo.PROPERTY_HTTP_CLIENT_MAX_IDLE_TIME, TimeUnit.SECONDS)
-                    .setRetryHandler(new DefaultHttpRequestRetryHandler(0, false))
-                    .build();
-        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException ex) {
-            logger.error("init https client pool failed:", ex);
-        }
-        return httpClient;
+        return createConnection(OSXCertUtils.getSSLContext(caPath, clientCertPath, clientKeyPath));
     }
 
     public static CloseableHttpClient createConnection(RouterInfo routerInfo) throws Exception {
+        return createConnection(OSXCertUtils.getSSLContext(routerInfo));
+    }
+
+    private static CloseableHttpClient createConnection(SSLContext sslContext) {
+        return createPooledClient(sslContext).httpClient;
+    }
+
+    private static PooledClient createPooledClient(SSLContext sslContext) {
         RequestConfig requestConfig = RequestConfig.custom()
                 .setConnectionRequestTimeout(MetaInfo.PROPERTY_HTTP_CLIENT_CONFIG_CONN_REQ_TIME_OUT)
                 .setConnectTimeout(MetaInfo.PROPERTY_HTTP_CLIENT_CONFIG_CONN_TIME_OUT)
                 .setSocketTimeout(MetaInfo.PROPERTY_HTTP_CLIENT_CONFIG_SOCK_TIME_OUT).build();
-        CloseableHttpClient httpClient = null;
-        try {
-            SSLContextBuilder builder = new SSLContextBuilder();
-            builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-            SSLConnectionSocketFactory sslsf;
-            if (MetaInfo.PROPERTY_HTTP_SSL_HOSTNAME_VERIFY) {
-                sslsf = new SSLConnectionSocketFactory(OSXCertUtils.getSSLContext(routerInfo));
-            } else {
-                sslsf = new SSLConnectionSocketFactory(OSXCertUtils.getSSLContext(routerInfo), OsxX509TrustManager.HostnameVerifier2.getInstance());
-            }
-            Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create().register(
-                    Dict.HTTP, PlainConnectionSocketFactory.getSocketFactory()).register(
-                    Dict.HTTPS, sslsf).build();
-            PoolingHttpClientConnectionManager poolConnManager = new PoolingHttpClientConnectionManager(
-                    socketFactoryRegistry);
-            poolConnManager.setMaxTotal(MetaInfo.PROPERTY_HTTP_CLIENT_INIT_POOL_MAX_TOTAL);
-            poolConnManager.setDefaultMaxPerRoute(MetaInfo.PROPERTY_HTTP_CLIENT_INIT_POOL_DEF_MAX_PER_ROUTE);
-            httpClient = HttpClients.custom()
-                    .setSSLSocketFactory(sslsf)
-                    .setConnectionManager(poolConnManager)
-                    .setDefaultRequestConfig(requestConfig)
-                    .evictExpiredConnections()
-                    .evictIdleConnections(MetaInfo.PROPERTY_HTTP_CLIENT_MAX_IDLE_TIME, TimeUnit.SECONDS)
-                    .setRetryHandler(new DefaultHttpRequestRetryHandler(0, false))
-                    .build();
-        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException ex) {
-            logger.error("init https client pool failed:", ex);
+        SSLConnectionSocketFactory sslsf;
+        if (MetaInfo.PROPERTY_HTTP_SSL_HOSTNAME_VERIFY) {
+            sslsf = new SSLConnectionSocketFactory(sslContext);
+        } else {
+            sslsf = new SSLConnectionSocketFactory(sslContext, OsxX509TrustManager.HostnameVerifier2.getInstance());
         }
-        return httpClient;
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create().register(
+                Dict.HTTP, PlainConnectionSocketFactory.getSocketFactory()).register(
+                Dict.HTTPS, sslsf).build();
+        PoolingHttpClientConnectionManager poolConnManager = new PoolingHttpClientConnectionManager(
+                socketFactoryRegistry);
+        poolConnManager.setMaxTotal(MetaInfo.PROPERTY_HTTP_CLIENT_INIT_POOL_MAX_TOTAL);
+        poolConnManager.setDefaultMaxPerRoute(MetaInfo.PROPERTY_HTTP_CLIENT_INIT_POOL_DEF_MAX_PER_ROUTE);
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setSSLSocketFactory(sslsf)
+                .setConnectionManager(poolConnManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(MetaInfo.PROPERTY_HTTP_CLIENT_MAX_IDLE_TIME, TimeUnit.SECONDS)
+                .setRetryHandler(new DefaultHttpRequestRetryHandler(0, false))
+                .build();
+        return new PooledClient(httpClient, poolConnManager, sslContext);
     }
 
 
@@ -161,10 +183,11 @@ public class HttpsClientPool {
         HttpPost httpPost = new HttpPost(routerInfo.getUrl());
         HttpClientPool.config(httpPost, headers);
         if (body != null) {
-            ByteArrayEntity byteArrayEntity = new ByteArrayEntity(body);
-            httpPost.setEntity(byteArrayEntity);
+            httpPost.setEntity(HttpClientPool.buildEntity(body, routerInfo));
         }
-        return getHttpResponse(httpPost, routerInfo);
+        HttpDataWrapper httpDataWrapper = getHttpResponse(httpPost, routerInfo);
+        RouteCompression.onHttpResponse(routerInfo, httpDataWrapper.getHeaders());
+        return httpDataWrapper;
     }
 
 //    @SuppressWarnings("unused")
@@ -329,5 +352,15 @@ public class HttpsClientPool {
         return sslContext.getSocketFactory();
     }
 
+    private static class PooledClient {
+        final CloseableHttpClient httpClient;
+        final PoolingHttpClientConnectionManager connectionManager;
+        final SSLContext sslContext;
 
+        PooledClient(CloseableHttpClient httpClient, PoolingHttpClientConnectionManager connectionManager, SSLContext sslContext) {
+            this.httpClient = httpClient;
+            this.connectionManager = connectionManager;
+            this.sslContext = sslContext;
+        }
+    }
 }
@@ -19,7 +19,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 
 public class DefaultAppendMessageHandler implements AppendMessageHandler {
 
@@ -63,7 +62,8 @@ public class DefaultAppendMessageHandler implements AppendMessageHandler {
         String msgId = Long.toString(wroteOffset);
         Long queueOffset = new Long(0);
         final byte[] propertiesData =
-                msgInner.getProperties() == null ? null : MessageDecoder.messageProperties2String(msgInner.getProperties()).getBytes(StandardCharsets.UTF_8);
+                msgInner.getProperties() == null ? null : MessagePropertiesCodec.encode(msgInner.getProperties());
+        final int sysFlag = propertiesData == null ? msgInner.getSysFlag() : msgInner.getSysFlag() | MessageSysFlag.BINARY_PROPERTIES_FLAG;
 
         final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
         if (propertiesLength > Short.MAX_VALUE) {
@@ -77,7 +77,7 @@ public class DefaultAppendMessageHandler implements AppendMessageHandler {
         final int desPartyIdLength = desPartyId != null ? desPartyId.length : 0;
         final int topicLength = topicData.length;
         final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
-        final int msgLen = calMsgLength(msgInner.getSysFlag(), srcPartyIdLength, desPartyIdLength, bodyLength, topicLength, propertiesLength);
+        final int msgLen = calMsgLength(sysFlag, srcPartyIdLength, desPartyIdLength, bodyLength, topicLength, propertiesLength);
         // Exceeds the maximum message
         if (msgLen > this.maxMessageSize) {
             log.error("msg length {} bigger than {}", msgLen, this.maxMessageSize);
@@ -107,7 +107,7 @@ public class DefaultAppendMessageHandler implements AppendMessageHandler {
         if (desPartyId != null)
             this.msgStoreItemMemory.put(desPartyId);
         // 8 SYSFLAG
-        this.msgStoreItemMemory.putInt(msgInner.getSysFlag());
+        this.msgStoreItemMemory.putInt(sysFlag);
         // 9 BORNTIMESTAMP
         this.msgStoreItemMemory.putLong(msgInner.getBornTimestamp());
         this.msgStoreItemMemory.putInt(bodyLength);
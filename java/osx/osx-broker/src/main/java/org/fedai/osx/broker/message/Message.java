@@ -29,6 +29,10 @@ public class Message implements Serializable {
     private String topic;
     private int flag;
     private Map<String, String> properties;
+    /**
+     * 从commit log中读出的二进制属性，在第一次访问时才解码
+     */
+    private byte[] encodedProperties;
     private byte[] body;
     private String transactionId;
 
@@ -63,6 +67,7 @@ public class Message implements Serializable {
     }
 
     void putProperty(final String name, final String value) {
+        decodePropertiesIfNeeded();
         if (null == this.properties) {
             this.properties = new HashMap<String, String>();
         }
@@ -71,6 +76,7 @@ public class Message implements Serializable {
     }
 
     void clearProperty(final String name) {
+        decodePropertiesIfNeeded();
         if (null != this.properties) {
             this.properties.remove(name);
         }
@@ -97,6 +103,9 @@ public class Message implements Serializable {
     }
 
     public String getProperty(final String name) {
+        if (null == this.properties && null != this.encodedProperties) {
+            return MessagePropertiesCodec.getProperty(this.encodedProperties, name);
+        }
         if (null == this.properties) {
             this.properties = new HashMap<String, String>();
         }
@@ -184,11 +193,25 @@ public class Message implements Serializable {
     }
 
     public Map<String, String> getProperties() {
+        decodePropertiesIfNeeded();
         return properties;
     }
 
     void setProperties(Map<String, String> properties) {
         this.properties = properties;
+        this.encodedProperties = null;
+    }
+
+    void setEncodedProperties(byte[] encodedProperties) {
+        this.properties = null;
+        this.encodedProperties = encodedProperties;
+    }
+
+    private void decodePropertiesIfNeeded() {
+        if (null != this.encodedProperties) {
+            this.properties = MessagePropertiesCodec.decode(this.encodedProperties);
+            this.encodedProperties = null;
+        }
     }
 
     public String getBuyerId() {
@@ -212,7 +235,7 @@ public class Message implements Serializable {
         return "Message{" +
                 "topic='" + topic + '\'' +
                 ", flag=" + flag +
-                ", properties=" + properties +
+                ", properties=" + getProperties() +
                 ", body=" + Arrays.toString(body) +
                 ", transactionId='" + transactionId + '\'' +
                 '}';
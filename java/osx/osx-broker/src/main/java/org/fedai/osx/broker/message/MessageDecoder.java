@@ -237,10 +237,13 @@ public class MessageDecoder {
             if (propertiesLength > 0) {
                 byte[] properties = new byte[propertiesLength];
                 byteBuffer.get(properties);
-                String propertiesString = new String(properties, CHARSET_UTF8);
-                Map<String, String> map = string2messageProperties(propertiesString);
-                msgExt.setProperties(map);
-
+                if (MessageSysFlag.isBinaryProperties(sysFlag)) {
+                    msgExt.setEncodedProperties(properties);
+                } else {
+                    String propertiesString = new String(properties, CHARSET_UTF8);
+                    Map<String, String> map = string2messageProperties(propertiesString);
+                    msgExt.setProperties(map);
+                }
             }
             return msgExt;
         } catch (Exception e) {
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.message;
+
+import org.fedai.osx.broker.util.MessageConst;
+import org.fedai.osx.core.constant.Dict;
+import org.fedai.osx.core.exceptions.MessageParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 消息属性的二进制编码
+ * <pre>
+ * VERSION(1) | KEY_ID(varint) [KEY_LEN(varint) KEY] VALUE_LEN(varint) VALUE | ...
+ * </pre>
+ * 常用的属性名编码为字典中的序号，KEY_ID 为 0 时表示后面紧跟自定义的属性名。
+ * 字典只允许在末尾追加，不允许修改已有的序号，否则无法读取已经落盘的消息
+ */
+public class MessagePropertiesCodec {
+
+    public static final byte VERSION_1 = 1;
+    private static final int CUSTOM_KEY = 0;
+    /**
+     * int 的 varint 编码最多5个字节，即最后一个字节的位移为28
+     */
+    private static final int MAX_VARINT_SHIFT = 28;
+    private static final String[] WELL_KNOWN_KEYS = {
+            null,
+            Dict.SESSION_ID,
+            Dict.SOURCE_COMPONENT,
+            Dict.DES_COMPONENT,
+            Dict.MESSAGE_FLAG,
+            Dict.MESSAGE_CODE,
+            MessageConst.PROPERTY_CHUNK_NEXT_OFFSET,
+            MessageConst.PROPERTY_CHUNK_TOTAL_SIZE,
+            MessageConst.PROPERTY_CHUNK_COUNT,
+            MessageConst.PROPERTY_KEYS,
+            MessageConst.PROPERTY_TAGS,
+            MessageConst.PROPERTY_WAIT_STORE_MSG_OK
+    };
+    private static final Map<String, Integer> WELL_KNOWN_KEY_IDS = new HashMap<>();
+
+    static {
+        for (int i = 1; i < WELL_KNOWN_KEYS.length; i++) {
+            WELL_KNOWN_KEY_IDS.put(WELL_KNOWN_KEYS[i], i);
+        }
+    }
+
+    public static byte[] encode(Map<String, String> properties) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(64);
+        output.write(VERSION_1);
+        if (properties != null) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                Integer keyId = WELL_KNOWN_KEY_IDS.get(entry.getKey());
+                if (keyId != null) {
+                    writeVarint(output, keyId);
+                } else {
+                    writeVarint(output, CUSTOM_KEY);
+                    writeBytes(output, entry.getKey().getBytes(StandardCharsets.UTF_8));
+                }
+                writeBytes(output, entry.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return output.toByteArray();
+    }
+
+    public static Map<String, String> decode(byte[] data) {
+        Map<String, String> properties = new HashMap<>();
+        int[] cursor = {checkVersion(data)};
+        while (cursor[0] < data.length) {
+            String key = readKey(data, cursor);
+            int valueLength = readLength(data, cursor);
+            properties.put(key, new String(data, cursor[0], valueLength, StandardCharsets.UTF_8));
+            cursor[0] += valueLength;
+        }
+        return properties;
+    }
+
+    /**
+     * 直接在编码后的数据中查找单个属性，不构建完整的map
+     */
+    public static String getProperty(byte[] data, String name) {
+        Integer keyId = WELL_KNOWN_KEY_IDS.get(name);
+        byte[] nameBytes = keyId == null ? name.getBytes(StandardCharsets.UTF_8) : null;
+        int[] cursor = {checkVersion(data)};
+        while (cursor[0] < data.length) {
+            int currentKeyId = readVarint(data, cursor);
+            boolean matched;
+            if (currentKeyId == CUSTOM_KEY) {
+                int keyLength = readLength(data, cursor);
+                matched = nameBytes != null && regionEquals(data, cursor[0], keyLength, nameBytes);
+                cursor[0] += keyLength;
+            } else {
+                matched = keyId != null && keyId == currentKeyId;
+            }
+            int valueLength = readLength(data, cursor);
+            if (matched) {
+                return new String(data, cursor[0], valueLength, StandardCharsets.UTF_8);
+            }
+            cursor[0] += valueLength;
+        }
+        return null;
+    }
+
+    private static int checkVersion(byte[] data) {
+        if (data.length == 0 || data[0] != VERSION_1) {
+            throw new MessageParseException("unsupported message properties version " + (data.length == 0 ? "empty" : data[0]));
+        }
+        return 1;
+    }
+
+    private static String readKey(byte[] data, int[] cursor) {
+        int keyId = readVarint(data, cursor);
+        if (keyId != CUSTOM_KEY) {
+            if (keyId >= WELL_KNOWN_KEYS.length) {
+                throw new MessageParseException("unknown message property key id " + keyId);
+            }
+            return WELL_KNOWN_KEYS[keyId];
+        }
+        int keyLength = readLength(data, cursor);
+        String key = new String(data, cursor[0], keyLength, StandardCharsets.UTF_8);
+        cursor[0] += keyLength;
+        return key;
+    }
+
+    private static boolean regionEquals(byte[] data, int offset, int length, byte[] target) {
+        if (length != target.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] != target[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeBytes(ByteArrayOutputStream output, byte[] bytes) {
+        writeVarint(output, bytes.length);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            if (cursor[0] >= data.length) {
+                throw new MessageParseException("message properties is truncated at " + cursor[0]);
+            }
+            byte b = data[cursor[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > MAX_VARINT_SHIFT) {
+                throw new MessageParseException("malformed varint in message properties at " + cursor[0]);
+            }
+        }
+    }
+
+    /**
+     * 读取属性名或属性值的长度，长度不能超出剩余的数据
+     */
+    private static int readLength(byte[] data, int[] cursor) {
+        int length = readVarint(data, cursor);
+        if (length < 0 || length > data.length - cursor[0]) {
+            throw new MessageParseException("invalid message property length " + length + " at " + cursor[0] + ", total " + data.length);
+        }
+        return length;
+    }
+}
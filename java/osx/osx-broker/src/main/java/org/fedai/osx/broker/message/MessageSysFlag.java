@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.message;
+
+public class MessageSysFlag {
+
+    /**
+     * 被拆分的大消息的第一个chunk ,index 指向它
+     */
+    public final static int CHUNK_HEAD_FLAG = 0x1;
+    /**
+     * 被拆分的大消息的后续chunk ,不进入index
+     */
+    public final static int CHUNK_BODY_FLAG = 0x1 << 1;
+    /**
+     * 属性使用 MessagePropertiesCodec 的二进制格式编码，未设置时为旧的字符串拼接格式
+     */
+    public final static int BINARY_PROPERTIES_FLAG = 0x1 << 2;
+
+    public static boolean isChunkHead(int sysFlag) {
+        return (sysFlag & CHUNK_HEAD_FLAG) == CHUNK_HEAD_FLAG;
+    }
+
+    public static boolean isChunkBody(int sysFlag) {
+        return (sysFlag & CHUNK_BODY_FLAG) == CHUNK_BODY_FLAG;
+    }
+
+    public static boolean isBinaryProperties(int sysFlag) {
+        return (sysFlag & BINARY_PROPERTIES_FLAG) == BINARY_PROPERTIES_FLAG;
+    }
+}
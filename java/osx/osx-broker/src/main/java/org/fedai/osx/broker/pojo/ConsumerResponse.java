@@ -15,11 +15,18 @@ public class ConsumerResponse {
     boolean needRedirect = false;
     @JsonIgnore
     RouterInfo redirectRouterInfo;
+    /**
+     * grpc 消费分块存储的消息时使用，代替 payload ，避免把消息体复制成一个完整的数组
+     */
+    @JsonIgnore
+    ByteString chunkedPayload;
 
     public Osx.TransportOutbound toTransportOutbound() {
         Osx.TransportOutbound.Builder builder = Osx.TransportOutbound.newBuilder();
         builder.setCode(code).setMessage(msg);
-        if (payload != null)
+        if (chunkedPayload != null)
+            builder.setPayload(chunkedPayload);
+        else if (payload != null)
             builder.setPayload(ByteString.copyFrom(payload)).build();
         return builder.build();
     }
@@ -16,12 +16,20 @@
 package org.fedai.osx.broker.provider;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.protobuf.ByteString;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import org.fedai.osx.broker.constants.ServiceType;
+import org.fedai.osx.broker.flow.AdmissionController;
+import org.fedai.osx.broker.grpc.MuxStreamClient;
 import org.fedai.osx.broker.pojo.*;
+import org.fedai.osx.broker.router.HedgingInvoker;
 import org.fedai.osx.broker.router.RouterServiceRegister;
 import org.fedai.osx.broker.service.ServiceRegisterInfo;
 import org.fedai.osx.broker.service.ServiceRegisterManager;
@@ -33,12 +41,14 @@ import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.context.Protocol;
 import org.fedai.osx.core.exceptions.ErrorMessageUtil;
 import org.fedai.osx.core.exceptions.ExceptionInfo;
+import org.fedai.osx.core.exceptions.FlowControlException;
 import org.fedai.osx.core.exceptions.InvalidUriException;
 import org.fedai.osx.core.exceptions.NoRouterInfoException;
 import org.fedai.osx.core.provider.TechProvider;
 import org.fedai.osx.core.router.RouterInfo;
 import org.fedai.osx.core.service.AbstractServiceAdaptorNew;
 import org.fedai.osx.core.service.ServiceAdaptorNew;
+import org.fedai.osx.core.trace.Tracer;
 import org.fedai.osx.core.utils.FlowLogUtil;
 import org.fedai.osx.core.utils.JsonUtil;
 import org.ppc.ptp.Osx;
@@ -68,6 +78,12 @@ public class FateTechProvider implements TechProvider {
     RouterServiceRegister  routerServiceRegister;
     @Inject
     TokenValidatorRegister  tokenValidatorRegister;
+    @Inject
+    AdmissionController admissionController;
+    @Inject
+    MuxStreamClient muxStreamClient;
+    @Inject
+    HedgingInvoker hedgingInvoker;
 
 
     Base64.Encoder base64Encoder = Base64.getEncoder();
@@ -106,7 +122,7 @@ public class FateTechProvider implements TechProvider {
     public void processGrpcInvoke(OsxContext context, Osx.Inbound request, StreamObserver<Osx.Outbound> responseObserver,boolean interInvoke) {
         try {
             context.setProtocol(Protocol.grpc);
-            context.putData(Dict.RESPONSE_STREAM_OBSERVER, responseObserver);
+            context.setResponseStreamObserver(responseObserver);
             OsxContext.pushThreadLocalContext(context);
             Osx.Outbound result = (Osx.Outbound) handleInvoke(context, request,interInvoke);
             if (result != null) {
@@ -127,6 +143,7 @@ public class FateTechProvider implements TechProvider {
             context.putData(Dict.HTTP_SERVLET_RESPONSE, httpServletResponse);
             byte[] payload = TransferUtil.read(httpServletRequest.getInputStream());
             ConsumeRequest consumeRequest = JsonUtil.json2Object(new String(payload), ConsumeRequest.class);
+            admissionController.admit(context, consumeRequest.getTopic());
             ServiceRegisterInfo serviceRegisterInfo = this.serviceRegisterManager.getServiceWithLoadBalance(context, null, UriConstants.PEEK, false);
             Object serviceAdaptorObject = serviceRegisterInfo.getServiceAdaptor();
             ServiceAdaptorNew serviceAdaptor = (ServiceAdaptorNew) serviceAdaptorObject;
@@ -147,6 +164,7 @@ public class FateTechProvider implements TechProvider {
             String desNodeId = context.getDesNodeId();
             byte[] body = TransferUtil.read(httpServletRequest.getInputStream());
             ProduceRequest produceRequest = JsonUtil.json2Object(new String(body), ProduceRequest.class);
+            admissionController.admit(context, produceRequest.getTopic(), body.length);
             if (MetaInfo.PROPERTY_SELF_PARTY.contains(desNodeId)) {
                 context.putData(Dict.HTTP_SERVLET_RESPONSE, httpServletResponse);
 
@@ -200,6 +218,7 @@ public class FateTechProvider implements TechProvider {
                     try {
                         byte[] payload = TransferUtil.read(ctxt.getRequest().getInputStream());
                         ConsumeRequest consumeRequest = JsonUtil.json2Object(new String(payload), ConsumeRequest.class);
+                        admissionController.admit(context, consumeRequest.getTopic());
                         consumeRequest.setNeedBlock(true);
                         ServiceRegisterInfo serviceRegisterInfo = serviceRegisterManager.getServiceWithLoadBalance(context, "", UriConstants.POP, false);
                         Object serviceAdaptorObject = serviceRegisterInfo.getServiceAdaptor();
@@ -217,6 +236,11 @@ public class FateTechProvider implements TechProvider {
                                 ctxt.complete();
                             }
                         }
+                    } catch (FlowControlException e) {
+                        ExceptionInfo exceptionInfo = handleExceptionInfo(context, e);
+                        TransferUtil.writeHttpRespose(ctxt.getResponse(), exceptionInfo.getCode(), exceptionInfo.getMessage(),
+                                JsonUtil.object2Json(exceptionInfo).getBytes(StandardCharsets.UTF_8));
+                        ctxt.complete();
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -274,15 +298,29 @@ public class FateTechProvider implements TechProvider {
 
     private Object handleInvoke(OsxContext context, Object request,boolean  interInvoke) {
         Object result = null;
+        boolean async = false;
         try {
             String uri = context.getUri();
             String nodeId = context.getDesNodeId();
+            long size = 0;
+            if (request instanceof Osx.Inbound) {
+                size = ((Osx.Inbound) request).getSerializedSize();
+            } else if (request instanceof HttpInvoke && ((HttpInvoke) request).getPayload() != null) {
+                size = ((HttpInvoke) request).getPayload().length;
+            }
+            admissionController.admit(context, context.getTopic(), size);
             if (MetaInfo.PROPERTY_SELF_PARTY.contains(nodeId)) {
                result =  this.doService(context,request,nodeId,uri,true);
             } else {
                 RouterInfo routerInfo = routerServiceRegister.select(MetaInfo.PROPERTY_FATE_TECH_PROVIDER).route(context.getSrcNodeId(),"" ,context.getDesNodeId(), "" );
                 if (routerInfo != null) {
-                    result = TransferUtil.redirect(context, request, routerInfo, true);
+                    StreamObserver<Osx.Outbound> responseObserver = (StreamObserver<Osx.Outbound>) context.getResponseStreamObserver();
+                    if (responseObserver != null && request instanceof Osx.Inbound && !Protocol.http.equals(routerInfo.getProtocol())) {
+                        redirectAsync(context, (Osx.Inbound) request, routerInfo, responseObserver);
+                        async = true;
+                    } else {
+                        result = TransferUtil.redirect(context, request, routerInfo, true);
+                    }
                 } else {
                     logger.error("can not found router info {} {}", context.getDesInstId(), context.getDesNodeId());
                     throw new NoRouterInfoException("can not found router info");
@@ -304,11 +342,51 @@ public class FateTechProvider implements TechProvider {
                 result = httpInvokeResult;
             }
         } finally {
-            FlowLogUtil.printFlowLog(context);
+            if (!async) {
+                FlowLogUtil.printFlowLog(context);
+            }
         }
         return result;
     }
 
+    /**
+     * grpc请求转发到grpc路由时不等待对端返回，在回调中应答，服务线程的占用时间与对端延迟无关；
+     * 幂等的请求在对端有多个地址时对冲发送
+     */
+    private void redirectAsync(OsxContext context, Osx.Inbound inbound, RouterInfo routerInfo, StreamObserver<Osx.Outbound> responseObserver) {
+        ListenableFuture<Osx.Outbound> future = hedgingInvoker.isHedgeable(context) ? hedgingInvoker.invoke(context, inbound, routerInfo) : null;
+        if (future == null) {
+            future = TransferUtil.redirectAsync(context, inbound, routerInfo);
+        }
+        Futures.addCallback(future, new FutureCallback<Osx.Outbound>() {
+            @Override
+            public void onSuccess(Osx.Outbound result) {
+                complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                ExceptionInfo exceptionInfo = handleExceptionInfo(context, t);
+                Osx.Outbound.Builder builder = Osx.Outbound.newBuilder();
+                if (exceptionInfo.getCode() != null)
+                    builder.setCode(exceptionInfo.getCode());
+                complete(builder.setMessage(exceptionInfo.getMessage()).build());
+            }
+
+            private void complete(Osx.Outbound result) {
+                try {
+                    responseObserver.onNext(result);
+                    responseObserver.onCompleted();
+                } catch (Exception e) {
+                    logger.error("reply redirect result error", e);
+                } finally {
+                    FlowLogUtil.printFlowLog(context);
+                    Tracer.finish(context);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
     private ExceptionInfo handleExceptionInfo(OsxContext context, Throwable e) {
         ExceptionInfo exceptionInfo = ErrorMessageUtil.handleExceptionExceptionInfo(context, e);
         context.setReturnCode(exceptionInfo.getCode());
@@ -319,11 +397,11 @@ public class FateTechProvider implements TechProvider {
     @Override
     public void processGrpcPeek(OsxContext context, Osx.PeekInbound inbound, StreamObserver<Osx.TransportOutbound> responseObserver) {
         context.setProtocol(Protocol.grpc);
-        context.putData(Dict.RESPONSE_STREAM_OBSERVER, responseObserver);
-        context.putData(Dict.INPUT_DATA, inbound);
+        context.setResponseStreamObserver(responseObserver);
         OsxContext.pushThreadLocalContext(context);
         Osx.TransportOutbound result = null;
         try {
+            admissionController.admit(context, inbound.getTopic());
             ServiceRegisterInfo serviceRegisterInfo = this.serviceRegisterManager.getServiceWithLoadBalance(context, "", UriConstants.PEEK, false);
             Object serviceAdaptorObject = serviceRegisterInfo.getServiceAdaptor();
             ServiceAdaptorNew serviceAdaptor = (ServiceAdaptorNew) serviceAdaptorObject;
@@ -361,12 +439,14 @@ public class FateTechProvider implements TechProvider {
     @Override
     public void processGrpcPush(OsxContext context, Osx.PushInbound inbound, StreamObserver<Osx.TransportOutbound> responseObserver) {
         Osx.TransportOutbound result = null;
+        boolean async = false;
         context.setProtocol(Protocol.grpc);
         OsxContext.pushThreadLocalContext(context);
         String desNodeId = context.getDesNodeId();
         String srcNodeId = context.getSrcNodeId();
 
         try {
+            admissionController.admit(context, inbound.getTopic(), inbound.getSerializedSize());
             if (MetaInfo.PROPERTY_SELF_PARTY.contains(desNodeId)) {
                 ServiceRegisterInfo serviceRegisterInfo = this.serviceRegisterManager.getServiceWithLoadBalance(context, "", UriConstants.PUSH, false);
                 AbstractServiceAdaptorNew serviceAdaptor = serviceRegisterInfo.getServiceAdaptor();
@@ -378,33 +458,32 @@ public class FateTechProvider implements TechProvider {
             } else {
                 RouterInfo routerInfo = routerServiceRegister.select(MetaInfo.PROPERTY_FATE_TECH_PROVIDER).route(srcNodeId, Dict.DEFAULT, desNodeId, Dict.DEFAULT);
                 context.setActionType(MSG_REDIRECT.name());
-                Object  sendObject = null;
                 if(routerInfo==null){
                     throw  new NoRouterInfoException("can not found router info");
                 }
-                if(Protocol.http.equals(routerInfo.getProtocol())){
-                    sendObject = buildProduceRequestFromGrpc(inbound);
-                }else {
-                    Osx.Inbound.Builder inboundBuilder = Osx.Inbound.newBuilder();
-                    inboundBuilder.setPayload(inbound.toByteString());
-                    sendObject = inboundBuilder.build();
-                }
                 context.setUri(UriConstants.PUSH);
                 context.setTopic(inbound.getTopic());
                 context.setRouterInfo(routerInfo);
-                Osx.Outbound outbound = (Osx.Outbound) TransferUtil.redirect(context, sendObject, routerInfo, true);
-                Osx.TransportOutbound.Builder transportOutboundBuilder = Osx.TransportOutbound.newBuilder();
-                context.setReturnCode(outbound.getCode());
-                context.setReturnMsg(outbound.getMessage());
-                transportOutboundBuilder.setCode(outbound.getCode());
-                transportOutboundBuilder.setMessage(outbound.getMessage());
-                result = transportOutboundBuilder.build();
+                ListenableFuture<Osx.TransportOutbound> future = muxStreamClient.push(context, inbound, routerInfo);
+                if (future != null) {
+                    future = fallbackSeparately(context, inbound, routerInfo, future);
+                } else if (!Protocol.http.equals(routerInfo.getProtocol())) {
+                    future = redirectPushSeparately(context, inbound, routerInfo);
+                }
+                if (future != null) {
+                    redirectPushAsync(context, future, responseObserver);
+                    async = true;
+                } else {
+                    result = redirectPush(context, inbound, routerInfo);
+                }
             }
         } catch (Exception e) {
             ExceptionInfo exceptionInfo = this.handleExceptionInfo(context, e);
             result = Osx.TransportOutbound.newBuilder().setCode(exceptionInfo.getCode()).setMessage(exceptionInfo.getMessage()).build();
         } finally {
-            FlowLogUtil.printFlowLog(context);
+            if (!async) {
+                FlowLogUtil.printFlowLog(context);
+            }
             OsxContext.popThreadLocalContext();
             OsxContext.release();
         }
@@ -414,15 +493,95 @@ public class FateTechProvider implements TechProvider {
         }
     }
 
+    private Osx.TransportOutbound redirectPush(OsxContext context, Osx.PushInbound inbound, RouterInfo routerInfo) {
+        Object  sendObject = null;
+        if(Protocol.http.equals(routerInfo.getProtocol())){
+            sendObject = buildProduceRequestFromGrpc(inbound);
+        }else {
+            Osx.Inbound.Builder inboundBuilder = Osx.Inbound.newBuilder();
+            inboundBuilder.setPayload(inbound.toByteString());
+            sendObject = inboundBuilder.build();
+        }
+        Osx.Outbound outbound = (Osx.Outbound) TransferUtil.redirect(context, sendObject, routerInfo, true);
+        Osx.TransportOutbound.Builder transportOutboundBuilder = Osx.TransportOutbound.newBuilder();
+        context.setReturnCode(outbound.getCode());
+        context.setReturnMsg(outbound.getMessage());
+        transportOutboundBuilder.setCode(outbound.getCode());
+        transportOutboundBuilder.setMessage(outbound.getMessage());
+        return transportOutboundBuilder.build();
+    }
+
+    /**
+     * 对端不支持合批流时改为单独异步转发
+     */
+    private ListenableFuture<Osx.TransportOutbound> fallbackSeparately(OsxContext context, Osx.PushInbound inbound, RouterInfo routerInfo,
+                                                                    ListenableFuture<Osx.TransportOutbound> future) {
+        return Futures.catchingAsync(future, Exception.class, e -> {
+            if (Status.fromThrowable(e).getCode() != Status.Code.UNIMPLEMENTED) {
+                throw e;
+            }
+            return redirectPushSeparately(context, inbound, routerInfo);
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * grpc 路由的推送经合批流或单独异步转发，在对端应答后回复；只有 http 路由仍同步转发。
+     * 回调在 grpc 的线程中执行，不能阻塞等待转发结果
+     */
+    private void redirectPushAsync(OsxContext context, ListenableFuture<Osx.TransportOutbound> future,
+                                   StreamObserver<Osx.TransportOutbound> responseObserver) {
+        Futures.addCallback(future, new FutureCallback<Osx.TransportOutbound>() {
+            @Override
+            public void onSuccess(Osx.TransportOutbound result) {
+                context.setReturnCode(result.getCode());
+                context.setReturnMsg(result.getMessage());
+                complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                ExceptionInfo exceptionInfo = handleExceptionInfo(context, t);
+                complete(Osx.TransportOutbound.newBuilder().setCode(exceptionInfo.getCode()).setMessage(exceptionInfo.getMessage()).build());
+            }
+
+            private void complete(Osx.TransportOutbound result) {
+                try {
+                    responseObserver.onNext(result);
+                    responseObserver.onCompleted();
+                } catch (Exception e) {
+                    logger.error("reply redirect push result error", e);
+                } finally {
+                    FlowLogUtil.printFlowLog(context);
+                    Tracer.finish(context);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Osx.TransportOutbound> redirectPushSeparately(OsxContext context, Osx.PushInbound inbound, RouterInfo routerInfo) {
+        Osx.Inbound sendObject = Osx.Inbound.newBuilder().setPayload(inbound.toByteString()).build();
+        ListenableFuture<Osx.Outbound> outbound;
+        // 请求头取自线程中的 OsxContext
+        OsxContext.pushThreadLocalContext(context);
+        try {
+            outbound = TransferUtil.redirectAsync(context, sendObject, routerInfo);
+        } finally {
+            OsxContext.popThreadLocalContext();
+        }
+        return Futures.transform(outbound, result -> Osx.TransportOutbound.newBuilder()
+                .setCode(result.getCode()).setMessage(result.getMessage()).build(), MoreExecutors.directExecutor());
+    }
+
     //只有集群内部可以访问
     @Override
     public void processGrpcPop(OsxContext context, Osx.PopInbound inbound, StreamObserver<Osx.TransportOutbound> responseObserver) {
         context.setProtocol(Protocol.grpc);
-        context.putData(Dict.RESPONSE_STREAM_OBSERVER, responseObserver);
-        context.putData(Dict.INPUT_DATA, inbound);
+        context.setResponseStreamObserver(responseObserver);
         OsxContext.pushThreadLocalContext(context);
         Osx.TransportOutbound result = null;
+        boolean async = false;
         try {
+            admissionController.admit(context, inbound.getTopic());
             ServiceRegisterInfo serviceRegisterInfo = this.serviceRegisterManager.getServiceWithLoadBalance(context, "", UriConstants.POP, false);
             Object serviceAdaptorObject = serviceRegisterInfo.getServiceAdaptor();
             ServiceAdaptorNew serviceAdaptor = (ServiceAdaptorNew) serviceAdaptorObject;
@@ -433,7 +592,8 @@ public class FateTechProvider implements TechProvider {
             ConsumerResponse consumerResponse = (ConsumerResponse) serviceAdaptor.service(context, consumeRequest);
             if (consumerResponse != null) {
                 if (consumerResponse.isNeedRedirect()) {
-                    result = TransferUtil.redirectPop(context, consumerResponse.getRedirectRouterInfo(), inbound);
+                    redirectPopAsync(context, consumerResponse.getRedirectRouterInfo(), inbound, responseObserver);
+                    async = true;
                 } else {
                     result = consumerResponse.toTransportOutbound();
                 }
@@ -442,7 +602,9 @@ public class FateTechProvider implements TechProvider {
             ExceptionInfo exceptionInfo = this.handleExceptionInfo(context, e);
             result = Osx.TransportOutbound.newBuilder().setCode(exceptionInfo.getCode()).setMessage(exceptionInfo.getMessage()).build();
         } finally {
-            FlowLogUtil.printFlowLog(context);
+            if (!async) {
+                FlowLogUtil.printFlowLog(context);
+            }
             OsxContext.popThreadLocalContext();
             OsxContext.release();
         }
@@ -452,12 +614,37 @@ public class FateTechProvider implements TechProvider {
         }
     }
 
+    private void redirectPopAsync(OsxContext context, RouterInfo routerInfo, Osx.PopInbound inbound, StreamObserver<Osx.TransportOutbound> responseObserver) {
+        Futures.addCallback(TransferUtil.redirectPopAsync(context, routerInfo, inbound), new FutureCallback<Osx.TransportOutbound>() {
+            @Override
+            public void onSuccess(Osx.TransportOutbound result) {
+                complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                ExceptionInfo exceptionInfo = handleExceptionInfo(context, t);
+                complete(Osx.TransportOutbound.newBuilder().setCode(exceptionInfo.getCode()).setMessage(exceptionInfo.getMessage()).build());
+            }
+
+            private void complete(Osx.TransportOutbound result) {
+                try {
+                    responseObserver.onNext(result);
+                    responseObserver.onCompleted();
+                } catch (Exception e) {
+                    logger.error("reply redirect pop result error", e);
+                } finally {
+                    FlowLogUtil.printFlowLog(context);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
     //只有集群内部访问
     @Override
     public void processGrpcRelease(OsxContext context, Osx.ReleaseInbound inbound, StreamObserver<Osx.TransportOutbound> responseObserver) {
         context.setProtocol(Protocol.grpc);
-        context.putData(Dict.RESPONSE_STREAM_OBSERVER, responseObserver);
-        context.putData(Dict.INPUT_DATA, inbound);
+        context.setResponseStreamObserver(responseObserver);
         OsxContext.pushThreadLocalContext(context);
         Osx.TransportOutbound result = null;
         try {
@@ -18,7 +18,6 @@ package org.fedai.osx.broker.ptp;
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import io.grpc.ManagedChannel;
 import io.grpc.stub.StreamObserver;
 import org.apache.commons.lang3.StringUtils;
 import org.fedai.osx.broker.consumer.ConsumerManager;
@@ -30,13 +29,12 @@ import org.fedai.osx.broker.service.Register;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.*;
 import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.context.Protocol;
 import org.fedai.osx.core.exceptions.ExceptionInfo;
 import org.fedai.osx.core.exceptions.TransferQueueNotExistException;
-import org.fedai.osx.core.frame.GrpcConnectionFactory;
 import org.fedai.osx.core.router.RouterInfo;
 import org.fedai.osx.core.service.AbstractServiceAdaptorNew;
 import org.ppc.ptp.Osx;
-import org.ppc.ptp.PrivateTransferTransportGrpc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -100,7 +98,11 @@ public class ConsumeService extends AbstractServiceAdaptorNew<ConsumeRequest, Co
                  * 单机版直接创建队列
                  */
                 logger.warn("create session {} topic {} by consume request ", sessionId, topic);
-                CreateQueueResult createQueueResult = transferQueueManager.createNewQueue(sessionId, topic, true, QueueType.NORMAL);
+                QueueType queueType = QueueType.valueOf(MetaInfo.PROPERTY_DEFAULT_QUEUE_TYPE);
+                if (StringUtils.isNotEmpty(context.getQueueType())) {
+                    queueType = QueueType.valueOf(context.getQueueType());
+                }
+                CreateQueueResult createQueueResult = transferQueueManager.createNewQueue(sessionId, topic, true, queueType);
                 if (createQueueResult.getQueue() == null) {
                     throw new TransferQueueNotExistException();
                 }
@@ -114,7 +116,7 @@ public class ConsumeService extends AbstractServiceAdaptorNew<ConsumeRequest, Co
         if (transferQueueConsumeResult.getCode().equals(StatusCode.CONSUME_NO_MESSAGE)) {
             // 由其他扫描线程应答
             if (inbound.isNeedBlock()) {
-                StreamObserver streamObserver = (StreamObserver) context.getData(Dict.RESPONSE_STREAM_OBSERVER);
+                StreamObserver streamObserver = context.getResponseStreamObserver();
                 UnaryConsumer.LongPullingHold longPullingHold = new UnaryConsumer.LongPullingHold();
                 longPullingHold.setGrpcContext(io.grpc.Context.current());
                 longPullingHold.setNeedOffset(-1);
@@ -130,8 +132,10 @@ public class ConsumeService extends AbstractServiceAdaptorNew<ConsumeRequest, Co
         }
         ConsumerResponse consumeResponse = new ConsumerResponse();
         consumeResponse.setCode(StatusCode.PTP_SUCCESS);
-        if (transferQueueConsumeResult.getMessage() != null)
-            consumeResponse.setPayload(transferQueueConsumeResult.getMessage().getBody());
+        if (transferQueueConsumeResult.getChunkedBody() != null && Protocol.grpc.equals(context.getProtocol()))
+            consumeResponse.setChunkedPayload(transferQueueConsumeResult.getChunkedBody());
+        else if (transferQueueConsumeResult.getMessage() != null)
+            consumeResponse.setPayload(transferQueueConsumeResult.getBody());
         return consumeResponse;
     }
 
@@ -143,14 +147,6 @@ public class ConsumeService extends AbstractServiceAdaptorNew<ConsumeRequest, Co
         return consumerResponse;
     }
 
-    private Osx.TransportOutbound redirect(OsxContext context, RouterInfo routerInfo, Osx.PopInbound inbound) {
-        ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
-        context.setActionType(ActionType.REDIRECT_CONSUME.name());
-        PrivateTransferTransportGrpc.PrivateTransferTransportBlockingStub stub = PrivateTransferTransportGrpc.newBlockingStub(managedChannel);
-        return stub.pop(inbound);
-    }
-
-
     @Override
     public ConsumeRequest decode(Object object) {
         return null;
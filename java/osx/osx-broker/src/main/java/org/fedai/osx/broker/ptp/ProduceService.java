@@ -29,6 +29,7 @@ import org.fedai.osx.broker.pojo.ProduceResponse;
 import org.fedai.osx.broker.queue.*;
 import org.fedai.osx.broker.router.RouterServiceRegister;
 import org.fedai.osx.broker.service.Register;
+import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.ActionType;
 import org.fedai.osx.core.constant.Dict;
 import org.fedai.osx.core.constant.QueueType;
@@ -40,6 +41,7 @@ import org.fedai.osx.core.exceptions.InvalidRequestException;
 import org.fedai.osx.core.exceptions.ParameterException;
 import org.fedai.osx.core.flow.FlowCounterManager;
 import org.fedai.osx.core.service.AbstractServiceAdaptorNew;
+import org.fedai.osx.core.trace.Span;
 import org.fedai.osx.core.utils.JsonUtil;
 import org.ppc.ptp.Osx;
 import org.slf4j.Logger;
@@ -83,7 +85,7 @@ public class ProduceService extends AbstractServiceAdaptorNew<ProduceRequest, Pr
         context.setRouterInfo(null);
         context.setDataSize(dataSize);
 
-        QueueType queueType = QueueType.NORMAL;
+        QueueType queueType = QueueType.valueOf(MetaInfo.PROPERTY_DEFAULT_QUEUE_TYPE);
         if (StringUtils.isNotEmpty(context.getQueueType())) {
             queueType = QueueType.valueOf(context.getQueueType());
         }
@@ -97,13 +99,18 @@ public class ProduceService extends AbstractServiceAdaptorNew<ProduceRequest, Pr
             queue = createQueueResult.getQueue();
         }
         if (queue != null) {
-            context.putData(Dict.TRANSFER_QUEUE, queue);
             byte[] msgBytes = produceRequest.getPayload();
             MessageFlag messageFlag = MessageFlag.SENDMSG;
             if (StringUtils.isNotEmpty(context.getMessageFlag())) {
                 messageFlag = MessageFlag.valueOf(context.getMessageFlag());
             }
-            queue.putMessage(context, msgBytes, messageFlag, produceRequest.getMsgCode());
+            // 包含等待队列锁的时间，与 commitlog.append 的差值即为排队耗时
+            Span span = context.startSpan("queue.put");
+            try {
+                queue.putMessage(context, msgBytes, messageFlag, produceRequest.getMsgCode());
+            } finally {
+                span.end();
+            }
             context.setReturnCode(StatusCode.PTP_SUCCESS);
             ProduceResponse produceResponse = new ProduceResponse(StatusCode.PTP_SUCCESS, Dict.SUCCESS);
             return produceResponse;
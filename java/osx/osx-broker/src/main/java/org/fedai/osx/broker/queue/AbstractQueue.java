@@ -11,6 +11,7 @@ import org.fedai.osx.broker.consumer.ConsumerManager;
 import org.fedai.osx.core.constant.TransferStatus;
 import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.exceptions.TransferQueueInvalidStatusException;
+import org.fedai.osx.core.metric.MonitorContention;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -36,6 +37,10 @@ public class AbstractQueue {
     List<CompleteCallback> completeCallbacks = new ArrayList<>();
     List<DestoryCallback> destoryCallbacks = new ArrayList<>();
     List<MsgEventCallback> msgCallbacks = new ArrayList<>();
+    /**
+     * 写入、消费等热点 synchronized 方法在本队列监视器上的争用
+     */
+    protected final MonitorContention monitorContention = new MonitorContention();
 
     public synchronized void putMessage(OsxContext context, Object data, MessageFlag messageFlag, String msgCode) {
 
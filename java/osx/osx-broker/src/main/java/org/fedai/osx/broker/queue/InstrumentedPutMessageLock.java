@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.queue;
+
+import org.fedai.osx.core.metric.HotPathCounters;
+
+/**
+ * 记录被包装锁的等待时间和持有时间，解锁后写入 HotPathCounters
+ */
+public class InstrumentedPutMessageLock implements PutMessageLock {
+
+    private final PutMessageLock delegate;
+    /**
+     * 只在持锁期间读写，由锁本身保证可见性
+     */
+    private long waitNanos;
+    private long lockedNanos;
+
+    public InstrumentedPutMessageLock(PutMessageLock delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void lock() {
+        long begin = System.nanoTime();
+        delegate.lock();
+        lockedNanos = System.nanoTime();
+        waitNanos = lockedNanos - begin;
+    }
+
+    @Override
+    public void unlock() {
+        long holdNanos = System.nanoTime() - lockedNanos;
+        long wait = waitNanos;
+        delegate.unlock();
+        HotPathCounters.recordPutLock(wait, holdNanos);
+    }
+}
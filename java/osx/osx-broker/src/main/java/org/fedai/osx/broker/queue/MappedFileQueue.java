@@ -369,6 +369,46 @@ public class MappedFileQueue {
         return deleteCount;
     }
 
+    /**
+     * 删除所有数据都在 offset 之前的文件，正在写入的最后一个文件不会被删除
+     */
+    public int deleteFileBeforeOffset(final long offset, final long intervalForcibly) {
+        Object[] mfs = this.copyMappedFiles(0);
+        if (null == mfs)
+            return 0;
+        List<MappedFile> files = new ArrayList<MappedFile>();
+        for (int i = 0; i < mfs.length - 1; i++) {
+            MappedFile mappedFile = (MappedFile) mfs[i];
+            if (mappedFile.getFileFromOffset() + this.mappedFileSize > offset) {
+                break;
+            }
+            if (!mappedFile.destroy(intervalForcibly)) {
+                break;
+            }
+            files.add(mappedFile);
+            if (files.size() >= DELETE_FILES_BATCH_MAX) {
+                break;
+            }
+        }
+        deleteExpiredFile(files);
+        return files.size();
+    }
+
+    public long getReclaimableSize(final long offset) {
+        Object[] mfs = this.copyMappedFiles(0);
+        if (null == mfs)
+            return 0;
+        long size = 0;
+        for (int i = 0; i < mfs.length - 1; i++) {
+            MappedFile mappedFile = (MappedFile) mfs[i];
+            if (mappedFile.getFileFromOffset() + this.mappedFileSize > offset) {
+                break;
+            }
+            size += this.mappedFileSize;
+        }
+        return size;
+    }
+
     public int deleteExpiredFileByOffset(long offset, int unitSize) {
         Object[] mfs = this.copyMappedFiles(0);
 
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.queue;
+
+import org.fedai.osx.broker.constants.MessageFlag;
+import org.fedai.osx.broker.consumer.ConsumerManager;
+import org.fedai.osx.broker.message.MessageDecoder;
+import org.fedai.osx.broker.message.MessageExt;
+import org.fedai.osx.broker.message.MessageExtBrokerInner;
+import org.fedai.osx.broker.message.MessagePropertiesCodec;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.constant.Dict;
+import org.fedai.osx.core.constant.StatusCode;
+import org.fedai.osx.core.constant.TransferStatus;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.exceptions.TransferQueueInvalidStatusException;
+import org.fedai.osx.core.trace.Span;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存队列，消息保存在每个topic独享的堆外环形缓冲区中，不创建索引文件也不写 commit log。
+ * 消息超过 memory.queue.spill.message.size 或缓冲区被未消费的消息占满（消费者滞后）时，
+ * 队列转存为普通的 commit log 队列，之后写入的消息沿用原有的逻辑序号继续写入索引文件，
+ * 已在内存中的消息仍从缓冲区读取，全部消费后释放缓冲区。
+ * 已消费的消息只在缓冲区空间不足时才会被覆盖，被覆盖后不能再按序号重复读取。
+ * 所有队列的缓冲区共用 memory.queue.total.capacity 预算，预算不足时队列在首次写入时即转存。
+ */
+public class MemoryQueue extends TransferQueue {
+
+    /**
+     * 缓冲区中每条消息的头部：消息总长度 int + flag int + 属性长度 int，之后依次是属性和消息体，
+     * 属性按 {@link MessagePropertiesCodec} 编码，包含消息属性和 msgCode
+     */
+    static final int ENTRY_HEADER_SIZE = 12;
+    /**
+     * 所有队列已分配的堆外缓冲区字节数
+     */
+    static final AtomicLong ALLOCATED_BYTES = new AtomicLong(0);
+
+    Logger logger = LoggerFactory.getLogger(MemoryQueue.class);
+    final int capacity;
+    ByteBuffer ring;
+    /**
+     * 写入与可回收位置都是单调递增的，取模后得到在缓冲区中的位置
+     */
+    long writeOffset = 0;
+    long releaseOffset = 0;
+    /**
+     * 按逻辑序号保存每条消息的写入位置，(index - 1) % entryOffsets.length
+     */
+    long[] entryOffsets = new long[16];
+    long firstMemoryIndex = 1;
+    /**
+     * 消费者在队列锁之外读取该值判断是否有新消息
+     */
+    volatile long memoryLogicOffset = 0;
+    long consumedIndex = 0;
+    volatile boolean spilled = false;
+
+    public MemoryQueue(String transferId, TransferQueueManager transferQueueManager, ConsumerManager consumerManager, String path, int shardIndex) {
+        super(transferId, transferQueueManager, consumerManager, path, shardIndex);
+        this.capacity = MetaInfo.PROPERTY_MEMORY_QUEUE_CAPACITY;
+    }
+
+    @Override
+    public long getLogicOffset() {
+        return spilled ? super.getLogicOffset() : memoryLogicOffset;
+    }
+
+    /**
+     * 转存之前的消息都在缓冲区中，不占用 commit log
+     */
+    @Override
+    protected long getFirstIndexedLogicOffset() {
+        return spilled ? memoryLogicOffset + 1 : Long.MAX_VALUE;
+    }
+
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    @Override
+    public void putMessage(OsxContext context, Object data, MessageFlag messageFlag, String msgCode) {
+        if (spilled) {
+            commitLogRetentionService.throttleIfDiskFull();
+        }
+        long monitorBegin = monitorContention.begin(this);
+        synchronized (this) {
+            monitorContention.entered(monitorBegin);
+            if (transferStatus != TransferStatus.TRANSFERING) {
+                logger.error("topic {} is not ready", transferId);
+                throw new TransferQueueInvalidStatusException("invalid queue status : " + transferStatus);
+            }
+            byte[] body = (byte[]) data;
+            if (!spilled) {
+                Span span = context.startSpan("memory.append");
+                MessageExtBrokerInner message = buildMessage(context, body, messageFlag, msgCode);
+                boolean appended = body.length <= MetaInfo.PROPERTY_MEMORY_QUEUE_SPILL_MESSAGE_SIZE && append(message);
+                span.end();
+                if (appended) {
+                    context.putData(Dict.MESSAGE_FLAG, messageFlag.name());
+                    this.lastWriteTimestamp = System.currentTimeMillis();
+                    if (this.msgCallbacks.size() > 0) {
+                        invokeMsgCallbacks(message);
+                    }
+                    context.setCurrentMsgIndex(memoryLogicOffset);
+                    return;
+                }
+                spill();
+            }
+            super.appendMessage(context, data, messageFlag, msgCode);
+        }
+    }
+
+    @Override
+    public TransferQueueConsumeResult consumeOneMessage(OsxContext context, long requestIndex) {
+        long monitorBegin = monitorContention.begin(this);
+        synchronized (this) {
+            monitorContention.entered(monitorBegin);
+            if (spilled && requestIndex > memoryLogicOffset) {
+                TransferQueueConsumeResult result = super.consumeOneMessage(context, requestIndex);
+                if (StatusCode.SUCCESS.equals(result.getCode())) {
+                    consumedIndex = Math.max(consumedIndex, requestIndex);
+                    releaseRingIfDrained();
+                }
+                return result;
+            }
+            if (transferStatus != TransferStatus.TRANSFERING) {
+                throw new TransferQueueInvalidStatusException("transfer queue invalid status : " + transferStatus);
+            }
+            this.lastReadTimestamp = System.currentTimeMillis();
+            long logicIndex = getLogicOffset();
+            context.setRequestMsgIndex(requestIndex);
+            context.setCurrentMsgIndex(logicIndex);
+            if (requestIndex > logicIndex) {
+                return new TransferQueueConsumeResult(StatusCode.CONSUME_NO_MESSAGE, null, requestIndex, logicIndex);
+            }
+            if (ring == null || requestIndex < firstMemoryIndex) {
+                return new TransferQueueConsumeResult(StatusCode.INVALID_INDEXFILE_DETAIL, null, requestIndex, logicIndex);
+            }
+            TransferQueueConsumeResult result = new TransferQueueConsumeResult(StatusCode.SUCCESS, null, requestIndex, logicIndex);
+            result.setMessage(read(requestIndex));
+            consumedIndex = Math.max(consumedIndex, requestIndex);
+            releaseRingIfDrained();
+            return result;
+        }
+    }
+
+    @Override
+    public synchronized void destory() {
+        freeRing();
+        super.destory();
+    }
+
+    /**
+     * 写入环形缓冲区，空间不足时依次覆盖已消费的消息，仍不足则返回false
+     */
+    private boolean append(MessageExtBrokerInner message) {
+        byte[] body = message.getBody();
+        Map<String, String> properties = new HashMap<>(message.getProperties());
+        if (message.getMsgId() != null) {
+            properties.put(Dict.MESSAGE_CODE, message.getMsgId());
+        }
+        byte[] encodedProperties = MessagePropertiesCodec.encode(properties);
+        int entrySize = ENTRY_HEADER_SIZE + encodedProperties.length + body.length;
+        if (entrySize > capacity) {
+            return false;
+        }
+        if (ring == null) {
+            if (!reserve(capacity)) {
+                logger.warn("topic {} session {} memory queue budget {} exhausted, allocated {}", transferId, sessionId,
+                        MetaInfo.PROPERTY_MEMORY_QUEUE_TOTAL_CAPACITY, ALLOCATED_BYTES.get());
+                return false;
+            }
+            ring = ByteBuffer.allocateDirect(capacity);
+        }
+        int pos = (int) (writeOffset % capacity);
+        // 消息不跨越缓冲区尾部，剩余空间不足时跳到缓冲区头部
+        int padding = pos + entrySize > capacity ? capacity - pos : 0;
+        while (capacity - (writeOffset - releaseOffset) < padding + entrySize) {
+            if (firstMemoryIndex > memoryLogicOffset) {
+                releaseOffset = writeOffset + padding;
+                break;
+            }
+            if (firstMemoryIndex > consumedIndex) {
+                return false;
+            }
+            firstMemoryIndex++;
+            releaseOffset = firstMemoryIndex > memoryLogicOffset ? writeOffset : entryOffsets[slot(firstMemoryIndex)];
+        }
+        if (memoryLogicOffset + 1 - firstMemoryIndex >= entryOffsets.length) {
+            growEntryOffsets();
+        }
+        writeOffset += padding;
+        pos = (int) (writeOffset % capacity);
+        ring.putInt(pos, entrySize);
+        ring.putInt(pos + 4, message.getFlag());
+        ring.putInt(pos + 8, encodedProperties.length);
+        ByteBuffer slice = ring.duplicate();
+        slice.position(pos + ENTRY_HEADER_SIZE);
+        slice.put(encodedProperties);
+        slice.put(body);
+        memoryLogicOffset++;
+        entryOffsets[slot(memoryLogicOffset)] = writeOffset;
+        writeOffset += entrySize;
+        return true;
+    }
+
+    private MessageExt read(long index) {
+        int pos = (int) (entryOffsets[slot(index)] % capacity);
+        int entrySize = ring.getInt(pos);
+        int flag = ring.getInt(pos + 4);
+        int propertiesLength = ring.getInt(pos + 8);
+        byte[] encodedProperties = new byte[propertiesLength];
+        byte[] body = new byte[entrySize - ENTRY_HEADER_SIZE - propertiesLength];
+        ByteBuffer slice = ring.duplicate();
+        slice.position(pos + ENTRY_HEADER_SIZE);
+        slice.get(encodedProperties);
+        slice.get(body);
+        Map<String, String> properties = MessagePropertiesCodec.decode(encodedProperties);
+        String msgCode = properties.remove(Dict.MESSAGE_CODE);
+        MessageExt message = MessageDecoder.buildMessageExtBrokerInner(transferId, body, msgCode, MessageFlag.SENDMSG, srcPartyId, desPartyId);
+        message.setFlag(flag);
+        message.getProperties().putAll(properties);
+        return message;
+    }
+
+    /**
+     * 转存到 commit log，索引文件从内存中最后一条消息的逻辑序号之后继续写入
+     */
+    private void spill() {
+        logger.info("topic {} session {} memory queue spill to commit log at index {}", transferId, sessionId, memoryLogicOffset);
+        this.indexQueue.getLogicOffset().set(memoryLogicOffset);
+        this.spilled = true;
+        releaseRingIfDrained();
+    }
+
+    private void releaseRingIfDrained() {
+        if (spilled && ring != null && consumedIndex >= memoryLogicOffset) {
+            freeRing();
+        }
+    }
+
+    private void freeRing() {
+        if (ring != null) {
+            ByteBuffer buffer = ring;
+            ring = null;
+            MappedFile.clean(buffer);
+            ALLOCATED_BYTES.addAndGet(-capacity);
+        }
+    }
+
+    private static boolean reserve(int size) {
+        long allocated;
+        do {
+            allocated = ALLOCATED_BYTES.get();
+            if (allocated + size > MetaInfo.PROPERTY_MEMORY_QUEUE_TOTAL_CAPACITY) {
+                return false;
+            }
+        } while (!ALLOCATED_BYTES.compareAndSet(allocated, allocated + size));
+        return true;
+    }
+
+    public static long getAllocatedBytes() {
+        return ALLOCATED_BYTES.get();
+    }
+
+    private int slot(long index) {
+        return (int) ((index - 1) % entryOffsets.length);
+    }
+
+    private void growEntryOffsets() {
+        long[] grown = new long[entryOffsets.length << 1];
+        for (long i = firstMemoryIndex; i <= memoryLogicOffset; i++) {
+            grown[(int) ((i - 1) % grown.length)] = entryOffsets[slot(i)];
+        }
+        entryOffsets = grown;
+    }
+}
@@ -21,6 +21,7 @@ public class PutMessageResult {
     private PutMessageStatus putMessageStatus;
     private AppendMessageResult appendMessageResult;
     private long msgLogicOffset;
+    private long minWroteOffset = -1;
 
     public PutMessageResult(PutMessageStatus putMessageStatus, AppendMessageResult appendMessageResult) {
         this.putMessageStatus = putMessageStatus;
@@ -35,6 +36,17 @@ public class PutMessageResult {
         this.msgLogicOffset = msgLogicOffset;
     }
 
+    /**
+     * 本次写入占用的最小物理偏移量，消息被拆分为chunk时为最早写入的chunk的偏移量
+     */
+    public long getMinWroteOffset() {
+        return minWroteOffset;
+    }
+
+    public void setMinWroteOffset(long minWroteOffset) {
+        this.minWroteOffset = minWroteOffset;
+    }
+
     public boolean isOk() {
         return this.appendMessageResult != null && this.appendMessageResult.isOk();
     }
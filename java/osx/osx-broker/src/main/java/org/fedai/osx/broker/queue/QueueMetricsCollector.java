@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.queue;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.fedai.osx.broker.consumer.ConsumerManager;
+import org.fedai.osx.broker.consumer.UnaryConsumer;
+import org.fedai.osx.broker.store.CommitLogRetentionService;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.metric.HotPathCounters;
+import org.fedai.osx.core.metric.MetricsCollector;
+import org.fedai.osx.core.metric.MetricsRegistry;
+import org.fedai.osx.core.metric.MonitorContention;
+import org.fedai.osx.core.metric.PrometheusTextWriter;
+import org.fedai.osx.core.service.ApplicationStartedRunner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 输出积压最多的 metrics.topic.limit 个topic的积压消息数和长轮询等待数，其余topic合并输出，
+ * 以及队列与消费者监视器的争用（按监视器类型汇总）、文件映射占用和各分片commit log的回收状态。topic 随会话不断产生，不能全部作为标签
+ */
+@Singleton
+public class QueueMetricsCollector implements MetricsCollector, ApplicationStartedRunner {
+
+    static final String OTHER = "_other";
+
+    @Inject
+    TransferQueueManager transferQueueManager;
+    @Inject
+    ConsumerManager consumerManager;
+
+    @Override
+    public void collect(PrometheusTextWriter writer) {
+        List<QueueSample> samples = new ArrayList<>();
+        long[] queueMonitor = new long[3];
+        long[] consumerMonitor = new long[3];
+        for (AbstractQueue queue : transferQueueManager.getAllQueues()) {
+            if (!(queue instanceof TransferQueue)) {
+                continue;
+            }
+            addMonitor(queueMonitor, queue.getMonitorContention());
+            String indexKey = TransferQueueManager.assembleTopic(queue.getSessionId(), queue.getTransferId());
+            UnaryConsumer unaryConsumer = consumerManager.getUnaryConsumer(indexKey);
+            if (unaryConsumer != null) {
+                addMonitor(consumerMonitor, unaryConsumer.getMonitorContention());
+            }
+            long consumed = unaryConsumer != null ? unaryConsumer.getConsumeOffset() - 1 : 0;
+            samples.add(new QueueSample(queue.getSessionId(), queue.getTransferId(),
+                    Math.max(((TransferQueue) queue).getLogicOffset() - consumed, 0),
+                    unaryConsumer != null ? unaryConsumer.getLongPullingQueueSize() : 0));
+        }
+        samples.sort((a, b) -> Long.compare(b.depth, a.depth));
+        int limit = Math.min(samples.size(), MetaInfo.PROPERTY_METRICS_TOPIC_LIMIT);
+        long otherDepth = 0;
+        long otherWaiting = 0;
+        for (int i = limit; i < samples.size(); i++) {
+            otherDepth += samples.get(i).depth;
+            otherWaiting += samples.get(i).waiting;
+        }
+        // 同名样本需连续输出，因此先收集再按指标分别输出
+        writer.declare("osx_queue_depth", "gauge", "messages not consumed yet of the deepest topics, the others are summed as _other");
+        for (int i = 0; i < limit; i++) {
+            QueueSample sample = samples.get(i);
+            writer.sample("osx_queue_depth", sample.depth, "session", sample.session, "topic", sample.topic);
+        }
+        if (samples.size() > limit) {
+            writer.sample("osx_queue_depth", otherDepth, "session", OTHER, "topic", OTHER);
+        }
+        writer.declare("osx_long_pulling_waiting", "gauge", "consume requests waiting for messages of the deepest topics, the others are summed as _other");
+        for (int i = 0; i < limit; i++) {
+            QueueSample sample = samples.get(i);
+            writer.sample("osx_long_pulling_waiting", sample.waiting, "session", sample.session, "topic", sample.topic);
+        }
+        if (samples.size() > limit) {
+            writer.sample("osx_long_pulling_waiting", otherWaiting, "session", OTHER, "topic", OTHER);
+        }
+        writer.declare("osx_monitor_entries_total", "counter", "entries of synchronized monitors of live queues");
+        writer.sample("osx_monitor_entries_total", queueMonitor[0], "monitor", "queue");
+        writer.sample("osx_monitor_entries_total", consumerMonitor[0], "monitor", "consumer");
+        writer.declare("osx_monitor_contended_total", "counter", "entries that waited for another thread holding the monitor");
+        writer.sample("osx_monitor_contended_total", queueMonitor[1], "monitor", "queue");
+        writer.sample("osx_monitor_contended_total", consumerMonitor[1], "monitor", "consumer");
+        writer.declare("osx_monitor_wait_seconds_total", "counter", "time waiting to enter synchronized monitors");
+        writer.sample("osx_monitor_wait_seconds_total", queueMonitor[2] / 1e9, "monitor", "queue");
+        writer.sample("osx_monitor_wait_seconds_total", consumerMonitor[2] / 1e9, "monitor", "consumer");
+        writer.declare("osx_mapped_files", "gauge", "mapped commit log and index files");
+        writer.sample("osx_mapped_files", MappedFile.getTotalMappedFiles());
+        writer.declare("osx_mapped_virtual_memory_bytes", "gauge", "virtual memory of mapped files");
+        writer.sample("osx_mapped_virtual_memory_bytes", MappedFile.getTotalMappedVirtualMemory());
+        writer.declare("osx_memory_queue_allocated_bytes", "gauge", "off-heap ring buffers allocated by memory queues");
+        writer.sample("osx_memory_queue_allocated_bytes", MemoryQueue.getAllocatedBytes());
+        collectRetention(writer);
+    }
+
+    private void collectRetention(PrometheusTextWriter writer) {
+        int shardNum = transferQueueManager.getShardNum();
+        writer.declare("osx_commit_log_reclaimable_bytes", "gauge", "commit log bytes found below the min live offset at the last retention check");
+        for (int i = 0; i < shardNum; i++) {
+            writer.sample("osx_commit_log_reclaimable_bytes", transferQueueManager.getCommitLogRetentionService(i).getReclaimableBytes(), "shard", String.valueOf(i));
+        }
+        writer.declare("osx_commit_log_disk_usage_percent", "gauge", "usage of the disk holding the commit log");
+        for (int i = 0; i < shardNum; i++) {
+            writer.sample("osx_commit_log_disk_usage_percent", transferQueueManager.getCommitLogRetentionService(i).getDiskUsagePercent(), "shard", String.valueOf(i));
+        }
+        writer.declare("osx_commit_log_min_live_offset", "gauge", "min physical offset still referenced by queues or in-flight writes, -1 before the first check");
+        for (int i = 0; i < shardNum; i++) {
+            writer.sample("osx_commit_log_min_live_offset", transferQueueManager.getCommitLogRetentionService(i).getMinLiveOffset(), "shard", String.valueOf(i));
+        }
+    }
+
+    /**
+     * 各分片commit log的回收状态，用于诊断接口
+     */
+    Map<String, Object> retentionSnapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (int i = 0; i < transferQueueManager.getShardNum(); i++) {
+            CommitLogRetentionService retentionService = transferQueueManager.getCommitLogRetentionService(i);
+            Map<String, Object> shard = new LinkedHashMap<>();
+            shard.put("minLiveOffset", retentionService.getMinLiveOffset());
+            shard.put("reclaimableBytes", retentionService.getReclaimableBytes());
+            shard.put("diskUsagePercent", retentionService.getDiskUsagePercent());
+            result.put(String.valueOf(i), shard);
+        }
+        return result;
+    }
+
+    private static void addMonitor(long[] total, MonitorContention monitorContention) {
+        total[0] += monitorContention.getEntries();
+        total[1] += monitorContention.getContended();
+        total[2] += monitorContention.getWaitNanos();
+    }
+
+    @Override
+    public void run(String[] args) throws Exception {
+        MetricsRegistry.registerCollector(this);
+        HotPathCounters.registerSection("commitLogRetention", this::retentionSnapshot);
+    }
+
+    static class QueueSample {
+        final String session;
+        final String topic;
+        final long depth;
+        final long waiting;
+
+        QueueSample(String session, String topic, long depth, long waiting) {
+            this.session = session;
+            this.topic = topic;
+            this.depth = depth;
+            this.waiting = waiting;
+        }
+    }
+}
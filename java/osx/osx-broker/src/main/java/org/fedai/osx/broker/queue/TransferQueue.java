@@ -22,8 +22,11 @@ import org.fedai.osx.broker.consumer.ConsumerManager;
 import org.fedai.osx.broker.message.MessageDecoder;
 import org.fedai.osx.broker.message.MessageExt;
 import org.fedai.osx.broker.message.MessageExtBrokerInner;
+import org.fedai.osx.broker.message.MessageSysFlag;
 import org.fedai.osx.broker.message.SelectMappedBufferResult;
+import org.fedai.osx.broker.store.CommitLogRetentionService;
 import org.fedai.osx.broker.store.IndexQueue;
+import org.fedai.osx.broker.store.MessageStore;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.Dict;
 import org.fedai.osx.core.constant.StatusCode;
@@ -32,6 +35,7 @@ import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.exceptions.PutMessageException;
 import org.fedai.osx.core.exceptions.TransferQueueInvalidStatusException;
 import org.fedai.osx.core.queue.TranferQueueInfo;
+import org.fedai.osx.core.trace.Span;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,8 +48,20 @@ public class TransferQueue extends AbstractQueue {
     //    private Cache<String, OutboundPackage<Osx.Outbound>> receivedMsgCache;
     IndexQueue indexQueue;
     boolean hasEventMsgDestoryCallback = false;
+    /**
+     * 消费者已确认的最大逻辑序号，此序号之后的消息引用的commit log不能被回收
+     */
+    volatile long consumedLogicOffset = 0;
+    /**
+     * 回收线程缓存的最早一条未消费消息的逻辑序号及其最小物理偏移量，消费进度不变时不重复读取索引
+     */
+    long liveLogicOffset = -1;
+    long minPhysicOffset = -1;
+    int shardIndex;
+    MessageStore messageStore;
+    CommitLogRetentionService commitLogRetentionService;
 
-    public TransferQueue(String transferId, TransferQueueManager transferQueueManager, ConsumerManager consumerManager, String path) {
+    public TransferQueue(String transferId, TransferQueueManager transferQueueManager, ConsumerManager consumerManager, String path, int shardIndex) {
         this.transferId = transferId;
         this.transferQueueManager = transferQueueManager;
         this.createTimestamp = System.currentTimeMillis();
@@ -53,6 +69,9 @@ public class TransferQueue extends AbstractQueue {
         this.lastWriteTimestamp = this.createTimestamp;
         this.indexQueue = new IndexQueue(transferId, path, MetaInfo.PROPERTY_INDEX_MAP_FILE_SIZE);
         this.consumerManager = consumerManager;
+        this.shardIndex = shardIndex;
+        this.messageStore = transferQueueManager.getMessageStore(shardIndex);
+        this.commitLogRetentionService = transferQueueManager.getCommitLogRetentionService(shardIndex);
 //        initReceivedMsgCache();
     }
 
@@ -69,54 +88,95 @@ public class TransferQueue extends AbstractQueue {
     private synchronized PutMessageResult putMessage(final MessageExtBrokerInner msg) {
 
         if (transferStatus == TransferStatus.TRANSFERING) {
-            String msgId = msg.getMsgId();
             this.lastWriteTimestamp = System.currentTimeMillis();
-            PutMessageResult putMessageResult = transferQueueManager.messageStore.putMessage(msg);
-            if (putMessageResult.isOk()) {
-
-                int cacheIdx = wrotePosition.addAndGet(1) % MetaInfo.PROPERTY_TRANSFER_CACHED_MSGID_SIZE;
-                receivedMsgIds.set(cacheIdx, msgId);
-                long beginWriteOffset = putMessageResult.getAppendMessageResult().getWroteOffset();
-                int size = putMessageResult.getAppendMessageResult().getWroteBytes();
-                putMessageResult.setMsgLogicOffset(indexQueue.putMessagePositionInfoWrapper(beginWriteOffset, size));
-                //todo 这里需要修改，用另外的队列类型来做，就不再需要持久化
-                if (this.msgCallbacks.size() > 0) {
-                    try {
-                        for (MsgEventCallback msgCallback : this.msgCallbacks) {
-                            msgCallback.callback(consumerManager, this, msg);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        logger.error("topic {} callback error", msg.getTopic(), e);
-                        throw new PutMessageException("topic " + msg.getTopic() + " callback error");
-                    }
-                }
-            } else {
-                logger.info("topic {} put msg error {}", transferId, putMessageResult.getPutMessageStatus());
-                throw new PutMessageException("topic " + msg.getTopic() + " put message error");
+            // 等待已在获取队列锁之前完成，这里只做不阻塞的检查
+            commitLogRetentionService.rejectIfDiskFull();
+            Object writeToken = messageStore.beginWrite();
+            try {
+                return appendAndIndex(msg);
+            } finally {
+                messageStore.endWrite(writeToken);
             }
-            return putMessageResult;
         } else {
             logger.error("topic {} is not ready", transferId);
             throw new TransferQueueInvalidStatusException("invalid queue status : " + transferStatus);
         }
     }
 
-    @Override
-    public synchronized void putMessage(OsxContext context, Object data, MessageFlag messageFlag, String msgCode) {
-        context.putData(Dict.MESSAGE_FLAG, messageFlag.name());
-        MessageExtBrokerInner messageExtBrokerInner = MessageDecoder.buildMessageExtBrokerInner(context.getTopic(), (byte[]) data, msgCode, messageFlag,
+    private PutMessageResult appendAndIndex(final MessageExtBrokerInner msg) {
+        String msgId = msg.getMsgId();
+        PutMessageResult putMessageResult = messageStore.needChunk(msg) ? messageStore.putChunkedMessage(msg) : messageStore.putMessage(msg);
+        if (putMessageResult.isOk()) {
+            int cacheIdx = wrotePosition.addAndGet(1) % MetaInfo.PROPERTY_TRANSFER_CACHED_MSGID_SIZE;
+            receivedMsgIds.set(cacheIdx, msgId);
+            long beginWriteOffset = putMessageResult.getAppendMessageResult().getWroteOffset();
+            int size = putMessageResult.getAppendMessageResult().getWroteBytes();
+            putMessageResult.setMsgLogicOffset(indexQueue.putMessagePositionInfoWrapper(beginWriteOffset, size));
+            invokeMsgCallbacks(msg);
+        } else {
+            logger.info("topic {} put msg error {}", transferId, putMessageResult.getPutMessageStatus());
+            throw new PutMessageException("topic " + msg.getTopic() + " put message error");
+        }
+        return putMessageResult;
+    }
+
+    protected void invokeMsgCallbacks(MessageExtBrokerInner msg) {
+        //todo 这里需要修改，用另外的队列类型来做，就不再需要持久化
+        if (this.msgCallbacks.size() > 0) {
+            try {
+                for (MsgEventCallback msgCallback : this.msgCallbacks) {
+                    msgCallback.callback(consumerManager, this, msg);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                logger.error("topic {} callback error", msg.getTopic(), e);
+                throw new PutMessageException("topic " + msg.getTopic() + " callback error");
+            }
+        }
+    }
+
+    protected MessageExtBrokerInner buildMessage(OsxContext context, byte[] data, MessageFlag messageFlag, String msgCode) {
+        MessageExtBrokerInner messageExtBrokerInner = MessageDecoder.buildMessageExtBrokerInner(context.getTopic(), data, msgCode, messageFlag,
                 context.getSrcNodeId(),
                 context.getDesNodeId());
         messageExtBrokerInner.getProperties().put(Dict.SESSION_ID, sessionId);
         messageExtBrokerInner.getProperties().put(Dict.SOURCE_COMPONENT, context.getSrcComponent() != null ? context.getSrcComponent() : "");
         messageExtBrokerInner.getProperties().put(Dict.DES_COMPONENT, context.getDesComponent() != null ? context.getDesComponent() : "");
-        PutMessageResult putMessageResult = this.putMessage(messageExtBrokerInner);
-        if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
-            throw new PutMessageException("put status " + putMessageResult.getPutMessageStatus());
+        return messageExtBrokerInner;
+    }
+
+    /**
+     * 当前队列中最新一条消息的逻辑序号，消费者据此判断是否有新消息到达
+     */
+    public long getLogicOffset() {
+        return indexQueue.getLogicOffset().get();
+    }
+
+    @Override
+    public void putMessage(OsxContext context, Object data, MessageFlag messageFlag, String msgCode) {
+        // 磁盘满时在获取队列锁之前等待回收，避免阻塞同一队列的消费者
+        commitLogRetentionService.throttleIfDiskFull();
+        appendMessage(context, data, messageFlag, msgCode);
+    }
+
+    protected void appendMessage(OsxContext context, Object data, MessageFlag messageFlag, String msgCode) {
+        long monitorBegin = monitorContention.begin(this);
+        synchronized (this) {
+            monitorContention.entered(monitorBegin);
+            context.putData(Dict.MESSAGE_FLAG, messageFlag.name());
+            MessageExtBrokerInner messageExtBrokerInner = buildMessage(context, (byte[]) data, messageFlag, msgCode);
+            Span span = context.startSpan("commitlog.append");
+            PutMessageResult putMessageResult;
+            try {
+                putMessageResult = this.putMessage(messageExtBrokerInner);
+            } finally {
+                span.end();
+            }
+            if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                throw new PutMessageException("put status " + putMessageResult.getPutMessageStatus());
+            }
+            context.setCurrentMsgIndex(this.getLogicOffset());
         }
-        long logicOffset = putMessageResult.getMsgLogicOffset();
-        context.putData(Dict.CURRENT_INDEX, this.getIndexQueue().getLogicOffset().get());
     }
 
     @Override
@@ -127,16 +187,19 @@ public class TransferQueue extends AbstractQueue {
             this.lastReadTimestamp = System.currentTimeMillis();
             long logicIndex = indexQueue.getLogicOffset().get();
 
-            context.putData(Dict.REQUEST_INDEX, requestIndex);
+            context.setRequestMsgIndex(requestIndex);
             //context.setCurrentMsgIndex(logicIndex);
-            context.putData(Dict.CURRENT_INDEX, logicIndex);
+            context.setCurrentMsgIndex(logicIndex);
             if (requestIndex <= logicIndex) {
                 SelectMappedBufferResult indexBufferResult = this.indexQueue.getIndexBuffer(requestIndex);
                 if (indexBufferResult != null) {
                     long pyOffset = indexBufferResult.getByteBuffer().getLong();
-                    SelectMappedBufferResult msgBufferResult = this.transferQueueManager.getMessageStore().consumeOneMessage(pyOffset);
+                    SelectMappedBufferResult msgBufferResult = this.messageStore.consumeOneMessage(pyOffset);
                     transferQueueConsumeResult = new TransferQueueConsumeResult(StatusCode.SUCCESS, msgBufferResult, requestIndex, logicIndex);
                     MessageExt message = MessageDecoder.decode(transferQueueConsumeResult.getSelectMappedBufferResult().getByteBuffer());
+                    if (message != null && MessageSysFlag.isChunkHead(message.getSysFlag())) {
+                        transferQueueConsumeResult.setChunkedBody(this.messageStore.readChunkedPayload(message));
+                    }
                     transferQueueConsumeResult.setMessage(message);
                 } else {
                     transferQueueConsumeResult = new TransferQueueConsumeResult(StatusCode.INVALID_INDEXFILE_DETAIL, null, requestIndex, logicIndex);
@@ -150,6 +213,68 @@ public class TransferQueue extends AbstractQueue {
         return transferQueueConsumeResult;
     }
 
+    /**
+     * 消费者确认消息后调用，回收线程据此推进该队列保留的最小物理偏移量
+     */
+    public void onConsumed(long logicOffset) {
+        if (logicOffset > consumedLogicOffset) {
+            consumedLogicOffset = logicOffset;
+        }
+    }
+
+    /**
+     * 只由回收线程调用，返回最早一条未消费消息引用的最小物理偏移量，没有未消费的消息时返回-1，
+     * 正在写入的消息由 {@link MessageStore#beginWrite()} 保护
+     */
+    public long getMinPhysicOffset() {
+        long next = Math.max(consumedLogicOffset + 1, getFirstIndexedLogicOffset());
+        if (next > getLogicOffset()) {
+            return -1;
+        }
+        if (next != liveLogicOffset) {
+            long offset = findMinPhysicOffset(next);
+            if (offset < 0) {
+                return minPhysicOffset;
+            }
+            liveLogicOffset = next;
+            minPhysicOffset = offset;
+        }
+        return minPhysicOffset;
+    }
+
+    /**
+     * 索引文件中第一条消息的逻辑序号
+     */
+    protected long getFirstIndexedLogicOffset() {
+        return 1;
+    }
+
+    private long findMinPhysicOffset(long logicOffset) {
+        SelectMappedBufferResult indexBufferResult = this.indexQueue.getIndexBuffer(logicOffset);
+        if (indexBufferResult == null) {
+            return -1;
+        }
+        long pyOffset;
+        try {
+            pyOffset = indexBufferResult.getByteBuffer().getLong();
+        } finally {
+            indexBufferResult.release();
+        }
+        SelectMappedBufferResult msgBufferResult = this.messageStore.consumeOneMessage(pyOffset);
+        if (msgBufferResult == null) {
+            return pyOffset;
+        }
+        try {
+            MessageExt message = MessageDecoder.decode(msgBufferResult.getByteBuffer(), false);
+            if (message != null && MessageSysFlag.isChunkHead(message.getSysFlag())) {
+                return this.messageStore.getMinChunkOffset(message, pyOffset);
+            }
+        } finally {
+            msgBufferResult.release();
+        }
+        return pyOffset;
+    }
+
     public synchronized void destory() {
 
         this.indexQueue.destroy();
@@ -192,7 +317,7 @@ public class TransferQueue extends AbstractQueue {
         transferQueueInfo.setLastReadTimestamp(lastReadTimestamp);
         transferQueueInfo.setLastWriteTimestamp(lastWriteTimestamp);
         transferQueueInfo.setTransferStatus(transferStatus);
-        transferQueueInfo.setLogicOffset(indexQueue.getLogicOffset().get());
+        transferQueueInfo.setLogicOffset(getLogicOffset());
         return transferQueueInfo;
     }
 
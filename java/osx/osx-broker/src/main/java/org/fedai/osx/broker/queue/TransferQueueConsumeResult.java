@@ -1,5 +1,7 @@
 package org.fedai.osx.broker.queue;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import lombok.Data;
 import org.fedai.osx.broker.message.MessageExt;
 import org.fedai.osx.broker.message.SelectMappedBufferResult;
@@ -12,6 +14,10 @@ public class TransferQueueConsumeResult {
     long logicIndexTotal;
     String code = "-1";
     MessageExt message;
+    /**
+     * 分块存储的消息按块拼接的消息体，此时 message 中只有head的消息体
+     */
+    ByteString chunkedBody;
 
     public TransferQueueConsumeResult(String code,
                                       SelectMappedBufferResult selectMappedBufferResult,
@@ -22,4 +28,28 @@ public class TransferQueueConsumeResult {
         this.requestIndex = requestIndex;
         this.logicIndexTotal = logicIndex;
     }
+
+    /**
+     * grpc 应答使用，分块消息不会复制成一个完整的数组
+     */
+    public ByteString getPayload() {
+        if (chunkedBody != null) {
+            return chunkedBody;
+        }
+        return message != null && message.getBody() != null ? UnsafeByteOperations.unsafeWrap(message.getBody()) : null;
+    }
+
+    public byte[] getBody() {
+        if (chunkedBody != null) {
+            return chunkedBody.toByteArray();
+        }
+        return message != null ? message.getBody() : null;
+    }
+
+    public long getBodySize() {
+        if (chunkedBody != null) {
+            return chunkedBody.size();
+        }
+        return message != null && message.getBody() != null ? message.getBody().length : 0;
+    }
 }
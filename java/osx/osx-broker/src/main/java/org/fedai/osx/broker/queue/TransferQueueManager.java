@@ -24,6 +24,7 @@ import org.fedai.osx.broker.callback.MsgEventCallback;
 import org.fedai.osx.broker.consumer.ConsumerManager;
 import org.fedai.osx.broker.consumer.EventDriverRule;
 import org.fedai.osx.broker.message.AllocateMappedFileService;
+import org.fedai.osx.broker.store.CommitLogRetentionService;
 import org.fedai.osx.broker.store.MessageStore;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.*;
@@ -33,6 +34,7 @@ import org.fedai.osx.core.utils.NetUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.File;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -64,8 +66,9 @@ public class TransferQueueManager {
 
     @Inject
     ConsumerManager consumerManager;
-    MessageStore messageStore;
-    AllocateMappedFileService allocateMappedFileService;
+    MessageStore[] messageStores;
+    CommitLogRetentionService[] commitLogRetentionServices;
+    ConcurrentHashMap<String, Integer> shardPinMap = new ConcurrentHashMap<>();
     volatile long transferApplyInfoVersion = -1;
     private ServiceThread cleanTask = new ServiceThread() {
         @Override
@@ -81,8 +84,15 @@ public class TransferQueueManager {
         }
     };
     public TransferQueueManager() {
-        allocateMappedFileService = createAllocateMappedFileService();
-        messageStore = createMessageStore(allocateMappedFileService);
+        int shardNum = MetaInfo.PROPERTY_MESSAGE_STORE_SHARD_NUM;
+        messageStores = new MessageStore[shardNum];
+        commitLogRetentionServices = new CommitLogRetentionService[shardNum];
+        for (int i = 0; i < shardNum; i++) {
+            messageStores[i] = createMessageStore(createAllocateMappedFileService(), getShardStorePath(i));
+            commitLogRetentionServices[i] = new CommitLogRetentionService(this, messageStores[i]);
+            commitLogRetentionServices[i].start();
+        }
+        loadShardPin(MetaInfo.PROPERTY_MESSAGE_STORE_SHARD_PIN);
         instanceIds.add(MetaInfo.INSTANCE_ID);
         cleanTask.start();
     }
@@ -93,18 +103,69 @@ public class TransferQueueManager {
         return sb.toString();
     }
 
-    public MessageStore getMessageStore() {
-        return messageStore;
+    public MessageStore getMessageStore(int shardIndex) {
+        return messageStores[shardIndex];
+    }
+
+    public CommitLogRetentionService getCommitLogRetentionService(int shardIndex) {
+        return commitLogRetentionServices[shardIndex];
     }
 
-    public void setMessageStore(MessageStore messageStore) {
-        this.messageStore = messageStore;
+    public int getShardNum() {
+        return messageStores.length;
+    }
+
+    /**
+     * 固定配置的session优先，其余session按 hash 分配
+     */
+    public int selectShard(String sessionId) {
+        if (messageStores.length == 1 || sessionId == null) {
+            return 0;
+        }
+        for (Map.Entry<String, Integer> entry : shardPinMap.entrySet()) {
+            if (sessionId.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return (sessionId.hashCode() & Integer.MAX_VALUE) % messageStores.length;
+    }
+
+    public void pinShard(String sessionIdPrefix, int shardIndex) {
+        Preconditions.checkArgument(StringUtils.isNotEmpty(sessionIdPrefix));
+        Preconditions.checkArgument(shardIndex >= 0 && shardIndex < messageStores.length, "invalid shard index " + shardIndex);
+        shardPinMap.put(sessionIdPrefix, shardIndex);
+    }
+
+    private void loadShardPin(String shardPinConfig) {
+        if (StringUtils.isEmpty(shardPinConfig)) {
+            return;
+        }
+        for (String item : shardPinConfig.split(",")) {
+            String[] elements = item.trim().split(":");
+            try {
+                pinShard(elements[0].trim(), Integer.parseInt(elements[1].trim()));
+            } catch (Exception e) {
+                logger.error("invalid message store shard pin config {}", item, e);
+            }
+        }
+    }
+
+    private String getShardStorePath(int shardIndex) {
+        String basePath = MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE;
+        if (StringUtils.isNotEmpty(MetaInfo.PROPERTY_MESSAGE_STORE_SHARD_DIRS)) {
+            String[] dirs = MetaInfo.PROPERTY_MESSAGE_STORE_SHARD_DIRS.split(",");
+            basePath = dirs[shardIndex % dirs.length].trim();
+        }
+        return basePath + File.separator + MetaInfo.INSTANCE_ID + File.separator + "message-store" + (shardIndex == 0 ? "" : "-" + shardIndex);
+    }
+
+    public Collection<AbstractQueue> getAllQueues() {
+        return queueMap.values();
     }
 
     public MessageStore createMessageStore(
-            AllocateMappedFileService allocateMappedFileService) {
-        MessageStore messageStore = new MessageStore(allocateMappedFileService
-                , MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE + File.separator + MetaInfo.INSTANCE_ID + File.separator + "message-store");
+            AllocateMappedFileService allocateMappedFileService, String path) {
+        MessageStore messageStore = new MessageStore(allocateMappedFileService, path);
         messageStore.start();
         return messageStore;
     }
@@ -160,6 +221,12 @@ public class TransferQueueManager {
                 sessionQueueMap.remove(sessionId);
             }
         }
+        /*
+         * 队列销毁后其引用的commit log可能已经可以回收
+         */
+        if (queue instanceof TransferQueue) {
+            ((TransferQueue) queue).getCommitLogRetentionService().wakeup();
+        }
     }
 
     private void checkAndClean() {
@@ -236,11 +303,14 @@ public class TransferQueueManager {
         AbstractQueue queue = null;
         switch (queueType) {
             case NORMAL:
-                queue = new TransferQueue(topic, this, consumerManager, MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE + File.separator + MetaInfo.INSTANCE_ID);
+                queue = new TransferQueue(topic, this, consumerManager, MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE + File.separator + MetaInfo.INSTANCE_ID, selectShard(sessionId));
                 break;
             case DIRECT:
                 queue = new DirectQueue(topic);
                 break;
+            case MEMORY:
+                queue = new MemoryQueue(topic, this, consumerManager, MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE + File.separator + MetaInfo.INSTANCE_ID, selectShard(sessionId));
+                break;
         }
         queue.setSessionId(sessionId);
         queue.start();
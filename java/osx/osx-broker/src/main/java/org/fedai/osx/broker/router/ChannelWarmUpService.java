@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.router;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.context.Protocol;
+import org.fedai.osx.core.frame.GrpcConnectionFactory;
+import org.fedai.osx.core.frame.ServiceThread;
+import org.fedai.osx.core.metric.MetricsRegistry;
+import org.fedai.osx.core.router.RouterInfo;
+import org.fedai.osx.core.service.ApplicationStartedRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按路由表预先建立到其他方的grpc连接，避免每个任务的第一条消息承担建连和握手的耗时。
+ * 启动和路由表变化时立即预热，之后每隔 grpc.channel.warmup.interval 毫秒检查一次，重新连接空闲断开或失败的连接
+ */
+@Singleton
+public class ChannelWarmUpService implements ApplicationStartedRunner {
+
+    Logger logger = LoggerFactory.getLogger(ChannelWarmUpService.class);
+    @Inject
+    DefaultFateRouterServiceImpl routerService;
+    /**
+     * 正在建立连接的地址，避免重复登记状态监听
+     */
+    final Set<String> connecting = ConcurrentHashMap.newKeySet();
+
+    final ServiceThread warmUpThread = new ServiceThread() {
+        @Override
+        public void run() {
+            while (!this.isStopped()) {
+                try {
+                    warmUp();
+                } catch (Exception e) {
+                    logger.error("warm up channels error", e);
+                }
+                this.waitForRunning(MetaInfo.PROPERTY_GRPC_CHANNEL_WARMUP_INTERVAL);
+            }
+        }
+
+        @Override
+        public String getServiceName() {
+            return "channel_warm_up";
+        }
+    };
+
+    @Override
+    public void run(String[] args) throws Exception {
+        if (!MetaInfo.PROPERTY_GRPC_CHANNEL_WARMUP_ENABLED) {
+            return;
+        }
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+        routerService.addRouteTableListener(warmUpThread::wakeup);
+    }
+
+    @Override
+    public int getRunnerSequenceId() {
+        return Integer.MAX_VALUE;
+    }
+
+    void warmUp() {
+        for (RouterInfo routerInfo : routerService.getAllRouterInfos()) {
+            if (routerInfo.getProtocol() != null && !Protocol.grpc.equals(routerInfo.getProtocol())) {
+                continue;
+            }
+            ManagedChannel channel = GrpcConnectionFactory.createManagedChannel(routerInfo);
+            if (channel == null) {
+                continue;
+            }
+            String address = routerInfo.getHost() + ":" + routerInfo.getPort();
+            String key = routerInfo.toKey();
+            ConnectivityState state = channel.getState(true);
+            if (state != ConnectivityState.READY && connecting.add(key)) {
+                watch(routerInfo.getDesPartyId(), address, key, channel, state, System.nanoTime());
+            }
+        }
+    }
+
+    private void watch(String desPartyId, String address, String key, ManagedChannel channel, ConnectivityState source, long begin) {
+        channel.notifyWhenStateChanged(source, () -> {
+            ConnectivityState current = channel.getState(false);
+            switch (current) {
+                case READY:
+                    connecting.remove(key);
+                    MetricsRegistry.recordConnect(desPartyId, address, true, System.nanoTime() - begin);
+                    logger.info("channel to {} {} is ready, cost {}ms", desPartyId, address, (System.nanoTime() - begin) / 1000000);
+                    break;
+                case TRANSIENT_FAILURE:
+                    connecting.remove(key);
+                    MetricsRegistry.recordConnect(desPartyId, address, false, System.nanoTime() - begin);
+                    logger.warn("channel to {} {} connect failed", desPartyId, address);
+                    break;
+                case SHUTDOWN:
+                    connecting.remove(key);
+                    break;
+                default:
+                    watch(desPartyId, address, key, channel, current, begin);
+            }
+        });
+    }
+}
@@ -30,6 +30,7 @@ import org.fedai.osx.core.datasource.FileRefreshableDataSource;
 import org.fedai.osx.core.exceptions.*;
 import org.fedai.osx.core.flow.PropertyListener;
 import org.fedai.osx.core.frame.Lifecycle;
+import org.fedai.osx.core.frame.RouteCompression;
 import org.fedai.osx.core.frame.ServiceThread;
 import org.fedai.osx.core.router.RouterInfo;
 import org.fedai.osx.core.service.ApplicationStartedRunner;
@@ -44,6 +45,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -73,6 +75,10 @@ public class DefaultFateRouterServiceImpl implements RouterService, Lifecycle, A
     Map totalConfig;
 
     FileRefreshableDataSource fileRefreshableDataSource;
+    /**
+     * 路由表加载或变化后通知
+     */
+    List<Runnable> routeTableListeners = new CopyOnWriteArrayList<>();
 
     private  Map parseRouterInfoToMap(RouterInfo  routerInfo){
         Map  content =  JsonUtil.object2Objcet(routerInfo,Map.class);
@@ -153,6 +159,12 @@ public class DefaultFateRouterServiceImpl implements RouterService, Lifecycle, A
         }
         routerInfo.setProtocol(protocol);
         routerInfo.setUrl(endpoint.get(Dict.URL) != null ? endpoint.get(Dict.URL).toString() : "");
+        if (endpoint.get(Dict.TIMEOUT) instanceof Number) {
+            routerInfo.setTimeout(((Number) endpoint.get(Dict.TIMEOUT)).intValue());
+        }
+        if (endpoint.get(Dict.COMPRESSION) != null && RouteCompression.isSupported(endpoint.get(Dict.COMPRESSION).toString())) {
+            routerInfo.setCompression(endpoint.get(Dict.COMPRESSION).toString().toLowerCase());
+        }
         routerInfo.setUseSSL(endpoint.get(Dict.USE_SSL) != null && Boolean.parseBoolean(endpoint.get(Dict.USE_SSL).toString()));
         routerInfo.setUseKeyStore(endpoint.get(Dict.USE_KEYSTORE) != null && Boolean.parseBoolean(endpoint.get(Dict.USE_KEYSTORE).toString()));
         routerInfo.setCaFile(endpoint.get(Dict.CA_FILE) != null ? endpoint.get(Dict.CA_FILE).toString() : "");
@@ -178,32 +190,78 @@ public class DefaultFateRouterServiceImpl implements RouterService, Lifecycle, A
 
     public RouterInfo route(String srcPartyId, String srcRole, String dstPartyId, String desRole) {
         RouterInfo routerInfo = null;
+        List<Map> ips = selectEndpoints(dstPartyId, desRole);
+        if (ips != null && ips.size() > 0) {
+            Map endpoint = ips.get((int) (System.currentTimeMillis() % ips.size()));
+            routerInfo = buildRouterInfo(endpoint, srcPartyId, srcRole, dstPartyId, desRole);
+        }
+        return routerInfo;
+    }
+
+    /**
+     * 与 route 相同的选择规则，返回目的方配置的所有地址
+     */
+    @Override
+    public List<RouterInfo> routeAll(String srcPartyId, String srcRole, String dstPartyId, String desRole) {
+        List<RouterInfo> result = new ArrayList<>();
+        List<Map> ips = selectEndpoints(dstPartyId, desRole);
+        if (ips != null) {
+            for (Map endpoint : ips) {
+                result.add(buildRouterInfo(endpoint, srcPartyId, srcRole, dstPartyId, desRole));
+            }
+        }
+        return result;
+    }
+
+    private List<Map> selectEndpoints(String dstPartyId, String desRole) {
         Preconditions.checkArgument(StringUtils.isNotEmpty(dstPartyId), "des party id is null");
         Map<String, List<Map>> partyIdMap = this.endPointMap.containsKey(dstPartyId) ? this.endPointMap.get(dstPartyId) : this.endPointMap.get(DEFAULT);
-        if (partyIdMap != null) {
-            if (StringUtils.isNotEmpty(desRole) && partyIdMap.get(desRole) != null) {
-                List<Map> ips = partyIdMap.getOrDefault(desRole, null);
-                if (ips != null && ips.size() > 0) {
-                    Map endpoint = ips.get((int) (System.currentTimeMillis() % ips.size()));
-                    routerInfo = buildRouterInfo(endpoint, srcPartyId, srcRole, dstPartyId, desRole);
-                }
-            } else {
+        if (partyIdMap == null) {
+            return null;
+        }
+        if (StringUtils.isNotEmpty(desRole) && partyIdMap.get(desRole) != null) {
+            return partyIdMap.get(desRole);
+        }
+        return partyIdMap.getOrDefault(DEFAULT, null);
+    }
 
-                List<Map> ips = partyIdMap.getOrDefault(DEFAULT, null);
-                if (ips != null && ips.size() > 0) {
-                    Map endpoint = ips.get((int) (System.currentTimeMillis() % ips.size()));
-                    routerInfo = buildRouterInfo(endpoint, srcPartyId, srcRole, dstPartyId, desRole);
-                }
-                if (StringUtils.isNotEmpty(desRole)) {
-                    //    logger.warn("role {} is not found,return default router info ",desRole);
+
+    public void addRouteTableListener(Runnable listener) {
+        routeTableListeners.add(listener);
+    }
+
+    /**
+     * 路由表中所有到其他方的路由，每个地址一条
+     */
+    public List<RouterInfo> getAllRouterInfos() {
+        List<RouterInfo> result = new ArrayList<>();
+        endPointMap.forEach((desPartyId, roleMap) -> {
+            if (MetaInfo.PROPERTY_SELF_PARTY.contains(desPartyId)) {
+                return;
+            }
+            roleMap.forEach((role, endpoints) -> {
+                for (Map endpoint : endpoints) {
+                    try {
+                        result.add(buildRouterInfo(endpoint, "", "", desPartyId, role));
+                    } catch (Exception e) {
+                        logger.warn("route info {}->{} is invalid", desPartyId, role);
+                    }
                 }
+            });
+        });
+        return result;
+    }
+
+    private void notifyRouteTableListeners() {
+        for (Runnable listener : routeTableListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                logger.error("route table listener error", e);
             }
         }
-
-        return routerInfo;
     }
 
-
     Map<String, Map<String, List<Map>>> initRouteTable(Map confJson) {
         Map<String, Map<String, List<Map>>> newRouteTable = new ConcurrentHashMap<>();
         confJson.forEach((k, v) -> {
@@ -503,11 +561,13 @@ public class DefaultFateRouterServiceImpl implements RouterService, Lifecycle, A
         public void configUpdate(String value) {
             logger.warn("found router_table.json has been changed, reload " );
             loadRouterTable(value);
+            notifyRouteTableListeners();
         }
 
         @Override
         public void configLoad(String value) {
             loadRouterTable(value);
+            notifyRouteTableListeners();
         }
     }
 
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.router;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.grpc.Context;
+import org.fedai.osx.broker.util.TransferUtil;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.context.OsxContext;
+import org.fedai.osx.core.context.Protocol;
+import org.fedai.osx.core.metric.LatencyHistogram;
+import org.fedai.osx.core.router.RouterInfo;
+import org.ppc.ptp.Osx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对端配置了多个地址时，grpc.hedge.uris 中的幂等请求先发往路由选中的地址，超过到该方最近耗时的
+ * grpc.hedge.percentile 分位值仍未返回时再发往下一个地址，取先成功的结果并取消其余请求；
+ * 某个地址调用失败时立即改发下一个地址。对冲请求受 grpc.hedge.budget.percent 限制，避免对端变慢时成倍放大负载
+ */
+@Singleton
+public class HedgingInvoker {
+
+    /**
+     * 耗时样本少于该数时不计算分位值
+     */
+    private static final int MIN_SAMPLES = 20;
+    /**
+     * 预算以百分之一次对冲为单位累积，最多攒下这么多次
+     */
+    private static final int MAX_BUDGET_HEDGES = 10;
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "grpc-hedge-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    Logger logger = LoggerFactory.getLogger(HedgingInvoker.class);
+    @Inject
+    RouterServiceRegister routerServiceRegister;
+    final Map<String, PartyStats> parties = new ConcurrentHashMap<>();
+
+    public boolean isHedgeable(OsxContext context) {
+        return MetaInfo.PROPERTY_GRPC_HEDGE_ENABLED && context.getUri() != null && MetaInfo.PROPERTY_GRPC_HEDGE_URIS.contains(context.getUri());
+    }
+
+    /**
+     * @return 目的方没有其他 grpc 地址时返回 null ，由调用方直接转发
+     */
+    public ListenableFuture<Osx.Outbound> invoke(OsxContext context, Osx.Inbound inbound, RouterInfo routerInfo) {
+        List<RouterInfo> candidates = new ArrayList<>();
+        // 与选出 routerInfo 的路由服务一致
+        RouterService routerService = routerServiceRegister.select(MetaInfo.PROPERTY_FATE_TECH_PROVIDER);
+        for (RouterInfo candidate : routerService.routeAll(context.getSrcNodeId(), "", context.getDesNodeId(), "")) {
+            if (!Protocol.http.equals(candidate.getProtocol()) && !candidate.toKey().equals(routerInfo.toKey())) {
+                candidates.add(candidate);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        PartyStats stats = parties.computeIfAbsent(routerInfo.getDesPartyId(), k -> new PartyStats());
+        stats.deposit();
+        HedgedCall call = new HedgedCall(context, inbound, candidates, stats);
+        call.launch(routerInfo);
+        call.scheduleHedge(stats.delayMillis());
+        return call.result;
+    }
+
+    class HedgedCall {
+
+        final OsxContext context;
+        final Osx.Inbound inbound;
+        final List<RouterInfo> candidates;
+        final PartyStats stats;
+        /**
+         * 入站请求的 grpc 上下文，对冲和改发的请求沿用其截止时间，入站请求结束时一并取消
+         */
+        final Context grpcContext = Context.current();
+        final SettableFuture<Osx.Outbound> result = SettableFuture.create();
+        final List<ListenableFuture<Osx.Outbound>> attempts = new ArrayList<>();
+        int nextCandidate;
+        int running;
+
+        HedgedCall(OsxContext context, Osx.Inbound inbound, List<RouterInfo> candidates, PartyStats stats) {
+            this.context = context;
+            this.inbound = inbound;
+            this.candidates = candidates;
+            this.stats = stats;
+        }
+
+        void scheduleHedge(long delayMillis) {
+            TIMER.schedule(() -> {
+                if (result.isDone() || !hasNextCandidate()) {
+                    return;
+                }
+                if (!stats.withdraw()) {
+                    logger.debug("hedge budget of {} is exhausted", context.getDesNodeId());
+                    return;
+                }
+                RouterInfo next = takeNextCandidate();
+                if (next != null) {
+                    logger.info("{} is slower than {} ms, hedge to {}", context.getTraceId(), delayMillis, next.toKey());
+                    launch(next);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        void launch(RouterInfo routerInfo) {
+            if (result.isDone()) {
+                return;
+            }
+            long begin = System.nanoTime();
+            ListenableFuture<Osx.Outbound> future;
+            // 请求头取自线程中的 OsxContext ，在定时器和回调线程中发起时需要重新放入
+            OsxContext.pushThreadLocalContext(context);
+            Context previous = grpcContext.attach();
+            try {
+                future = TransferUtil.redirectAsync(context, inbound, routerInfo);
+            } catch (Exception e) {
+                onAttemptFailed(routerInfo, e);
+                return;
+            } finally {
+                grpcContext.detach(previous);
+                OsxContext.popThreadLocalContext();
+            }
+            synchronized (this) {
+                attempts.add(future);
+                running++;
+            }
+            future.addListener(() -> {
+                synchronized (this) {
+                    running--;
+                }
+                if (future.isCancelled()) {
+                    return;
+                }
+                try {
+                    Osx.Outbound outbound = future.get();
+                    stats.record(System.nanoTime() - begin);
+                    if (result.set(outbound)) {
+                        cancelOthers();
+                    }
+                } catch (Exception e) {
+                    onAttemptFailed(routerInfo, e.getCause() != null ? e.getCause() : e);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private void onAttemptFailed(RouterInfo routerInfo, Throwable t) {
+            if (result.isDone()) {
+                return;
+            }
+            RouterInfo next = takeNextCandidate();
+            if (next != null) {
+                logger.warn("send to {} failed : {}, fail over to {}", routerInfo.toKey(), t.getMessage(), next.toKey());
+                launch(next);
+                return;
+            }
+            synchronized (this) {
+                if (running > 0) {
+                    return;
+                }
+            }
+            result.setException(t);
+        }
+
+        private synchronized boolean hasNextCandidate() {
+            return nextCandidate < candidates.size();
+        }
+
+        private synchronized RouterInfo takeNextCandidate() {
+            return nextCandidate < candidates.size() ? candidates.get(nextCandidate++) : null;
+        }
+
+        private void cancelOthers() {
+            List<ListenableFuture<Osx.Outbound>> toCancel;
+            synchronized (this) {
+                toCancel = new ArrayList<>(attempts);
+            }
+            for (ListenableFuture<Osx.Outbound> attempt : toCancel) {
+                if (!attempt.isDone()) {
+                    attempt.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * 到一个目的方的耗时窗口和对冲预算
+     */
+    static class PartyStats {
+
+        final AtomicInteger budget = new AtomicInteger();
+        volatile LatencyHistogram window = new LatencyHistogram();
+        volatile long windowStart = System.currentTimeMillis();
+        /**
+         * 上一个窗口的分位值，微秒，-1 表示样本不足
+         */
+        volatile long lastPercentileMicros = -1;
+
+        void deposit() {
+            budget.updateAndGet(value -> Math.min(value + MetaInfo.PROPERTY_GRPC_HEDGE_BUDGET_PERCENT, MAX_BUDGET_HEDGES * 100));
+        }
+
+        boolean withdraw() {
+            while (true) {
+                int value = budget.get();
+                if (value < 100) {
+                    return false;
+                }
+                if (budget.compareAndSet(value, value - 100)) {
+                    return true;
+                }
+            }
+        }
+
+        void record(long costNanos) {
+            rotate();
+            window.recordNanos(costNanos);
+        }
+
+        long delayMillis() {
+            rotate();
+            long micros = lastPercentileMicros;
+            LatencyHistogram current = window;
+            if (micros < 0 && current.getTotalCount() >= MIN_SAMPLES) {
+                micros = current.getValueAtPercentile(MetaInfo.PROPERTY_GRPC_HEDGE_PERCENTILE);
+            }
+            if (micros < 0) {
+                return MetaInfo.PROPERTY_GRPC_HEDGE_MAX_DELAY;
+            }
+            return Math.max(MetaInfo.PROPERTY_GRPC_HEDGE_MIN_DELAY, Math.min(micros / 1000, MetaInfo.PROPERTY_GRPC_HEDGE_MAX_DELAY));
+        }
+
+        private void rotate() {
+            long now = System.currentTimeMillis();
+            if (now - windowStart < MetaInfo.PROPERTY_GRPC_HEDGE_WINDOW) {
+                return;
+            }
+            synchronized (this) {
+                if (now - windowStart < MetaInfo.PROPERTY_GRPC_HEDGE_WINDOW) {
+                    return;
+                }
+                LatencyHistogram finished = window;
+                if (finished.getTotalCount() >= MIN_SAMPLES) {
+                    lastPercentileMicros = finished.getValueAtPercentile(MetaInfo.PROPERTY_GRPC_HEDGE_PERCENTILE);
+                }
+                window = new LatencyHistogram();
+                windowStart = now;
+            }
+        }
+    }
+}
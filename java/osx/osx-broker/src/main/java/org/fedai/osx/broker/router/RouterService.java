@@ -1,12 +1,22 @@
 package org.fedai.osx.broker.router;
 import org.fedai.osx.core.router.RouterInfo;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 public interface RouterService {
 
     public RouterInfo route(String srcPartyId, String srcRole, String dstPartyId, String desRole);
 
+    /**
+     * 目的方配置的所有地址，不支持多地址的实现只返回 route 选中的地址
+     */
+    public default List<RouterInfo> routeAll(String srcPartyId, String srcRole, String dstPartyId, String desRole) {
+        RouterInfo routerInfo = route(srcPartyId, srcRole, dstPartyId, desRole);
+        return routerInfo != null ? Collections.singletonList(routerInfo) : Collections.emptyList();
+    }
+
     public String addRouterInfo(RouterInfo  routerInfo);
 
     public void  setRouterTable(String  content);
@@ -18,7 +18,9 @@ package org.fedai.osx.broker.server;
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import io.grpc.BindableService;
 import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.netty.shaded.io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
 import io.grpc.netty.shaded.io.netty.handler.ssl.ClientAuth;
@@ -27,20 +29,30 @@ import io.grpc.netty.shaded.io.netty.handler.ssl.SslProvider;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.fedai.osx.broker.flow.ClusterTokenService;
+import org.fedai.osx.broker.grpc.MuxStreamService;
+import org.fedai.osx.broker.grpc.PassthroughInterceptor;
 import org.fedai.osx.broker.grpc.PcpInnerService;
 import org.fedai.osx.broker.grpc.PcpInterService;
 import org.fedai.osx.broker.grpc.ProxyGrpcService;
 import org.fedai.osx.broker.grpc.ServiceExceptionHandler;
+import org.fedai.osx.broker.http.AdminServlet;
 import org.fedai.osx.broker.http.InnerServlet;
 import org.fedai.osx.broker.http.InterServlet;
+import org.fedai.osx.broker.http.MetricsServlet;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.frame.ContextPrepareInterceptor;
+import org.fedai.osx.core.frame.NettyTransport;
+import org.fedai.osx.core.frame.RouteCompression;
 import org.fedai.osx.core.service.ApplicationStartedRunner;
 import org.fedai.osx.core.utils.OSXCertUtils;
 import org.fedai.osx.core.utils.OsxX509TrustManager;
@@ -49,7 +61,10 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -72,16 +87,27 @@ public class OsxServer implements ApplicationStartedRunner {
     io.grpc.Server tlsServer;
     org.eclipse.jetty.server.Server httpServer;
     org.eclipse.jetty.server.Server httpsServer;
+    org.eclipse.jetty.server.Server adminServer;
     @Inject
     ProxyGrpcService proxyGrpcService;
     @Inject
     PcpInterService pcpInterService;
     @Inject
+    PassthroughInterceptor passthroughInterceptor;
+    @Inject
     PcpInnerService pcpInnerService;
     @Inject
+    ClusterTokenService clusterTokenService;
+    @Inject
+    MuxStreamService muxStreamService;
+    @Inject
     InnerServlet innerServlet;
     @Inject
     InterServlet interServlet;
+    @Inject
+    MetricsServlet metricsServlet;
+    @Inject
+    AdminServlet adminServlet;
 
     private static KeyStore loadKeyStore(String keyStorePath, String keyStorePassword) throws Exception {
         try (FileInputStream fis = new FileInputStream(keyStorePath)) {
@@ -109,6 +135,9 @@ public class OsxServer implements ApplicationStartedRunner {
                     }
                 }
             }
+            if (MetaInfo.PROPERTY_ADMIN_ENABLED) {
+                adminServer = buildAdminServer();
+            }
             tlsServer = buildTlsServer();
         } catch (Exception e) {
             log.error("server init error ", e);
@@ -128,7 +157,11 @@ public class OsxServer implements ApplicationStartedRunner {
             connector.setAcceptQueueSize(MetaInfo.PROPERTY_HTTP_RECEIVE_QUEUE_SIZE);
             connector.setAcceptedReceiveBufferSize(MetaInfo.PROPERTY_HTTP_ACCEPT_RECEIVE_BUFFER_SIZE);
             server.addConnector(connector);
-            server.setHandler(buildServlet(innerServlet));
+            ServletContextHandler servletContextHandler = buildServlet(innerServlet);
+            if (MetaInfo.PROPERTY_METRICS_ENABLED) {
+                servletContextHandler.addServlet(new ServletHolder(metricsServlet), MetaInfo.PROPERTY_METRICS_SERVLET_PATH);
+            }
+            server.setHandler(servletContextHandler);
             return server;
         } catch (Exception e) {
             e.printStackTrace();
@@ -137,6 +170,26 @@ public class OsxServer implements ApplicationStartedRunner {
         return null;
     }
 
+    /**
+     * 诊断接口没有鉴权，单独监听 admin.bind.host ，使用独立的小线程池，不占用对外http服务的端口和线程
+     */
+    public Server buildAdminServer() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(8, 2);
+        threadPool.setName("admin-http");
+        Server server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server, 1, 1, new HttpConnectionFactory());
+        connector.setPort(MetaInfo.PROPERTY_ADMIN_PORT);
+        connector.setHost(MetaInfo.PROPERTY_ADMIN_BIND_HOST);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath(MetaInfo.PROPERTY_HTTP_CONTEXT_PATH);
+        ServletHolder servletHolder = new ServletHolder(adminServlet);
+        servletHolder.setAsyncSupported(true);
+        context.addServlet(servletHolder, MetaInfo.PROPERTY_ADMIN_SERVLET_PATH);
+        server.setHandler(context);
+        return server;
+    }
+
     public Server buildHttpsServer() {
         Server server = new Server();
         try {
@@ -190,6 +243,21 @@ public class OsxServer implements ApplicationStartedRunner {
         ServletHolder servletHolder = new ServletHolder(servlet);
         context.addServlet(servletHolder, MetaInfo.PROPERTY_HTTP_SERVLET_PATH);
         context.setMaxFormContentSize(Integer.MAX_VALUE);
+        if (MetaInfo.PROPERTY_HTTP_SERVER_GZIP_ENABLED) {
+            GzipHandler gzipHandler = new GzipHandler() {
+                @Override
+                public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+                    // RFC 7694 ，响应中声明可以解压 gzip 请求体，对端据此决定是否压缩请求
+                    response.setHeader(RouteCompression.ACCEPT_ENCODING, RouteCompression.GZIP);
+                    super.handle(target, baseRequest, request, response);
+                }
+            };
+            gzipHandler.setInflateBufferSize(8192);
+            gzipHandler.setIncludedMethods("GET", "POST");
+            gzipHandler.setMinGzipSize(MetaInfo.PROPERTY_COMPRESSION_MIN_SIZE);
+            gzipHandler.setCompressionLevel(MetaInfo.PROPERTY_COMPRESSION_GZIP_LEVEL);
+            context.setGzipHandler(gzipHandler);
+        }
         return context;
     }
 
@@ -221,6 +289,20 @@ public class OsxServer implements ApplicationStartedRunner {
             return false;
         }
 
+        //admin
+        try {
+            if (adminServer != null) {
+                adminServer.start();
+                log.info("listen admin port {}:{} success", MetaInfo.PROPERTY_ADMIN_BIND_HOST, MetaInfo.PROPERTY_ADMIN_PORT);
+            }
+        } catch (Exception e) {
+            if (e instanceof java.net.BindException || e.getCause() instanceof java.net.BindException) {
+                log.error("port {}  already in use, please try to choose another one  !!!!", MetaInfo.PROPERTY_ADMIN_PORT);
+            }
+            e.printStackTrace();
+            return false;
+        }
+
         //tls
         try {
             if (tlsServer != null) {
@@ -269,6 +351,9 @@ public class OsxServer implements ApplicationStartedRunner {
             try {
                 SocketAddress address = new InetSocketAddress(MetaInfo.PROPERTY_BIND_HOST, MetaInfo.PROPERTY_GRPC_TLS_PORT);
                 NettyServerBuilder nettyServerBuilder = NettyServerBuilder.forAddress(address);
+                NettyTransport.configure(nettyServerBuilder, address);
+                nettyServerBuilder.compressorRegistry(RouteCompression.RESPONSE.getCompressorRegistry())
+                        .intercept(RouteCompression.SERVER_INTERCEPTOR);
                 SslContextBuilder sslContextBuilder = null;
 
                 if (StringUtils.isNotBlank(PROPERTY_GRPC_SERVER_KEYSTORE_FILE)) {
@@ -308,8 +393,9 @@ public class OsxServer implements ApplicationStartedRunner {
                         serverCertChainFile, privateKeyFilePath, serverCaFilePath);
                 //serverBuilder.executor(executor);
                 nettyServerBuilder.sslContext(GrpcSslContexts.configure(sslContextBuilder, SslProvider.OPENSSL).build());
-                nettyServerBuilder.addService(ServerInterceptors.intercept(proxyGrpcService, new ServiceExceptionHandler(), new ContextPrepareInterceptor()));
-                nettyServerBuilder.addService(ServerInterceptors.intercept(pcpInterService, new ServiceExceptionHandler(), new ContextPrepareInterceptor()));
+                nettyServerBuilder.addService(buildInterService(proxyGrpcService));
+                nettyServerBuilder.addService(buildInterService(pcpInterService));
+                nettyServerBuilder.addService(ServerInterceptors.intercept(muxStreamService, new ServiceExceptionHandler()));
                 nettyServerBuilder
                         .executor(Executors.newCachedThreadPool())
                         .maxConcurrentCallsPerConnection(MetaInfo.PROPERTY_GRPC_SERVER_MAX_CONCURRENT_CALL_PER_CONNECTION)
@@ -341,12 +427,30 @@ public class OsxServer implements ApplicationStartedRunner {
         return null;
     }
 
+    /**
+     * 对外服务，开启透传时转发给其他party的请求不再解析protobuf
+     */
+    private ServerServiceDefinition buildInterService(BindableService service) {
+        ServerServiceDefinition definition = ServerInterceptors.intercept(service, new ServiceExceptionHandler(), new ContextPrepareInterceptor());
+        if (MetaInfo.PROPERTY_GRPC_PASSTHROUGH_ENABLED) {
+            definition = passthroughInterceptor.wrap(definition);
+        }
+        return definition;
+    }
+
     private io.grpc.Server buildServer() {
         SocketAddress address = new InetSocketAddress(MetaInfo.PROPERTY_BIND_HOST, MetaInfo.PROPERTY_GRPC_PORT);
         NettyServerBuilder nettyServerBuilder = NettyServerBuilder.forAddress(address);
-        nettyServerBuilder.addService(ServerInterceptors.intercept(proxyGrpcService, new ServiceExceptionHandler(), new ContextPrepareInterceptor()));
-        nettyServerBuilder.addService(ServerInterceptors.intercept(pcpInterService, new ServiceExceptionHandler(), new ContextPrepareInterceptor()));
+        NettyTransport.configure(nettyServerBuilder, address);
+        nettyServerBuilder.compressorRegistry(RouteCompression.RESPONSE.getCompressorRegistry())
+                .intercept(RouteCompression.SERVER_INTERCEPTOR);
+        nettyServerBuilder.addService(buildInterService(proxyGrpcService));
+        nettyServerBuilder.addService(buildInterService(pcpInterService));
         nettyServerBuilder.addService(ServerInterceptors.intercept(pcpInnerService, new ServiceExceptionHandler(), new ContextPrepareInterceptor()));
+        nettyServerBuilder.addService(ServerInterceptors.intercept(muxStreamService, new ServiceExceptionHandler()));
+        if (MetaInfo.PROPERTY_CLUSTER_TOKEN_SERVER_ENABLED) {
+            nettyServerBuilder.addService(clusterTokenService);
+        }
         nettyServerBuilder
                 .executor(Executors.newCachedThreadPool())
                 .maxConcurrentCallsPerConnection(MetaInfo.PROPERTY_GRPC_SERVER_MAX_CONCURRENT_CALL_PER_CONNECTION)
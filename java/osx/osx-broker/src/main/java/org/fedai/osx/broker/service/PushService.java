@@ -18,6 +18,7 @@ package org.fedai.osx.broker.service;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import io.grpc.stub.StreamObserver;
+import org.fedai.osx.broker.flow.AdmissionController;
 import org.fedai.osx.broker.grpc.QueuePushReqStreamObserver;
 import org.fedai.osx.broker.queue.TransferQueueManager;
 import org.fedai.osx.broker.router.RouterServiceRegister;
@@ -39,6 +40,8 @@ public class PushService extends AbstractServiceAdaptorNew<InboundPackage<Stream
     RouterServiceRegister  routerServiceRegister;
     @Inject
     TransferQueueManager transferQueueManager;
+    @Inject
+    AdmissionController admissionController;
 
     @Override
     protected StreamObserver doService(OsxContext context, InboundPackage<StreamObserver> data
@@ -49,6 +52,7 @@ public class PushService extends AbstractServiceAdaptorNew<InboundPackage<Stream
         QueuePushReqStreamObserver queuePushReqStreamObserver = new QueuePushReqStreamObserver(context,
                 routerServiceRegister.select(MetaInfo.PROPERTY_FATE_TECH_PROVIDER), transferQueueManager,
                 backRespSO);
+        queuePushReqStreamObserver.setAdmissionController(admissionController);
         return queuePushReqStreamObserver;
     }
 
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.service;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.service.ApplicationStartedRunner;
+import org.fedai.osx.core.trace.SpanExporter;
+import org.fedai.osx.core.trace.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按 trace.exporter 配置的类名创建span输出方式，创建失败时保留默认的 OtlpJsonSpanExporter
+ */
+@Singleton
+public class SpanExporterRegister implements ApplicationStartedRunner {
+
+    Logger logger = LoggerFactory.getLogger(SpanExporterRegister.class);
+
+    @Inject
+    Injector injector;
+
+    @Override
+    public void run(String[] args) throws Exception {
+        if (StringUtils.isEmpty(MetaInfo.PROPERTY_TRACE_EXPORTER)) {
+            return;
+        }
+        try {
+            SpanExporter spanExporter = (SpanExporter) injector.getInstance(Class.forName(MetaInfo.PROPERTY_TRACE_EXPORTER));
+            Tracer.setExporter(spanExporter);
+            logger.info("trace sample rate {}/10000, exporter {}", MetaInfo.PROPERTY_TRACE_SAMPLE_RATE, MetaInfo.PROPERTY_TRACE_EXPORTER);
+        } catch (Exception e) {
+            logger.error("span exporter {} init error", MetaInfo.PROPERTY_TRACE_EXPORTER, e);
+        }
+    }
+}
@@ -16,6 +16,10 @@
 package org.fedai.osx.broker.service;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -23,7 +27,9 @@ import com.webank.ai.eggroll.api.networking.proxy.DataTransferServiceGrpc;
 import com.webank.ai.eggroll.api.networking.proxy.Proxy;
 import com.webank.eggroll.core.transfer.Transfer;
 import io.grpc.ManagedChannel;
+import io.grpc.stub.StreamObserver;
 import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.broker.flow.AdmissionController;
 import org.fedai.osx.broker.pojo.HttpInvoke;
 import org.fedai.osx.broker.pojo.HttpInvokeResult;
 import org.fedai.osx.broker.router.DefaultFateRouterServiceImpl;
@@ -35,13 +41,17 @@ import org.fedai.osx.core.constant.StatusCode;
 import org.fedai.osx.core.constant.UriConstants;
 import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.context.Protocol;
+import org.fedai.osx.core.exceptions.ErrorMessageUtil;
 import org.fedai.osx.core.exceptions.ExceptionInfo;
+import org.fedai.osx.core.exceptions.FlowControlException;
 import org.fedai.osx.core.exceptions.NoRouterInfoException;
 import org.fedai.osx.core.exceptions.ParameterException;
 import org.fedai.osx.core.exceptions.RemoteRpcException;
 import org.fedai.osx.core.frame.GrpcConnectionFactory;
+import org.fedai.osx.core.metric.MetricsRegistry;
 import org.fedai.osx.core.router.RouterInfo;
 import org.fedai.osx.core.service.AbstractServiceAdaptorNew;
+import org.fedai.osx.core.utils.FlowLogUtil;
 import org.ppc.ptp.Osx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +65,8 @@ public class UnaryCallService extends AbstractServiceAdaptorNew<Proxy.Packet, Pr
     Logger logger = LoggerFactory.getLogger(UnaryCallService.class);
     @Inject
     RouterServiceRegister routerServiceRegister;
+    @Inject
+    AdmissionController admissionController;
 
     public UnaryCallService() {
     }
@@ -70,6 +82,74 @@ public class UnaryCallService extends AbstractServiceAdaptorNew<Proxy.Packet, Pr
 
 
 
+    /**
+     * grpc路由时异步转发，在回调中应答，服务线程不等待对端返回；http路由仍同步处理。
+     * 超时沿用入站请求的截止时间，没有时使用路由或全局配置的调用超时，
+     * 转发前按请求字节数做准入检查，被拒绝时返回 RESOURCE_EXHAUSTED
+     */
+    public void unaryCallAsync(OsxContext context, Proxy.Packet req, StreamObserver<Proxy.Packet> responseObserver) {
+        long begin = System.nanoTime();
+        boolean async = false;
+        try {
+            TransferUtil.assableContextFromProxyPacket(context, req);
+            admissionController.admit(context, context.getTopic(), req.getSerializedSize());
+            RouterInfo routerInfo = route(req);
+            if (routerInfo == null || Protocol.http.equals(routerInfo.getProtocol())) {
+                Proxy.Packet result = service(context, req);
+                responseObserver.onNext(result);
+                responseObserver.onCompleted();
+                return;
+            }
+            context.setRouterInfo(routerInfo);
+            context.setUri(UriConstants.UNARYCALL);
+            context.setActionType(ActionType.UNARY_CALL.name());
+            context.setReturnCode(StatusCode.PTP_SUCCESS);
+            ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
+            ListenableFuture<Proxy.Packet> future;
+            OsxContext.pushThreadLocalContext(context);
+            try {
+                future = DataTransferServiceGrpc.newFutureStub(managedChannel).withDeadline(TransferUtil.callDeadline(routerInfo)).unaryCall(req);
+            } finally {
+                OsxContext.popThreadLocalContext();
+            }
+            Futures.addCallback(future, new FutureCallback<Proxy.Packet>() {
+                @Override
+                public void onSuccess(Proxy.Packet result) {
+                    responseObserver.onNext(result);
+                    responseObserver.onCompleted();
+                    finish();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    logger.error("unary call to {} error", routerInfo, t);
+                    ExceptionInfo exceptionInfo = ErrorMessageUtil.handleExceptionExceptionInfo(context, t);
+                    context.setReturnCode(exceptionInfo.getCode());
+                    context.setReturnMsg(exceptionInfo.getMessage());
+                    // 保留对端返回的grpc状态，调用方可以区分超时和其他错误
+                    responseObserver.onError(t);
+                    finish();
+                }
+
+                private void finish() {
+                    MetricsRegistry.recordService(UnaryCallService.class.getSimpleName(), context.getReturnCode(), System.nanoTime() - begin);
+                    FlowLogUtil.printFlowLog(context);
+                }
+            }, MoreExecutors.directExecutor());
+            async = true;
+        } catch (FlowControlException e) {
+            context.setReturnCode(e.getRetcode());
+            context.setReturnMsg(e.getMessage());
+            responseObserver.onError(ErrorMessageUtil.toGrpcRuntimeException(e));
+        } catch (Exception e) {
+            responseObserver.onError(e);
+        } finally {
+            if (!async) {
+                FlowLogUtil.printFlowLog(context);
+            }
+        }
+    }
+
     public RouterInfo route(Proxy.Packet packet) {
         Preconditions.checkArgument(packet != null);
         RouterInfo routerInfo = null;
@@ -137,7 +217,7 @@ public class UnaryCallService extends AbstractServiceAdaptorNew<Proxy.Packet, Pr
             try {
                 managedChannel = GrpcConnectionFactory.createManagedChannel(context.getRouterInfo());
                 DataTransferServiceGrpc.DataTransferServiceBlockingStub stub = DataTransferServiceGrpc.newBlockingStub(managedChannel);
-                result = stub.unaryCall(req);
+                result = stub.withDeadline(TransferUtil.callDeadline(routerInfo)).unaryCall(req);
             } catch (Exception e) {
                 logger.error("new channel call exception", e);
                 throw new RemoteRpcException("uncary call rpc error : "+e.getMessage());
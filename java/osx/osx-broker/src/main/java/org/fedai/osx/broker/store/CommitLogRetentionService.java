@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.broker.store;
+
+import org.fedai.osx.broker.queue.AbstractQueue;
+import org.fedai.osx.broker.queue.TransferQueue;
+import org.fedai.osx.broker.queue.TransferQueueManager;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.constant.StatusCode;
+import org.fedai.osx.core.exceptions.PutMessageException;
+import org.fedai.osx.core.frame.ServiceThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * 根据所有存活队列引用的最小物理偏移量回收commit log文件，
+ * 并在磁盘使用率超过高水位时对生产者限流
+ */
+public class CommitLogRetentionService extends ServiceThread {
+
+    Logger logger = LoggerFactory.getLogger(CommitLogRetentionService.class);
+    TransferQueueManager transferQueueManager;
+    MessageStore messageStore;
+    volatile long minLiveOffset = -1;
+    volatile long reclaimableBytes = 0;
+    volatile int diskUsagePercent = 0;
+
+    public CommitLogRetentionService(TransferQueueManager transferQueueManager, MessageStore messageStore) {
+        this.transferQueueManager = transferQueueManager;
+        this.messageStore = messageStore;
+    }
+
+    @Override
+    public String getServiceName() {
+        return "CommitLogRetentionService-" + messageStore.getStorePath();
+    }
+
+    @Override
+    public void run() {
+        while (!this.isStopped()) {
+            this.waitForRunning(MetaInfo.PROPERTY_COMMIT_LOG_RETENTION_CHECK_INTERVAL);
+            try {
+                reclaim();
+            } catch (Exception e) {
+                logger.error("commit log retention error", e);
+            }
+        }
+    }
+
+    public void reclaim() {
+        long liveOffset = computeMinLiveOffset(messageStore);
+        // 删除前统计，即本次检查发现可回收的字节数
+        this.reclaimableBytes = messageStore.getReclaimableBytes(liveOffset);
+        int count = messageStore.deleteFileBeforeOffset(liveOffset);
+        this.minLiveOffset = liveOffset;
+        refreshDiskUsage(messageStore);
+        if (count > 0 || isDiskFull()) {
+            logger.info("commit log {} retention, min live offset {}, deleted {} files, reclaimable {} bytes, disk usage {}%",
+                    messageStore.getStorePath(), liveOffset, count, reclaimableBytes, diskUsagePercent);
+        }
+    }
+
+    /**
+     * 只统计写入当前分片的队列。依次读取写入位置、正在写入的消息、各队列未消费的消息：
+     * 读取正在写入的消息之后才开始写入的消息偏移量不小于先读取的写入位置，
+     * 在此之前开始写入的消息要么仍在写入中，要么已登记到索引，能在随后遍历队列时读到
+     */
+    private long computeMinLiveOffset(MessageStore messageStore) {
+        long liveOffset = messageStore.getMaxPhysicOffset();
+        long inflightOffset = messageStore.getMinInflightOffset();
+        if (inflightOffset >= 0 && inflightOffset < liveOffset) {
+            liveOffset = inflightOffset;
+        }
+        for (AbstractQueue queue : transferQueueManager.getAllQueues()) {
+            if (queue instanceof TransferQueue && ((TransferQueue) queue).getMessageStore() == messageStore) {
+                long queueMinOffset = ((TransferQueue) queue).getMinPhysicOffset();
+                if (queueMinOffset >= 0 && queueMinOffset < liveOffset) {
+                    liveOffset = queueMinOffset;
+                }
+            }
+        }
+        return liveOffset;
+    }
+
+    private void refreshDiskUsage(MessageStore messageStore) {
+        File storeDir = new File(messageStore.getStorePath());
+        long totalSpace = storeDir.getTotalSpace();
+        if (totalSpace > 0) {
+            this.diskUsagePercent = (int) ((totalSpace - storeDir.getUsableSpace()) * 100 / totalSpace);
+        }
+    }
+
+    public boolean isDiskFull() {
+        return diskUsagePercent >= MetaInfo.PROPERTY_DISK_USAGE_HIGH_WATERMARK;
+    }
+
+    /**
+     * 磁盘使用率超过高水位时阻塞生产者，等待回收线程释放空间，超时后抛出可重试的异常。
+     * 调用方不能持有队列锁，否则等待期间同一队列的读写都会被阻塞
+     */
+    public void throttleIfDiskFull() {
+        if (!isDiskFull()) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + MetaInfo.PROPERTY_DISK_USAGE_THROTTLE_WAIT;
+        this.wakeup();
+        while (isDiskFull() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            refreshDiskUsage(messageStore);
+        }
+        if (isDiskFull()) {
+            logger.warn("disk usage {}% exceeds high watermark {}%, reject message", diskUsagePercent, MetaInfo.PROPERTY_DISK_USAGE_HIGH_WATERMARK);
+            throw new PutMessageException(StatusCode.DISK_USAGE_EXCEEDED, "disk usage " + diskUsagePercent + "% exceeds high watermark");
+        }
+    }
+
+    /**
+     * 不等待，磁盘使用率超过高水位时直接抛出可重试的异常，用于已持有队列锁的写入路径
+     */
+    public void rejectIfDiskFull() {
+        if (isDiskFull()) {
+            this.wakeup();
+            throw new PutMessageException(StatusCode.DISK_USAGE_EXCEEDED, "disk usage " + diskUsagePercent + "% exceeds high watermark");
+        }
+    }
+
+    public long getMinLiveOffset() {
+        return minLiveOffset;
+    }
+
+    public long getReclaimableBytes() {
+        return reclaimableBytes;
+    }
+
+    public int getDiskUsagePercent() {
+        return diskUsagePercent;
+    }
+}
@@ -15,18 +15,29 @@
  */
 package org.fedai.osx.broker.store;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import org.fedai.osx.broker.constants.MessageFlag;
 import org.fedai.osx.broker.message.*;
 import org.fedai.osx.broker.queue.*;
+import org.fedai.osx.broker.util.MessageConst;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.TransferStatus;
 import org.fedai.osx.core.exceptions.MappedFileException;
+import org.fedai.osx.core.exceptions.MessageParseException;
 import org.fedai.osx.core.exceptions.TransferQueueInvalidStatusException;
 import org.fedai.osx.core.frame.ServiceThread;
+import org.fedai.osx.core.metric.HotPathCounters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class MessageStore {
 
@@ -39,15 +50,21 @@ public class MessageStore {
     long lastReadTimestamp;
 
     MappedFileQueue mappedFileQueue;
-    ReentrantLock putMessageLock = new ReentrantLock();
+    String storePath;
+    PutMessageLock putMessageLock = createPutMessageLock();
     long beginTimeInLock;
     AppendMessageHandler appendMessageCallback = new DefaultAppendMessageHandler(MetaInfo.MAP_FILE_SIZE);
     AllocateMappedFileService allocateMappedFileService;
 
     CleanMappedFileThread cleanMappedFileThread = new CleanMappedFileThread();
+    /**
+     * 正在写入的消息在开始写入前记录的写入位置，写入完成并登记到索引之前回收线程不能删除该位置之后的文件
+     */
+    final Map<Object, Long> inflightWrites = new ConcurrentHashMap<>();
 
     public MessageStore(AllocateMappedFileService allocateMappedFileService, String path) {
         allocateMappedFileService = this.allocateMappedFileService;
+        this.storePath = path;
         mappedFileQueue = new MappedFileQueue(path, MetaInfo.MAP_FILE_SIZE, allocateMappedFileService);
         this.createTimestamp = System.currentTimeMillis();
         this.lastStatusChangeTimestamp = this.createTimestamp;
@@ -55,6 +72,12 @@ public class MessageStore {
         cleanMappedFileThread.start();
     }
 
+    static PutMessageLock createPutMessageLock() {
+        PutMessageLock lock = "spin".equalsIgnoreCase(MetaInfo.PROPERTY_MESSAGE_STORE_PUT_LOCK)
+                ? new PutMessageSpinLock() : new PutMessageReentrantLock();
+        return MetaInfo.PROPERTY_MESSAGE_STORE_PUT_LOCK_INSTRUMENTED ? new InstrumentedPutMessageLock(lock) : lock;
+    }
+
     public PutMessageResult putMessage(final MessageExtBrokerInner msg) {
         if (transferStatus == TransferStatus.TRANSFERING) {
             long timestamp = System.currentTimeMillis();
@@ -63,77 +86,185 @@ public class MessageStore {
                 logger.trace("put message {}", msg);
             }
             lastWriteTimestamp = timestamp;
-            AppendMessageResult result = null;
-            String topic = msg.getTopic();
-            int queueId = msg.getQueueId();
-            long elapsedTimeInLock = 0;
-            MappedFile unlockMappedFile = null;
-            MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
-
+            long elapsedTimeInLock;
+            PutMessageResult putMessageResult;
             putMessageLock.lock(); //spin or ReentrantLock ,depending on store config
             try {
                 long beginLockTimestamp = System.currentTimeMillis();
-                this.beginTimeInLock = beginLockTimestamp;
-
-                // Here settings are stored timestamp, in order to ensure an orderly
-                // global
-                msg.setStoreTimestamp(beginLockTimestamp);
-
-                if (null == mappedFile || mappedFile.isFull()) {
-                    mappedFile = this.mappedFileQueue.getLastMappedFile(0); // Mark: NewFile may be cause noise
-                }
-                if (null == mappedFile) {
-                    logger.error("create mapped file1 error, topic: " + msg.getTopic());
-                    beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
-                }
-
-                result = mappedFile.appendMessage(msg, this.appendMessageCallback);
-                switch (result.getStatus()) {
-                    case PUT_OK:
-                        break;
-                    case END_OF_FILE:
-                        if (logger.isTraceEnabled()) {
-                            logger.trace("");
-                        }
-
-                        unlockMappedFile = mappedFile;
-                        // Create a new file, re-write the message
-                        mappedFile = this.mappedFileQueue.getLastMappedFile(0);
-                        if (null == mappedFile) {
-                            logger.error("create mapped file error, topic: " + msg.getTopic());
-                            beginTimeInLock = 0;
-                            return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
-                        }
-                        result = mappedFile.appendMessage(msg, this.appendMessageCallback);
-                        break;
-                    case MESSAGE_SIZE_EXCEEDED:
-                    case PROPERTIES_SIZE_EXCEEDED:
-                        beginTimeInLock = 0;
-                        return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
-                    case UNKNOWN_ERROR:
-                        beginTimeInLock = 0;
-                        return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
-                    default:
-                        beginTimeInLock = 0;
-                        return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
-                }
+                putMessageResult = appendLocked(msg);
                 elapsedTimeInLock = System.currentTimeMillis() - beginLockTimestamp;
-                beginTimeInLock = 0;
             } finally {
+                beginTimeInLock = 0;
                 putMessageLock.unlock();
             }
             if (elapsedTimeInLock > 500) {
-                logger.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", elapsedTimeInLock, msg.getBody().length, result);
+                logger.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", elapsedTimeInLock, msg.getBody().length, putMessageResult.getAppendMessageResult());
             }
-            wrotePosition.addAndGet(result.getWroteBytes());
-            PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
             return putMessageResult;
         } else {
             throw new TransferQueueInvalidStatusException("invalid queue status : " + transferStatus);
         }
     }
 
+    /**
+     * 调用方需持有 putMessageLock
+     */
+    private PutMessageResult appendLocked(final MessageExtBrokerInner msg) {
+        long beginLockTimestamp = System.currentTimeMillis();
+        this.beginTimeInLock = beginLockTimestamp;
+
+        // Here settings are stored timestamp, in order to ensure an orderly
+        // global
+        msg.setStoreTimestamp(beginLockTimestamp);
+
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+        if (null == mappedFile || mappedFile.isFull()) {
+            mappedFile = this.mappedFileQueue.getLastMappedFile(0); // Mark: NewFile may be cause noise
+        }
+        if (null == mappedFile) {
+            logger.error("create mapped file1 error, topic: " + msg.getTopic());
+            return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
+        }
+
+        AppendMessageResult result = mappedFile.appendMessage(msg, this.appendMessageCallback);
+        switch (result.getStatus()) {
+            case PUT_OK:
+                break;
+            case END_OF_FILE:
+                if (logger.isTraceEnabled()) {
+                    logger.trace("");
+                }
+                // Create a new file, re-write the message
+                mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+                if (null == mappedFile) {
+                    logger.error("create mapped file error, topic: " + msg.getTopic());
+                    return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
+                }
+                result = mappedFile.appendMessage(msg, this.appendMessageCallback);
+                break;
+            case MESSAGE_SIZE_EXCEEDED:
+            case PROPERTIES_SIZE_EXCEEDED:
+                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+            case UNKNOWN_ERROR:
+                return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+            default:
+                return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+        }
+        if (result.getStatus() != AppendMessageStatus.PUT_OK) {
+            return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+        }
+        wrotePosition.addAndGet(result.getWroteBytes());
+        HotPathCounters.recordPutMessage(result.getWroteBytes());
+        PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
+        putMessageResult.setMinWroteOffset(result.getWroteOffset());
+        return putMessageResult;
+    }
+
+    /**
+     * 单个chunk的最大消息体长度，保证每个chunk都能放进一个新的mapped file
+     */
+    public int getChunkSize() {
+        return Math.min(MetaInfo.PROPERTY_MESSAGE_CHUNK_SIZE, MetaInfo.MAP_FILE_SIZE / 2);
+    }
+
+    public boolean needChunk(final MessageExtBrokerInner msg) {
+        return msg.getBody() != null && msg.getBody().length > getChunkSize();
+    }
+
+    /**
+     * 将大消息拆分为多个chunk写入，chunk之间通过物理偏移量串联，可以跨越多个mapped file。
+     * chunk从尾部开始倒序写入，这样每个chunk写入时都已经知道下一个chunk的偏移量，
+     * 最后写入的head chunk携带消息原有的属性，返回的结果即为head的写入结果。
+     * 每个chunk单独加锁写入，大消息不会长时间占用锁，其他写入可以穿插在chunk之间；
+     * 只有head被索引引用，head写入即为整条消息的提交点。中途失败时head不会写入，已写入的chunk随所在文件一起回收
+     */
+    public PutMessageResult putChunkedMessage(final MessageExtBrokerInner msg) {
+        if (transferStatus != TransferStatus.TRANSFERING) {
+            throw new TransferQueueInvalidStatusException("invalid queue status : " + transferStatus);
+        }
+        byte[] body = msg.getBody();
+        int chunkSize = getChunkSize();
+        int chunkCount = (body.length + chunkSize - 1) / chunkSize;
+        long nextOffset = -1;
+        long minWroteOffset = -1;
+        PutMessageResult putMessageResult = null;
+        for (int index = chunkCount - 1; index >= 0; index--) {
+            int begin = index * chunkSize;
+            int end = Math.min(begin + chunkSize, body.length);
+            MessageExtBrokerInner chunk = MessageDecoder.buildMessageExtBrokerInner(msg.getTopic(), Arrays.copyOfRange(body, begin, end),
+                    msg.getMsgId(), MessageFlag.getMessageFlag(msg.getFlag()), msg.getSrcPartyId(), msg.getDesPartyId());
+            chunk.setBornTimestamp(msg.getBornTimestamp());
+            Map<String, String> properties = chunk.getProperties();
+            if (index == 0) {
+                chunk.setSysFlag(msg.getSysFlag() | MessageSysFlag.CHUNK_HEAD_FLAG);
+                if (msg.getProperties() != null) {
+                    properties.putAll(msg.getProperties());
+                }
+                properties.put(MessageConst.PROPERTY_CHUNK_TOTAL_SIZE, String.valueOf(body.length));
+                properties.put(MessageConst.PROPERTY_CHUNK_COUNT, String.valueOf(chunkCount));
+            } else {
+                chunk.setSysFlag(msg.getSysFlag() | MessageSysFlag.CHUNK_BODY_FLAG);
+            }
+            if (nextOffset >= 0) {
+                properties.put(MessageConst.PROPERTY_CHUNK_NEXT_OFFSET, String.valueOf(nextOffset));
+            }
+            putMessageResult = this.putMessage(chunk);
+            if (!putMessageResult.isOk()) {
+                logger.error("put chunk {}/{} of topic {} error {}, {} chunks written from offset {} are abandoned",
+                        index, chunkCount, msg.getTopic(), putMessageResult, chunkCount - 1 - index, minWroteOffset);
+                return putMessageResult;
+            }
+            nextOffset = putMessageResult.getAppendMessageResult().getWroteOffset();
+            if (minWroteOffset < 0) {
+                minWroteOffset = nextOffset;
+            }
+        }
+        putMessageResult.setMinWroteOffset(minWroteOffset);
+        return putMessageResult;
+    }
+
+    /**
+     * 从head开始按顺序读取每个chunk的消息体，读取完成后即释放对应的mapped buffer
+     */
+    public void forEachChunk(final MessageExt head, Consumer<byte[]> chunkConsumer) {
+        if (head.getBody() != null) {
+            chunkConsumer.accept(head.getBody());
+        }
+        String nextOffset = head.getProperty(MessageConst.PROPERTY_CHUNK_NEXT_OFFSET);
+        while (nextOffset != null) {
+            SelectMappedBufferResult selectMappedBufferResult = this.consumeOneMessage(Long.parseLong(nextOffset));
+            if (selectMappedBufferResult == null) {
+                throw new MessageParseException("chunk of topic " + head.getTopic() + " at offset " + nextOffset + " is not found");
+            }
+            try {
+                MessageExt chunk = MessageDecoder.decode(selectMappedBufferResult.getByteBuffer());
+                if (chunk == null || !MessageSysFlag.isChunkBody(chunk.getSysFlag())) {
+                    throw new MessageParseException("invalid chunk of topic " + head.getTopic() + " at offset " + nextOffset);
+                }
+                if (chunk.getBody() != null) {
+                    chunkConsumer.accept(chunk.getBody());
+                }
+                nextOffset = chunk.getProperty(MessageConst.PROPERTY_CHUNK_NEXT_OFFSET);
+            } finally {
+                selectMappedBufferResult.release();
+            }
+        }
+    }
+
+    /**
+     * 按chunk拼接消息体，每个chunk解码出的数组直接作为结果的一段，不再复制到一个完整的数组中
+     */
+    public ByteString readChunkedPayload(final MessageExt head) {
+        long totalSize = Long.parseLong(head.getProperty(MessageConst.PROPERTY_CHUNK_TOTAL_SIZE));
+        List<ByteString> chunks = new ArrayList<>();
+        forEachChunk(head, chunkBody -> chunks.add(UnsafeByteOperations.unsafeWrap(chunkBody)));
+        ByteString payload = ByteString.copyFrom(chunks);
+        if (payload.size() != totalSize) {
+            throw new MessageParseException("chunked message of topic " + head.getTopic() + " is incomplete, expect " + totalSize + " read " + payload.size());
+        }
+        return payload;
+    }
+
     public SelectMappedBufferResult consumeOneMessage(long offset) {
         if (transferStatus == TransferStatus.TRANSFERING) {
             Message result = null;
@@ -178,6 +309,75 @@ public class MessageStore {
         return null;
     }
 
+    public String getStorePath() {
+        return storePath;
+    }
+
+    /**
+     * 开始写入前调用，返回的凭证需要在消息登记到索引之后交给 {@link #endWrite(Object)}
+     */
+    public Object beginWrite() {
+        Object token = new Object();
+        inflightWrites.put(token, getMaxPhysicOffset());
+        return token;
+    }
+
+    public void endWrite(Object token) {
+        inflightWrites.remove(token);
+    }
+
+    /**
+     * @return 正在写入的消息中最小的起始位置，没有正在写入的消息时返回-1
+     */
+    public long getMinInflightOffset() {
+        long min = -1;
+        for (Long offset : inflightWrites.values()) {
+            if (min < 0 || offset < min) {
+                min = offset;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * 分块消息的chunk先于head写入，返回chunk链中最小的物理偏移量，只解析消息头不读取消息体
+     */
+    public long getMinChunkOffset(final MessageExt head, long headOffset) {
+        long minOffset = headOffset;
+        String nextOffset = head.getProperty(MessageConst.PROPERTY_CHUNK_NEXT_OFFSET);
+        while (nextOffset != null) {
+            long offset = Long.parseLong(nextOffset);
+            minOffset = Math.min(minOffset, offset);
+            SelectMappedBufferResult selectMappedBufferResult = this.consumeOneMessage(offset);
+            if (selectMappedBufferResult == null) {
+                break;
+            }
+            try {
+                MessageExt chunk = MessageDecoder.decode(selectMappedBufferResult.getByteBuffer(), false);
+                nextOffset = chunk != null ? chunk.getProperty(MessageConst.PROPERTY_CHUNK_NEXT_OFFSET) : null;
+            } finally {
+                selectMappedBufferResult.release();
+            }
+        }
+        return minOffset;
+    }
+
+    public long getMaxPhysicOffset() {
+        return this.mappedFileQueue.getMaxWrotePosition();
+    }
+
+    public long getMinPhysicOffset() {
+        return this.mappedFileQueue.getMinOffset();
+    }
+
+    public int deleteFileBeforeOffset(long offset) {
+        return this.mappedFileQueue.deleteFileBeforeOffset(offset, 1000);
+    }
+
+    public long getReclaimableBytes(long offset) {
+        return this.mappedFileQueue.getReclaimableSize(offset);
+    }
+
     public long getCreateTimestamp() {
         return createTimestamp;
     }
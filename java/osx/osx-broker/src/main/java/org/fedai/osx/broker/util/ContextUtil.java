@@ -70,6 +70,7 @@ public class ContextUtil {
 //        context.setRequestMsgIndex(offset);
 //        context.setMessageCode(messageCode);
         context.setTechProviderCode(techProviderCode);
+        assableTraceContext(context, CONTEXTKEY_SAMPLED.get(grpcContext), CONTEXTKEY_PARENT_SPAN_ID.get(grpcContext));
         if (MetaInfo.PROPERTY_SELF_PARTY.contains(context.getDesNodeId())) {
             context.setSelfPartyId(context.getDesNodeId());
         } else {
@@ -120,9 +121,22 @@ public class ContextUtil {
         osxContext.setDesInstId(targetInstID);
         osxContext.setQueueType(queueType);
         osxContext.setMessageFlag(msgFlag);
+        assableTraceContext(osxContext, request.getHeader(PtpHttpHeader.Sampled), request.getHeader(PtpHttpHeader.ParentSpanId));
 
         return osxContext;
     }
 
+    /**
+     * 沿用上游的采样决定，没有传入时由本节点决定
+     */
+    public static void assableTraceContext(OsxContext context, String sampled, String parentSpanId) {
+        if (StringUtils.isNotEmpty(sampled)) {
+            context.setSampled("1".equals(sampled));
+        }
+        if (StringUtils.isNotEmpty(parentSpanId)) {
+            context.setParentSpanId(parentSpanId);
+        }
+    }
+
 
 }
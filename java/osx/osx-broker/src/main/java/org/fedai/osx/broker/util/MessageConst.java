@@ -51,6 +51,9 @@ public class MessageConst {
     public static final String PROPERTY_PUSH_REPLY_TIME = "PUSH_REPLY_TIME";
     public static final String PROPERTY_CLUSTER = "CLUSTER";
     public static final String PROPERTY_MESSAGE_TYPE = "MSG_TYPE";
+    public static final String PROPERTY_CHUNK_NEXT_OFFSET = "CHUNK_NEXT";
+    public static final String PROPERTY_CHUNK_TOTAL_SIZE = "CHUNK_TOTAL";
+    public static final String PROPERTY_CHUNK_COUNT = "CHUNK_COUNT";
 
     public static final String KEY_SEPARATOR = " ";
 
@@ -87,5 +90,8 @@ public class MessageConst {
         STRING_HASH_SET.add(PROPERTY_PUSH_REPLY_TIME);
         STRING_HASH_SET.add(PROPERTY_CLUSTER);
         STRING_HASH_SET.add(PROPERTY_MESSAGE_TYPE);
+        STRING_HASH_SET.add(PROPERTY_CHUNK_NEXT_OFFSET);
+        STRING_HASH_SET.add(PROPERTY_CHUNK_TOTAL_SIZE);
+        STRING_HASH_SET.add(PROPERTY_CHUNK_COUNT);
     }
 }
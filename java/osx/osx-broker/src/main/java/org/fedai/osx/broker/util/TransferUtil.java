@@ -17,14 +17,21 @@ package org.fedai.osx.broker.util;
 
 
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.webank.ai.eggroll.api.networking.proxy.Proxy;
 import com.webank.eggroll.core.transfer.Transfer;
+import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.ManagedChannel;
 import io.grpc.StatusRuntimeException;
 import org.apache.commons.lang3.StringUtils;
 import org.fedai.osx.broker.constants.MessageFlag;
+import org.fedai.osx.broker.flow.BandwidthShaper;
+import org.fedai.osx.broker.flow.TokenBucket;
 import org.fedai.osx.broker.http.HttpClientPool;
 import org.fedai.osx.broker.http.HttpDataWrapper;
 import org.fedai.osx.broker.http.HttpsClientPool;
@@ -39,7 +46,9 @@ import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.context.Protocol;
 import org.fedai.osx.core.exceptions.*;
 import org.fedai.osx.core.frame.GrpcConnectionFactory;
+import org.fedai.osx.core.metric.MetricsRegistry;
 import org.fedai.osx.core.router.RouterInfo;
+import org.fedai.osx.core.trace.Span;
 import org.fedai.osx.core.utils.AssertUtil;
 import org.fedai.osx.core.utils.JsonUtil;
 import org.ppc.ptp.Osx;
@@ -55,6 +64,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class TransferUtil {
 
@@ -272,6 +282,10 @@ public class TransferUtil {
         header.put(PtpHttpHeader.MessageTopic, context.getTopic());
         header.put(PtpHttpHeader.QueueType, context.getQueueType());
         header.put(PtpHttpHeader.MessageFlag, context.getMessageFlag());
+        if (context.getSampled() != null) {
+            header.put(PtpHttpHeader.Sampled, context.getSampled() ? "1" : "0");
+            header.put(PtpHttpHeader.ParentSpanId, context.getSpanId());
+        }
         return header;
     }
 
@@ -295,7 +309,7 @@ public class TransferUtil {
             stub = (PrivateTransferTransportGrpc.PrivateTransferTransportBlockingStub) context.getData(Dict.BLOCKING_STUB);
         }
         try {
-            result = stub.push(produceRequest);
+            result = stub.withDeadline(callDeadline(routerInfo)).push(produceRequest);
         } catch (StatusRuntimeException e) {
             logger.error("redirect error", e);
             throw new RemoteRpcException(StatusCode.NET_ERROR, "send to " + routerInfo.toKey() + " error : " + e.getMessage());
@@ -318,7 +332,7 @@ public class TransferUtil {
                     //httpDataWrapper = HttpsClientPool.sendPostWithCert(url, produceRequest.getPayload().toByteArray(), header, routerInfo.getCaFile(), routerInfo.getCertChainFile(), routerInfo.getPrivateKeyFile());
                     httpDataWrapper = HttpsClientPool.sendPostWithCert(header, produceRequest.getPayload().toByteArray(), routerInfo);
                 } else {
-                    httpDataWrapper = HttpClientPool.sendPost(url, produceRequest.getPayload().toByteArray(), header);
+                    httpDataWrapper = HttpClientPool.sendPost(url, produceRequest.getPayload().toByteArray(), header, routerInfo);
                 }
             }
         } catch (Exception e) {
@@ -340,22 +354,34 @@ public class TransferUtil {
     static public Osx.TransportOutbound redirectPop(OsxContext context, RouterInfo routerInfo, Osx.PopInbound inbound) {
         ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
         context.setActionType(ActionType.REDIRECT_CONSUME.name());
+        long waitMillis = inbound.getTimeout() > 0 ? inbound.getTimeout() : MetaInfo.CONSUME_MSG_WAITING_TIMEOUT;
         PrivateTransferTransportGrpc.PrivateTransferTransportBlockingStub stub = PrivateTransferTransportGrpc.newBlockingStub(managedChannel);
-        return stub.pop(inbound);
+        return stub.withDeadline(callDeadline(routerInfo, waitMillis)).pop(inbound);
+    }
+
+    /**
+     * 异步转发消费请求，对端可能长时间挂起等待消息，不占用当前线程；没有入站截止时间时在等待时间之外再加上调用超时
+     */
+    static public ListenableFuture<Osx.TransportOutbound> redirectPopAsync(OsxContext context, RouterInfo routerInfo, Osx.PopInbound inbound) {
+        ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
+        context.setActionType(ActionType.REDIRECT_CONSUME.name());
+        long waitMillis = inbound.getTimeout() > 0 ? inbound.getTimeout() : MetaInfo.CONSUME_MSG_WAITING_TIMEOUT;
+        PrivateTransferTransportGrpc.PrivateTransferTransportFutureStub stub = PrivateTransferTransportGrpc.newFutureStub(managedChannel);
+        return stub.withDeadline(callDeadline(routerInfo, waitMillis)).pop(inbound);
     }
 
     static public Osx.TransportOutbound redirectPeek(OsxContext context, RouterInfo routerInfo, Osx.PeekInbound inbound) {
         ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
         context.setActionType(ActionType.REDIRECT_CONSUME.name());
         PrivateTransferTransportGrpc.PrivateTransferTransportBlockingStub stub = PrivateTransferTransportGrpc.newBlockingStub(managedChannel);
-        return stub.peek(inbound);
+        return stub.withDeadline(callDeadline(routerInfo)).peek(inbound);
     }
 
     static public Osx.TransportOutbound redirectRelease(OsxContext context, RouterInfo routerInfo, Osx.ReleaseInbound inbound) {
         ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
         context.setActionType(ActionType.CANCEL_TOPIC.name());
         PrivateTransferTransportGrpc.PrivateTransferTransportBlockingStub stub = PrivateTransferTransportGrpc.newBlockingStub(managedChannel);
-        return stub.release(inbound);
+        return stub.withDeadline(callDeadline(routerInfo)).release(inbound);
     }
 
     static public Object transfomateResult(OsxContext context, Object oriResult) {
@@ -391,8 +417,133 @@ public class TransferUtil {
 
     }
 
+    /**
+     * 单次转发按目标party限速，返回发送前需要等待的纳秒数；等待时间超过 maxWaitNanos 时直接拒绝由调用方重试。
+     * 已由流式发送自行控制节奏的请求不再重复计数
+     */
+    private static long reserveBandwidth(OsxContext context, RouterInfo routerInfo, long size, long maxWaitNanos) {
+        if (context.getData(Dict.BANDWIDTH_PACED) != null) {
+            return 0;
+        }
+        String desPartyId = context.getDesNodeId() != null ? context.getDesNodeId() : routerInfo.getDesPartyId();
+        TokenBucket tokenBucket = BandwidthShaper.getTokenBucket(desPartyId, BandwidthShaper.priorityOf(size));
+        if (tokenBucket == null) {
+            return 0;
+        }
+        long waitNanos = tokenBucket.reserve(size, maxWaitNanos);
+        if (waitNanos < 0) {
+            logger.warn("send to party {} is limited by bandwidth {} bytes/s", desPartyId, tokenBucket.getBytesPerSecond());
+            throw new FlowControlException("bandwidth limited : " + desPartyId);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * 异步转发最多等待 bandwidth.max.wait ，同时不超过调用剩余的时间，等待在限速线程上完成
+     */
+    private static long reserveBandwidth(OsxContext context, RouterInfo routerInfo, long size, Deadline deadline) {
+        long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(MetaInfo.PROPERTY_BANDWIDTH_MAX_WAIT);
+        if (deadline != null) {
+            maxWaitNanos = Math.min(maxWaitNanos, deadline.timeRemaining(TimeUnit.NANOSECONDS));
+        }
+        return reserveBandwidth(context, routerInfo, size, maxWaitNanos);
+    }
+
+    /**
+     * 同步转发不在调用线程上等待令牌，令牌不足时直接返回 FLOW_CONTROL_LIMITED 由调用方重试
+     */
+    private static void acquireBandwidth(OsxContext context, RouterInfo routerInfo, long size) {
+        reserveBandwidth(context, routerInfo, size, 0L);
+    }
+
+    /**
+     * 转发调用的截止时间：沿用入站grpc请求剩余的时间，没有时使用路由配置的 timeout ，再没有则使用 grpc.client.call.timeout
+     */
+    static public Deadline callDeadline(RouterInfo routerInfo) {
+        return callDeadline(routerInfo, 0);
+    }
+
+    /**
+     * @param waitMillis 对端处理前需要等待的时间（如消费等待消息），在没有入站截止时间时加到超时时间上
+     */
+    static public Deadline callDeadline(RouterInfo routerInfo, long waitMillis) {
+        Deadline deadline = io.grpc.Context.current().getDeadline();
+        if (deadline != null) {
+            return deadline;
+        }
+        long timeout = routerInfo != null && routerInfo.getTimeout() != null && routerInfo.getTimeout() > 0 ?
+                routerInfo.getTimeout() : MetaInfo.PROPERTY_GRPC_CLIENT_CALL_TIMEOUT;
+        return Deadline.after(timeout + waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 异步转发到grpc路由，当前线程只负责发出请求，结果在grpc回调线程中完成；
+     * 对端返回错误状态时结果以 RemoteRpcException 失败，与同步的 redirect 一致
+     */
+    static public ListenableFuture<Osx.Outbound> redirectAsync(OsxContext context, Osx.Inbound inbound, RouterInfo routerInfo) {
+        long begin = System.nanoTime();
+        Span span = context.startSpan("redirect");
+        Protocol protocol = routerInfo.getProtocol() != null ? routerInfo.getProtocol() : Protocol.grpc;
+        span.setAttribute("des.party.id", routerInfo.getDesPartyId()).setAttribute("protocol", protocol.name());
+        Runnable finish = () -> {
+            span.end();
+            MetricsRegistry.recordRoute(context.getSrcNodeId(), context.getDesNodeId() != null ? context.getDesNodeId() : routerInfo.getDesPartyId(),
+                    protocol.name(), System.nanoTime() - begin);
+        };
+        ListenableFuture<Osx.Outbound> future;
+        try {
+            context.setDataSize(inbound.getSerializedSize());
+            Deadline deadline = callDeadline(routerInfo);
+            long waitNanos = reserveBandwidth(context, routerInfo, inbound.getSerializedSize(), deadline);
+            ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
+            PrivateTransferProtocolGrpc.PrivateTransferProtocolFutureStub stub = PrivateTransferProtocolGrpc.newFutureStub(managedChannel).withDeadline(deadline);
+            if (waitNanos > 0) {
+                // 等待令牌期间不占用调用线程，到期后在限速线程上带着原请求的上下文发出
+                Context grpcContext = Context.current();
+                future = Futures.scheduleAsync(() -> {
+                    OsxContext.pushThreadLocalContext(context);
+                    Context previous = grpcContext.attach();
+                    try {
+                        return stub.invoke(inbound);
+                    } finally {
+                        grpcContext.detach(previous);
+                        OsxContext.popThreadLocalContext();
+                    }
+                }, waitNanos, TimeUnit.NANOSECONDS, BandwidthShaper.getScheduler());
+            } else {
+                future = stub.invoke(inbound);
+            }
+        } catch (RuntimeException e) {
+            finish.run();
+            throw e;
+        }
+        future.addListener(finish, MoreExecutors.directExecutor());
+        return Futures.catching(future, StatusRuntimeException.class, e -> {
+            logger.error("redirect error", e);
+            throw new RemoteRpcException(StatusCode.NET_ERROR, "send to " + routerInfo.toKey() + " error : " + e.getMessage());
+        }, MoreExecutors.directExecutor());
+    }
+
     static public Object redirect(OsxContext context, Object
             data, RouterInfo routerInfo, boolean usePooled) {
+        long begin = System.nanoTime();
+        Span span = context.startSpan("redirect");
+        try {
+            return redirectInner(context, data, routerInfo);
+        } finally {
+            if (routerInfo == null) {
+                span.end();
+            } else {
+                Protocol protocol = routerInfo.getProtocol() != null ? routerInfo.getProtocol() : Protocol.grpc;
+                // 结束后的span可能已被取出上报，属性必须在 end 之前设置
+                span.setAttribute("des.party.id", routerInfo.getDesPartyId()).setAttribute("protocol", protocol.name()).end();
+                MetricsRegistry.recordRoute(context.getSrcNodeId(), context.getDesNodeId() != null ? context.getDesNodeId() : routerInfo.getDesPartyId(),
+                        protocol.name(), System.nanoTime() - begin);
+            }
+        }
+    }
+
+    static private Object redirectInner(OsxContext context, Object data, RouterInfo routerInfo) {
         AssertUtil.notNull(routerInfo, context.getDesNodeId() != null ? "des partyId " + context.getDesNodeId() + " router info is null" : " error router info");
         Object result = null;
         if (routerInfo.getProtocol() == null ||Protocol.grpc.equals(routerInfo.getProtocol())) {
@@ -411,6 +562,8 @@ public class TransferUtil {
             }
 
             context.setDataSize(inbound.getSerializedSize());
+            Deadline deadline = callDeadline(routerInfo);
+            acquireBandwidth(context, routerInfo, inbound.getSerializedSize());
             PrivateTransferProtocolGrpc.PrivateTransferProtocolBlockingStub stub = null;
             if (context.getData(Dict.BLOCKING_STUB) == null) {
                 ManagedChannel managedChannel = GrpcConnectionFactory.createManagedChannel(routerInfo);
@@ -419,7 +572,7 @@ public class TransferUtil {
                 stub = (PrivateTransferProtocolGrpc.PrivateTransferProtocolBlockingStub) context.getData(Dict.BLOCKING_STUB);
             }
             try {
-                result = stub.invoke(inbound);
+                result = stub.withDeadline(deadline).invoke(inbound);
             } catch (StatusRuntimeException e) {
                 logger.error("redirect error", e);
                 throw new RemoteRpcException(StatusCode.NET_ERROR, "send to " + routerInfo.toKey() + " error : " + e.getMessage());
@@ -446,6 +599,7 @@ public class TransferUtil {
             String url = routerInfo.getUrl();
             Map header = parseHttpHeader(context);
             context.setDataSize(httpInvoke.getPayload() != null ? httpInvoke.getPayload().length : 0);
+            acquireBandwidth(context, routerInfo, httpInvoke.getPayload() != null ? httpInvoke.getPayload().length : 0);
             long startTime = System.currentTimeMillis();
             try {
                 if (routerInfo.getProtocol().equals(Protocol.http)) {
@@ -453,7 +607,7 @@ public class TransferUtil {
                     if (routerInfo.isUseSSL()) {
                         httpDataWrapper = HttpsClientPool.sendPostWithCert(header, JsonUtil.object2Json(httpInvoke).getBytes(StandardCharsets.UTF_8), routerInfo);
                     } else {
-                        httpDataWrapper = HttpClientPool.sendPost(url, JsonUtil.object2Json(httpInvoke).getBytes(StandardCharsets.UTF_8), header);
+                        httpDataWrapper = HttpClientPool.sendPost(url, JsonUtil.object2Json(httpInvoke).getBytes(StandardCharsets.UTF_8), header, routerInfo);
                     }
                     if (httpDataWrapper != null) {
                         result = JsonUtil.json2Object(httpDataWrapper.getPayload(), HttpInvokeResult.class);
@@ -483,15 +637,15 @@ public class TransferUtil {
     }
 
     public static Osx.TransportOutbound buildTransportOutbound(String code, String msgReturn, TransferQueueConsumeResult messageWraper) {
-        byte[] content = null;
-        if (messageWraper != null && messageWraper.getMessage() != null) {
-            content = messageWraper.getMessage().getBody();
+        ByteString content = null;
+        if (messageWraper != null) {
+            content = messageWraper.getPayload();
         }
         Osx.TransportOutbound.Builder builder = Osx.TransportOutbound.newBuilder();
         builder.setCode(code);
         builder.setMessage(msgReturn);
         if (content != null) {
-            builder.setPayload(ByteString.copyFrom(content));
+            builder.setPayload(content);
         }
         return builder.build();
     }
@@ -523,7 +677,7 @@ public class TransferUtil {
         if (messageWraper != null) {
             Osx.Message message = null;
             try {
-                message = Osx.Message.parseFrom(messageWraper.getMessage().getBody());
+                message = Osx.Message.parseFrom(messageWraper.getBody());
             } catch (InvalidProtocolBufferException e) {
                 logger.error("parse message error", e);
             }
@@ -0,0 +1,182 @@
+package org.fedai.osx.broker.test.flow;
+
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.flow.MetricNode;
+import org.fedai.osx.core.flow.MetricStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MetricStoreTest {
+
+    static final long PARTITION_TIME = 60 * 1000;
+    /**
+     * 对齐到分区起点，避免测试数据跨越分区
+     */
+    static final long BASE = 1700000000000L - 1700000000000L % PARTITION_TIME;
+
+    Integer partitionTime;
+    Integer downsampleAfter;
+    Integer downsampleInterval;
+    Integer retentionTime;
+    File dir;
+    MetricStore metricStore;
+
+    @Before
+    public void setUp() throws Exception {
+        partitionTime = MetaInfo.PROPERTY_METRIC_STORE_PARTITION_TIME;
+        downsampleAfter = MetaInfo.PROPERTY_METRIC_STORE_DOWNSAMPLE_AFTER;
+        downsampleInterval = MetaInfo.PROPERTY_METRIC_STORE_DOWNSAMPLE_INTERVAL;
+        retentionTime = MetaInfo.PROPERTY_METRIC_STORE_RETENTION_TIME;
+        MetaInfo.PROPERTY_METRIC_STORE_PARTITION_TIME = (int) PARTITION_TIME;
+        MetaInfo.PROPERTY_METRIC_STORE_DOWNSAMPLE_AFTER = (int) (10 * PARTITION_TIME);
+        MetaInfo.PROPERTY_METRIC_STORE_DOWNSAMPLE_INTERVAL = 10;
+        MetaInfo.PROPERTY_METRIC_STORE_RETENTION_TIME = (int) (100 * PARTITION_TIME);
+        dir = Files.createTempDirectory("osx-metric-store").toFile();
+        metricStore = new MetricStore(dir);
+    }
+
+    @After
+    public void tearDown() {
+        metricStore.close();
+        metricStore.removeAll();
+        MetaInfo.PROPERTY_METRIC_STORE_PARTITION_TIME = partitionTime;
+        MetaInfo.PROPERTY_METRIC_STORE_DOWNSAMPLE_AFTER = downsampleAfter;
+        MetaInfo.PROPERTY_METRIC_STORE_DOWNSAMPLE_INTERVAL = downsampleInterval;
+        MetaInfo.PROPERTY_METRIC_STORE_RETENTION_TIME = retentionTime;
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private MetricNode node(String resource, long pass) {
+        MetricNode node = new MetricNode();
+        node.setResource(resource);
+        node.setPassQps(pass);
+        node.setBlockQps(1);
+        node.setSuccessQps(pass);
+        node.setExceptionQps(-2);
+        node.setRt(pass * 3);
+        node.setOccupiedPassQps(0);
+        return node;
+    }
+
+    private void writeSeconds(long begin, int seconds, String resource) {
+        for (int i = 0; i < seconds; i++) {
+            List<MetricNode> nodes = new ArrayList<>();
+            nodes.add(node(resource, i));
+            metricStore.write(begin + i * 1000L, nodes);
+        }
+    }
+
+    @Test
+    public void testFindAcrossSealedAndActivePartitions() throws Exception {
+        writeSeconds(BASE, 60, "a");
+        writeSeconds(BASE + PARTITION_TIME, 30, "a");
+        Assert.assertTrue(new File(dir, BASE + ".bin").exists());
+        List<MetricNode> nodes = metricStore.findByTimeAndResource(BASE + 50 * 1000, BASE + PARTITION_TIME + 9 * 1000, "a");
+        Assert.assertEquals(20, nodes.size());
+        Assert.assertEquals(BASE + 50 * 1000, nodes.get(0).getTimestamp());
+        Assert.assertEquals(50, nodes.get(0).getPassQps());
+        Assert.assertEquals(-2, nodes.get(0).getExceptionQps());
+        Assert.assertEquals(150, nodes.get(0).getRt());
+        Assert.assertEquals(9, nodes.get(19).getPassQps());
+        Assert.assertNull(metricStore.findByTimeAndResource(BASE, BASE + 10 * 1000, "b"));
+    }
+
+    @Test
+    public void testFindDoesNotSplitSecond() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            List<MetricNode> nodes = new ArrayList<>();
+            nodes.add(node("a", i));
+            nodes.add(node("b", i));
+            metricStore.write(BASE + i * 1000L, nodes);
+        }
+        List<MetricNode> nodes = metricStore.find(BASE, 3);
+        Assert.assertEquals(4, nodes.size());
+        Assert.assertEquals(nodes.get(2).getTimestamp(), nodes.get(3).getTimestamp());
+    }
+
+    @Test
+    public void testActivePartitionIsRecoveredAfterRestart() throws Exception {
+        writeSeconds(BASE, 60, "a");
+        writeSeconds(BASE + PARTITION_TIME, 20, "a");
+        metricStore.close();
+        metricStore = new MetricStore(dir);
+        Assert.assertEquals(80, metricStore.findByTimeAndResource(BASE, BASE + 2 * PARTITION_TIME, "a").size());
+        // 恢复后继续写入同一分区，再进入下一个分区时正常结束
+        writeSeconds(BASE + PARTITION_TIME + 20 * 1000, 40, "a");
+        writeSeconds(BASE + 2 * PARTITION_TIME, 1, "a");
+        Assert.assertTrue(new File(dir, (BASE + PARTITION_TIME) + ".bin").exists());
+        Assert.assertFalse(new File(dir, (BASE + PARTITION_TIME) + ".wal").exists());
+        Assert.assertEquals(121, metricStore.findByTimeAndResource(BASE, BASE + 3 * PARTITION_TIME, "a").size());
+    }
+
+    @Test
+    public void testTruncatedWalRecordIsDropped() throws Exception {
+        writeSeconds(BASE, 10, "a");
+        metricStore.close();
+        File wal = new File(dir, BASE + ".wal");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(wal, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 5);
+        }
+        metricStore = new MetricStore(dir);
+        Assert.assertEquals(9, metricStore.findByTimeAndResource(BASE, BASE + PARTITION_TIME, "a").size());
+        writeSeconds(BASE + 10 * 1000, 1, "a");
+        metricStore.close();
+        metricStore = new MetricStore(dir);
+        List<MetricNode> nodes = metricStore.findByTimeAndResource(BASE, BASE + PARTITION_TIME, "a");
+        Assert.assertEquals(10, nodes.size());
+        Assert.assertEquals(BASE + 10 * 1000, nodes.get(9).getTimestamp());
+    }
+
+    @Test
+    public void testOldPartitionIsDownsampled() throws Exception {
+        writeSeconds(BASE, 60, "a");
+        writeSeconds(BASE + 11 * PARTITION_TIME, 1, "a");
+        Assert.assertTrue(new File(dir, BASE + ".ds.bin").exists());
+        Assert.assertFalse(new File(dir, BASE + ".bin").exists());
+        List<MetricNode> nodes = metricStore.findByTimeAndResource(BASE, BASE + PARTITION_TIME - 1, "a");
+        Assert.assertEquals(6, nodes.size());
+        // 每10秒取平均值，时间戳为桶的起始时间
+        Assert.assertEquals(BASE, nodes.get(0).getTimestamp());
+        Assert.assertEquals(4, nodes.get(0).getPassQps());
+        Assert.assertEquals(BASE + 50 * 1000, nodes.get(5).getTimestamp());
+        Assert.assertEquals(54, nodes.get(5).getPassQps());
+        Assert.assertEquals(163, nodes.get(5).getRt());
+        Assert.assertEquals(1, nodes.get(5).getBlockQps());
+    }
+
+    @Test
+    public void testExpiredPartitionIsRemoved() throws Exception {
+        writeSeconds(BASE, 60, "a");
+        writeSeconds(BASE + 101 * PARTITION_TIME, 1, "a");
+        Assert.assertNull(metricStore.findByTimeAndResource(BASE, BASE + PARTITION_TIME - 1, "a"));
+        Assert.assertEquals(Collections.emptyList(), listPartitionFiles(BASE));
+    }
+
+    private List<String> listPartitionFiles(long beginTime) {
+        List<String> names = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(beginTime + ".")) {
+                    names.add(file.getName());
+                }
+            }
+        }
+        return names;
+    }
+}
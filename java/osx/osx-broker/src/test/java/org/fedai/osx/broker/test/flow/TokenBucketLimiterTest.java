@@ -0,0 +1,80 @@
+package org.fedai.osx.broker.test.flow;
+
+import org.fedai.osx.core.flow.TokenBucketLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketLimiterTest {
+
+    private int drain(TokenBucketLimiter limiter) {
+        int count = 0;
+        while (count < 10000 && limiter.tryAcquire(1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testBurstCapacity() {
+        // 10/s，容量1秒，空闲时瞬时可通过10个
+        TokenBucketLimiter limiter = new TokenBucketLimiter(10, 1000, 0, 1);
+        Assert.assertEquals(10, drain(limiter));
+        Assert.assertFalse(limiter.canAcquire(1));
+    }
+
+    @Test
+    public void testSingleRequestLargerThanBurstPassesWhenIdle() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(10, 1000, 0, 1);
+        Assert.assertTrue(limiter.tryAcquire(50));
+        Assert.assertFalse(limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void testRefillRate() throws InterruptedException {
+        // 100/s，容量100毫秒即10个，耗尽后等待50毫秒约恢复5个
+        TokenBucketLimiter limiter = new TokenBucketLimiter(100, 100, 0, 1);
+        Assert.assertEquals(10, drain(limiter));
+        Thread.sleep(50);
+        int refilled = drain(limiter);
+        Assert.assertTrue("refilled " + refilled, refilled >= 4 && refilled < 10);
+    }
+
+    @Test
+    public void testReleaseRefundsPermits() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(10, 1000, 0, 1);
+        Assert.assertEquals(10, drain(limiter));
+        limiter.release(3);
+        Assert.assertEquals(3, drain(limiter));
+    }
+
+    @Test
+    public void testReleaseDoesNotExceedCapacity() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(10, 1000, 0, 1);
+        limiter.release(5);
+        Assert.assertEquals(10, drain(limiter));
+    }
+
+    @Test
+    public void testZeroRateRejectsAndHugeRateIsUnlimited() {
+        TokenBucketLimiter rejectAll = new TokenBucketLimiter(0, 1000, 0, 1);
+        Assert.assertFalse(rejectAll.tryAcquire(1));
+        Assert.assertEquals(0, rejectAll.getPermitsPerSecond(), 0);
+        TokenBucketLimiter unlimited = new TokenBucketLimiter(1e10, 1000, 0, 1);
+        Assert.assertEquals(10000, drain(unlimited));
+    }
+
+    @Test
+    public void testWarmUpStartsAtColdRate() {
+        // 预热期内间隔放大3倍，容量1秒只能通过3个
+        TokenBucketLimiter limiter = new TokenBucketLimiter(10, 1000, 10000, 3);
+        Assert.assertEquals(3, drain(limiter));
+    }
+
+    @Test
+    public void testSetPermitsPerSecond() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(10, 1000, 0, 1);
+        limiter.setPermitsPerSecond(20);
+        Assert.assertEquals(20, limiter.getPermitsPerSecond(), 0.001);
+        Assert.assertEquals(20, drain(limiter));
+    }
+}
@@ -0,0 +1,106 @@
+package org.fedai.osx.broker.test.message;
+
+import org.fedai.osx.broker.message.MessagePropertiesCodec;
+import org.fedai.osx.broker.util.MessageConst;
+import org.fedai.osx.core.constant.Dict;
+import org.fedai.osx.core.exceptions.MessageParseException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MessagePropertiesCodecTest {
+
+    private Map<String, String> sampleProperties() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(Dict.SESSION_ID, "session-1");
+        properties.put(Dict.SOURCE_COMPONENT, "");
+        properties.put(MessageConst.PROPERTY_CHUNK_TOTAL_SIZE, "1048576");
+        properties.put("custom-key", "中文值");
+        char[] longValue = new char[300];
+        Arrays.fill(longValue, 'x');
+        properties.put("long", new String(longValue));
+        return properties;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Map<String, String> properties = sampleProperties();
+        byte[] data = MessagePropertiesCodec.encode(properties);
+        Assert.assertEquals(MessagePropertiesCodec.VERSION_1, data[0]);
+        Assert.assertEquals(properties, MessagePropertiesCodec.decode(data));
+    }
+
+    @Test
+    public void testEmptyAndNullValues() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("nullValue", null);
+        byte[] data = MessagePropertiesCodec.encode(properties);
+        Assert.assertEquals(1, data.length);
+        Assert.assertTrue(MessagePropertiesCodec.decode(data).isEmpty());
+        Assert.assertTrue(MessagePropertiesCodec.decode(MessagePropertiesCodec.encode(null)).isEmpty());
+    }
+
+    @Test
+    public void testGetProperty() {
+        byte[] data = MessagePropertiesCodec.encode(sampleProperties());
+        Assert.assertEquals("session-1", MessagePropertiesCodec.getProperty(data, Dict.SESSION_ID));
+        Assert.assertEquals("中文值", MessagePropertiesCodec.getProperty(data, "custom-key"));
+        Assert.assertEquals(300, MessagePropertiesCodec.getProperty(data, "long").length());
+        Assert.assertNull(MessagePropertiesCodec.getProperty(data, Dict.DES_COMPONENT));
+        Assert.assertNull(MessagePropertiesCodec.getProperty(data, "missing"));
+    }
+
+    @Test(expected = MessageParseException.class)
+    public void testRejectUnknownVersion() {
+        MessagePropertiesCodec.decode(new byte[]{2});
+    }
+
+    @Test(expected = MessageParseException.class)
+    public void testRejectEmpty() {
+        MessagePropertiesCodec.decode(new byte[0]);
+    }
+
+    @Test
+    public void testRejectTruncatedData() {
+        byte[] data = MessagePropertiesCodec.encode(sampleProperties());
+        for (int length = 2; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            try {
+                MessagePropertiesCodec.decode(truncated);
+            } catch (MessageParseException expected) {
+                continue;
+            }
+            // 恰好在一个属性的末尾截断时仍是合法的数据
+            Assert.assertTrue(MessagePropertiesCodec.decode(truncated).size() < sampleProperties().size());
+        }
+    }
+
+    @Test(expected = MessageParseException.class)
+    public void testRejectOverlongVarint() {
+        MessagePropertiesCodec.decode(new byte[]{1, (byte) 0x81, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+    }
+
+    @Test(expected = MessageParseException.class)
+    public void testRejectUnterminatedVarint() {
+        MessagePropertiesCodec.decode(new byte[]{1, (byte) 0xFF, (byte) 0xFF});
+    }
+
+    @Test(expected = MessageParseException.class)
+    public void testRejectLengthBeyondData() {
+        // SESSION_ID 的值声明长度为 100 ，实际只有 2 个字节
+        MessagePropertiesCodec.decode(new byte[]{1, 1, 100, 'a', 'b'});
+    }
+
+    @Test(expected = MessageParseException.class)
+    public void testRejectNegativeLength() {
+        MessagePropertiesCodec.getProperty(new byte[]{1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}, "custom");
+    }
+
+    @Test(expected = MessageParseException.class)
+    public void testRejectUnknownKeyId() {
+        MessagePropertiesCodec.decode(new byte[]{1, 100, 0});
+    }
+}
@@ -0,0 +1,79 @@
+package org.fedai.osx.broker.test.metric;
+
+import org.fedai.osx.core.metric.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getTotalCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testBucketsAreContiguousAndIncreasing() {
+        Assert.assertEquals(64, LatencyHistogram.getUpperBoundMicros(0));
+        for (int i = 1; i < LatencyHistogram.getBucketCount(); i++) {
+            Assert.assertTrue(LatencyHistogram.getUpperBoundMicros(i) > LatencyHistogram.getUpperBoundMicros(i - 1));
+        }
+    }
+
+    @Test
+    public void testPercentileIsUpperBoundWithinBucketError() {
+        // 每个2的幂区间分为8个子桶，估算值不小于真实值且最多大12.5%
+        Random random = new Random(11);
+        long[] values = new long[10000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 100 + (long) (Math.exp(random.nextDouble() * 10) * 10);
+            histogram.recordMicros(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            Assert.assertTrue(percentile + " estimate " + estimate + " exact " + exact, estimate > exact);
+            Assert.assertTrue(percentile + " estimate " + estimate + " exact " + exact, estimate <= exact * 1.125 + 1);
+        }
+    }
+
+    @Test
+    public void testSingleValueBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(10);
+        histogram.recordMicros(100);
+        histogram.recordMicros(1000);
+        histogram.recordNanos(-5);
+        Assert.assertEquals(4, histogram.getTotalCount());
+        Assert.assertEquals(1110, histogram.getSumMicros());
+        Assert.assertEquals(64, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(104, histogram.getValueAtPercentile(75));
+        Assert.assertEquals(1024, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSubBucketBounds() {
+        Assert.assertEquals(1 + 20 * 8, LatencyHistogram.getBucketCount());
+        Assert.assertEquals(72, LatencyHistogram.getUpperBoundMicros(1));
+        Assert.assertEquals(128, LatencyHistogram.getUpperBoundMicros(8));
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(71);
+        histogram.recordMicros(72);
+        Assert.assertEquals(1, histogram.getCount(1));
+        Assert.assertEquals(1, histogram.getCount(2));
+    }
+
+    @Test
+    public void testOverflowBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(Long.MAX_VALUE / 2);
+        Assert.assertEquals(1, histogram.getCount(LatencyHistogram.getBucketCount()));
+        Assert.assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+}
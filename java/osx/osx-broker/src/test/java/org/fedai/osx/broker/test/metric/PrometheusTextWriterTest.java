@@ -0,0 +1,69 @@
+package org.fedai.osx.broker.test.metric;
+
+import org.fedai.osx.core.metric.LatencyHistogram;
+import org.fedai.osx.core.metric.PrometheusTextWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrometheusTextWriterTest {
+
+    @Test
+    public void testDeclareAndSampleWithoutLabels() {
+        String text = new PrometheusTextWriter()
+                .declare("osx_jvm_threads", "gauge", "live thread count")
+                .sample("osx_jvm_threads", 12)
+                .toString();
+        Assert.assertEquals("# HELP osx_jvm_threads live thread count\n"
+                + "# TYPE osx_jvm_threads gauge\n"
+                + "osx_jvm_threads 12\n", text);
+    }
+
+    @Test
+    public void testLabelsAreOrderedAndEscaped() {
+        String text = new PrometheusTextWriter()
+                .sample("osx_test", 1.5, "service", "a\"b", "path", "c:\\d", "msg", "x\ny")
+                .toString();
+        Assert.assertEquals("osx_test{service=\"a\\\"b\",path=\"c:\\\\d\",msg=\"x\\ny\"} 1.5\n", text);
+    }
+
+    @Test
+    public void testHelpEscapesBackslashAndNewlineOnly() {
+        String text = new PrometheusTextWriter().declare("osx_test", "counter", "a \"b\" \\ c\nd").toString();
+        Assert.assertTrue(text, text.startsWith("# HELP osx_test a \"b\" \\\\ c\\nd\n"));
+    }
+
+    @Test
+    public void testNullLabelValueAndSpecialValues() {
+        String text = new PrometheusTextWriter()
+                .sample("osx_a", Double.NaN, "topic", null)
+                .sample("osx_b", Double.POSITIVE_INFINITY)
+                .toString();
+        Assert.assertEquals("osx_a{topic=\"\"} NaN\nosx_b +Inf\n", text);
+    }
+
+    @Test
+    public void testHistogramIsCumulative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(10);
+        histogram.recordMicros(100);
+        histogram.recordMicros(Long.MAX_VALUE / 2);
+        String text = new PrometheusTextWriter().histogram("osx_latency_seconds", histogram, "service", "s").toString();
+        Assert.assertTrue(text, text.contains("osx_latency_seconds_bucket{service=\"s\",le=\"6.4E-5\"} 1\n"));
+        Assert.assertTrue(text, text.contains("osx_latency_seconds_bucket{service=\"s\",le=\"9.6E-5\"} 1\n"));
+        Assert.assertTrue(text, text.contains("osx_latency_seconds_bucket{service=\"s\",le=\"1.04E-4\"} 2\n"));
+        Assert.assertTrue(text, text.contains("osx_latency_seconds_bucket{service=\"s\",le=\"1.28E-4\"} 2\n"));
+        Assert.assertTrue(text, text.contains("osx_latency_seconds_bucket{service=\"s\",le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(text, text.contains("osx_latency_seconds_count{service=\"s\"} 3\n"));
+        long previous = -1;
+        int buckets = 0;
+        for (String line : text.split("\n")) {
+            if (line.startsWith("osx_latency_seconds_bucket")) {
+                buckets++;
+                long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+                Assert.assertTrue(line, count >= previous);
+                previous = count;
+            }
+        }
+        Assert.assertEquals(LatencyHistogram.getBucketCount() + 1, buckets);
+    }
+}
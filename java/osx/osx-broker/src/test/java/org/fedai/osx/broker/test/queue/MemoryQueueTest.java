@@ -0,0 +1,180 @@
+package org.fedai.osx.broker.test.queue;
+
+import org.fedai.osx.broker.constants.MessageFlag;
+import org.fedai.osx.broker.message.MessageExt;
+import org.fedai.osx.broker.queue.MemoryQueue;
+import org.fedai.osx.broker.queue.TransferQueueConsumeResult;
+import org.fedai.osx.broker.queue.TransferQueueManager;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.constant.Dict;
+import org.fedai.osx.core.constant.StatusCode;
+import org.fedai.osx.core.context.OsxContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class MemoryQueueTest {
+
+    String filePathPre;
+    Integer mapFileSize;
+    Integer indexMapFileSize;
+    Integer capacity;
+    Integer spillMessageSize;
+    Long totalCapacity;
+    File dir;
+    MemoryQueue queue;
+    TransferQueueManager transferQueueManager;
+
+    @Before
+    public void setUp() throws Exception {
+        filePathPre = MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE;
+        mapFileSize = MetaInfo.MAP_FILE_SIZE;
+        indexMapFileSize = MetaInfo.PROPERTY_INDEX_MAP_FILE_SIZE;
+        capacity = MetaInfo.PROPERTY_MEMORY_QUEUE_CAPACITY;
+        spillMessageSize = MetaInfo.PROPERTY_MEMORY_QUEUE_SPILL_MESSAGE_SIZE;
+        totalCapacity = MetaInfo.PROPERTY_MEMORY_QUEUE_TOTAL_CAPACITY;
+        dir = Files.createTempDirectory("osx-memory-queue").toFile();
+        MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE = dir.getAbsolutePath();
+        MetaInfo.MAP_FILE_SIZE = 64 * 1024;
+        MetaInfo.PROPERTY_INDEX_MAP_FILE_SIZE = 16 * 1024;
+        MetaInfo.PROPERTY_MEMORY_QUEUE_CAPACITY = 1024;
+        MetaInfo.PROPERTY_MEMORY_QUEUE_SPILL_MESSAGE_SIZE = 512;
+        transferQueueManager = new TransferQueueManager();
+        queue = new MemoryQueue("topic-memory", transferQueueManager, null, dir.getAbsolutePath() + File.separator + "index", 0);
+        queue.setSessionId("s-1");
+        queue.start();
+    }
+
+    @After
+    public void tearDown() {
+        queue.destory();
+        MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE = filePathPre;
+        MetaInfo.MAP_FILE_SIZE = mapFileSize;
+        MetaInfo.PROPERTY_INDEX_MAP_FILE_SIZE = indexMapFileSize;
+        MetaInfo.PROPERTY_MEMORY_QUEUE_CAPACITY = capacity;
+        MetaInfo.PROPERTY_MEMORY_QUEUE_SPILL_MESSAGE_SIZE = spillMessageSize;
+        MetaInfo.PROPERTY_MEMORY_QUEUE_TOTAL_CAPACITY = totalCapacity;
+        deleteDir(dir);
+    }
+
+    private void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+
+    private OsxContext buildContext() {
+        OsxContext context = new OsxContext();
+        context.setTopic("topic-memory");
+        context.setSrcNodeId("9999");
+        context.setDesNodeId("10000");
+        context.setSrcComponent("src-comp");
+        context.setDesComponent("des-comp");
+        return context;
+    }
+
+    private byte[] body(int index, int size) {
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) index);
+        return body;
+    }
+
+    private void put(int index, int size) {
+        queue.putMessage(buildContext(), body(index, size), MessageFlag.SENDMSG, "code-" + index);
+    }
+
+    private void assertMessage(long logicIndex, int index, int size) {
+        TransferQueueConsumeResult result = queue.consumeOneMessage(buildContext(), logicIndex);
+        Assert.assertEquals(StatusCode.SUCCESS, result.getCode());
+        Assert.assertArrayEquals(body(index, size), result.getBody());
+        MessageExt message = result.getMessage();
+        Assert.assertEquals("s-1", message.getProperty(Dict.SESSION_ID));
+        Assert.assertEquals("src-comp", message.getProperty(Dict.SOURCE_COMPONENT));
+        Assert.assertEquals("des-comp", message.getProperty(Dict.DES_COMPONENT));
+    }
+
+    @Test
+    public void testReadBackKeepsMsgCodeAndComponents() {
+        put(1, 100);
+        Assert.assertEquals(1, queue.getLogicOffset());
+        MessageExt message = queue.consumeOneMessage(buildContext(), 1).getMessage();
+        Assert.assertEquals("code-1", message.getMsgId());
+        Assert.assertEquals(MessageFlag.SENDMSG.getFlag(), message.getFlag());
+        Assert.assertEquals("src-comp", message.getProperty(Dict.SOURCE_COMPONENT));
+        Assert.assertEquals("des-comp", message.getProperty(Dict.DES_COMPONENT));
+        Assert.assertEquals("s-1", message.getProperty(Dict.SESSION_ID));
+        Assert.assertNull(message.getProperty(Dict.MESSAGE_CODE));
+    }
+
+    @Test
+    public void testConsumedMessagesAreOverwrittenOnWrap() {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 1; i <= 3; i++) {
+                put(round * 3 + i, 200);
+            }
+            for (int i = 1; i <= 3; i++) {
+                assertMessage(round * 3 + i, round * 3 + i, 200);
+            }
+        }
+        Assert.assertFalse("consumed entries are reused, no spill", queue.isSpilled());
+        Assert.assertEquals(15, queue.getLogicOffset());
+        Assert.assertEquals(StatusCode.INVALID_INDEXFILE_DETAIL, queue.consumeOneMessage(buildContext(), 1).getCode());
+        Assert.assertEquals(StatusCode.CONSUME_NO_MESSAGE, queue.consumeOneMessage(buildContext(), 16).getCode());
+    }
+
+    @Test
+    public void testLaggingConsumerSpillsToCommitLog() {
+        for (int i = 1; i <= 10; i++) {
+            put(i, 200);
+        }
+        Assert.assertTrue("unconsumed messages fill the ring", queue.isSpilled());
+        Assert.assertEquals(10, queue.getLogicOffset());
+        for (int i = 1; i <= 10; i++) {
+            assertMessage(i, i, 200);
+        }
+        Assert.assertEquals(StatusCode.CONSUME_NO_MESSAGE, queue.consumeOneMessage(buildContext(), 11).getCode());
+    }
+
+    @Test
+    public void testLargeMessageSpillsToCommitLog() {
+        put(1, 100);
+        put(2, 600);
+        put(3, 100);
+        Assert.assertTrue(queue.isSpilled());
+        assertMessage(1, 1, 100);
+        assertMessage(2, 2, 600);
+        assertMessage(3, 3, 100);
+    }
+
+    @Test
+    public void testExhaustedBudgetSpillsToCommitLog() {
+        long allocated = MemoryQueue.getAllocatedBytes();
+        MetaInfo.PROPERTY_MEMORY_QUEUE_TOTAL_CAPACITY = allocated + 1024;
+        put(1, 100);
+        Assert.assertFalse(queue.isSpilled());
+        Assert.assertEquals(allocated + 1024, MemoryQueue.getAllocatedBytes());
+
+        MemoryQueue other = new MemoryQueue("topic-memory-2", transferQueueManager, null, dir.getAbsolutePath() + File.separator + "index2", 0);
+        other.setSessionId("s-1");
+        other.start();
+        try {
+            other.putMessage(buildContext(), body(1, 100), MessageFlag.SENDMSG, "code-1");
+            Assert.assertTrue("no budget left for a second ring", other.isSpilled());
+            Assert.assertArrayEquals(body(1, 100), other.consumeOneMessage(buildContext(), 1).getBody());
+        } finally {
+            other.destory();
+        }
+
+        queue.destory();
+        Assert.assertEquals(allocated, MemoryQueue.getAllocatedBytes());
+    }
+}
@@ -0,0 +1,176 @@
+package org.fedai.osx.broker.test.store;
+
+import org.fedai.osx.broker.constants.MessageFlag;
+import org.fedai.osx.broker.queue.AbstractQueue;
+import org.fedai.osx.broker.queue.TransferQueue;
+import org.fedai.osx.broker.queue.TransferQueueConsumeResult;
+import org.fedai.osx.broker.queue.TransferQueueManager;
+import org.fedai.osx.broker.store.CommitLogRetentionService;
+import org.fedai.osx.broker.store.MessageStore;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.constant.StatusCode;
+import org.fedai.osx.core.context.OsxContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class CommitLogRetentionTest {
+
+    String filePathPre;
+    Integer mapFileSize;
+    Integer indexMapFileSize;
+    Integer chunkSize;
+    Integer highWatermark;
+    File dir;
+    List<AbstractQueue> queues = new ArrayList<>();
+    TransferQueueManager transferQueueManager;
+    TransferQueue queue;
+    MessageStore messageStore;
+    CommitLogRetentionService retentionService;
+
+    @Before
+    public void setUp() throws Exception {
+        filePathPre = MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE;
+        mapFileSize = MetaInfo.MAP_FILE_SIZE;
+        indexMapFileSize = MetaInfo.PROPERTY_INDEX_MAP_FILE_SIZE;
+        chunkSize = MetaInfo.PROPERTY_MESSAGE_CHUNK_SIZE;
+        highWatermark = MetaInfo.PROPERTY_DISK_USAGE_HIGH_WATERMARK;
+        dir = Files.createTempDirectory("osx-retention").toFile();
+        MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE = dir.getAbsolutePath();
+        MetaInfo.MAP_FILE_SIZE = 64 * 1024;
+        MetaInfo.PROPERTY_INDEX_MAP_FILE_SIZE = 16 * 1024;
+        MetaInfo.PROPERTY_MESSAGE_CHUNK_SIZE = 10 * 1024;
+        // 测试机器的磁盘使用率不影响写入
+        MetaInfo.PROPERTY_DISK_USAGE_HIGH_WATERMARK = 101;
+        List<AbstractQueue> liveQueues = queues;
+        transferQueueManager = new TransferQueueManager() {
+            @Override
+            public Collection<AbstractQueue> getAllQueues() {
+                return liveQueues;
+            }
+        };
+        queue = new TransferQueue("topic-retention", transferQueueManager, null, dir.getAbsolutePath() + File.separator + "index", 0);
+        queue.setSessionId("s-1");
+        queue.start();
+        queues.add(queue);
+        messageStore = transferQueueManager.getMessageStore(0);
+        retentionService = transferQueueManager.getCommitLogRetentionService(0);
+    }
+
+    @After
+    public void tearDown() {
+        queue.destory();
+        MetaInfo.PROPERTY_TRANSFER_FILE_PATH_PRE = filePathPre;
+        MetaInfo.MAP_FILE_SIZE = mapFileSize;
+        MetaInfo.PROPERTY_INDEX_MAP_FILE_SIZE = indexMapFileSize;
+        MetaInfo.PROPERTY_MESSAGE_CHUNK_SIZE = chunkSize;
+        MetaInfo.PROPERTY_DISK_USAGE_HIGH_WATERMARK = highWatermark;
+        deleteDir(dir);
+    }
+
+    private void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+
+    private OsxContext buildContext() {
+        OsxContext context = new OsxContext();
+        context.setTopic("topic-retention");
+        context.setSrcNodeId("9999");
+        context.setDesNodeId("10000");
+        return context;
+    }
+
+    private byte[] body(int index, int size) {
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) index);
+        return body;
+    }
+
+    private void put(int index, int size) {
+        queue.putMessage(buildContext(), body(index, size), MessageFlag.SENDMSG, "code-" + index);
+    }
+
+    private void assertReadable(long logicIndex, int index, int size) {
+        TransferQueueConsumeResult result = queue.consumeOneMessage(buildContext(), logicIndex);
+        Assert.assertEquals(StatusCode.SUCCESS, result.getCode());
+        Assert.assertArrayEquals(body(index, size), result.getBody());
+    }
+
+    @Test
+    public void testUnconsumedMessagesAreKept() {
+        for (int i = 1; i <= 40; i++) {
+            put(i, 4 * 1024);
+        }
+        retentionService.reclaim();
+        Assert.assertEquals(0, messageStore.getMinPhysicOffset());
+        Assert.assertTrue(retentionService.getReclaimableBytes() == 0);
+
+        queue.onConsumed(30);
+        retentionService.reclaim();
+        Assert.assertTrue("consumed files are deleted", messageStore.getMinPhysicOffset() > 0);
+        Assert.assertTrue(retentionService.getReclaimableBytes() > 0);
+        Assert.assertTrue(messageStore.getMinPhysicOffset() <= retentionService.getMinLiveOffset());
+        for (int i = 31; i <= 40; i++) {
+            assertReadable(i, i, 4 * 1024);
+        }
+    }
+
+    @Test
+    public void testInflightWriteIsKept() {
+        for (int i = 1; i <= 5; i++) {
+            put(i, 4 * 1024);
+        }
+        long pinned = messageStore.getMaxPhysicOffset();
+        Object token = messageStore.beginWrite();
+        for (int i = 6; i <= 45; i++) {
+            put(i, 4 * 1024);
+        }
+        queue.onConsumed(45);
+        retentionService.reclaim();
+        Assert.assertEquals(pinned, retentionService.getMinLiveOffset());
+        Assert.assertEquals(0, messageStore.getMinPhysicOffset());
+
+        messageStore.endWrite(token);
+        retentionService.reclaim();
+        Assert.assertTrue(messageStore.getMinPhysicOffset() > pinned);
+    }
+
+    @Test
+    public void testChunkBodyBelowHeadIsKept() {
+        for (int i = 1; i <= 5; i++) {
+            put(i, 4 * 1024);
+        }
+        // chunk倒序写入，head落在后面的文件中，消息体的前几个chunk在第一个文件中
+        put(6, 100 * 1024);
+        for (int i = 7; i <= 36; i++) {
+            put(i, 4 * 1024);
+        }
+        queue.onConsumed(5);
+        retentionService.reclaim();
+        Assert.assertEquals(0, messageStore.getMinPhysicOffset());
+        TransferQueueConsumeResult result = queue.consumeOneMessage(buildContext(), 6);
+        Assert.assertEquals(StatusCode.SUCCESS, result.getCode());
+        Assert.assertArrayEquals(body(6, 100 * 1024), result.getBody());
+
+        queue.onConsumed(6);
+        retentionService.reclaim();
+        Assert.assertTrue(messageStore.getMinPhysicOffset() > 0);
+        for (int i = 7; i <= 36; i++) {
+            assertReadable(i, i, 4 * 1024);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.fedai.osx.broker.test.store;
+
+import com.google.protobuf.ByteString;
+import org.fedai.osx.broker.constants.MessageFlag;
+import org.fedai.osx.broker.message.*;
+import org.fedai.osx.broker.queue.PutMessageResult;
+import org.fedai.osx.broker.store.MessageStore;
+import org.fedai.osx.broker.util.MessageConst;
+import org.fedai.osx.core.config.MetaInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class MessageStoreChunkTest {
+
+    Integer mapFileSize;
+    Integer chunkSize;
+    File dir;
+    MessageStore messageStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mapFileSize = MetaInfo.MAP_FILE_SIZE;
+        chunkSize = MetaInfo.PROPERTY_MESSAGE_CHUNK_SIZE;
+        MetaInfo.MAP_FILE_SIZE = 64 * 1024;
+        MetaInfo.PROPERTY_MESSAGE_CHUNK_SIZE = 10 * 1024;
+        dir = Files.createTempDirectory("osx-chunk").toFile();
+        messageStore = new MessageStore(null, dir.getAbsolutePath());
+        messageStore.start();
+    }
+
+    @After
+    public void tearDown() {
+        MetaInfo.MAP_FILE_SIZE = mapFileSize;
+        MetaInfo.PROPERTY_MESSAGE_CHUNK_SIZE = chunkSize;
+        deleteDir(dir);
+    }
+
+    private void deleteDir(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDir(child);
+            }
+        }
+        file.delete();
+    }
+
+    private MessageExtBrokerInner buildMessage(byte[] body) {
+        MessageExtBrokerInner msg = MessageDecoder.buildMessageExtBrokerInner("topic-chunk", body, "msg-1", MessageFlag.SENDMSG, "9999", "10000");
+        msg.getProperties().put("session", "s-1");
+        return msg;
+    }
+
+    private MessageExt readHead(long offset) {
+        SelectMappedBufferResult result = messageStore.consumeOneMessage(offset);
+        try {
+            return MessageDecoder.decode(result.getByteBuffer());
+        } finally {
+            result.release();
+        }
+    }
+
+    @Test
+    public void testSmallMessageIsNotChunked() {
+        Assert.assertFalse(messageStore.needChunk(buildMessage(new byte[messageStore.getChunkSize()])));
+        Assert.assertTrue(messageStore.needChunk(buildMessage(new byte[messageStore.getChunkSize() + 1])));
+    }
+
+    @Test
+    public void testChunkedMessageSpansFilesAndReassembles() {
+        byte[] body = new byte[200 * 1024 + 123];
+        new Random(7).nextBytes(body);
+        PutMessageResult result = messageStore.putChunkedMessage(buildMessage(body));
+        Assert.assertTrue(result.isOk());
+        long headOffset = result.getAppendMessageResult().getWroteOffset();
+        Assert.assertTrue("head is written last", headOffset > result.getMinWroteOffset());
+        Assert.assertTrue("chunks span several mapped files", headOffset - result.getMinWroteOffset() > MetaInfo.MAP_FILE_SIZE);
+
+        MessageExt head = readHead(headOffset);
+        Assert.assertTrue(MessageSysFlag.isChunkHead(head.getSysFlag()));
+        Assert.assertEquals("s-1", head.getProperty("session"));
+        Assert.assertEquals(String.valueOf(body.length), head.getProperty(MessageConst.PROPERTY_CHUNK_TOTAL_SIZE));
+        Assert.assertEquals("21", head.getProperty(MessageConst.PROPERTY_CHUNK_COUNT));
+
+        ByteString payload = messageStore.readChunkedPayload(head);
+        Assert.assertEquals(ByteString.copyFrom(body), payload);
+    }
+
+    @Test
+    public void testForEachChunkStreamsInOrder() {
+        byte[] body = new byte[35 * 1024];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i / 1024);
+        }
+        PutMessageResult result = messageStore.putChunkedMessage(buildMessage(body));
+        List<Integer> sizes = new ArrayList<>();
+        List<Byte> firstBytes = new ArrayList<>();
+        messageStore.forEachChunk(readHead(result.getAppendMessageResult().getWroteOffset()), chunk -> {
+            sizes.add(chunk.length);
+            firstBytes.add(chunk[0]);
+        });
+        Assert.assertEquals(4, sizes.size());
+        Assert.assertEquals(Integer.valueOf(5 * 1024), sizes.get(3));
+        Assert.assertEquals(Byte.valueOf((byte) 0), firstBytes.get(0));
+        Assert.assertEquals(Byte.valueOf((byte) 30), firstBytes.get(3));
+    }
+
+    @Test
+    public void testConcurrentWritesKeepChunkChain() throws Exception {
+        byte[] body = new byte[100 * 1024];
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 50; i++) {
+                messageStore.putMessage(buildMessage(new byte[100]));
+            }
+        });
+        writer.start();
+        PutMessageResult result = messageStore.putChunkedMessage(buildMessage(body));
+        writer.join();
+        MessageExt head = readHead(result.getAppendMessageResult().getWroteOffset());
+        Assert.assertEquals(body.length, messageStore.readChunkedPayload(head).size());
+    }
+
+    @Test
+    public void testMinChunkOffsetCoversWholeChain() {
+        messageStore.putMessage(buildMessage(new byte[100]));
+        PutMessageResult result = messageStore.putChunkedMessage(buildMessage(new byte[100 * 1024]));
+        long headOffset = result.getAppendMessageResult().getWroteOffset();
+        Assert.assertEquals(result.getMinWroteOffset(), messageStore.getMinChunkOffset(readHead(headOffset), headOffset));
+    }
+
+    @Test
+    public void testInflightWritePinsStartOffset() {
+        messageStore.putMessage(buildMessage(new byte[100]));
+        Assert.assertEquals(-1, messageStore.getMinInflightOffset());
+        long before = messageStore.getMaxPhysicOffset();
+        Object token = messageStore.beginWrite();
+        messageStore.putChunkedMessage(buildMessage(new byte[100 * 1024]));
+        Assert.assertEquals(before, messageStore.getMinInflightOffset());
+        messageStore.endWrite(token);
+        Assert.assertEquals(-1, messageStore.getMinInflightOffset());
+    }
+}
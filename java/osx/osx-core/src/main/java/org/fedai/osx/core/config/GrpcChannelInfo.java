@@ -29,6 +29,10 @@ public class GrpcChannelInfo {
     int maxInboundMessageSize;
     int retryBufferSize;
     int maxRetryAttemps;
+    /**
+     * 关闭重试后客户端不再缓存已发送的消息
+     */
+    boolean retryEnabled = true;
 
 
 }
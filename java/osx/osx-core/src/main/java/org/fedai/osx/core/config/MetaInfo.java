@@ -67,6 +67,11 @@ public class MetaInfo {
     public static Integer PROPERTY_GRPC_SERVER_MAX_CONNECTION_AGE_SEC = 86400;
     @Config(confKey = "grpc.server.max.connection.age.grace.sec", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer PROPERTY_GRPC_SERVER_MAX_CONNECTION_AGE_GRACE_SEC = 86400;
+    /**
+     * 目的方不是本方的grpc请求不再解析protobuf，按 x-ptp-target-node-id 等请求头路由，消息体以原始字节转发给下一跳
+     */
+    @Config(confKey = "grpc.passthrough.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_GRPC_PASSTHROUGH_ENABLED = false;
     @Config(confKey = "grpc.oncompleted.wait.timeout", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer PROPERTY_GRPC_ONCOMPLETED_WAIT_TIMEOUT = 600;
     @Config(confKey = "grpc.client.max.inbound.message.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
@@ -85,6 +90,146 @@ public class MetaInfo {
     public static Integer PROPERTY_GRPC_CLIENT_PER_RPC_BUFFER_LIMIT =  (2 << 30) - 1;
     @Config(confKey = "grpc.client.retry.buffer.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer PROPERTY_GRPC_CLIENT_RETRY_BUFFER_SIZE = 86400;
+    /**
+     * 转发调用的默认超时时间（毫秒），入站请求没有截止时间且路由没有配置 timeout 时使用
+     */
+    @Config(confKey = "grpc.client.call.timeout", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_CLIENT_CALL_TIMEOUT = 300000;
+    /**
+     * linux 下 native epoll 可用时使用 epoll 传输，否则使用 nio
+     */
+    @Config(confKey = "netty.native.epoll.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_NETTY_NATIVE_EPOLL_ENABLED = true;
+    /**
+     * 所有grpc端口共用的接收连接线程数
+     */
+    @Config(confKey = "netty.boss.threads", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_NETTY_BOSS_THREADS = 1;
+    /**
+     * grpc服务端和客户端共用的io线程数，0 表示cpu核数的两倍
+     */
+    @Config(confKey = "netty.worker.threads")
+    public static Integer PROPERTY_NETTY_WORKER_THREADS = 0;
+    /**
+     * 每个grpc端口重复监听的次数，大于1时通过 SO_REUSEPORT 由多个线程接收连接，仅 epoll 下生效
+     */
+    @Config(confKey = "netty.accept.threads", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_NETTY_ACCEPT_THREADS = 1;
+    /**
+     * 连接写缓冲的低水位，字节，0 表示使用 netty 默认值
+     */
+    @Config(confKey = "netty.write.buffer.low.watermark")
+    public static Integer PROPERTY_NETTY_WRITE_BUFFER_LOW_WATERMARK = 0;
+    /**
+     * 连接写缓冲的高水位，字节，超过后连接不可写，0 表示使用 netty 默认值
+     */
+    @Config(confKey = "netty.write.buffer.high.watermark")
+    public static Integer PROPERTY_NETTY_WRITE_BUFFER_HIGH_WATERMARK = 0;
+    /**
+     * 缓冲区分配器，pooled 或 unpooled ，不配置时由grpc决定
+     */
+    @Config(confKey = "netty.allocator.type")
+    public static String PROPERTY_NETTY_ALLOCATOR_TYPE = "";
+    /**
+     * 路由开启压缩时，小于该字节数的消息不压缩
+     */
+    @Config(confKey = "compression.min.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_COMPRESSION_MIN_SIZE = 1024;
+    /**
+     * gzip 压缩级别，1 最快，9 压缩率最高
+     */
+    @Config(confKey = "compression.gzip.level", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_COMPRESSION_GZIP_LEVEL = 1;
+    /**
+     * 压缩后大小占原始大小的百分比超过该值时，认为数据不可压缩，暂停该路由的压缩
+     */
+    @Config(confKey = "compression.disable.ratio", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_COMPRESSION_DISABLE_RATIO = 90;
+    /**
+     * 暂停压缩后经过该毫秒数重新尝试压缩
+     */
+    @Config(confKey = "compression.probe.interval", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_COMPRESSION_PROBE_INTERVAL = 60000;
+    /**
+     * http服务端解压gzip压缩的请求体，并对声明支持gzip的请求方压缩响应
+     */
+    @Config(confKey = "http.server.gzip.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_HTTP_SERVER_GZIP_ENABLED = true;
+    /**
+     * 发往其他broker的小消息通过每个对端一条的长连接流合批发送，对端不支持时退回为单独调用
+     */
+    @Config(confKey = "grpc.mux.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_GRPC_MUX_ENABLED = false;
+    /**
+     * 不超过该字节数的推送消息才走合批的流
+     */
+    @Config(confKey = "grpc.mux.max.message.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_MUX_MAX_MESSAGE_SIZE = 65536;
+    /**
+     * 消息等待合批的最长时间，微秒
+     */
+    @Config(confKey = "grpc.mux.linger.us", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_MUX_LINGER_US = 500;
+    /**
+     * 一批最多包含的消息数
+     */
+    @Config(confKey = "grpc.mux.batch.max.messages", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_MUX_BATCH_MAX_MESSAGES = 256;
+    /**
+     * 一批最多包含的字节数，达到后立即发送
+     */
+    @Config(confKey = "grpc.mux.batch.max.bytes", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_MUX_BATCH_MAX_BYTES = 1 << 20;
+    /**
+     * 每个对端已发送未应答的消息数上限，超过时新消息单独调用
+     */
+    @Config(confKey = "grpc.mux.max.inflight", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_MUX_MAX_INFLIGHT = 10000;
+    /**
+     * 接收方处理合批流中消息的线程数，写入本地队列在磁盘满时可能阻塞数秒，不能占用 grpc 的回调线程
+     */
+    @Config(confKey = "grpc.mux.dispatch.threads", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_MUX_DISPATCH_THREADS = 32;
+    /**
+     * 对端不支持合批流时，经过该毫秒数后再尝试
+     */
+    @Config(confKey = "grpc.mux.retry.interval", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_MUX_RETRY_INTERVAL = 60000;
+    /**
+     * 对端配置了多个地址时，幂等的转发请求在首个地址迟迟未返回时再发往另一个地址，取先返回的结果
+     */
+    @Config(confKey = "grpc.hedge.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_GRPC_HEDGE_ENABLED = false;
+    /**
+     * 可以重复发送的请求的 uri ，逗号分隔，只有这些请求会对冲发送
+     */
+    @Config(confKey = "grpc.hedge.uris")
+    public static Set<String> PROPERTY_GRPC_HEDGE_URIS = Sets.newHashSet();
+    /**
+     * 以到目的方最近耗时的该分位值作为发出对冲请求前的等待时间
+     */
+    @Config(confKey = "grpc.hedge.percentile", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_HEDGE_PERCENTILE = 95;
+    /**
+     * 对冲等待时间的下限，毫秒
+     */
+    @Config(confKey = "grpc.hedge.min.delay", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_HEDGE_MIN_DELAY = 20;
+    /**
+     * 对冲等待时间的上限，毫秒，耗时样本不足时使用
+     */
+    @Config(confKey = "grpc.hedge.max.delay", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_HEDGE_MAX_DELAY = 1000;
+    /**
+     * 统计耗时分位值的时间窗口，毫秒
+     */
+    @Config(confKey = "grpc.hedge.window", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_HEDGE_WINDOW = 60000;
+    /**
+     * 对冲请求数不超过可对冲请求数的该百分比
+     */
+    @Config(confKey = "grpc.hedge.budget.percent", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_HEDGE_BUDGET_PERCENT = 10;
     @Config(confKey = "transfer.cached.msgid.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer PROPERTY_TRANSFER_CACHED_MSGID_SIZE = 10;
     @Config(confKey = "grpc.ssl.session.timeout", pattern = Dict.POSITIVE_INTEGER_PATTERN)
@@ -97,10 +242,94 @@ public class MetaInfo {
     public static Integer PROPERTY_MAPPED_FILE_EXPIRE_TIME = 3600 * 1000 * 36;
     @Config(confKey = "mapped.file.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer MAP_FILE_SIZE = 1 << 27;
+    /**
+     * commit log 分片数量，每个分片拥有独立的写锁、文件与分配线程，session 按 hash 分配到分片
+     */
+    @Config(confKey = "message.store.shard.num", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_MESSAGE_STORE_SHARD_NUM = 1;
+    /**
+     * 分片数据目录，逗号分隔，第 i 个分片使用第 i % n 个目录，为空时使用 mapped.file.dir
+     */
+    @Config(confKey = "message.store.shard.dirs")
+    public static String PROPERTY_MESSAGE_STORE_SHARD_DIRS = "";
+    /**
+     * 将 session 固定到指定分片，格式为 sessionId前缀:分片序号，逗号分隔
+     */
+    @Config(confKey = "message.store.shard.pin")
+    public static String PROPERTY_MESSAGE_STORE_SHARD_PIN = "";
+    /**
+     * commit log 写锁类型，reentrant 为 ReentrantLock ，spin 为自旋锁，后者适合写入线程少、持锁时间短的场景
+     */
+    @Config(confKey = "message.store.put.lock")
+    public static String PROPERTY_MESSAGE_STORE_PUT_LOCK = "reentrant";
+    /**
+     * 统计 commit log 写锁的等待和持有时间，在 /metrics 和诊断接口输出
+     */
+    @Config(confKey = "message.store.put.lock.instrumented", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_MESSAGE_STORE_PUT_LOCK_INSTRUMENTED = true;
+    @Config(confKey = "commit.log.retention.check.interval", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_COMMIT_LOG_RETENTION_CHECK_INTERVAL = 10000;
+    /**
+     * 磁盘使用率(百分比)超过该值时，写入消息会被限流
+     */
+    @Config(confKey = "disk.usage.high.watermark", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_DISK_USAGE_HIGH_WATERMARK = 85;
+    /**
+     * 磁盘使用率超限时，写入消息等待空间回收的最长时间，超时后返回错误
+     */
+    @Config(confKey = "disk.usage.throttle.wait", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_DISK_USAGE_THROTTLE_WAIT = 3000;
     @Config(confKey = "mapped.file.dir")
     public static String PROPERTY_TRANSFER_FILE_PATH_PRE = "mapped"+ File.separator+".fate"+ File.separator+"transfer_file";
     @Config(confKey = "index.mapped.file.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer PROPERTY_INDEX_MAP_FILE_SIZE = 1 << 21;
+    /**
+     * 超过该大小的消息体会被拆分成多个chunk写入commit log ,实际生效值不超过 mapped.file.size 的一半
+     */
+    @Config(confKey = "message.chunk.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_MESSAGE_CHUNK_SIZE = 1 << 25;
+    /**
+     * 未指定队列类型时创建的队列类型，可选 NORMAL / MEMORY
+     */
+    @Config(confKey = "queue.default.type")
+    public static String PROPERTY_DEFAULT_QUEUE_TYPE = "NORMAL";
+    /**
+     * MEMORY 队列每个topic使用的堆外环形缓冲区大小，首次写入时分配
+     */
+    @Config(confKey = "memory.queue.capacity", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_MEMORY_QUEUE_CAPACITY = 1 << 18;
+    /**
+     * 所有 MEMORY 队列的堆外缓冲区总预算，超出后新的队列不再分配缓冲区，直接转存到 commit log
+     */
+    @Config(confKey = "memory.queue.total.capacity", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Long PROPERTY_MEMORY_QUEUE_TOTAL_CAPACITY = 1L << 28;
+    /**
+     * MEMORY 队列中超过该大小的消息直接转存到 commit log，之后该队列的消息均写入 commit log
+     */
+    @Config(confKey = "memory.queue.spill.message.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_MEMORY_QUEUE_SPILL_MESSAGE_SIZE = 1 << 16;
+    /**
+     * 跨机构出口带宽限制，格式为 目标partyId:优先级:每秒字节数，逗号分隔，partyId 为 * 时每个目标party各自使用该限制，
+     * 优先级为 CONTROL 或 BULK，如 10000:BULK:10485760,*:BULK:52428800
+     */
+    @Config(confKey = "bandwidth.limit.rule")
+    public static String PROPERTY_BANDWIDTH_LIMIT_RULE = "";
+    /**
+     * 令牌桶容量，以限速下可发送的毫秒数表示
+     */
+    @Config(confKey = "bandwidth.burst.time", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_BANDWIDTH_BURST_TIME = 200;
+    /**
+     * 不超过该大小的非流式请求归为 CONTROL 优先级，其余为 BULK
+     */
+    @Config(confKey = "bandwidth.control.message.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_BANDWIDTH_CONTROL_MESSAGE_SIZE = 1 << 16;
+    /**
+     * 非流式异步转发等待令牌的最长时间，毫秒，同时不超过调用的截止时间，超过时返回 FLOW_CONTROL_LIMITED 由调用方重试；
+     * 同步转发不等待，令牌不足时直接返回 FLOW_CONTROL_LIMITED
+     */
+    @Config(confKey = "bandwidth.max.wait", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_BANDWIDTH_MAX_WAIT = 1000;
     @Config(confKey = "https.server.cert.chain.file")
     public static String PROPERTY_HTTPS_SERVER_CERT_CHAIN_FILE;
     @Config(confKey = "https.server.private.key.file")
@@ -147,6 +376,11 @@ public class MetaInfo {
     public static Integer PROPERTY_GRPC_TLS_SESSION_TIMEOUT = 3600 << 4;
     @Config(confKey = "grpc.tls.session.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer PROPERTY_GRPC_TLS_SESSION_SIZE = 65536;
+    /**
+     * 检查证书文件是否变化的间隔，毫秒，变化后新建的连接使用新证书
+     */
+    @Config(confKey = "tls.cert.check.interval", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_TLS_CERT_CHECK_INTERVAL = 60000;
     @Config(confKey = "use.remote.health.check", pattern = Dict.BOOLEAN_PATTERN)
     public static Boolean PROPERTY_USE_REMOTE_HEALTH_CHECK = true;
     @Config(confKey = "http.port", pattern = Dict.POSITIVE_INTEGER_PATTERN)
@@ -175,6 +409,43 @@ public class MetaInfo {
     public static String PROPERTY_HTTP_CONTEXT_PATH = "/v1";
     @Config(confKey = "http.servlet.path")
     public static String PROPERTY_HTTP_SERVLET_PATH = "/*";
+    /**
+     * 在http服务上以 Prometheus 文本格式输出指标，路径为 http.context.path 加 metrics.servlet.path
+     */
+    @Config(confKey = "metrics.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_METRICS_ENABLED = true;
+    @Config(confKey = "metrics.servlet.path")
+    public static String PROPERTY_METRICS_SERVLET_PATH = "/metrics";
+    /**
+     * 按 topic 输出积压消息数的队列数上限，只输出积压最多的这些队列，其余合并为 topic 为 _other 的一条
+     */
+    @Config(confKey = "metrics.topic.limit", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_METRICS_TOPIC_LIMIT = 20;
+    /**
+     * 提供诊断接口（JFR录制、线程CPU与内存分配、热点路径计数），路径为 http.context.path 加 admin.servlet.path ，
+     * 接口没有鉴权，单独监听 admin.bind.host:admin.port ，不挂在对外的http端口上
+     */
+    @Config(confKey = "admin.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_ADMIN_ENABLED = false;
+    @Config(confKey = "admin.servlet.path")
+    public static String PROPERTY_ADMIN_SERVLET_PATH = "/admin/*";
+    /**
+     * 诊断接口监听的地址，默认只允许本机访问
+     */
+    @Config(confKey = "admin.bind.host")
+    public static String PROPERTY_ADMIN_BIND_HOST = "127.0.0.1";
+    @Config(confKey = "admin.port", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_ADMIN_PORT = 8808;
+    /**
+     * 诊断接口启动的JFR录制的最长时长，秒，未指定时长或超过时按该值录制
+     */
+    @Config(confKey = "admin.jfr.max.duration", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_ADMIN_JFR_MAX_DURATION = 600;
+    /**
+     * JFR录制文件的保存目录
+     */
+    @Config(confKey = "jfr.dir")
+    public static String PROPERTY_JFR_DIR = "mapped" + File.separator + ".fate" + File.separator + "jfr";
     @Config(confKey = "http.receive.queue.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer PROPERTY_HTTP_RECEIVE_QUEUE_SIZE = 36;
     @Config(confKey = "http.accept.receive.buffer.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
@@ -185,6 +456,72 @@ public class MetaInfo {
     public static Integer PROPERTY_FLOW_CONTROL_SAMPLE_COUNT = 10;
     @Config(confKey = "flow.control.sample.interval", pattern = Dict.POSITIVE_INTEGER_PATTERN)
     public static Integer PROPERTY_FLOW_CONTROL_SAMPLE_INTERVAL = 1000;
+    /**
+     * 限流令牌桶容量，以阈值下可通过的毫秒数表示，默认允许1秒的请求量瞬时通过
+     */
+    @Config(confKey = "flow.control.burst.time", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_FLOW_CONTROL_BURST_TIME = 1000;
+    /**
+     * 预热时长（毫秒），启动、调整阈值或空闲超过预热时长后，通过速率从 阈值/冷启动因子 线性升至阈值，0表示不预热
+     */
+    @Config(confKey = "flow.control.warm.up.time")
+    public static Integer PROPERTY_FLOW_CONTROL_WARM_UP_TIME = 0;
+    @Config(confKey = "flow.control.cold.factor", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_FLOW_CONTROL_COLD_FACTOR = 3;
+    /**
+     * 本节点是否提供集群限流令牌服务
+     */
+    @Config(confKey = "cluster.token.server.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_CLUSTER_TOKEN_SERVER_ENABLED = false;
+    /**
+     * 集群限流令牌服务地址 ip:port ，多个以逗号分隔，按顺序使用第一个可用的，为空时集群规则只在本地生效
+     */
+    @Config(confKey = "cluster.token.server.address")
+    public static String PROPERTY_CLUSTER_TOKEN_SERVER_ADDRESS = "";
+    @Config(confKey = "cluster.token.request.timeout", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_CLUSTER_TOKEN_REQUEST_TIMEOUT = 50;
+    /**
+     * 令牌服务调用失败后，间隔多久（毫秒）再重新尝试该地址
+     */
+    @Config(confKey = "cluster.token.server.retry.interval", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_CLUSTER_TOKEN_SERVER_RETRY_INTERVAL = 5000;
+    /**
+     * 令牌服务不可用时退化为本地限流，阈值为 集群阈值/副本数
+     */
+    @Config(confKey = "cluster.token.fallback.replicas", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_CLUSTER_TOKEN_FALLBACK_REPLICAS = 1;
+    /**
+     * 流控统计数据使用按时间分区的二进制列式存储，默认关闭，仍写入文本格式的 metrics.log
+     */
+    @Config(confKey = "metric.store.binary", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_METRIC_STORE_BINARY = false;
+    /**
+     * 每个分区覆盖的时长（毫秒），当前分区在内存中，分区结束后写入文件
+     */
+    @Config(confKey = "metric.store.partition.time", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_METRIC_STORE_PARTITION_TIME = 10 * 60 * 1000;
+    /**
+     * 分区结束多久（毫秒）后降采样，降采样后每 metric.store.downsample.interval 秒保留一个平均值
+     */
+    @Config(confKey = "metric.store.downsample.after", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_METRIC_STORE_DOWNSAMPLE_AFTER = 60 * 60 * 1000;
+    @Config(confKey = "metric.store.downsample.interval", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_METRIC_STORE_DOWNSAMPLE_INTERVAL = 60;
+    /**
+     * 统计数据保留时长（毫秒），超过后删除
+     */
+    @Config(confKey = "metric.store.retention.time", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_METRIC_STORE_RETENTION_TIME = 24 * 60 * 60 * 1000;
+    /**
+     * 请求追踪的采样率，单位为万分之一，0表示不追踪，10000表示全部追踪，只在请求进入的第一个节点生效，下游沿用上游的决定
+     */
+    @Config(confKey = "trace.sample.rate")
+    public static Integer PROPERTY_TRACE_SAMPLE_RATE = 0;
+    /**
+     * span输出方式的实现类，需实现 org.fedai.osx.core.trace.SpanExporter
+     */
+    @Config(confKey = "trace.exporter")
+    public static String PROPERTY_TRACE_EXPORTER = "org.fedai.osx.core.trace.OtlpJsonSpanExporter";
     public static String PROPERTY_DEPLOY_MODE = DeployMode.standalone.name();
     public static Set<String> PROPERTY_SELF_PARTY = Sets.newHashSet();//
     @Config(confKey = "flow.rule")
@@ -255,8 +592,26 @@ public class MetaInfo {
     public static Boolean PROPERTY_OPEN_MOCK_EGGPAIR = false;
     @Config(confKey = "router.check.interval")
     public static Integer PROPERTY_ROUTER_CHECK_INTERVAL= 300000;
-    @Config(confKey = "channel.pool.info")
-    public static Integer PROPERTY_CHANNEL_POOL_INFO = 30000;
+    /**
+     * 启动及路由表变化时预先建立到路由表中各地址的grpc连接
+     */
+    @Config(confKey = "grpc.channel.warmup.enabled", pattern = Dict.BOOLEAN_PATTERN)
+    public static Boolean PROPERTY_GRPC_CHANNEL_WARMUP_ENABLED = true;
+    /**
+     * 检查预热连接的间隔，毫秒，因空闲断开的连接在检查时重新建立
+     */
+    @Config(confKey = "grpc.channel.warmup.interval", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_CHANNEL_WARMUP_INTERVAL = 60000;
+    /**
+     * 连接池最多保留的连接数，超出时关闭最久未使用的连接
+     */
+    @Config(confKey = "grpc.channel.pool.max.size", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_CHANNEL_POOL_MAX_SIZE = 10000;
+    /**
+     * 连接超过该秒数未被使用时移出连接池并关闭
+     */
+    @Config(confKey = "grpc.channel.idle.evict.sec", pattern = Dict.POSITIVE_INTEGER_PATTERN)
+    public static Integer PROPERTY_GRPC_CHANNEL_IDLE_EVICT_SEC = 86400;
     @Config(confKey = "router.change.need.token")
     public static Boolean PROPERTY_ROUTER_CHANGE_NEED_TOKEN= false;
     @Config(confKey = "router.change.token.validator")
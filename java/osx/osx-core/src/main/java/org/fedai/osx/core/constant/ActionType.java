@@ -26,6 +26,7 @@ public enum ActionType {
     LONG_PULLING_ANSWER,
     MSG_DOWNLOAD,
     MSG_REDIRECT,
+    MSG_PASSTHROUGH,
     REDIRECT_ACK,
     UNARY_CALL,
     UNARY_CALL_NEW,
@@ -271,8 +271,11 @@ public class Dict {
     public final static String STREAM_SEND_TOPIC_PREFIX = "STREAM_SEND_";
     public final static String STREAM_BACK_TOPIC_PREFIX = "STREAM_BACK_";
     public final static String BLOCKING_STUB = "BLOCKING_STUB";
+    public final static String BANDWIDTH_PACED = "BANDWIDTH_PACED";
     public final static String PROTOCOL = "protocol";
     public final static String URL = "url";
+    public final static String TIMEOUT = "timeout";
+    public final static String COMPRESSION = "compression";
 
     public final static String USE_SSL = "useSSL";
     public final static String USE_KEYSTORE = "useKeyStore";
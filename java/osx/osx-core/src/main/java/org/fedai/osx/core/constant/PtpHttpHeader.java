@@ -79,6 +79,8 @@ public class PtpHttpHeader {
     static public final String ReturnMessage = "x-ptp-message";
     static public final String JobId = "x-ptp-job-id";
     static public final String QueueType = "fate-queue-type";
+    static public final String ParentSpanId = "x-ptp-parent-span-id";
+    static public final String Sampled = "x-ptp-sampled";
 
 
 }
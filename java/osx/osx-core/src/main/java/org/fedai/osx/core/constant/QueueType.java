@@ -1,5 +1,5 @@
 package org.fedai.osx.core.constant;
 
 public enum QueueType {
-    NORMAL, DIRECT;
+    NORMAL, DIRECT, MEMORY;
 }
@@ -42,6 +42,11 @@ public class StatusCode {
     public static final String CONSUME_MSG_TIMEOUT = "146";
     public static final String SESSION_INIT_ERROR = "147";
     public static final String TRANSFER_QUEUE_REDIRECT = "148";
+    public static final String DISK_USAGE_EXCEEDED = "149";
+    /**
+     * 触发准入限流，请求未被处理，客户端可稍后重试
+     */
+    public static final String FLOW_CONTROL_LIMITED = "150";
 
 
     public static final String PTP_SUCCESS = "E0000000000";
@@ -15,26 +15,30 @@
  */
 package org.fedai.osx.core.context;
 
-import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.stub.StreamObserver;
 import lombok.Data;
-import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.constant.Dict;
 import org.fedai.osx.core.router.RouterInfo;
+import org.fedai.osx.core.trace.Span;
+import org.fedai.osx.core.trace.Tracer;
 
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
 
+/**
+ * 请求上下文。常用的值都是类型化的字段，getData/putData 按 Dict 中的键读写同一个字段，
+ * 其他的键才放入 dataMap ，dataMap 在第一次使用时才创建
+ */
 @Data
 public class OsxContext {
 
     static final String SPLIT = "|";
-    public static ThreadLocal<Deque<OsxContext>> threadLocalContexts = new ThreadLocal<>();
+    /**
+     * 每个线程一个栈，release 时只清空，不随请求重新创建
+     */
+    private static final ThreadLocal<Deque<OsxContext>> threadLocalContexts = ThreadLocal.withInitial(() -> new ArrayDeque<>(4));
     protected long timestamp = System.currentTimeMillis();
     protected boolean needAssembleException = false;
     protected String actionType;
@@ -54,48 +58,127 @@ public class OsxContext {
     protected Long dataSize;
     protected String queueType;
     protected Integer retryTime = 1;
-    protected Map dataMap = Maps.newHashMap();
+    protected Map dataMap;
+    protected String topic;
+    protected String instanceId;
+    protected String caseId;
+    protected Long requestMsgIndex;
+    protected Long currentMsgIndex;
+    protected String srcComponent;
+    protected String desComponent;
+    protected RouterInfo routerInfo;
+    protected Object resultData;
+    protected String returnCode;
+    protected String returnMsg;
+    protected String selfPartyId;
+    protected long downstreamCost;
+    protected long downstreamBegin;
+    protected String sourceIp;
+    protected String serviceName;
+    protected String callName;
+    protected ListenableFuture remoteFuture;
+    protected StreamObserver responseStreamObserver;
     long costTime;
     String resourceName;
     String messageFlag;
     String messageCode;
     String jobId;
     Throwable t;
+    /**
+     * 是否采样追踪，为空表示尚未决定，由上游传入或在第一个span创建时决定
+     */
+    protected Boolean sampled;
+    /**
+     * 本节点处理该请求的根span，向下游传递时作为其父span
+     */
+    protected String spanId;
+    protected String parentSpanId;
+    protected List<Span> spans;
     public OsxContext() {
     }
     public OsxContext(long timestamp, Map dataMap) {
-        timestamp = timestamp;
-        this.dataMap = dataMap;
+        this.timestamp = timestamp;
+        if (dataMap != null) {
+            dataMap.forEach(this::putData);
+        }
     }
 
     public static OsxContext getContextFromThreadLocal() {
-        return Optional.ofNullable(threadLocalContexts.get()).map(Deque::peek).orElseGet(() -> {
-            // TODO: 2023/9/13
-            return new OsxContext();
-        });
+        OsxContext context = threadLocalContexts.get().peek();
+        // TODO: 2023/9/13
+        return context != null ? context : new OsxContext();
     }
 
     public static void pushThreadLocalContext(OsxContext context) {
         if (null == context) {
             return;
         }
-        Deque<OsxContext> deque = threadLocalContexts.get();
-        if (deque == null) {
-            threadLocalContexts.set(new ArrayDeque());
-            deque = threadLocalContexts.get();
-        }
-        deque.push(context);
+        threadLocalContexts.get().push(context);
     }
 
     public static void popThreadLocalContext() {
-        Deque<OsxContext> deque = threadLocalContexts.get();
-        if (deque != null) {
-            deque.pop();
-        }
+        threadLocalContexts.get().poll();
     }
 
     public static void release() {
-        threadLocalContexts.remove();
+        threadLocalContexts.get().clear();
+    }
+
+    public boolean isTraceSampled() {
+        if (sampled == null) {
+            sampled = Tracer.sample();
+        }
+        if (sampled && StringUtils.isEmpty(traceId)) {
+            traceId = Tracer.newTraceId();
+        }
+        return sampled;
+    }
+
+    public Span startSpan(String name) {
+        return startSpan(name, System.nanoTime());
+    }
+
+    /**
+     * 第一个span作为本节点的根span，其余的以根span为父span，未采样时返回 {@link Span#NOOP}。
+     * spans 的创建与读写都只在 context 的监视器内进行
+     *
+     * @param startNanos 开始时的 System.nanoTime()
+     */
+    public synchronized Span startSpan(String name, long startNanos) {
+        if (!isTraceSampled()) {
+            return Span.NOOP;
+        }
+        if (spans == null) {
+            spans = new ArrayList<>();
+        }
+        Span span;
+        if (spanId == null) {
+            span = Span.create(name, parentSpanId, startNanos);
+            spanId = span.getSpanId();
+        } else {
+            span = Span.create(name, spanId, startNanos);
+        }
+        spans.add(span);
+        return span;
+    }
+
+    /**
+     * 取出已结束的span，未结束的留待下次
+     */
+    public synchronized List<Span> drainEndedSpans() {
+        if (spans == null) {
+            return Collections.emptyList();
+        }
+        List<Span> ended = new ArrayList<>();
+        Iterator<Span> iterator = spans.iterator();
+        while (iterator.hasNext()) {
+            Span span = iterator.next();
+            if (span.isEnded()) {
+                ended.add(span);
+                iterator.remove();
+            }
+        }
+        return ended;
     }
 
     public Integer getRetryTime() {
@@ -129,16 +212,6 @@ public class OsxContext {
         this.dataSize = dataSize;
     }
 
-    public String getTopic() {
-        if (dataMap.get(Dict.TOPIC) != null)
-            return dataMap.get(Dict.TOPIC).toString();
-        return null;
-    }
-
-    public void setTopic(String topic) {
-        this.dataMap.put(Dict.TOPIC, topic);
-    }
-
     public String getTechProviderCode() {
         return techProviderCode;
     }
@@ -171,14 +244,6 @@ public class OsxContext {
         this.messageCode = messageCode;
     }
 
-    public String getInstanceId() {
-        return (String) dataMap.get(Dict.INSTANCE_ID);
-    }
-
-    public void setInstanceId(String instanceId) {
-        this.dataMap.put(Dict.INSTANCE_ID, instanceId);
-    }
-
     public Throwable getException() {
         return t;
     }
@@ -204,14 +269,123 @@ public class OsxContext {
     }
 
     public Object getData(Object key) {
-        return dataMap.get(key);
+        if (key instanceof String) {
+            switch ((String) key) {
+                case Dict.TOPIC:
+                    return topic;
+                case Dict.INSTANCE_ID:
+                    return instanceId;
+                case Dict.CASEID:
+                    return caseId;
+                case Dict.REQUEST_INDEX:
+                    return requestMsgIndex;
+                case Dict.CURRENT_INDEX:
+                    return currentMsgIndex;
+                case Dict.SOURCE_COMPONENT:
+                    return srcComponent;
+                case Dict.DES_COMPONENT:
+                    return desComponent;
+                case Dict.ROUTER_INFO:
+                    return routerInfo;
+                case Dict.RESULT_DATA:
+                    return resultData;
+                case Dict.RETURN_CODE:
+                    return returnCode;
+                case Dict.RET_MSG:
+                    return returnMsg;
+                case Dict.PROPERTY_SELF_PARTY_KEY:
+                    return selfPartyId;
+                case Dict.DOWN_STREAM_COST:
+                    return downstreamCost;
+                case Dict.DOWN_STREAM_BEGIN:
+                    return downstreamBegin;
+                case Dict.SOURCE_IP:
+                    return sourceIp;
+                case Dict.SERVICE_NAME:
+                    return serviceName;
+                case Dict.CALL_NAME:
+                    return callName;
+                case Dict.FUTURE:
+                    return remoteFuture;
+                case Dict.RESPONSE_STREAM_OBSERVER:
+                    return responseStreamObserver;
+                default:
+            }
+        }
+        return dataMap != null ? dataMap.get(key) : null;
     }
 
     public Object getDataOrDefault(Object key, Object defaultValue) {
-        return dataMap.getOrDefault(key, defaultValue);
+        Object value = getData(key);
+        return value != null ? value : defaultValue;
     }
 
     public void putData(Object key, Object data) {
+        if (key instanceof String) {
+            switch ((String) key) {
+                case Dict.TOPIC:
+                    topic = data != null ? data.toString() : null;
+                    return;
+                case Dict.INSTANCE_ID:
+                    instanceId = (String) data;
+                    return;
+                case Dict.CASEID:
+                    caseId = data != null ? data.toString() : null;
+                    return;
+                case Dict.REQUEST_INDEX:
+                    requestMsgIndex = (Long) data;
+                    return;
+                case Dict.CURRENT_INDEX:
+                    currentMsgIndex = (Long) data;
+                    return;
+                case Dict.SOURCE_COMPONENT:
+                    srcComponent = (String) data;
+                    return;
+                case Dict.DES_COMPONENT:
+                    desComponent = (String) data;
+                    return;
+                case Dict.ROUTER_INFO:
+                    routerInfo = (RouterInfo) data;
+                    return;
+                case Dict.RESULT_DATA:
+                    resultData = data;
+                    return;
+                case Dict.RETURN_CODE:
+                    returnCode = (String) data;
+                    return;
+                case Dict.RET_MSG:
+                    returnMsg = (String) data;
+                    return;
+                case Dict.PROPERTY_SELF_PARTY_KEY:
+                    selfPartyId = (String) data;
+                    return;
+                case Dict.DOWN_STREAM_COST:
+                    downstreamCost = data != null ? (Long) data : 0;
+                    return;
+                case Dict.DOWN_STREAM_BEGIN:
+                    downstreamBegin = data != null ? (Long) data : 0;
+                    return;
+                case Dict.SOURCE_IP:
+                    sourceIp = (String) data;
+                    return;
+                case Dict.SERVICE_NAME:
+                    serviceName = (String) data;
+                    return;
+                case Dict.CALL_NAME:
+                    callName = (String) data;
+                    return;
+                case Dict.FUTURE:
+                    remoteFuture = (ListenableFuture) data;
+                    return;
+                case Dict.RESPONSE_STREAM_OBSERVER:
+                    responseStreamObserver = (StreamObserver) data;
+                    return;
+                default:
+            }
+        }
+        if (dataMap == null) {
+            dataMap = new HashMap(4);
+        }
         dataMap.put(key, data);
     }
 
@@ -239,40 +413,65 @@ public class OsxContext {
         this.needCheckRouterInfo = needCheckRouterInfo;
     }
 
-    public String getCaseId() {
-        if (dataMap.get(Dict.CASEID) != null) {
-            return dataMap.get(Dict.CASEID).toString();
-        } else {
-            return null;
-        }
-    }
-
-    public void setCaseId(String caseId) {
-        dataMap.put(Dict.CASEID, caseId);
-    }
-
     public long getTimeStamp() {
         return timestamp;
     }
 
+    /**
+     * 逐个字段浅拷贝，dataMap 复制一份，子上下文中的修改不影响原上下文；
+     * 追踪信息沿用原上下文，已记录的span不复制
+     */
     public OsxContext subContext() {
-
-
-//        Map newDataMap = Maps.newHashMap(dataMap);
-//        OsxContext   osxContext =  new OsxContext(this.timestamp, newDataMap);
-        try {
-            OsxContext newContext = (OsxContext) BeanUtils.cloneBean(this);
-            return newContext;
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
-        }
-        return null;
+        OsxContext newContext = new OsxContext();
+        newContext.timestamp = timestamp;
+        newContext.needAssembleException = needAssembleException;
+        newContext.actionType = actionType;
+        newContext.sessionId = sessionId;
+        newContext.protocol = protocol;
+        newContext.traceId = traceId;
+        newContext.token = token;
+        newContext.srcInstId = srcInstId;
+        newContext.desInstId = desInstId;
+        newContext.srcNodeId = srcNodeId;
+        newContext.version = version;
+        newContext.uri = uri;
+        newContext.desNodeId = desNodeId;
+        newContext.techProviderCode = techProviderCode;
+        newContext.needPrintFlowLog = needPrintFlowLog;
+        newContext.needCheckRouterInfo = needCheckRouterInfo;
+        newContext.dataSize = dataSize;
+        newContext.queueType = queueType;
+        newContext.retryTime = retryTime;
+        newContext.dataMap = dataMap != null ? new HashMap(dataMap) : null;
+        newContext.topic = topic;
+        newContext.instanceId = instanceId;
+        newContext.caseId = caseId;
+        newContext.requestMsgIndex = requestMsgIndex;
+        newContext.currentMsgIndex = currentMsgIndex;
+        newContext.srcComponent = srcComponent;
+        newContext.desComponent = desComponent;
+        newContext.routerInfo = routerInfo;
+        newContext.resultData = resultData;
+        newContext.returnCode = returnCode;
+        newContext.returnMsg = returnMsg;
+        newContext.selfPartyId = selfPartyId;
+        newContext.downstreamCost = downstreamCost;
+        newContext.downstreamBegin = downstreamBegin;
+        newContext.sourceIp = sourceIp;
+        newContext.serviceName = serviceName;
+        newContext.callName = callName;
+        newContext.remoteFuture = remoteFuture;
+        newContext.responseStreamObserver = responseStreamObserver;
+        newContext.costTime = costTime;
+        newContext.resourceName = resourceName;
+        newContext.messageFlag = messageFlag;
+        newContext.messageCode = messageCode;
+        newContext.jobId = jobId;
+        newContext.t = t;
+        newContext.sampled = sampled;
+        newContext.spanId = spanId;
+        newContext.parentSpanId = parentSpanId;
+        return newContext;
     }
 
     public boolean needPrintFlowLog() {
@@ -283,142 +482,10 @@ public class OsxContext {
         this.needPrintFlowLog = needPrintFlowLog;
     }
 
-    public Long getRequestMsgIndex() {
-        return (Long) this.dataMap.get(Dict.REQUEST_INDEX);
-    }
-
-    public void setRequestMsgIndex(Long index) {
-        this.dataMap.put(Dict.REQUEST_INDEX, index);
-    }
-
-    public Long getCurrentMsgIndex() {
-        return (Long) this.dataMap.get(Dict.CURRENT_INDEX);
-    }
-
-    public void setCurrentMsgIndex(Long index) {
-        this.dataMap.put(Dict.CURRENT_INDEX, index);
-    }
-
     public long getCostTime() {
         return costTime;
     }
 
-    public String getSrcComponent() {
-        return (String) dataMap.get(Dict.SOURCE_COMPONENT);
-    }
-
-    //    public String getSrcPartyId() {
-//        return (String) dataMap.get(Dict.SOURCE_PARTY_ID);
-//    }
-//    public void setSrcPartyId(String guestAppId) {
-//        dataMap.put(Dict.SOURCE_PARTY_ID, guestAppId);
-//    }
-//    public String getDesPartyId() {
-//        return (String) dataMap.get(Dict.DES_PARTY_ID);
-//    }
-//    public void setDesPartyId(String hostAppid) {
-//        dataMap.put(Dict.DES_PARTY_ID, hostAppid);
-//    }
-    public void setSrcComponent(String srcComponent) {
-        dataMap.put(Dict.SOURCE_COMPONENT, srcComponent);
-    }
-
-    public String getDesComponent() {
-        return (String) dataMap.get(Dict.DES_COMPONENT);
-    }
-
-    public void setDesComponent(String desComponent) {
-        dataMap.put(Dict.DES_COMPONENT, desComponent);
-    }
-
-    public RouterInfo getRouterInfo() {
-        return (RouterInfo) dataMap.get(Dict.ROUTER_INFO);
-    }
-
-    public void setRouterInfo(RouterInfo routerInfo) {
-        dataMap.put(Dict.ROUTER_INFO, routerInfo);
-    }
-
-    public Object getResultData() {
-        return dataMap.get(Dict.RESULT_DATA);
-    }
-
-    public void setResultData(Object resultData) {
-        dataMap.put(Dict.RESULT_DATA, resultData);
-    }
-
-    public String getReturnCode() {
-        return (String) dataMap.get(Dict.RETURN_CODE);
-    }
-
-    public void setReturnCode(String returnCode) {
-        dataMap.put(Dict.RETURN_CODE, returnCode);
-    }
-
-    public String getReturnMsg() {
-        return (String) dataMap.get(Dict.RET_MSG);
-    }
-
-    public void setReturnMsg(String returnMsg) {
-        dataMap.put(Dict.RET_MSG, returnMsg);
-    }
-
-    public String getSelfPartyId() {
-        return (String) dataMap.get(Dict.PROPERTY_SELF_PARTY_KEY);
-    }
-
-    public void setSelfPartyId(String partyId) {
-        dataMap.put(Dict.PROPERTY_SELF_PARTY_KEY, partyId);
-    }
-
-    public long getDownstreamCost() {
-        if (dataMap.get(Dict.DOWN_STREAM_COST) != null) {
-
-            return (long) dataMap.get(Dict.DOWN_STREAM_COST);
-        }
-        return 0;
-    }
-
-    public void setDownstreamCost(long downstreamCost) {
-        dataMap.put(Dict.DOWN_STREAM_COST, downstreamCost);
-    }
-
-    public long getDownstreamBegin() {
-        return dataMap.get(Dict.DOWN_STREAM_BEGIN) != null ? (long) dataMap.get(Dict.DOWN_STREAM_BEGIN) : 0;
-    }
-
-    public void setDownstreamBegin(long downstreamBegin) {
-        dataMap.put(Dict.DOWN_STREAM_BEGIN, downstreamBegin);
-    }
-
-    public String getSourceIp() {
-        return (String) dataMap.get(Dict.SOURCE_IP);
-    }
-
-    public void setSourceIp(String sourceIp) {
-        dataMap.put(Dict.SOURCE_IP, sourceIp);
-    }
-
-    public String getServiceName() {
-        return (String) dataMap.get(Dict.SERVICE_NAME);
-    }
-
-    public void setServiceName(String serviceName) {
-        dataMap.put(Dict.SERVICE_NAME, serviceName);
-    }
-
-    public String getCallName() {
-        return (String) dataMap.get(Dict.CALL_NAME);
-    }
-
-    public void setCallName(String callName) {
-        dataMap.put(Dict.CALL_NAME, callName);
-    }
-
-    public void setRemoteFuture(ListenableFuture future) {
-        this.dataMap.put(Dict.FUTURE, future);
-    }
-
     public String getResourceName() {
         if (StringUtils.isNotEmpty(resourceName)) {
             return resourceName;
@@ -459,8 +526,8 @@ public class OsxContext {
         if (this.getRequestMsgIndex() != null) {
             stringBuffer.append("req-offset:").append(this.getRequestMsgIndex()).append(SPLIT);
         }
-        if (this.getData(Dict.CURRENT_INDEX) != null) {
-            stringBuffer.append("offset-in-queue:").append(this.getData(Dict.CURRENT_INDEX)).append(SPLIT);
+        if (this.currentMsgIndex != null) {
+            stringBuffer.append("offset-in-queue:").append(this.currentMsgIndex).append(SPLIT);
         }
         if (StringUtils.isNotEmpty(this.messageCode)) {
             stringBuffer.append("msg-code:").append(this.getMessageCode()).append(SPLIT);
@@ -72,6 +72,9 @@ public class ErrorMessageUtil {
 
         if (throwable instanceof StatusRuntimeException) {
             result = (StatusRuntimeException) throwable;
+        } else if (throwable instanceof FlowControlException) {
+            // 限流拒绝返回 RESOURCE_EXHAUSTED ，调用方可以据此退避后重试
+            result = Status.RESOURCE_EXHAUSTED.withDescription(throwable.getMessage()).asRuntimeException();
         } else {
             result = Status.INTERNAL
                     .withCause(throwable)
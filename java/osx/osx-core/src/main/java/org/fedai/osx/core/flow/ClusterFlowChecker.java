@@ -19,9 +19,18 @@ package org.fedai.osx.core.flow;
 import org.fedai.osx.core.token.TokenResult;
 import org.fedai.osx.core.token.TokenResultStatus;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 
 final public class ClusterFlowChecker {
 
+    public static final String ATTACHMENT_LIMITED_RESOURCE = "limitedResource";
+    private static final String WILDCARD = "*";
+    private static final Map<String, TokenBucketLimiter> LIMITER_MAP = new ConcurrentHashMap<>();
+
     private ClusterFlowChecker() {
     }
 
@@ -109,4 +118,67 @@ final public class ClusterFlowChecker {
                 .setWaitInMs(0)
                 .setWaitInMs(rule.getMaxQueueingTimeMs());
     }
+
+    /**
+     * 先精确匹配resource，再匹配同一维度的通配规则，如 des:10000 匹配 des:*
+     */
+    static FlowRule findRule(String resource) {
+        FlowRule rule = ClusterFlowRuleManager.getFlowRuleByResource(resource);
+        if (rule == null) {
+            int index = resource.lastIndexOf(':');
+            if (index > 0) {
+                rule = ClusterFlowRuleManager.getFlowRuleByResource(resource.substring(0, index + 1) + WILDCARD);
+            }
+        }
+        return rule;
+    }
+
+    private static TokenBucketLimiter getLimiter(String resource, FlowRule rule) {
+        TokenBucketLimiter limiter = LIMITER_MAP.get(resource);
+        if (limiter == null) {
+            limiter = LIMITER_MAP.computeIfAbsent(resource, k -> new TokenBucketLimiter(rule.getCount()));
+        }
+        // 规则文件变更后阈值随之生效
+        limiter.setPermitsPerSecond(rule.getCount());
+        return limiter;
+    }
+
+    /**
+     * 一次申请多个resource的令牌，全部未超过阈值时才扣减，没有对应集群规则的resource不受限制。
+     * 被拒绝时 attachments 中的 limitedResource 为超过阈值的resource
+     */
+    static public TokenResult acquireClusterToken(List<String> resources, List<Integer> counts) {
+        int size = resources.size();
+        for (int i = 0; i < size; i++) {
+            String resource = resources.get(i);
+            FlowRule rule = findRule(resource);
+            if (rule == null) {
+                continue;
+            }
+            if (!getLimiter(resource, rule).tryAcquire(counts.get(i))) {
+                for (int j = 0; j < i; j++) {
+                    FlowRule acquiredRule = findRule(resources.get(j));
+                    if (acquiredRule != null) {
+                        getLimiter(resources.get(j), acquiredRule).release(counts.get(j));
+                    }
+                }
+                ClusterMetric metric = ClusterMetricStatistics.getMetric(rule.getResource());
+                if (metric != null) {
+                    metric.add(ClusterFlowEvent.BLOCK, counts.get(i));
+                    metric.add(ClusterFlowEvent.BLOCK_REQUEST, 1);
+                }
+                return new TokenResult(TokenResultStatus.BLOCKED)
+                        .setAttachments(Collections.singletonMap(ATTACHMENT_LIMITED_RESOURCE, resource));
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            FlowRule rule = findRule(resources.get(i));
+            ClusterMetric metric = rule != null ? ClusterMetricStatistics.getMetric(rule.getResource()) : null;
+            if (metric != null) {
+                metric.add(ClusterFlowEvent.PASS, counts.get(i));
+                metric.add(ClusterFlowEvent.PASS_REQUEST, 1);
+            }
+        }
+        return new TokenResult(TokenResultStatus.OK);
+    }
 }
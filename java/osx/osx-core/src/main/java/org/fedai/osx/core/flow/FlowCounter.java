@@ -21,8 +21,12 @@ import java.util.concurrent.atomic.LongAdder;
 
 public class FlowCounter {
 
+    /**
+     * 只用于统计通过量，是否放行由 limiter 决定
+     */
     private final LeapArray<LongAdder> data;
-    private double qpsAllowed;
+    private final TokenBucketLimiter limiter;
+    private volatile double qpsAllowed;
 
     public FlowCounter(double qpsAllowed) {
         this(new UnaryLeapArray(10, 1000), qpsAllowed);
@@ -31,6 +35,7 @@ public class FlowCounter {
     FlowCounter(LeapArray<LongAdder> data, double qpsAllowed) {
         this.data = data;
         this.qpsAllowed = qpsAllowed;
+        this.limiter = new TokenBucketLimiter(qpsAllowed);
     }
 
     public void increment() {
@@ -74,21 +79,30 @@ public class FlowCounter {
 
     public FlowCounter setQpsAllowed(double qpsAllowed) {
         this.qpsAllowed = qpsAllowed;
+        this.limiter.setPermitsPerSecond(qpsAllowed);
         return this;
     }
 
     public boolean canPass(int times) {
-        return getQps() + times <= qpsAllowed;
+        return limiter.canAcquire(times);
     }
 
     public boolean tryPass(int times) {
-        if (canPass(times)) {
+        if (limiter.tryAcquire(times)) {
             add(times);
             return true;
         }
         return false;
     }
 
+    /**
+     * 撤销一次已通过的计数并归还令牌
+     */
+    public void refund(int times) {
+        limiter.release(times);
+        add(-times);
+    }
+
     public class QpsData {
         long current;
         long sum;
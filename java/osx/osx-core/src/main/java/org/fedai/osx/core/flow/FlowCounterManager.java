@@ -19,6 +19,7 @@ package org.fedai.osx.core.flow;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import org.fedai.osx.core.config.MetaInfo;
 import org.fedai.osx.core.utils.GetSystemInfo;
 import org.fedai.osx.core.utils.JsonUtil;
 import org.slf4j.Logger;
@@ -26,7 +27,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,7 +45,7 @@ public class FlowCounterManager {
     File file;
     MetricReport metricReport;
     ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
-    Map<String, Double> sourceQpsAllowMap = new HashMap<>();
+    volatile Map<String, Double> sourceQpsAllowMap = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, FlowCounter> passMap = new ConcurrentHashMap<>();
 
     public FlowCounterManager() {
@@ -63,8 +63,14 @@ public class FlowCounterManager {
             baseFileName += ".pid" + GetSystemInfo.getPid();
 
         }
-        metricSearcher = new MetricSearcher(MetricWriter.METRIC_BASE_DIR, baseFileName);
-        metricReport = new FileMetricReport(appName);
+        if (MetaInfo.PROPERTY_METRIC_STORE_BINARY) {
+            MetricStore metricStore = new MetricStore(appName);
+            metricSearcher = new MetricSearcher(metricStore);
+            metricReport = metricStore;
+        } else {
+            metricSearcher = new MetricSearcher(MetricWriter.METRIC_BASE_DIR, baseFileName);
+            metricReport = new FileMetricReport(appName);
+        }
 //        if (countModelRequest) {
 //            modelMetricReport = new FileMetricReport("model");
 //         //   modelMetricSearcher = new MetricSearcher(MetricWriter.METRIC_BASE_DIR, modelFileName);
@@ -154,7 +160,7 @@ public class FlowCounterManager {
         this.metricReport = metricReport;
     }
 
-    public boolean pass(String sourceName, int times) {
+    private FlowCounter getFlowCounter(String sourceName) {
         FlowCounter flowCounter = passMap.get(sourceName);
         if (flowCounter == null) {
             Double allowedQps = getAllowedQps(sourceName);
@@ -163,8 +169,48 @@ public class FlowCounterManager {
                 flowCounter = passMap.get(sourceName);
             }
         }
+        return flowCounter;
+    }
+
+    public boolean pass(String sourceName, int times) {
 //        logger.info("source {} pass {}",sourceName,times);
-        return flowCounter.tryPass(times);
+        return getFlowCounter(sourceName).tryPass(times);
+    }
+
+    /**
+     * 所有source都未超过阈值时才计数，返回第一个超过阈值的source，全部通过返回null
+     */
+    public String passAll(List<String> sourceNames, int times) {
+        for (int i = 0; i < sourceNames.size(); i++) {
+            if (!getFlowCounter(sourceNames.get(i)).tryPass(times)) {
+                for (int j = 0; j < i; j++) {
+                    getFlowCounter(sourceNames.get(j)).refund(times);
+                }
+                return sourceNames.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 与 passAll 相同，每个source使用各自的计数
+     */
+    public String passAll(List<String> sourceNames, List<Integer> times) {
+        for (int i = 0; i < sourceNames.size(); i++) {
+            if (!getFlowCounter(sourceNames.get(i)).tryPass(times.get(i))) {
+                for (int j = 0; j < i; j++) {
+                    getFlowCounter(sourceNames.get(j)).refund(times.get(j));
+                }
+                return sourceNames.get(i);
+            }
+        }
+        return null;
+    }
+
+    public void refundAll(List<String> sourceNames, int times) {
+        for (String sourceName : sourceNames) {
+            getFlowCounter(sourceName).refund(times);
+        }
     }
 
 //    public boolean success(String sourceName, int times) {
@@ -243,6 +289,9 @@ public class FlowCounterManager {
                 FileMetricReport fileMetricReport = (FileMetricReport) metricReport;
                 fileMetricReport.rmAllFile();
             }
+            if (metricReport instanceof MetricStore) {
+                ((MetricStore) metricReport).removeAll();
+            }
         } catch (Exception e) {
             logger.error("remove metric file error");
         }
@@ -299,8 +348,35 @@ public class FlowCounterManager {
         }
     }
 
+    /**
+     * 精确匹配优先，其次匹配同一维度的通配规则，如 src:9999 未配置时使用 src:*
+     */
     public Double getAllowedQps(String sourceName) {
-        return sourceQpsAllowMap.get(sourceName);
+        Map<String, Double> allowMap = sourceQpsAllowMap;
+        Double allowedQps = allowMap.get(sourceName);
+        if (allowedQps == null) {
+            int index = sourceName.lastIndexOf(':');
+            if (index > 0) {
+                allowedQps = allowMap.get(sourceName.substring(0, index + 1) + "*");
+            }
+        }
+        return allowedQps;
+    }
+
+    public boolean hasAllowedQps() {
+        return !sourceQpsAllowMap.isEmpty();
+    }
+
+    /**
+     * 整体替换限流规则，已存在的计数器按新规则调整阈值，规则被删除的计数器不再限流
+     */
+    public void refreshAllowedQps(Map<String, Double> allowMap) {
+        logger.info("refresh allowed qps {}", allowMap);
+        sourceQpsAllowMap = new ConcurrentHashMap<>(allowMap);
+        passMap.forEach((sourceName, flowCounter) -> {
+            Double allowedQps = getAllowedQps(sourceName);
+            flowCounter.setQpsAllowed(allowedQps != null ? allowedQps : Integer.MAX_VALUE);
+        });
     }
 
     public void setAllowQps(String sourceName, double allowQps) {
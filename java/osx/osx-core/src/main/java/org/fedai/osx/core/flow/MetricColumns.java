@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.flow;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单个resource在一个分区内的统计数据，按列保存，时间戳递增。
+ * 落盘时时间戳按差值、其余各列按 zigzag 编码为变长整数。
+ */
+class MetricColumns {
+
+    static final int COLUMN_COUNT = 7;
+    private static final int TIMESTAMP = 0;
+    private static final int PASS = 1;
+    private static final int BLOCK = 2;
+    private static final int SUCCESS = 3;
+    private static final int EXCEPTION = 4;
+    private static final int RT = 5;
+    private static final int OCCUPIED_PASS = 6;
+
+    final String resource;
+    long[][] columns;
+    int size;
+
+    MetricColumns(String resource, int capacity) {
+        this.resource = resource;
+        this.columns = new long[COLUMN_COUNT][Math.max(capacity, 1)];
+    }
+
+    void append(MetricNode node) {
+        if (size == columns[0].length) {
+            for (int i = 0; i < COLUMN_COUNT; i++) {
+                columns[i] = Arrays.copyOf(columns[i], size << 1);
+            }
+        }
+        columns[TIMESTAMP][size] = node.getTimestamp();
+        columns[PASS][size] = node.getPassQps();
+        columns[BLOCK][size] = node.getBlockQps();
+        columns[SUCCESS][size] = node.getSuccessQps();
+        columns[EXCEPTION][size] = node.getExceptionQps();
+        columns[RT][size] = node.getRt();
+        columns[OCCUPIED_PASS][size] = node.getOccupiedPassQps();
+        size++;
+    }
+
+    long timestampAt(int i) {
+        return columns[TIMESTAMP][i];
+    }
+
+    MetricNode nodeAt(int i) {
+        MetricNode node = new MetricNode();
+        node.setResource(resource);
+        node.setTimestamp(columns[TIMESTAMP][i]);
+        node.setPassQps(columns[PASS][i]);
+        node.setBlockQps(columns[BLOCK][i]);
+        node.setSuccessQps(columns[SUCCESS][i]);
+        node.setExceptionQps(columns[EXCEPTION][i]);
+        node.setRt(columns[RT][i]);
+        node.setOccupiedPassQps(columns[OCCUPIED_PASS][i]);
+        return node;
+    }
+
+    /**
+     * 将秒数落在 [beginSecond, endSecond] 内的数据加入list，达到max条时停止
+     */
+    void collect(long beginSecond, long endSecond, List<MetricNode> list, int max) {
+        int i = lowerBound(beginSecond * 1000);
+        for (; i < size && list.size() < max; i++) {
+            if (columns[TIMESTAMP][i] / 1000 > endSecond) {
+                break;
+            }
+            list.add(nodeAt(i));
+        }
+    }
+
+    private int lowerBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (columns[TIMESTAMP][mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 按 intervalSeconds 秒对齐分桶，每桶保留一个点，时间戳为桶的起始时间，各项取桶内的平均值
+     */
+    MetricColumns downsample(int intervalSeconds) {
+        long intervalMs = intervalSeconds * 1000L;
+        MetricColumns result = new MetricColumns(resource, size / Math.max(intervalSeconds, 1) + 1);
+        int i = 0;
+        while (i < size) {
+            long bucket = columns[TIMESTAMP][i] - columns[TIMESTAMP][i] % intervalMs;
+            long[] sum = new long[COLUMN_COUNT];
+            int count = 0;
+            for (; i < size && columns[TIMESTAMP][i] - bucket < intervalMs; i++, count++) {
+                for (int c = PASS; c < COLUMN_COUNT; c++) {
+                    sum[c] += columns[c][i];
+                }
+            }
+            MetricNode node = new MetricNode();
+            node.setTimestamp(bucket);
+            node.setPassQps(sum[PASS] / count);
+            node.setBlockQps(sum[BLOCK] / count);
+            node.setSuccessQps(sum[SUCCESS] / count);
+            node.setExceptionQps(sum[EXCEPTION] / count);
+            node.setRt(sum[RT] / count);
+            node.setOccupiedPassQps(sum[OCCUPIED_PASS] / count);
+            result.append(node);
+        }
+        return result;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size * COLUMN_COUNT * 2 + 16);
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            writeVarLong(out, columns[TIMESTAMP][i] - previous);
+            previous = columns[TIMESTAMP][i];
+        }
+        for (int c = PASS; c < COLUMN_COUNT; c++) {
+            for (int i = 0; i < size; i++) {
+                writeVarLong(out, (columns[c][i] << 1) ^ (columns[c][i] >> 63));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static MetricColumns decode(String resource, int size, ByteBuffer buffer) {
+        MetricColumns result = new MetricColumns(resource, size);
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            previous += readVarLong(buffer);
+            result.columns[TIMESTAMP][i] = previous;
+        }
+        for (int c = PASS; c < COLUMN_COUNT; c++) {
+            for (int i = 0; i < size; i++) {
+                long value = readVarLong(buffer);
+                result.columns[c][i] = (value >>> 1) ^ -(value & 1);
+            }
+        }
+        result.size = size;
+        return result;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
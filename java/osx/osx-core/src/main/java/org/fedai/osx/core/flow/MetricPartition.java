@@ -0,0 +1,189 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.flow;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * 已结束的分区，保存在一个文件中，文件格式为：
+ * <pre>
+ * magic int | version int | beginTime long | endTime long | 降采样间隔秒数 int(0表示原始数据) | resource数 int
+ * 每个resource的目录项： resource utf | 点数 int | 数据块偏移 long | 数据块长度 int
+ * 每个resource的列式数据块，见 {@link MetricColumns#encode()}
+ * </pre>
+ * 打开时只读取目录，查询时按目录定位到对应resource的数据块，使用带位置的读取，多个线程可以同时查询。
+ */
+class MetricPartition {
+
+    static final String FILE_SUFFIX = ".bin";
+    static final String DOWNSAMPLED_FILE_SUFFIX = ".ds.bin";
+    private static final int MAGIC = 0x4F53584D;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+
+    final File file;
+    final long beginTime;
+    final long endTime;
+    final int downsampleInterval;
+    private final Map<String, BlockEntry> directory;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    private MetricPartition(File file, long beginTime, long endTime, int downsampleInterval,
+                            Map<String, BlockEntry> directory) throws IOException {
+        this.file = file;
+        this.beginTime = beginTime;
+        this.endTime = endTime;
+        this.downsampleInterval = downsampleInterval;
+        this.directory = directory;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        this.channel = randomAccessFile.getChannel();
+    }
+
+    static String formFileName(long beginTime, int downsampleInterval) {
+        return beginTime + (downsampleInterval > 0 ? DOWNSAMPLED_FILE_SUFFIX : FILE_SUFFIX);
+    }
+
+    /**
+     * 先写临时文件再改名，避免读到写了一半的文件
+     */
+    static MetricPartition write(File dir, long beginTime, long endTime, int downsampleInterval,
+                                 Collection<MetricColumns> data) throws IOException {
+        List<byte[]> blocks = new ArrayList<>(data.size());
+        for (MetricColumns columns : data) {
+            blocks.add(columns.encode());
+        }
+        // 目录项长度固定，先按相对偏移写一遍得到目录长度，再写入绝对偏移
+        long dataOffset = HEADER_SIZE + writeDirectory(new ByteArrayOutputStream(), data, blocks, 0).size();
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeInt(VERSION);
+        headerOut.writeLong(beginTime);
+        headerOut.writeLong(endTime);
+        headerOut.writeInt(downsampleInterval);
+        headerOut.writeInt(data.size());
+        headerOut.flush();
+        writeDirectory(header, data, blocks, dataOffset);
+        Map<String, BlockEntry> directory = new HashMap<>(data.size());
+        int i = 0;
+        long offset = dataOffset;
+        for (MetricColumns columns : data) {
+            int length = blocks.get(i++).length;
+            directory.put(columns.resource, new BlockEntry(columns.size, offset, length));
+            offset += length;
+        }
+        File file = new File(dir, formFileName(beginTime, downsampleInterval));
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            header.writeTo(out);
+            for (byte[] block : blocks) {
+                out.write(block);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename metric partition file " + tmp + " failed");
+        }
+        return new MetricPartition(file, beginTime, endTime, downsampleInterval, directory);
+    }
+
+    private static ByteArrayOutputStream writeDirectory(ByteArrayOutputStream target, Collection<MetricColumns> data,
+                                                        List<byte[]> blocks, long offset) throws IOException {
+        DataOutputStream out = new DataOutputStream(target);
+        int i = 0;
+        for (MetricColumns columns : data) {
+            int length = blocks.get(i++).length;
+            out.writeUTF(columns.resource);
+            out.writeInt(columns.size);
+            out.writeLong(offset);
+            out.writeInt(length);
+            offset += length;
+        }
+        out.flush();
+        return target;
+    }
+
+    static MetricPartition open(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("invalid metric partition file " + file);
+            }
+            long beginTime = in.readLong();
+            long endTime = in.readLong();
+            int downsampleInterval = in.readInt();
+            int count = in.readInt();
+            Map<String, BlockEntry> directory = new HashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                String resource = in.readUTF();
+                directory.put(resource, new BlockEntry(in.readInt(), in.readLong(), in.readInt()));
+            }
+            return new MetricPartition(file, beginTime, endTime, downsampleInterval, directory);
+        }
+    }
+
+    Set<String> resources() {
+        return directory.keySet();
+    }
+
+    MetricColumns read(String resource) throws IOException {
+        BlockEntry entry = directory.get(resource);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        long position = entry.offset;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("metric partition file " + file + " is truncated");
+            }
+            position += n;
+        }
+        buffer.flip();
+        return MetricColumns.decode(resource, entry.count, buffer);
+    }
+
+    List<MetricColumns> readAll() throws IOException {
+        List<MetricColumns> result = new ArrayList<>(directory.size());
+        for (String resource : directory.keySet()) {
+            result.add(read(resource));
+        }
+        return result;
+    }
+
+    void close() {
+        try {
+            randomAccessFile.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static final class BlockEntry {
+        final int count;
+        final long offset;
+        final int length;
+
+        BlockEntry(int count, long offset, int length) {
+            this.count = count;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
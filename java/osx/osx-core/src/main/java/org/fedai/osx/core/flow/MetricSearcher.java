@@ -27,6 +27,10 @@ public class MetricSearcher {
 
     private static final Charset defaultCharset = Charset.forName("UTF-8");
     private final MetricsReader metricsReader;
+    /**
+     * 不为空时从二进制存储查询，不再读取 metrics.log 文件
+     */
+    private final MetricStore metricStore;
 
     private String baseDir;
     private String baseFileName;
@@ -62,6 +66,15 @@ public class MetricSearcher {
         }
         this.baseFileName = baseFileName;
         metricsReader = new MetricsReader(charset);
+        metricStore = null;
+    }
+
+    public MetricSearcher(MetricStore metricStore) {
+        if (metricStore == null) {
+            throw new IllegalArgumentException("metricStore can't be null");
+        }
+        this.metricStore = metricStore;
+        this.metricsReader = null;
     }
 
     /**
@@ -73,7 +86,14 @@ public class MetricSearcher {
      * @return
      * @throws Exception
      */
-    public synchronized List<MetricNode> find(long beginTimeMs, int recommendLines) throws Exception {
+    public List<MetricNode> find(long beginTimeMs, int recommendLines) throws Exception {
+        if (metricStore != null) {
+            return metricStore.find(beginTimeMs, recommendLines);
+        }
+        return findInFiles(beginTimeMs, recommendLines);
+    }
+
+    private synchronized List<MetricNode> findInFiles(long beginTimeMs, int recommendLines) throws Exception {
         List<String> fileNames = MetricWriter.listMetricFiles(baseDir, baseFileName);
         int i = 0;
         long offsetInIndex = 0;
@@ -102,7 +122,15 @@ public class MetricSearcher {
      * When identity is null, all metric between the time intervalMs will be read, otherwise, only the specific
      * identity will be read.
      */
-    public synchronized List<MetricNode> findByTimeAndResource(long beginTimeMs, long endTimeMs, String identity)
+    public List<MetricNode> findByTimeAndResource(long beginTimeMs, long endTimeMs, String identity)
+            throws Exception {
+        if (metricStore != null) {
+            return metricStore.findByTimeAndResource(beginTimeMs, endTimeMs, identity);
+        }
+        return findInFilesByTimeAndResource(beginTimeMs, endTimeMs, identity);
+    }
+
+    private synchronized List<MetricNode> findInFilesByTimeAndResource(long beginTimeMs, long endTimeMs, String identity)
             throws Exception {
         List<String> fileNames = MetricWriter.listMetricFiles(baseDir, baseFileName);
         //RecordLog.info("pid=" + pid + ", findByTimeAndResource([" + beginTimeMs + ", " + endTimeMs
@@ -0,0 +1,489 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.flow;
+
+import com.google.common.io.CountingInputStream;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.utils.GetSystemInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 按时间分区的二进制统计数据存储，替代 metrics.log 文本文件加 .idx 索引的方式。
+ * 当前分区按resource分列保存在内存中，同时追加写入该分区的 .wal 文件，重启时据此恢复；
+ * 分区结束后整体写入一个文件（见 {@link MetricPartition}）并删除 .wal 文件，
+ * 结束超过 metric.store.downsample.after 的分区降采样后重写，超过 metric.store.retention.time 的分区删除。
+ * 写入只来自上报线程，查询不加全局锁，只在取当前分区数据时持有读锁，多个线程可以同时查询。
+ */
+public class MetricStore implements MetricReport {
+
+    /**
+     * 单次查询最多返回的条数，与 {@link MetricsReader} 保持一致
+     */
+    private static final int MAX_LINES_RETURN = 100000;
+    static final String WAL_SUFFIX = ".wal";
+    private static final Comparator<MetricNode> TIMESTAMP_CMP = Comparator.comparingLong(MetricNode::getTimestamp);
+
+    Logger logger = LoggerFactory.getLogger(MetricStore.class);
+    private final File dir;
+    private final long partitionTime;
+    private final ConcurrentSkipListMap<Long, MetricPartition> partitions = new ConcurrentSkipListMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, MetricColumns> active = new LinkedHashMap<>();
+    private long activeBeginTime = -1;
+    /**
+     * 被降采样或过期替换下来的分区，正在进行的查询可能还在读取，到下一次整理时才关闭
+     */
+    private List<MetricPartition> retired = new ArrayList<>();
+    /**
+     * 当前分区的追加日志，只有上报线程写入
+     */
+    private DataOutputStream wal;
+
+    public MetricStore(String appName) {
+        this(new File(MetricWriter.METRIC_BASE_DIR, MetricWriter.formMetricFileName(appName, GetSystemInfo.getPid()) + ".store"));
+    }
+
+    public MetricStore(File dir) {
+        this.dir = dir;
+        this.partitionTime = MetaInfo.PROPERTY_METRIC_STORE_PARTITION_TIME;
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        load();
+    }
+
+    private void load() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        TreeMap<Long, File> walFiles = new TreeMap<>();
+        for (File file : files) {
+            if (file.getName().endsWith(WAL_SUFFIX)) {
+                try {
+                    walFiles.put(Long.parseLong(file.getName().substring(0, file.getName().length() - WAL_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    file.delete();
+                }
+                continue;
+            }
+            if (!file.getName().endsWith(MetricPartition.FILE_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            try {
+                MetricPartition partition = MetricPartition.open(file);
+                MetricPartition old = partitions.get(partition.beginTime);
+                MetricPartition discard = partition;
+                // 降采样后的文件已写入但原始文件未删除
+                if (old == null || partition.downsampleInterval > old.downsampleInterval) {
+                    partitions.put(partition.beginTime, partition);
+                    discard = old;
+                }
+                if (discard != null) {
+                    discard.close();
+                    discard.file.delete();
+                }
+            } catch (IOException e) {
+                logger.error("load metric partition file {} error", file, e);
+            }
+        }
+        recover(walFiles);
+    }
+
+    /**
+     * 最后一个 .wal 文件恢复为当前分区，之后的写入如果已进入下一个分区会正常结束它；
+     * 更早的 .wal 文件是结束分区时中断留下的，直接写成分区文件
+     */
+    private void recover(TreeMap<Long, File> walFiles) {
+        for (Map.Entry<Long, File> entry : walFiles.entrySet()) {
+            long beginTime = entry.getKey();
+            File file = entry.getValue();
+            if (partitions.containsKey(beginTime)) {
+                file.delete();
+                continue;
+            }
+            Map<String, MetricColumns> columnsMap = replay(file, entry.getKey().equals(walFiles.lastKey()));
+            if (entry.getKey().equals(walFiles.lastKey())) {
+                active = columnsMap;
+                activeBeginTime = beginTime;
+                continue;
+            }
+            try {
+                if (!columnsMap.isEmpty()) {
+                    partitions.put(beginTime, MetricPartition.write(dir, beginTime, beginTime + partitionTime, 0, columnsMap.values()));
+                }
+                file.delete();
+            } catch (IOException e) {
+                logger.error("recover metric partition {} error", file, e);
+            }
+        }
+    }
+
+    /**
+     * 读取到文件末尾或不完整的最后一条记录为止，truncate 为 true 时截掉不完整的记录，之后的写入接在完整记录后面
+     */
+    private Map<String, MetricColumns> replay(File file, boolean truncate) {
+        Map<String, MetricColumns> columnsMap = new LinkedHashMap<>();
+        long validLength = 0;
+        try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+             DataInputStream in = new DataInputStream(counting)) {
+            while (true) {
+                long time = in.readLong();
+                int count = in.readInt();
+                List<MetricNode> nodes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    MetricNode node = new MetricNode();
+                    node.setResource(in.readUTF());
+                    node.setTimestamp(time);
+                    node.setPassQps(in.readLong());
+                    node.setBlockQps(in.readLong());
+                    node.setSuccessQps(in.readLong());
+                    node.setExceptionQps(in.readLong());
+                    node.setRt(in.readLong());
+                    node.setOccupiedPassQps(in.readLong());
+                    nodes.add(node);
+                }
+                for (MetricNode node : nodes) {
+                    append(columnsMap, node);
+                }
+                validLength = counting.getCount();
+            }
+        } catch (EOFException ignore) {
+        } catch (IOException e) {
+            logger.error("replay metric wal {} error", file, e);
+        }
+        if (truncate && validLength < file.length()) {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(validLength);
+            } catch (IOException e) {
+                logger.error("truncate metric wal {} error", file, e);
+            }
+        }
+        return columnsMap;
+    }
+
+    private static boolean append(Map<String, MetricColumns> columnsMap, MetricNode node) {
+        MetricColumns columns = columnsMap.get(node.getResource());
+        if (columns == null) {
+            columns = new MetricColumns(node.getResource(), 64);
+            columnsMap.put(node.getResource(), columns);
+        } else if (columns.timestampAt(columns.size - 1) > node.getTimestamp()) {
+            return false;
+        }
+        columns.append(node);
+        return true;
+    }
+
+    private File walFile(long beginTime) {
+        return new File(dir, beginTime + WAL_SUFFIX);
+    }
+
+    private void appendWal(long time, List<MetricNode> nodes) {
+        try {
+            if (wal == null) {
+                wal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(walFile(activeBeginTime), true)));
+            }
+            wal.writeLong(time);
+            wal.writeInt(nodes.size());
+            for (MetricNode node : nodes) {
+                wal.writeUTF(node.getResource());
+                wal.writeLong(node.getPassQps());
+                wal.writeLong(node.getBlockQps());
+                wal.writeLong(node.getSuccessQps());
+                wal.writeLong(node.getExceptionQps());
+                wal.writeLong(node.getRt());
+                wal.writeLong(node.getOccupiedPassQps());
+            }
+            wal.flush();
+        } catch (IOException e) {
+            logger.error("append metric wal error", e);
+            closeWal();
+        }
+    }
+
+    private void closeWal() {
+        if (wal != null) {
+            try {
+                wal.close();
+            } catch (IOException ignore) {
+            }
+            wal = null;
+        }
+    }
+
+    /**
+     * 每批数据写入后都已刷到文件，这里只关闭文件，当前分区在下次启动时恢复
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closeWal();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void report(List<MetricNode> data) {
+        try {
+            write(TimeUtil.currentTimeMillis(), data);
+        } catch (Exception e) {
+            logger.error("write metric error", e);
+        }
+    }
+
+    /**
+     * 写入同一时刻的一批统计数据，时间早于该resource最后一条数据的直接忽略
+     */
+    public void write(long time, List<MetricNode> nodes) {
+        if (nodes == null) {
+            return;
+        }
+        long partitionBeginTime = time - time % partitionTime;
+        if (activeBeginTime != -1 && partitionBeginTime > activeBeginTime) {
+            seal(partitionBeginTime);
+            maintain(time);
+        }
+        List<MetricNode> accepted = new ArrayList<>(nodes.size());
+        lock.writeLock().lock();
+        try {
+            if (activeBeginTime == -1) {
+                activeBeginTime = partitionBeginTime;
+            }
+            for (MetricNode node : nodes) {
+                node.setTimestamp(time);
+                if (append(active, node)) {
+                    accepted.add(node);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // 追加日志只有上报线程写入，不需要持有锁
+        if (!accepted.isEmpty()) {
+            appendWal(time, accepted);
+        }
+    }
+
+    /**
+     * 当前分区写入文件，只有上报线程修改当前分区，写文件时不需要持有锁
+     */
+    private void seal(long nextBeginTime) {
+        MetricPartition partition = null;
+        boolean sealed = active.isEmpty();
+        if (!active.isEmpty()) {
+            try {
+                partition = MetricPartition.write(dir, activeBeginTime, activeBeginTime + partitionTime, 0, active.values());
+                sealed = true;
+            } catch (IOException e) {
+                logger.error("write metric partition {} error", activeBeginTime, e);
+            }
+        }
+        closeWal();
+        // 写分区文件失败时保留追加日志，下次启动时再写成分区文件
+        if (sealed) {
+            walFile(activeBeginTime).delete();
+        }
+        lock.writeLock().lock();
+        try {
+            if (partition != null) {
+                partitions.put(partition.beginTime, partition);
+            }
+            active = new LinkedHashMap<>();
+            activeBeginTime = nextBeginTime;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void maintain(long now) {
+        for (MetricPartition partition : retired) {
+            partition.close();
+        }
+        retired = new ArrayList<>();
+        long retentionBefore = now - MetaInfo.PROPERTY_METRIC_STORE_RETENTION_TIME;
+        long downsampleBefore = now - MetaInfo.PROPERTY_METRIC_STORE_DOWNSAMPLE_AFTER;
+        int interval = MetaInfo.PROPERTY_METRIC_STORE_DOWNSAMPLE_INTERVAL;
+        for (MetricPartition partition : partitions.values()) {
+            if (partition.endTime <= retentionBefore) {
+                partitions.remove(partition.beginTime);
+                retire(partition);
+            } else if (partition.endTime > downsampleBefore) {
+                break;
+            } else if (partition.downsampleInterval == 0) {
+                try {
+                    List<MetricColumns> downsampled = new ArrayList<>(partition.resources().size());
+                    for (MetricColumns columns : partition.readAll()) {
+                        downsampled.add(columns.downsample(interval));
+                    }
+                    partitions.put(partition.beginTime, MetricPartition.write(dir, partition.beginTime,
+                            partition.endTime, interval, downsampled));
+                    retire(partition);
+                } catch (IOException e) {
+                    logger.error("downsample metric partition {} error", partition.file, e);
+                }
+            }
+        }
+    }
+
+    private void retire(MetricPartition partition) {
+        retired.add(partition);
+        if (!partition.file.delete()) {
+            logger.warn("remove metric partition file {} failed", partition.file);
+        }
+    }
+
+    /**
+     * 查询 [beginTimeMs, endTimeMs] 内的数据，两端按秒计算且都包含，identity 为 null 时返回所有resource。
+     * 结果按时间戳排序，没有数据时返回 null 。
+     */
+    public List<MetricNode> findByTimeAndResource(long beginTimeMs, long endTimeMs, String identity) throws IOException {
+        long beginSecond = beginTimeMs / 1000;
+        long endSecond = endTimeMs / 1000;
+        List<MetricNode> result = new ArrayList<>();
+        Snapshot snapshot = snapshot(beginSecond, endSecond, identity, MAX_LINES_RETURN);
+        for (MetricPartition partition : snapshot.partitions) {
+            if (result.size() >= MAX_LINES_RETURN) {
+                break;
+            }
+            List<MetricNode> nodes = new ArrayList<>();
+            if (identity != null) {
+                MetricColumns columns = partition.read(identity);
+                if (columns != null) {
+                    columns.collect(beginSecond, endSecond, nodes, MAX_LINES_RETURN - result.size());
+                }
+            } else {
+                for (String resource : partition.resources()) {
+                    partition.read(resource).collect(beginSecond, endSecond, nodes, MAX_LINES_RETURN);
+                }
+                nodes.sort(TIMESTAMP_CMP);
+            }
+            result.addAll(nodes.size() > MAX_LINES_RETURN - result.size() ? nodes.subList(0, MAX_LINES_RETURN - result.size()) : nodes);
+        }
+        for (MetricNode node : snapshot.active) {
+            if (result.size() >= MAX_LINES_RETURN) {
+                break;
+            }
+            result.add(node);
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * 从beginTime开始，检索recommendLines条(大概)记录，同一秒中的数据不会被分割，返回条数可能大于recommendLines。
+     * 没有数据时返回 null 。
+     */
+    public List<MetricNode> find(long beginTimeMs, int recommendLines) throws IOException {
+        long beginSecond = beginTimeMs / 1000;
+        List<MetricNode> result = new ArrayList<>();
+        Snapshot snapshot = snapshot(beginSecond, Long.MAX_VALUE, null, MAX_LINES_RETURN);
+        for (MetricPartition partition : snapshot.partitions) {
+            List<MetricNode> nodes = new ArrayList<>();
+            for (String resource : partition.resources()) {
+                partition.read(resource).collect(beginSecond, Long.MAX_VALUE, nodes, MAX_LINES_RETURN);
+            }
+            nodes.sort(TIMESTAMP_CMP);
+            if (appendWholeSeconds(result, nodes, recommendLines)) {
+                return result;
+            }
+        }
+        appendWholeSeconds(result, snapshot.active, recommendLines);
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * @return 是否已经取够
+     */
+    private boolean appendWholeSeconds(List<MetricNode> result, List<MetricNode> nodes, int recommendLines) {
+        for (MetricNode node : nodes) {
+            if (result.size() >= MAX_LINES_RETURN) {
+                return true;
+            }
+            if (result.size() >= recommendLines
+                    && node.getTimestamp() / 1000 != result.get(result.size() - 1).getTimestamp() / 1000) {
+                return true;
+            }
+            result.add(node);
+        }
+        return false;
+    }
+
+    /**
+     * 在读锁内取得与时间范围相交的已结束分区以及当前分区中的数据，保证分区切换时不会漏读或重复读
+     */
+    private Snapshot snapshot(long beginSecond, long endSecond, String identity, int max) {
+        Snapshot snapshot = new Snapshot();
+        lock.readLock().lock();
+        try {
+            for (MetricPartition partition : partitions.values()) {
+                if (partition.endTime / 1000 <= beginSecond) {
+                    continue;
+                }
+                if (partition.beginTime / 1000 > endSecond) {
+                    break;
+                }
+                snapshot.partitions.add(partition);
+            }
+            if (activeBeginTime != -1 && activeBeginTime / 1000 <= endSecond) {
+                if (identity != null) {
+                    MetricColumns columns = active.get(identity);
+                    if (columns != null) {
+                        columns.collect(beginSecond, endSecond, snapshot.active, max);
+                    }
+                } else {
+                    for (MetricColumns columns : active.values()) {
+                        columns.collect(beginSecond, endSecond, snapshot.active, max);
+                    }
+                    snapshot.active.sort(TIMESTAMP_CMP);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return snapshot;
+    }
+
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            for (MetricPartition partition : partitions.values()) {
+                partition.close();
+                partition.file.delete();
+            }
+            partitions.clear();
+            closeWal();
+            if (activeBeginTime != -1) {
+                walFile(activeBeginTime).delete();
+            }
+            active = new LinkedHashMap<>();
+            activeBeginTime = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static final class Snapshot {
+        final List<MetricPartition> partitions = new ArrayList<>();
+        final List<MetricNode> active = new ArrayList<>();
+    }
+}
@@ -23,7 +23,8 @@ import java.util.concurrent.atomic.LongAdder;
 public class RequestLimiter {
 
     private final LeapArray<LongAdder> data;
-    private double qpsAllowed;
+    private final TokenBucketLimiter limiter;
+    private volatile double qpsAllowed;
 
     public RequestLimiter(double qpsAllowed) {
         this(new UnaryLeapArray(10, 1000), qpsAllowed);
@@ -33,6 +34,7 @@ public class RequestLimiter {
         AssertUtil.isTrue(qpsAllowed >= 0, "max allowed QPS should > 0");
         this.data = data;
         this.qpsAllowed = qpsAllowed;
+        this.limiter = new TokenBucketLimiter(qpsAllowed);
     }
 
     public void increment() {
@@ -64,15 +66,16 @@ public class RequestLimiter {
 
     public RequestLimiter setQpsAllowed(double qpsAllowed) {
         this.qpsAllowed = qpsAllowed;
+        this.limiter.setPermitsPerSecond(qpsAllowed);
         return this;
     }
 
     public boolean canPass() {
-        return getQps() + 1 <= qpsAllowed;
+        return limiter.canAcquire(1);
     }
 
     public boolean tryPass() {
-        if (canPass()) {
+        if (limiter.tryAcquire(1)) {
             add(1);
             return true;
         }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.flow;
+
+import org.fedai.osx.core.config.MetaInfo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 GCRA 的令牌桶限流，全部状态是一个保存理论到达时间（纳秒）的 AtomicLong，
+ * 判断与扣减通过一次 CAS 完成，不加锁，每次调用不分配对象。
+ * 令牌桶容量以时间表示，空闲时最多允许 burst 时长内的请求量瞬时通过；
+ * 配置预热时，启动、调整阈值或空闲超过预热时长后，每个令牌的间隔从 冷启动因子 倍线性降至正常值
+ */
+public class TokenBucketLimiter {
+
+    private final AtomicLong theoreticalArrivalTime;
+    private final long burstNanos;
+    private final long warmUpNanos;
+    private final int coldFactor;
+    /**
+     * 每个令牌的间隔，0表示不限流，正无穷表示全部拒绝
+     */
+    private volatile double intervalNanos;
+    private volatile long warmUpStartNanos;
+
+    public TokenBucketLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, MetaInfo.PROPERTY_FLOW_CONTROL_BURST_TIME, MetaInfo.PROPERTY_FLOW_CONTROL_WARM_UP_TIME,
+                MetaInfo.PROPERTY_FLOW_CONTROL_COLD_FACTOR);
+    }
+
+    public TokenBucketLimiter(double permitsPerSecond, long burstMillis, long warmUpMillis, int coldFactor) {
+        long now = System.nanoTime();
+        this.theoreticalArrivalTime = new AtomicLong(now);
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(burstMillis);
+        this.warmUpNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(warmUpMillis, 0));
+        this.coldFactor = Math.max(coldFactor, 1);
+        this.warmUpStartNanos = now;
+        this.intervalNanos = toIntervalNanos(permitsPerSecond);
+    }
+
+    private static double toIntervalNanos(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double interval = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        return interval < 1 ? 0 : interval;
+    }
+
+    public double getPermitsPerSecond() {
+        double interval = intervalNanos;
+        if (interval == Double.POSITIVE_INFINITY) {
+            return 0;
+        }
+        return interval == 0 ? Double.MAX_VALUE : TimeUnit.SECONDS.toNanos(1) / interval;
+    }
+
+    public void setPermitsPerSecond(double permitsPerSecond) {
+        double interval = toIntervalNanos(permitsPerSecond);
+        if (interval != intervalNanos) {
+            this.intervalNanos = interval;
+            this.warmUpStartNanos = System.nanoTime();
+        }
+    }
+
+    private double currentInterval(long now, long tat) {
+        double interval = intervalNanos;
+        if (warmUpNanos > 0 && interval != Double.POSITIVE_INFINITY) {
+            if (now - tat > warmUpNanos) {
+                // 空闲超过预热时长，重新预热
+                warmUpStartNanos = now;
+            }
+            long elapsed = now - warmUpStartNanos;
+            if (elapsed < warmUpNanos) {
+                interval *= coldFactor - (coldFactor - 1) * (double) elapsed / warmUpNanos;
+            }
+        }
+        return interval;
+    }
+
+    /**
+     * 返回获取后的理论到达时间，超过容量时返回 now - 1 表示拒绝
+     */
+    private long nextArrivalTime(long now, long tat, int permits) {
+        double interval = currentInterval(now, tat);
+        if (interval == Double.POSITIVE_INFINITY) {
+            return now - 1;
+        }
+        long cost = (long) (interval * permits);
+        long newTat = (tat - now > 0 ? tat : now) + cost;
+        // 单次请求超过容量时，空闲状态下仍允许通过
+        if (newTat - now > Math.max(burstNanos, cost)) {
+            return now - 1;
+        }
+        return newTat;
+    }
+
+    public boolean canAcquire(int permits) {
+        long now = System.nanoTime();
+        return nextArrivalTime(now, theoreticalArrivalTime.get(), permits) - now >= 0;
+    }
+
+    public boolean tryAcquire(int permits) {
+        if (intervalNanos == 0) {
+            return true;
+        }
+        for (; ; ) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrivalTime.get();
+            long newTat = nextArrivalTime(now, tat, permits);
+            if (newTat - now < 0) {
+                return false;
+            }
+            if (newTat == tat || theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 归还已获取但未使用的令牌
+     */
+    public void release(int permits) {
+        double interval = intervalNanos;
+        if (interval == 0 || interval == Double.POSITIVE_INFINITY) {
+            return;
+        }
+        for (; ; ) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrivalTime.get();
+            long newTat = tat - (long) (interval * permits);
+            if (newTat - now < 0) {
+                newTat = now;
+            }
+            if (newTat == tat || theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return;
+            }
+        }
+    }
+}
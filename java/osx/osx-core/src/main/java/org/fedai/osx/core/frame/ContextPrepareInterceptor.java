@@ -46,6 +46,14 @@ public class ContextPrepareInterceptor implements ServerInterceptor, ClientInter
     public static final Metadata.Key<String> METAKEY_QUEUE_TYPE = Metadata.Key.of(CONTEXTKEY_QUEUE_TYPE.toString(), Metadata.ASCII_STRING_MARSHALLER);
     public static Context.Key<String> CONTEXTKEY_MSG_FLAG = Context.key(PtpHttpHeader.MessageFlag);
     public static final Metadata.Key<String> METAKEY_MSG_FLAG = Metadata.Key.of(CONTEXTKEY_MSG_FLAG.toString(), Metadata.ASCII_STRING_MARSHALLER);
+    public static Context.Key<String> CONTEXTKEY_PARENT_SPAN_ID = Context.key(PtpHttpHeader.ParentSpanId);
+    public static final Metadata.Key<String> METAKEY_PARENT_SPAN_ID = Metadata.Key.of(CONTEXTKEY_PARENT_SPAN_ID.toString(), Metadata.ASCII_STRING_MARSHALLER);
+    public static Context.Key<String> CONTEXTKEY_SAMPLED = Context.key(PtpHttpHeader.Sampled);
+    public static final Metadata.Key<String> METAKEY_SAMPLED = Metadata.Key.of(CONTEXTKEY_SAMPLED.toString(), Metadata.ASCII_STRING_MARSHALLER);
+    /**
+     * 透传转发时由调用方自行携带上游的请求头，不再根据线程上下文生成
+     */
+    public static final CallOptions.Key<Boolean> CALLOPTION_RAW_HEADERS = CallOptions.Key.createWithDefault("osx-raw-headers", false);
     Logger logger = LoggerFactory.getLogger(ContextPrepareInterceptor.class);
 
     public static <T> boolean required(T... inputs) {
@@ -115,7 +123,9 @@ public class ContextPrepareInterceptor implements ServerInterceptor, ClientInter
                 .withValue(CONTEXTKEY_SESSION_ID, metadata.get(METAKEY_SESSION_ID))
                 .withValue(CONTEXTKEY_URI, metadata.get(METAKEY_URI))
                 .withValue(CONTEXTKEY_QUEUE_TYPE, metadata.get(METAKEY_QUEUE_TYPE))
-                .withValue(CONTEXTKEY_MSG_FLAG, metadata.get(METAKEY_MSG_FLAG));
+                .withValue(CONTEXTKEY_MSG_FLAG, metadata.get(METAKEY_MSG_FLAG))
+                .withValue(CONTEXTKEY_PARENT_SPAN_ID, metadata.get(METAKEY_PARENT_SPAN_ID))
+                .withValue(CONTEXTKEY_SAMPLED, metadata.get(METAKEY_SAMPLED));
 
 
         return Contexts.interceptCall(context, call, metadata, next);
@@ -123,6 +133,9 @@ public class ContextPrepareInterceptor implements ServerInterceptor, ClientInter
 
     @Override
     public <I, O> ClientCall<I, O> interceptCall(MethodDescriptor<I, O> descriptor, CallOptions options, Channel channel) {
+        if (options.getOption(CALLOPTION_RAW_HEADERS)) {
+            return channel.newCall(descriptor, options);
+        }
         Metadata metadata = new Metadata();
 //        OsxContext  fateContext =OsxContext.getContextFromThreadLocal();
         OsxContext osxContext = OsxContext.getContextFromThreadLocal();
@@ -139,6 +152,10 @@ public class ContextPrepareInterceptor implements ServerInterceptor, ClientInter
         setMetadata(metadata, METAKEY_URI, Optional.ofNullable(UrlUtil.buildUrl("grpcs://", "fedai.org", osxContext.getUri())).orElse(""));
         setMetadata(metadata, METAKEY_QUEUE_TYPE, Optional.ofNullable(osxContext.getQueueType()).orElse(""));
         setMetadata(metadata, METAKEY_MSG_FLAG, Optional.ofNullable(osxContext.getMessageFlag()).orElse(""));
+        if (osxContext.getSampled() != null) {
+            setMetadata(metadata, METAKEY_SAMPLED, osxContext.getSampled() ? "1" : "0");
+            setMetadata(metadata, METAKEY_PARENT_SPAN_ID, Optional.ofNullable(osxContext.getSpanId()).orElse(""));
+        }
 
         //logger.info("========client intercept======{}",metadata);
         return MetadataUtils.newAttachHeadersInterceptor(metadata).interceptCall(descriptor, options, channel);
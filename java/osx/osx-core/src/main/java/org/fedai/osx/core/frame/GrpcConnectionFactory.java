@@ -16,15 +16,16 @@
 
 package org.fedai.osx.core.frame;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.grpc.ConnectivityState;
 import io.grpc.ManagedChannel;
 import io.grpc.netty.shaded.io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.shaded.io.grpc.netty.NegotiationType;
 import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
-import io.grpc.netty.shaded.io.netty.handler.ssl.SslContextBuilder;
+import io.grpc.netty.shaded.io.netty.handler.ssl.SslContext;
 import io.grpc.netty.shaded.io.netty.handler.ssl.SslProvider;
 import org.apache.commons.lang3.StringUtils;
 import org.fedai.osx.core.config.GrpcChannelInfo;
@@ -40,124 +41,210 @@ import javax.net.ssl.TrustManagerFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.security.KeyStore;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
 
 import static org.fedai.osx.core.config.MetaInfo.*;
-import static org.fedai.osx.core.config.MetaInfo.PROPERTY_MAX_TRANSFER_QUEUE_SIZE;
 
 public class GrpcConnectionFactory {
 
     private static final Logger logger = LoggerFactory.getLogger(GrpcConnectionFactory.class);
-    static ConcurrentHashMap<String, ManagedChannel> managedChannelPool = new ConcurrentHashMap<>();
-    static LoadingCache<String, ReentrantLock> keyLockCache = CacheBuilder.newBuilder()
-            .expireAfterAccess(PROPERTY_MAX_QUEUE_LOCK_LIVE, TimeUnit.SECONDS)
-            .concurrencyLevel(4)
-            .maximumSize(PROPERTY_MAX_TRANSFER_QUEUE_SIZE)
-            .build(new CacheLoader<String, ReentrantLock>() {
-                @Override
-                public ReentrantLock load(String s) throws Exception {
-                    return new ReentrantLock();
+    private static final String SSL_SCOPE = "grpc";
+    /**
+     * 连接状态监听和关闭连接共用的线程
+     */
+    private static final ScheduledExecutorService MONITOR_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "grpc-channel-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static AtomicLong   historyCount = new AtomicLong(0);
+    private static final AtomicLong failureCount = new AtomicLong(0);
+    private static final AtomicLong evictedCount = new AtomicLong(0);
+
+    /**
+     * 按最近使用淘汰，超过 grpc.channel.pool.max.size 或空闲 grpc.channel.idle.evict.sec 秒的连接被移出并关闭
+     */
+    static Cache<String, ManagedChannel> managedChannelPool = CacheBuilder.newBuilder()
+            .maximumSize(PROPERTY_GRPC_CHANNEL_POOL_MAX_SIZE)
+            .expireAfterAccess(PROPERTY_GRPC_CHANNEL_IDLE_EVICT_SEC, TimeUnit.SECONDS)
+            .removalListener((RemovalListener<String, ManagedChannel>) notification -> {
+                if (notification.wasEvicted()) {
+                    evictedCount.incrementAndGet();
+                    logger.info("grpc channel {} evicted, cause {}", notification.getKey(), notification.getCause());
                 }
-            });
+                ManagedChannel channel = notification.getValue();
+                if (channel != null && !channel.isShutdown()) {
+                    MONITOR_EXECUTOR.execute(channel::shutdown);
+                }
+            })
+            .build();
 
-    private static AtomicLong   historyCount = new AtomicLong(0);
+    /**
+     * 各连接当前使用的SSL上下文版本，证书更换后据此关闭原来的连接
+     */
+    private static final ConcurrentHashMap<String, Long> sslGenerations = new ConcurrentHashMap<>();
 
-    private static  boolean checkChannel(ManagedChannel channel){
-        boolean shutdown = channel.isShutdown();
-        boolean terminated = channel.isTerminated();
-        ConnectivityState state = channel.getState(true);
-        if (shutdown || terminated || state == ConnectivityState.SHUTDOWN||state==ConnectivityState.TRANSIENT_FAILURE){
-            if(state==ConnectivityState.TRANSIENT_FAILURE){
-                Thread  thread=    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            channel.shutdown();
-                        }
-                    });
-                thread.start();
-            }
-            return false;
-        }
-        return  true;
+    static {
+        // 过期的连接在访问缓存时才会移出，定期清理一次，使长期不用的连接也能及时关闭
+        MONITOR_EXECUTOR.scheduleWithFixedDelay(() -> managedChannelPool.cleanUp(), 1, 1, TimeUnit.MINUTES);
     }
 
-    static {
-        // 创建守护线程
-        Thread daemonThread = new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(MetaInfo.PROPERTY_CHANNEL_POOL_INFO);
-                    int activeNum = 0;
-                    int total = managedChannelPool.size();
-                    // 遍历并删除元素
-                    Iterator<Map.Entry<String, ManagedChannel>> iterator = managedChannelPool.entrySet().iterator();
-                    while (iterator.hasNext()) {
-                        Map.Entry<String, ManagedChannel> entry = iterator.next();
-                        String key = entry.getKey();
-                        ReentrantLock  lock = keyLockCache.get(key);
-                        try {
-                            lock.lock();
-                            ManagedChannel channel = entry.getValue();
-                            if (!checkChannel(channel)) {
-                                iterator.remove();
-                            } else {
-                                activeNum++;
-                            }
-                        }finally {
-                            if(lock!=null){
-                                lock.unlock();
-                            }
-                        }
-                    }
-                    logger.info("grpc pool info：history {} current：{}, active:{}", historyCount.get(),total, activeNum);
-                } catch (Exception e) {
-                    logger.error("exception：", e);
-                }
-            }
-        });
-        daemonThread.setDaemon(true);
-        daemonThread.start();
+    /**
+     * 连接池中各连接的当前状态，只读取不触发重连
+     */
+    public static Map<String, String> getChannelStates() {
+        Map<String, String> states = new TreeMap<>();
+        managedChannelPool.asMap().forEach((key, channel) -> states.put(key, channel.getState(false).name()));
+        return states;
+    }
+
+    public static long getHistoryCount() {
+        return historyCount.get();
+    }
+
+    public static long getFailureCount() {
+        return failureCount.get();
     }
 
+    public static long getEvictedCount() {
+        return evictedCount.get();
+    }
 
     public static  ManagedChannel createManagedChannel(RouterInfo routerInfo) {
+        return createManagedChannel(routerInfo, true);
+    }
+
+    /**
+     * @param retryEnabled 为 false 时使用单独的不重试的连接，发送的消息不会被缓存用于重发，适合消息体用完即归还的透传调用
+     */
+    public static ManagedChannel createManagedChannel(RouterInfo routerInfo, boolean retryEnabled) {
         if (routerInfo == null) {
             throw new NoRouterInfoException("no router info");
         }
-        ReentrantLock  lock = null;
+        String routeKey = retryEnabled ? routerInfo.toKey() : routerInfo.toKey() + "-noretry";
+        long sslGeneration = sslGeneration(routerInfo);
+        // 证书重新加载后版本号变化，对应新的连接
+        String key = sslGeneration > 0 ? tlsKey(routeKey, switchSslGeneration(routeKey, sslGeneration)) : routeKey;
+        ManagedChannel channel = managedChannelPool.getIfPresent(key);
+        if (channel != null) {
+            if (!channel.isShutdown()) {
+                return channel;
+            }
+            managedChannelPool.asMap().remove(key, channel);
+        }
         try {
-            lock = keyLockCache.get(routerInfo.toKey());
-            lock.lock();
-            if (managedChannelPool.get(routerInfo.toKey()) != null) {
-                ManagedChannel targetChannel = managedChannelPool.get(routerInfo.toKey());
-                if (!checkChannel(targetChannel)) {
-                    ManagedChannel managedChannel = createManagedChannel(routerInfo, buildDefaultGrpcChannelInfo());
-                    if (managedChannel != null) {
-                        managedChannelPool.put(routerInfo.toKey(), managedChannel);
-                    }
-                }
-                return managedChannelPool.get(routerInfo.toKey());
-            } else {
-                ManagedChannel managedChannel = createManagedChannel(routerInfo, buildDefaultGrpcChannelInfo());
-                if (managedChannel != null) {
-                    managedChannelPool.put(routerInfo.toKey(), managedChannel);
+            return managedChannelPool.get(key, () -> {
+                GrpcChannelInfo channelInfo = buildDefaultGrpcChannelInfo();
+                channelInfo.setRetryEnabled(retryEnabled);
+                ManagedChannel managedChannel = createManagedChannel(routerInfo, channelInfo);
+                if (managedChannel == null) {
+                    throw new SysException("create grpc channel to " + key + " failed");
                 }
+                monitor(key, managedChannel, managedChannel.getState(false));
                 return managedChannel;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            logger.error("get grpc channel {} error : {}", key, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+        return  null;
+    }
+
+    private static String tlsKey(String key, long sslGeneration) {
+        return key + "#tls" + sslGeneration;
+    }
+
+    /**
+     * 记录连接使用的证书版本，版本升高时关闭旧版本的连接；返回应使用的版本，不低于已记录的版本
+     */
+    private static long switchSslGeneration(String key, long sslGeneration) {
+        for (; ; ) {
+            Long previous = sslGenerations.get(key);
+            if (previous != null && previous >= sslGeneration) {
+                return previous;
             }
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        } finally {
-            if(lock!=null){
-                lock.unlock();
+            boolean switched = previous == null ? sslGenerations.putIfAbsent(key, sslGeneration) == null
+                    : sslGenerations.replace(key, previous, sslGeneration);
+            if (switched) {
+                if (previous != null) {
+                    // 移出后由移除监听器调用 shutdown ，已发出的请求继续完成
+                    logger.info("ssl context of grpc channel {} reloaded, replace generation {} with {}", key, previous, sslGeneration);
+                    managedChannelPool.invalidate(tlsKey(key, previous));
+                }
+                return sslGeneration;
             }
         }
-        return  null;
+    }
+
+    /**
+     * 检查证书文件是否变化并返回当前SSL上下文的版本号，不使用SSL时返回0
+     */
+    private static long sslGeneration(RouterInfo routerInfo) {
+        if (!routerInfo.isUseSSL()) {
+            return 0;
+        }
+        try {
+            String[] files = sslFiles(routerInfo);
+            if (files == null) {
+                return 0;
+            }
+            loadSslContext(routerInfo);
+            return SslContextCache.getGeneration(SSL_SCOPE, files);
+        } catch (Exception e) {
+            // 首次加载失败，新建连接时会再次报错
+            logger.error("load ssl context of {} error : {}", routerInfo.toKey(), e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * SSL上下文依赖的证书文件，未配置完整时返回null
+     */
+    private static String[] sslFiles(RouterInfo routerInfo) {
+        if (routerInfo.isUseKeyStore()) {
+            return new String[]{routerInfo.getKeyStoreFilePath(), routerInfo.getTrustStoreFilePath()};
+        }
+        if (StringUtils.isNotBlank(routerInfo.getCertChainFile()) && StringUtils.isNotBlank(routerInfo.getPrivateKeyFile()) && StringUtils.isNotBlank(routerInfo.getCaFile())) {
+            return new String[]{routerInfo.getCertChainFile(), routerInfo.getPrivateKeyFile(), routerInfo.getCaFile()};
+        }
+        return null;
+    }
+
+    /**
+     * 同一组证书共用一个上下文，重连时可以复用缓存的会话
+     */
+    private static SslContext loadSslContext(RouterInfo routerInfo) throws Exception {
+        if (routerInfo.isUseKeyStore()) {
+            return SslContextCache.get(SSL_SCOPE, () -> buildKeyStoreSslContext(routerInfo), sslFiles(routerInfo));
+        }
+        return SslContextCache.get(SSL_SCOPE, () -> buildCertFileSslContext(routerInfo), sslFiles(routerInfo));
+    }
+
+    /**
+     * 监听连接状态。连接失败后由grpc按自身的指数退避在同一连接上重连，这里只计数，不重置退避也不新建连接；
+     * 连接关闭后移出连接池，下次使用时重新创建
+     */
+    private static void monitor(String key, ManagedChannel channel, ConnectivityState source) {
+        channel.notifyWhenStateChanged(source, () -> {
+            ConnectivityState state = channel.getState(false);
+            switch (state) {
+                case SHUTDOWN:
+                    managedChannelPool.asMap().remove(key, channel);
+                    return;
+                case TRANSIENT_FAILURE:
+                    failureCount.incrementAndGet();
+                    logger.warn("grpc channel {} is unavailable", key);
+                    break;
+                default:
+            }
+            monitor(key, channel, state);
+        });
     }
 
 
@@ -176,7 +263,7 @@ public class GrpcConnectionFactory {
     }
 
 
-    public static synchronized ManagedChannel createManagedChannel(RouterInfo routerInfo, GrpcChannelInfo channelInfo) {
+    public static ManagedChannel createManagedChannel(RouterInfo routerInfo, GrpcChannelInfo channelInfo) {
         try {
             if (channelInfo == null) {
                 throw new SysException("grpc channel info is null");
@@ -190,40 +277,26 @@ public class GrpcConnectionFactory {
                     .perRpcBufferLimit(channelInfo.getPerRpcBufferLimit())
                     .flowControlWindow(channelInfo.getFlowControlWindow())
                     .maxInboundMessageSize(channelInfo.getMaxInboundMessageSize())
-                    .enableRetry()
-                    .retryBufferSize(channelInfo.getRetryBufferSize())
-                    .intercept(ContextPrepareInterceptor.INTERCEPTOR)
-                    .maxRetryAttempts(channelInfo.getMaxRetryAttemps());
+                    .intercept(ContextPrepareInterceptor.INTERCEPTOR);
+            if (channelInfo.isRetryEnabled()) {
+                channelBuilder.enableRetry()
+                        .retryBufferSize(channelInfo.getRetryBufferSize())
+                        .maxRetryAttempts(channelInfo.getMaxRetryAttemps());
+            } else {
+                channelBuilder.disableRetry();
+            }
+            NettyTransport.configure(channelBuilder);
+            RouteCompression compression = RouteCompression.of(routerInfo);
+            if (compression != null) {
+                channelBuilder.compressorRegistry(compression.getCompressorRegistry())
+                        .intercept(compression.getClientInterceptor());
+            }
 
             if (routerInfo.isUseSSL()) {
                 if (routerInfo.isUseKeyStore()) {
-
-                    // Load the truststore file
-                    KeyStore trustStore = loadKeyStore(routerInfo.getTrustStoreFilePath(), routerInfo.getTrustStorePassword());
-                    // Create a TrustManagerFactory and initialize it with the truststore
-                    TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                    trustManagerFactory.init(trustStore);
-                    // Load the keystore file
-                    KeyStore keyStore = loadKeyStore(routerInfo.getKeyStoreFilePath(), routerInfo.getKeyStorePassword());
-                    // Create a keyManagerFactory and initialize it with the keystore
-                    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                    keyManagerFactory.init(keyStore, routerInfo.getKeyStorePassword().toCharArray());
-
-                    SslContextBuilder sslContextBuilder = GrpcSslContexts.forClient()
-                            .keyManager(keyManagerFactory)
-                            .trustManager(trustManagerFactory)
-                            .sessionTimeout(PROPERTY_GRPC_TLS_SESSION_TIMEOUT)
-                            .sessionCacheSize(PROPERTY_GRPC_TLS_SESSION_SIZE)
-                            .sslProvider(SslProvider.OPENSSL);
-                    channelBuilder.negotiationType(NegotiationType.TLS).sslContext(sslContextBuilder.build()).useTransportSecurity();
-
-                } else if (StringUtils.isNotBlank(routerInfo.getCertChainFile()) && StringUtils.isNotBlank(routerInfo.getPrivateKeyFile()) && StringUtils.isNotBlank(routerInfo.getCaFile())) {
-                    SslContextBuilder sslContextBuilder = GrpcSslContexts.forClient()
-                            .keyManager(new File(routerInfo.getCertChainFile()), new File(routerInfo.getPrivateKeyFile()))
-                            .trustManager(new File(routerInfo.getCaFile()))
-                            .sessionTimeout(PROPERTY_GRPC_TLS_SESSION_TIMEOUT)
-                            .sessionCacheSize(PROPERTY_GRPC_TLS_SESSION_SIZE);
-                    channelBuilder.negotiationType(NegotiationType.TLS).sslContext(sslContextBuilder.build()).useTransportSecurity().overrideAuthority(routerInfo.getHost());
+                    channelBuilder.negotiationType(NegotiationType.TLS).sslContext(loadSslContext(routerInfo)).useTransportSecurity();
+                } else if (sslFiles(routerInfo) != null) {
+                    channelBuilder.negotiationType(NegotiationType.TLS).sslContext(loadSslContext(routerInfo)).useTransportSecurity().overrideAuthority(routerInfo.getHost());
                 }
             } else {
                 channelBuilder.usePlaintext();
@@ -237,6 +310,36 @@ public class GrpcConnectionFactory {
         return null;
     }
 
+    private static SslContext buildKeyStoreSslContext(RouterInfo routerInfo) throws Exception {
+        // Load the truststore file
+        KeyStore trustStore = loadKeyStore(routerInfo.getTrustStoreFilePath(), routerInfo.getTrustStorePassword());
+        // Create a TrustManagerFactory and initialize it with the truststore
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+        // Load the keystore file
+        KeyStore keyStore = loadKeyStore(routerInfo.getKeyStoreFilePath(), routerInfo.getKeyStorePassword());
+        // Create a keyManagerFactory and initialize it with the keystore
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, routerInfo.getKeyStorePassword().toCharArray());
+
+        return GrpcSslContexts.forClient()
+                .keyManager(keyManagerFactory)
+                .trustManager(trustManagerFactory)
+                .sessionTimeout(PROPERTY_GRPC_TLS_SESSION_TIMEOUT)
+                .sessionCacheSize(PROPERTY_GRPC_TLS_SESSION_SIZE)
+                .sslProvider(SslProvider.OPENSSL)
+                .build();
+    }
+
+    private static SslContext buildCertFileSslContext(RouterInfo routerInfo) throws Exception {
+        return GrpcSslContexts.forClient()
+                .keyManager(new File(routerInfo.getCertChainFile()), new File(routerInfo.getPrivateKeyFile()))
+                .trustManager(new File(routerInfo.getCaFile()))
+                .sessionTimeout(PROPERTY_GRPC_TLS_SESSION_TIMEOUT)
+                .sessionCacheSize(PROPERTY_GRPC_TLS_SESSION_SIZE)
+                .build();
+    }
+
     private static KeyStore loadKeyStore(String keyStorePath, String keyStorePassword) throws Exception {
         try (FileInputStream fis = new FileInputStream(keyStorePath)) {
             KeyStore keyStore = KeyStore.getInstance("JKS");
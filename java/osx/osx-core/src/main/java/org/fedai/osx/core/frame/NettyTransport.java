@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.frame;
+
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.buffer.ByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.buffer.PooledByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.buffer.UnpooledByteBufAllocator;
+import io.grpc.netty.shaded.io.netty.channel.Channel;
+import io.grpc.netty.shaded.io.netty.channel.ChannelOption;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.WriteBufferWaterMark;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollChannelOption;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.core.config.MetaInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+
+/**
+ * grpc 服务端和客户端共用的 netty 传输配置。所有端口共用一组 boss/worker 线程，所有到其他方的连接共用 worker 线程，
+ * 避免每个端口、每个连接池各自创建一组事件循环线程；linux 下可用时使用 epoll ，
+ * 并可以通过 SO_REUSEPORT 在同一端口上开启多个接收连接的线程
+ */
+public class NettyTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(NettyTransport.class);
+    private static volatile EventLoopGroup bossGroup;
+    private static volatile EventLoopGroup workerGroup;
+
+    public static boolean useEpoll() {
+        return MetaInfo.PROPERTY_NETTY_NATIVE_EPOLL_ENABLED && Epoll.isAvailable();
+    }
+
+    public static EventLoopGroup getBossGroup() {
+        if (bossGroup == null) {
+            synchronized (NettyTransport.class) {
+                if (bossGroup == null) {
+                    bossGroup = newGroup(Math.max(MetaInfo.PROPERTY_NETTY_BOSS_THREADS, acceptThreads()), "grpc-boss");
+                }
+            }
+        }
+        return bossGroup;
+    }
+
+    public static EventLoopGroup getWorkerGroup() {
+        if (workerGroup == null) {
+            synchronized (NettyTransport.class) {
+                if (workerGroup == null) {
+                    // 0 表示使用 netty 默认的线程数，即cpu核数的两倍
+                    workerGroup = newGroup(MetaInfo.PROPERTY_NETTY_WORKER_THREADS, "grpc-worker");
+                    logger.info("netty transport use {}", useEpoll() ? "epoll" : "nio");
+                }
+            }
+        }
+        return workerGroup;
+    }
+
+    /**
+     * 配置服务端使用共享的事件循环。开启多个接收线程时，同一地址会重复监听多次，由内核在各个监听之间分配新连接
+     */
+    public static void configure(NettyServerBuilder builder, SocketAddress address) {
+        builder.bossEventLoopGroup(getBossGroup())
+                .workerEventLoopGroup(getWorkerGroup())
+                .channelType(serverChannelType());
+        int acceptThreads = acceptThreads();
+        if (acceptThreads > 1) {
+            builder.withOption(EpollChannelOption.SO_REUSEPORT, true);
+            for (int i = 1; i < acceptThreads; i++) {
+                builder.addListenAddress(address);
+            }
+        }
+        WriteBufferWaterMark waterMark = writeBufferWaterMark();
+        if (waterMark != null) {
+            builder.withChildOption(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        }
+        ByteBufAllocator allocator = allocator();
+        if (allocator != null) {
+            builder.withOption(ChannelOption.ALLOCATOR, allocator);
+            builder.withChildOption(ChannelOption.ALLOCATOR, allocator);
+        }
+    }
+
+    /**
+     * 配置客户端连接使用共享的 worker 事件循环
+     */
+    public static void configure(NettyChannelBuilder builder) {
+        builder.eventLoopGroup(getWorkerGroup())
+                .channelType(channelType());
+        WriteBufferWaterMark waterMark = writeBufferWaterMark();
+        if (waterMark != null) {
+            builder.withOption(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        }
+        ByteBufAllocator allocator = allocator();
+        if (allocator != null) {
+            builder.withOption(ChannelOption.ALLOCATOR, allocator);
+        }
+    }
+
+    private static EventLoopGroup newGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name, true);
+        return useEpoll() ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    private static Class<? extends ServerChannel> serverChannelType() {
+        return useEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    private static Class<? extends Channel> channelType() {
+        return useEpoll() ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * SO_REUSEPORT 只有 epoll 支持，nio 下始终只有一个接收线程
+     */
+    private static int acceptThreads() {
+        return useEpoll() ? Math.max(MetaInfo.PROPERTY_NETTY_ACCEPT_THREADS, 1) : 1;
+    }
+
+    private static WriteBufferWaterMark writeBufferWaterMark() {
+        int low = MetaInfo.PROPERTY_NETTY_WRITE_BUFFER_LOW_WATERMARK;
+        int high = MetaInfo.PROPERTY_NETTY_WRITE_BUFFER_HIGH_WATERMARK;
+        if (low <= 0 || high <= 0) {
+            return null;
+        }
+        return new WriteBufferWaterMark(Math.min(low, high), high);
+    }
+
+    /**
+     * 未配置时由 grpc 决定，默认使用池化的分配器
+     */
+    private static ByteBufAllocator allocator() {
+        String type = MetaInfo.PROPERTY_NETTY_ALLOCATOR_TYPE;
+        if (StringUtils.isBlank(type)) {
+            return null;
+        }
+        switch (type.trim().toLowerCase()) {
+            case "pooled":
+                return PooledByteBufAllocator.DEFAULT;
+            case "unpooled":
+                return UnpooledByteBufAllocator.DEFAULT;
+            default:
+                logger.warn("unknown netty.allocator.type {}, use the default allocator", type);
+                return null;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.frame;
+
+import com.google.common.io.CountingOutputStream;
+import com.google.protobuf.MessageLite;
+import io.grpc.*;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.metric.MetricsRegistry;
+import org.fedai.osx.core.router.RouterInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 按路由配置的消息压缩。路由表中 compression 为 gzip 的路由，grpc 和 http 请求中超过 compression.min.size 的消息体压缩后发送；
+ * grpc 使用标准的 grpc-encoding ，对端无需升级即可解压；http 对端不一定能解压请求体，
+ * 只有对端在响应中声明 Accept-Encoding: gzip （RFC 7694）后才压缩请求体。最近的消息压缩后没有明显变小时暂停该路由的压缩，
+ * 经过 compression.probe.interval 毫秒后再重新尝试
+ */
+public class RouteCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String NONE = "none";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    /**
+     * 每压缩这么多条消息评估一次压缩率
+     */
+    private static final int SAMPLE_MESSAGES = 16;
+    private static final Metadata.Key<String> GRPC_ENCODING = Metadata.Key.of("grpc-encoding", Metadata.ASCII_STRING_MARSHALLER);
+    private static final Logger logger = LoggerFactory.getLogger(RouteCompression.class);
+    private static final ConcurrentHashMap<String, RouteCompression> ROUTES = new ConcurrentHashMap<>();
+    /**
+     * grpc 服务端的响应，请求方压缩了请求时响应也压缩
+     */
+    public static final RouteCompression RESPONSE = new RouteCompression("response");
+    public static final ServerInterceptor SERVER_INTERCEPTOR = new ServerInterceptor() {
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            if (!GZIP.equals(headers.get(GRPC_ENCODING))) {
+                return next.startCall(call, headers);
+            }
+            call.setCompression(GZIP);
+            return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+                @Override
+                public void sendMessage(RespT message) {
+                    setMessageCompression(RESPONSE.shouldCompress(sizeOf(message)));
+                    super.sendMessage(message);
+                }
+            }, headers);
+        }
+    };
+
+    private final String route;
+    private final CompressorRegistry compressorRegistry = CompressorRegistry.newEmptyInstance();
+    private final ClientInterceptor clientInterceptor = new ClientInterceptor() {
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions.withCompression(GZIP))) {
+                @Override
+                public void sendMessage(ReqT message) {
+                    setMessageCompression(shouldCompress(sizeOf(message)));
+                    super.sendMessage(message);
+                }
+            };
+        }
+    };
+    private long sampleRawBytes;
+    private long sampleWireBytes;
+    private int sampleMessages;
+    private volatile long disabledUntil;
+    /**
+     * http 对端最近一次响应是否声明可以解压 gzip 请求体
+     */
+    private volatile boolean httpPeerAcceptsGzip;
+
+    private RouteCompression(String route) {
+        this.route = route;
+        compressorRegistry.register(Codec.Identity.NONE);
+        compressorRegistry.register(new LevelGzipCodec());
+    }
+
+    public static boolean isSupported(String compression) {
+        return GZIP.equalsIgnoreCase(compression) || NONE.equalsIgnoreCase(compression);
+    }
+
+    /**
+     * @return 路由没有开启压缩时返回 null
+     */
+    public static RouteCompression of(RouterInfo routerInfo) {
+        if (routerInfo == null || !GZIP.equalsIgnoreCase(routerInfo.getCompression())) {
+            return null;
+        }
+        RouteCompression compression = ROUTES.get(routerInfo.toKey());
+        return compression != null ? compression : ROUTES.computeIfAbsent(routerInfo.toKey(), k -> new RouteCompression(routerInfo.toString()));
+    }
+
+    /**
+     * 包含本路由 gzip 编码的注册表，压缩时记录压缩率
+     */
+    public CompressorRegistry getCompressorRegistry() {
+        return compressorRegistry;
+    }
+
+    /**
+     * 为调用声明 gzip 编码，并逐条决定消息是否压缩
+     */
+    public ClientInterceptor getClientInterceptor() {
+        return clientInterceptor;
+    }
+
+    /**
+     * @param size 消息的字节数，未知时为 -1
+     */
+    public boolean shouldCompress(long size) {
+        if (disabledUntil != 0 && System.currentTimeMillis() < disabledUntil) {
+            return false;
+        }
+        return size < 0 || size >= MetaInfo.PROPERTY_COMPRESSION_MIN_SIZE;
+    }
+
+    /**
+     * 根据 http 响应头记录对端是否接受 gzip 请求体，对端关闭解压或回退到旧版本后随下一次响应恢复为不压缩
+     */
+    public static void onHttpResponse(RouterInfo routerInfo, Map<String, String> headers) {
+        RouteCompression compression = of(routerInfo);
+        if (compression == null) {
+            return;
+        }
+        boolean accepts = false;
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (ACCEPT_ENCODING.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null
+                        && entry.getValue().toLowerCase().contains(GZIP)) {
+                    accepts = true;
+                    break;
+                }
+            }
+        }
+        if (accepts != compression.httpPeerAcceptsGzip) {
+            compression.httpPeerAcceptsGzip = accepts;
+            logger.info("http peer {} {} gzip request body", compression.route, accepts ? "accepts" : "does not accept");
+        }
+    }
+
+    /**
+     * http 请求体是否压缩，对端未声明接受 gzip 时不压缩
+     */
+    public boolean shouldCompressHttp(long size) {
+        return httpPeerAcceptsGzip && shouldCompress(size);
+    }
+
+    /**
+     * http 请求体使用，压缩后没有变小时返回 null
+     */
+    public byte[] compress(byte[] data) {
+        long begin = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(data.length / 2, 64));
+        try (OutputStream gzip = newGzipStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            logger.error("compress http body error", e);
+            return null;
+        }
+        record(data.length, out.size(), System.nanoTime() - begin);
+        return out.size() < data.length ? out.toByteArray() : null;
+    }
+
+    private synchronized void record(long rawBytes, long wireBytes, long costNanos) {
+        MetricsRegistry.recordCompression(route, rawBytes, wireBytes, costNanos);
+        sampleRawBytes += rawBytes;
+        sampleWireBytes += wireBytes;
+        if (++sampleMessages < SAMPLE_MESSAGES) {
+            return;
+        }
+        if (sampleWireBytes * 100 > sampleRawBytes * MetaInfo.PROPERTY_COMPRESSION_DISABLE_RATIO) {
+            disabledUntil = System.currentTimeMillis() + MetaInfo.PROPERTY_COMPRESSION_PROBE_INTERVAL;
+            logger.info("compression of {} is paused, compressed {} of {} bytes", route, sampleWireBytes, sampleRawBytes);
+        } else {
+            disabledUntil = 0;
+        }
+        sampleRawBytes = 0;
+        sampleWireBytes = 0;
+        sampleMessages = 0;
+    }
+
+    static long sizeOf(Object message) {
+        if (message instanceof MessageLite) {
+            return ((MessageLite) message).getSerializedSize();
+        }
+        if (message instanceof InputStream && message instanceof KnownLength) {
+            try {
+                return ((InputStream) message).available();
+            } catch (IOException ignore) {
+            }
+        }
+        return -1;
+    }
+
+    private static GZIPOutputStream newGzipStream(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(Math.min(MetaInfo.PROPERTY_COMPRESSION_GZIP_LEVEL, 9));
+            }
+        };
+    }
+
+    /**
+     * 编码名仍为 gzip ，只调整压缩级别，并统计压缩前后的字节数和耗时
+     */
+    private class LevelGzipCodec implements Codec {
+
+        @Override
+        public String getMessageEncoding() {
+            return GZIP;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream os) throws IOException {
+            return new MeteredStream(os);
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) throws IOException {
+            return new GZIPInputStream(is);
+        }
+    }
+
+    private class MeteredStream extends OutputStream {
+
+        final CountingOutputStream wire;
+        final GZIPOutputStream gzip;
+        long rawBytes;
+        long costNanos;
+
+        MeteredStream(OutputStream out) throws IOException {
+            long begin = System.nanoTime();
+            this.wire = new CountingOutputStream(out);
+            this.gzip = newGzipStream(wire);
+            this.costNanos = System.nanoTime() - begin;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long begin = System.nanoTime();
+            gzip.write(b);
+            rawBytes++;
+            costNanos += System.nanoTime() - begin;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long begin = System.nanoTime();
+            gzip.write(b, off, len);
+            rawBytes += len;
+            costNanos += System.nanoTime() - begin;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            gzip.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            long begin = System.nanoTime();
+            gzip.close();
+            costNanos += System.nanoTime() - begin;
+            record(rawBytes, wire.getCount(), costNanos);
+        }
+    }
+}
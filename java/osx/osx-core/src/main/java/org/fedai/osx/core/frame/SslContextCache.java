@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.frame;
+
+import org.apache.commons.lang3.StringUtils;
+import org.fedai.osx.core.config.MetaInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按证书文件缓存SSL上下文。使用同一组证书的连接共用一个上下文，连接重建时可以复用上下文中缓存的会话，不必重新完整握手；
+ * 每隔 tls.cert.check.interval 毫秒检查一次证书文件，修改时间或大小变化时重新加载并递增版本号，
+ * 连接池按版本号判断上下文是否已更换，更换后新建连接，原来的连接处理完已发出的请求后关闭
+ */
+public class SslContextCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SslContextCache.class);
+    private static final ConcurrentHashMap<String, Holder> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param scope  上下文的用途，例如 grpc 、https ，不同用途的上下文类型不同
+     * @param loader 从证书文件创建上下文
+     * @param files  上下文依赖的证书文件，为空的路径忽略
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String scope, Loader<T> loader, String... files) throws Exception {
+        String key = key(scope, files);
+        Holder holder = cache.computeIfAbsent(key, k -> new Holder());
+        Object value = holder.value;
+        if (value != null && System.currentTimeMillis() - holder.checkedAt < MetaInfo.PROPERTY_TLS_CERT_CHECK_INTERVAL) {
+            return (T) value;
+        }
+        synchronized (holder) {
+            long now = System.currentTimeMillis();
+            if (holder.value != null && now - holder.checkedAt < MetaInfo.PROPERTY_TLS_CERT_CHECK_INTERVAL) {
+                return (T) holder.value;
+            }
+            String fingerprint = fingerprint(files);
+            if (holder.value == null) {
+                holder.value = loader.load();
+                holder.fingerprint = fingerprint;
+                holder.generation++;
+            } else if (!fingerprint.equals(holder.fingerprint)) {
+                try {
+                    holder.value = loader.load();
+                    holder.fingerprint = fingerprint;
+                    holder.generation++;
+                    logger.info("certificate files {} changed, ssl context reloaded", key);
+                } catch (Exception e) {
+                    // 证书可能正在替换中，继续使用原来的上下文，下次检查时重试
+                    logger.error("reload ssl context {} error, keep the previous one", key, e);
+                }
+            }
+            holder.checkedAt = now;
+            return (T) holder.value;
+        }
+    }
+
+    /**
+     * 上下文的版本号，每次加载成功后加一，未加载过时为0。不检查证书文件，需要在 get 之后调用
+     */
+    public static long getGeneration(String scope, String... files) {
+        Holder holder = cache.get(key(scope, files));
+        return holder != null ? holder.generation : 0;
+    }
+
+    private static String key(String scope, String... files) {
+        return scope + "|" + StringUtils.join(files, "|");
+    }
+
+    private static String fingerprint(String... files) {
+        StringBuilder sb = new StringBuilder();
+        for (String path : files) {
+            if (StringUtils.isNotBlank(path)) {
+                File file = new File(path);
+                sb.append(file.lastModified()).append(':').append(file.length()).append('|');
+            }
+        }
+        return sb.toString();
+    }
+
+    public interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    private static class Holder {
+        volatile Object value;
+        volatile long checkedAt;
+        volatile long generation;
+        String fingerprint;
+    }
+}
@@ -17,7 +17,12 @@
 package org.fedai.osx.core.jvm;
 
 import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 类描述：JVM 线程信息工具类
@@ -95,6 +100,132 @@ public class JVMThreadUtils {
         }
     }
 
+    /**
+     * 采样各线程在 intervalMs 内的CPU时间和分配字节数，按CPU使用率从高到低返回前 top 个。
+     * 需要 com.sun.management.ThreadMXBean ，不支持时返回空列表
+     *
+     * @param intervalMs 采样间隔（毫秒）
+     * @param top        返回的线程数
+     * @return
+     */
+    static public List<ThreadUsage> sampleThreadUsage(long intervalMs, int top) throws InterruptedException {
+        ThreadUsageSample sample = beginThreadUsageSample();
+        Thread.sleep(intervalMs);
+        return sample.finish(top);
+    }
 
-}
+    /**
+     * 记录各线程当前的CPU时间和分配字节数，间隔一段时间后调用 {@link ThreadUsageSample#finish(int)} 得到这段时间内的占用，
+     * 调用方不需要阻塞等待采样间隔
+     */
+    static public ThreadUsageSample beginThreadUsageSample() {
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean) || !threadMXBean.isThreadCpuTimeSupported()) {
+            return new ThreadUsageSample(null, false);
+        }
+        com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!sunThreadMXBean.isThreadCpuTimeEnabled()) {
+            sunThreadMXBean.setThreadCpuTimeEnabled(true);
+        }
+        boolean allocatedSupported = sunThreadMXBean.isThreadAllocatedMemorySupported();
+        if (allocatedSupported && !sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+            sunThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return new ThreadUsageSample(sunThreadMXBean, allocatedSupported);
+    }
+
+    /**
+     * 一次线程占用采样的起点
+     */
+    public static class ThreadUsageSample {
+        private final com.sun.management.ThreadMXBean sunThreadMXBean;
+        private final boolean allocatedSupported;
+        private final long[] ids;
+        private final long[] beginCpu;
+        private final long[] beginAllocated;
+        private final long beginNanos;
+
+        ThreadUsageSample(com.sun.management.ThreadMXBean sunThreadMXBean, boolean allocatedSupported) {
+            this.sunThreadMXBean = sunThreadMXBean;
+            this.allocatedSupported = allocatedSupported;
+            this.ids = sunThreadMXBean != null ? sunThreadMXBean.getAllThreadIds() : new long[0];
+            this.beginCpu = sunThreadMXBean != null ? sunThreadMXBean.getThreadCpuTime(ids) : new long[0];
+            this.beginAllocated = allocatedSupported ? sunThreadMXBean.getThreadAllocatedBytes(ids) : new long[ids.length];
+            this.beginNanos = System.nanoTime();
+        }
+
+        /**
+         * @param top 返回的线程数
+         * @return 从采样起点到现在CPU使用率最高的 top 个线程
+         */
+        public List<ThreadUsage> finish(int top) {
+            List<ThreadUsage> result = new ArrayList<>();
+            if (sunThreadMXBean == null) {
+                return result;
+            }
+            long[] endCpu = sunThreadMXBean.getThreadCpuTime(ids);
+            long[] endAllocated = allocatedSupported ? sunThreadMXBean.getThreadAllocatedBytes(ids) : new long[ids.length];
+            long elapsedNanos = Math.max(1, System.nanoTime() - beginNanos);
 
+            Map<Long, ThreadInfo> infoMap = new HashMap<>();
+            for (ThreadInfo threadInfo : sunThreadMXBean.getThreadInfo(ids)) {
+                if (threadInfo != null) {
+                    infoMap.put(threadInfo.getThreadId(), threadInfo);
+                }
+            }
+            for (int i = 0; i < ids.length; i++) {
+                ThreadInfo threadInfo = infoMap.get(ids[i]);
+                // 采样期间结束的线程返回-1
+                if (threadInfo == null || beginCpu[i] < 0 || endCpu[i] < 0) {
+                    continue;
+                }
+                ThreadUsage usage = new ThreadUsage();
+                usage.threadId = ids[i];
+                usage.threadName = threadInfo.getThreadName();
+                usage.state = threadInfo.getThreadState().name();
+                usage.cpuPercent = (endCpu[i] - beginCpu[i]) * 100.0 / elapsedNanos;
+                usage.allocatedBytesPerSecond = allocatedSupported && beginAllocated[i] >= 0 && endAllocated[i] >= 0
+                        ? (long) ((endAllocated[i] - beginAllocated[i]) * 1e9 / elapsedNanos) : -1;
+                result.add(usage);
+            }
+            result.sort((a, b) -> Double.compare(b.cpuPercent, a.cpuPercent));
+            return result.size() > top ? new ArrayList<>(result.subList(0, top)) : result;
+        }
+    }
+
+    /**
+     * 单个线程在采样间隔内的资源占用
+     */
+    public static class ThreadUsage {
+        private long threadId;
+        private String threadName;
+        private String state;
+        /**
+         * 占用单个CPU核的百分比
+         */
+        private double cpuPercent;
+        /**
+         * 每秒分配的字节数，JVM不支持时为-1
+         */
+        private long allocatedBytesPerSecond;
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public double getCpuPercent() {
+            return cpuPercent;
+        }
+
+        public long getAllocatedBytesPerSecond() {
+            return allocatedBytesPerSecond;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.jvm;
+
+import com.google.common.collect.Sets;
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.exceptions.ParameterException;
+import org.fedai.osx.core.exceptions.SysException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 类描述：通过 DiagnosticCommand MBean 控制 JFR 录制，与 jcmd JFR.start/JFR.stop/JFR.check 等价，
+ * 不依赖 jdk.jfr 包，JDK 8u262 及以上均可使用
+ **/
+public class JfrRecorder {
+
+    static Logger logger = LoggerFactory.getLogger(JfrRecorder.class);
+    /**
+     * JDK 自带的事件配置，default 开销约1%，适合常开；profile 包含方法采样和锁竞争等更细的事件，开销约2%
+     */
+    public static final Set<String> PRESET_SETTINGS = Sets.newHashSet("default", "profile");
+    private static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+    private static final String[] SIGNATURE = new String[]{String[].class.getName()};
+    private static final Pattern NAME_PATTERN = Pattern.compile("^[A-Za-z0-9_\\-]{1,64}$");
+
+    /**
+     * 开始录制，录制结束（到达 durationSeconds 或调用 stop ）时写入 jfr.dir 下的 名称-时间.jfr 文件
+     *
+     * @param name            录制名称，之后用于停止
+     * @param settings        事件配置，见 PRESET_SETTINGS
+     * @param durationSeconds 录制时长（秒），小于等于0表示直到调用 stop
+     * @return 生成的文件路径
+     */
+    static public String start(String name, String settings, long durationSeconds) {
+        checkName(name);
+        if (!PRESET_SETTINGS.contains(settings)) {
+            throw new ParameterException("jfr settings must be one of " + PRESET_SETTINGS);
+        }
+        File dir = new File(MetaInfo.PROPERTY_JFR_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new SysException("create jfr dir " + dir.getAbsolutePath() + " failed");
+        }
+        String fileName = new File(dir, name + "-" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + ".jfr").getAbsolutePath();
+        List<String> args = new ArrayList<>();
+        args.add("name=" + name);
+        args.add("settings=" + settings);
+        args.add("filename=" + fileName);
+        if (durationSeconds > 0) {
+            args.add("duration=" + durationSeconds + "s");
+        }
+        String output = execute("jfrStart", args.toArray(new String[0]));
+        logger.info("jfr recording {} started, settings {}, file {}: {}", name, settings, fileName, output);
+        return fileName;
+    }
+
+    /**
+     * 停止录制并写入文件
+     */
+    static public String stop(String name) {
+        checkName(name);
+        String output = execute("jfrStop", new String[]{"name=" + name});
+        logger.info("jfr recording {} stopped: {}", name, output);
+        return output;
+    }
+
+    /**
+     * 查看当前所有录制
+     */
+    static public String check() {
+        return execute("jfrCheck", new String[0]);
+    }
+
+    private static void checkName(String name) {
+        if (name == null || !NAME_PATTERN.matcher(name).matches()) {
+            throw new ParameterException("invalid jfr recording name " + name);
+        }
+    }
+
+    private static String execute(String operation, String[] args) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Object result = server.invoke(new ObjectName(DIAGNOSTIC_COMMAND), operation, new Object[]{args}, SIGNATURE);
+            return result != null ? result.toString().trim() : "";
+        } catch (Exception e) {
+            logger.error("jfr {} error", operation, e);
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new SysException("jfr " + operation + " error: " + cause.getMessage());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.metric;
+
+import org.fedai.osx.core.flow.FlowCounter;
+import org.fedai.osx.core.frame.GrpcConnectionFactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 关键路径的计数：commit log 写入的消息数和字节数、 putMessageLock 的等待和持有时间、grpc连接池中各连接的状态，
+ * 由 /metrics 和诊断接口输出
+ */
+public class HotPathCounters {
+
+    private static final FlowCounter PUT_MESSAGE_COUNTER = new FlowCounter(Integer.MAX_VALUE);
+    private static final FlowCounter PUT_BYTES_COUNTER = new FlowCounter(Integer.MAX_VALUE);
+    private static final LongAdder PUT_MESSAGE_TOTAL = new LongAdder();
+    private static final LongAdder PUT_BYTES_TOTAL = new LongAdder();
+    private static final LatencyHistogram PUT_LOCK_WAIT = new LatencyHistogram();
+    private static final LatencyHistogram PUT_LOCK_HOLD = new LatencyHistogram();
+    /**
+     * 其他模块登记到快照中的内容，如broker的commit log回收状态
+     */
+    private static final Map<String, Supplier<Object>> SECTIONS = new ConcurrentSkipListMap<>();
+
+    private HotPathCounters() {
+    }
+
+    /**
+     * @param waitNanos 等待 putMessageLock 的时间
+     * @param holdNanos 持有 putMessageLock 的时间
+     */
+    public static void recordPutLock(long waitNanos, long holdNanos) {
+        PUT_LOCK_WAIT.recordNanos(waitNanos);
+        PUT_LOCK_HOLD.recordNanos(holdNanos);
+    }
+
+    public static void recordPutMessage(int bytes) {
+        PUT_MESSAGE_COUNTER.increment();
+        PUT_BYTES_COUNTER.add(bytes);
+        PUT_MESSAGE_TOTAL.increment();
+        PUT_BYTES_TOTAL.add(bytes);
+    }
+
+    static void collect(PrometheusTextWriter writer) {
+        writer.declare("osx_store_put_messages_total", "counter", "messages appended to commit log");
+        writer.sample("osx_store_put_messages_total", PUT_MESSAGE_TOTAL.sum());
+        writer.declare("osx_store_put_bytes_total", "counter", "bytes appended to commit log");
+        writer.sample("osx_store_put_bytes_total", PUT_BYTES_TOTAL.sum());
+        writer.declare("osx_store_put_lock_wait_seconds", "histogram", "time waiting for put message lock");
+        writer.histogram("osx_store_put_lock_wait_seconds", PUT_LOCK_WAIT);
+        writer.declare("osx_store_put_lock_hold_seconds", "histogram", "time holding put message lock");
+        writer.histogram("osx_store_put_lock_hold_seconds", PUT_LOCK_HOLD);
+        writer.declare("osx_grpc_channels", "gauge", "pooled grpc channels of each connectivity state");
+        countChannelStates().forEach((state, count) -> writer.sample("osx_grpc_channels", count, "state", state));
+        writer.declare("osx_grpc_channels_created_total", "counter", "grpc channels created");
+        writer.sample("osx_grpc_channels_created_total", GrpcConnectionFactory.getHistoryCount());
+        writer.declare("osx_grpc_channel_failures_total", "counter", "times pooled grpc channels entered TRANSIENT_FAILURE");
+        writer.sample("osx_grpc_channel_failures_total", GrpcConnectionFactory.getFailureCount());
+        writer.declare("osx_grpc_channels_evicted_total", "counter", "grpc channels closed for being idle or over the pool size");
+        writer.sample("osx_grpc_channels_evicted_total", GrpcConnectionFactory.getEvictedCount());
+    }
+
+    private static Map<String, Integer> countChannelStates() {
+        Map<String, Integer> counts = new HashMap<>();
+        GrpcConnectionFactory.getChannelStates().values().forEach(state -> counts.merge(state, 1, Integer::sum));
+        return counts;
+    }
+
+    /**
+     * 当前计数的快照，用于诊断接口
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> putMessage = new LinkedHashMap<>();
+        putMessage.put("messagesPerSecond", PUT_MESSAGE_COUNTER.getQps());
+        putMessage.put("bytesPerSecond", PUT_BYTES_COUNTER.getQps());
+        putMessage.put("messagesTotal", PUT_MESSAGE_TOTAL.sum());
+        putMessage.put("bytesTotal", PUT_BYTES_TOTAL.sum());
+        putMessage.put("lockWaitMicros", percentiles(PUT_LOCK_WAIT));
+        putMessage.put("lockHoldMicros", percentiles(PUT_LOCK_HOLD));
+
+        Map<String, Object> channels = new LinkedHashMap<>();
+        channels.put("historyCount", GrpcConnectionFactory.getHistoryCount());
+        channels.put("failureCount", GrpcConnectionFactory.getFailureCount());
+        channels.put("evictedCount", GrpcConnectionFactory.getEvictedCount());
+        channels.put("stateCount", countChannelStates());
+        channels.put("states", GrpcConnectionFactory.getChannelStates());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("putMessage", putMessage);
+        result.put("grpcChannels", channels);
+        SECTIONS.forEach((name, supplier) -> result.put(name, supplier.get()));
+        return result;
+    }
+
+    public static void registerSection(String name, Supplier<Object> supplier) {
+        SECTIONS.put(name, supplier);
+    }
+
+    private static Map<String, Object> percentiles(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        long count = histogram.getTotalCount();
+        result.put("count", count);
+        result.put("avg", count > 0 ? histogram.getSumMicros() / count : 0);
+        result.put("p50", histogram.getValueAtPercentile(50));
+        result.put("p99", histogram.getValueAtPercentile(99));
+        result.put("p999", histogram.getValueAtPercentile(99.9));
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.metric;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数线性分桶的耗时直方图，单位微秒。64微秒以下为一个桶，之后每个2的幂区间分为8个子桶，
+ * 按桶上界估算的分位值最多偏大12.5%，最大约67秒，超出的计入溢出桶。
+ * Prometheus 输出的 le 与这里的桶上界一一对应。记录只做一次原子自增，不加锁不分配对象
+ */
+public class LatencyHistogram {
+
+    static final int MIN_EXPONENT = 6;
+    static final int MAX_EXPONENT = 25;
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * 各桶的上界（不含），最后一个桶为溢出桶
+     */
+    static final long[] UPPER_BOUNDS;
+
+    static {
+        UPPER_BOUNDS = new long[1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKET_COUNT];
+        UPPER_BOUNDS[0] = 1L << MIN_EXPONENT;
+        int index = 1;
+        for (int exponent = MIN_EXPONENT; exponent <= MAX_EXPONENT; exponent++) {
+            long subBucketSize = 1L << (exponent - SUB_BUCKET_BITS);
+            for (int sub = 1; sub <= SUB_BUCKET_COUNT; sub++) {
+                UPPER_BOUNDS[index++] = (1L << exponent) + sub * subBucketSize;
+            }
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(UPPER_BOUNDS.length + 1);
+    private final LongAdder sumMicros = new LongAdder();
+
+    static int bucketIndex(long micros) {
+        if (micros < (1L << MIN_EXPONENT)) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return UPPER_BOUNDS.length;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKET_COUNT + sub;
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(bucketIndex(micros));
+        sumMicros.add(micros);
+    }
+
+    public static int getBucketCount() {
+        return UPPER_BOUNDS.length;
+    }
+
+    public static long getUpperBoundMicros(int index) {
+        return UPPER_BOUNDS[index];
+    }
+
+    /**
+     * 第 index 个桶的计数，index 等于 getBucketCount() 时为溢出桶
+     */
+    public long getCount(int index) {
+        return counts.get(index);
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getSumMicros() {
+        return sumMicros.sum();
+    }
+
+    /**
+     * 按桶上界估算分位值，percentile 取值 0-100
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = getTotalCount();
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < UPPER_BOUNDS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return UPPER_BOUNDS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.metric;
+
+import org.fedai.osx.core.jvm.JVMGCUtils;
+import org.fedai.osx.core.jvm.JVMMemoryUtils;
+import org.fedai.osx.core.jvm.JVMThreadUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 进程内指标登记，记录路径只查找已有的计数器并原子累加，按需在抓取时输出为 Prometheus 文本格式
+ */
+public final class MetricsRegistry {
+
+    static final String UNKNOWN = "unknown";
+    static Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+    /**
+     * service -> 耗时
+     */
+    private static final ConcurrentMap<String, LatencyHistogram> SERVICE_LATENCY = new ConcurrentHashMap<>();
+    /**
+     * service -> returnCode -> 请求数
+     */
+    private static final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> SERVICE_REQUESTS = new ConcurrentHashMap<>();
+    /**
+     * srcPartyId -> desPartyId -> protocol -> 耗时
+     */
+    private static final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>> ROUTE_LATENCY = new ConcurrentHashMap<>();
+    /**
+     * desPartyId -> address -> 建立连接的耗时，包括tcp、tls握手及http2设置交换
+     */
+    private static final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> CONNECT_LATENCY = new ConcurrentHashMap<>();
+    /**
+     * desPartyId -> address -> 建立连接失败次数
+     */
+    private static final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> CONNECT_FAILURES = new ConcurrentHashMap<>();
+    /**
+     * route -> 压缩前后的字节数及耗时
+     */
+    private static final ConcurrentMap<String, CompressionCounter> COMPRESSION = new ConcurrentHashMap<>();
+    private static final List<MetricsCollector> COLLECTORS = new CopyOnWriteArrayList<>();
+
+    private MetricsRegistry() {
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : UNKNOWN;
+    }
+
+    private static <K, V> V get(ConcurrentMap<K, V> map, K key, Function<K, V> creator) {
+        V value = map.get(key);
+        return value != null ? value : map.computeIfAbsent(key, creator);
+    }
+
+    public static void recordService(String serviceName, String returnCode, long costNanos) {
+        String service = nonNull(serviceName);
+        get(SERVICE_LATENCY, service, k -> new LatencyHistogram()).recordNanos(costNanos);
+        get(get(SERVICE_REQUESTS, service, k -> new ConcurrentHashMap<>()), nonNull(returnCode), k -> new LongAdder()).increment();
+    }
+
+    public static void recordRoute(String srcPartyId, String desPartyId, String protocol, long costNanos) {
+        get(get(get(ROUTE_LATENCY, nonNull(srcPartyId), k -> new ConcurrentHashMap<>()), nonNull(desPartyId), k -> new ConcurrentHashMap<>()),
+                nonNull(protocol), k -> new LatencyHistogram()).recordNanos(costNanos);
+    }
+
+    public static void recordConnect(String desPartyId, String address, boolean success, long costNanos) {
+        if (success) {
+            get(get(CONNECT_LATENCY, nonNull(desPartyId), k -> new ConcurrentHashMap<>()), nonNull(address), k -> new LatencyHistogram()).recordNanos(costNanos);
+        } else {
+            get(get(CONNECT_FAILURES, nonNull(desPartyId), k -> new ConcurrentHashMap<>()), nonNull(address), k -> new LongAdder()).increment();
+        }
+    }
+
+    public static void recordCompression(String route, long rawBytes, long wireBytes, long costNanos) {
+        CompressionCounter counter = get(COMPRESSION, nonNull(route), k -> new CompressionCounter());
+        counter.rawBytes.add(rawBytes);
+        counter.wireBytes.add(wireBytes);
+        counter.costNanos.add(costNanos);
+    }
+
+    public static LatencyHistogram getServiceLatency(String serviceName) {
+        return SERVICE_LATENCY.get(nonNull(serviceName));
+    }
+
+    public static void registerCollector(MetricsCollector collector) {
+        COLLECTORS.add(collector);
+    }
+
+    public static String scrape() {
+        PrometheusTextWriter writer = new PrometheusTextWriter();
+        writer.declare("osx_service_requests_total", "counter", "requests handled by each service");
+        SERVICE_REQUESTS.forEach((service, codes) -> codes.forEach((code, count) ->
+                writer.sample("osx_service_requests_total", count.sum(), "service", service, "code", code)));
+        writer.declare("osx_service_latency_seconds", "histogram", "service latency");
+        SERVICE_LATENCY.forEach((service, histogram) ->
+                writer.histogram("osx_service_latency_seconds", histogram, "service", service));
+        writer.declare("osx_route_latency_seconds", "histogram", "latency of requests forwarded to another party");
+        ROUTE_LATENCY.forEach((src, desMap) -> desMap.forEach((des, protocolMap) -> protocolMap.forEach((protocol, histogram) ->
+                writer.histogram("osx_route_latency_seconds", histogram, "src", src, "des", des, "protocol", protocol))));
+        writer.declare("osx_channel_connect_seconds", "histogram", "time to establish a connection to another party");
+        CONNECT_LATENCY.forEach((des, addressMap) -> addressMap.forEach((address, histogram) ->
+                writer.histogram("osx_channel_connect_seconds", histogram, "des", des, "address", address)));
+        writer.declare("osx_channel_connect_failures_total", "counter", "failed attempts to connect to another party");
+        CONNECT_FAILURES.forEach((des, addressMap) -> addressMap.forEach((address, count) ->
+                writer.sample("osx_channel_connect_failures_total", count.sum(), "des", des, "address", address)));
+        writer.declare("osx_compression_raw_bytes_total", "counter", "message bytes before compression");
+        COMPRESSION.forEach((route, counter) -> writer.sample("osx_compression_raw_bytes_total", counter.rawBytes.sum(), "route", route));
+        writer.declare("osx_compression_wire_bytes_total", "counter", "message bytes after compression");
+        COMPRESSION.forEach((route, counter) -> writer.sample("osx_compression_wire_bytes_total", counter.wireBytes.sum(), "route", route));
+        writer.declare("osx_compression_ratio", "gauge", "compressed size divided by original size");
+        COMPRESSION.forEach((route, counter) -> {
+            long raw = counter.rawBytes.sum();
+            writer.sample("osx_compression_ratio", raw > 0 ? (double) counter.wireBytes.sum() / raw : 1, "route", route);
+        });
+        writer.declare("osx_compression_seconds_total", "counter", "cpu time spent on compression");
+        COMPRESSION.forEach((route, counter) -> writer.sample("osx_compression_seconds_total", counter.costNanos.sum() / 1e9, "route", route));
+        collectJvm(writer);
+        HotPathCounters.collect(writer);
+        for (MetricsCollector collector : COLLECTORS) {
+            try {
+                collector.collect(writer);
+            } catch (Exception e) {
+                logger.error("collect metrics error", e);
+            }
+        }
+        return writer.toString();
+    }
+
+    private static void collectJvm(PrometheusTextWriter writer) {
+        writer.declare("osx_jvm_memory_used_bytes", "gauge", "used memory of each jvm memory area");
+        writeMemory(writer, "heap", JVMMemoryUtils.getHeapMemoryUsage());
+        writeMemory(writer, "nonheap", JVMMemoryUtils.getNonHeapMemoryUsage());
+        writeMemory(writer, "eden", JVMMemoryUtils.getEdenSpaceMemoryUsage());
+        writeMemory(writer, "survivor", JVMMemoryUtils.getSurvivorSpaceMemoryUsage());
+        writeMemory(writer, "old", JVMMemoryUtils.getOldGenMemoryUsage());
+        writer.declare("osx_jvm_gc_collections_total", "counter", "gc count");
+        writer.sample("osx_jvm_gc_collections_total", JVMGCUtils.getYoungGCCollectionCount(), "gc", "young");
+        writer.sample("osx_jvm_gc_collections_total", JVMGCUtils.getFullGCCollectionCount(), "gc", "full");
+        writer.declare("osx_jvm_gc_time_seconds_total", "counter", "gc time");
+        writer.sample("osx_jvm_gc_time_seconds_total", JVMGCUtils.getYoungGCCollectionTime() / 1000.0, "gc", "young");
+        writer.sample("osx_jvm_gc_time_seconds_total", JVMGCUtils.getFullGCCollectionTime() / 1000.0, "gc", "full");
+        writer.declare("osx_jvm_threads", "gauge", "live thread count");
+        writer.sample("osx_jvm_threads", JVMThreadUtils.getThreadCount());
+    }
+
+    private static void writeMemory(PrometheusTextWriter writer, String area, JVMMemoryUtils.JVMMemoryUsage usage) {
+        if (usage != null) {
+            writer.sample("osx_jvm_memory_used_bytes", usage.getUsed(), "area", area);
+        }
+    }
+
+    private static final class CompressionCounter {
+        final LongAdder rawBytes = new LongAdder();
+        final LongAdder wireBytes = new LongAdder();
+        final LongAdder costNanos = new LongAdder();
+    }
+}
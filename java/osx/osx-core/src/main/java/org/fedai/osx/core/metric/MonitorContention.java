@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.metric;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * synchronized 监视器的争用统计，用法：
+ * <pre>
+ * long monitorBegin = monitorContention.begin(this);
+ * synchronized (this) {
+ *     monitorContention.entered(monitorBegin);
+ *     ...
+ * }
+ * </pre>
+ * 当前线程已持有监视器（重入）时不计数，等待超过 CONTENDED_NANOS 视为一次争用
+ */
+public class MonitorContention {
+
+    static final long CONTENDED_NANOS = 1000;
+
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public long begin(Object monitor) {
+        return Thread.holdsLock(monitor) ? -1 : System.nanoTime();
+    }
+
+    public void entered(long beginNanos) {
+        if (beginNanos < 0) {
+            return;
+        }
+        long wait = System.nanoTime() - beginNanos;
+        entries.increment();
+        if (wait >= CONTENDED_NANOS) {
+            contended.increment();
+            waitNanos.add(wait);
+        }
+    }
+
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    public long getContended() {
+        return contended.sum();
+    }
+
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+}
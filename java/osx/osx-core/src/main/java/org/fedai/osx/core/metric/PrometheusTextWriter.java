@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.metric;
+
+/**
+ * Prometheus 文本格式（0.0.4）输出
+ */
+public class PrometheusTextWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder builder = new StringBuilder(4096);
+
+    public PrometheusTextWriter declare(String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ');
+        escape(help, false);
+        builder.append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * labels 为 name,value 交替排列
+     */
+    public PrometheusTextWriter sample(String name, double value, String... labels) {
+        builder.append(name);
+        if (labels.length > 0) {
+            builder.append('{');
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(labels[i]).append("=\"");
+                escape(labels[i + 1], true);
+                builder.append('"');
+            }
+            builder.append('}');
+        }
+        builder.append(' ');
+        if (Double.isNaN(value)) {
+            builder.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            builder.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == (long) value) {
+            builder.append((long) value);
+        } else {
+            builder.append(value);
+        }
+        builder.append('\n');
+        return this;
+    }
+
+    /**
+     * 输出累计分桶、_sum 与 _count ，单位秒
+     */
+    public PrometheusTextWriter histogram(String name, LatencyHistogram histogram, String... labels) {
+        String[] bucketLabels = new String[labels.length + 2];
+        System.arraycopy(labels, 0, bucketLabels, 0, labels.length);
+        bucketLabels[labels.length] = "le";
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.getBucketCount(); i++) {
+            cumulative += histogram.getCount(i);
+            bucketLabels[labels.length + 1] = Double.toString(LatencyHistogram.getUpperBoundMicros(i) / 1e6);
+            sample(name + "_bucket", cumulative, bucketLabels);
+        }
+        cumulative += histogram.getCount(LatencyHistogram.getBucketCount());
+        bucketLabels[labels.length + 1] = "+Inf";
+        sample(name + "_bucket", cumulative, bucketLabels);
+        sample(name + "_sum", histogram.getSumMicros() / 1e6, labels);
+        sample(name + "_count", cumulative, labels);
+        return this;
+    }
+
+    /**
+     * 标签值需要转义反斜杠、双引号和换行，HELP 文本只转义反斜杠和换行
+     */
+    private void escape(String value, boolean quote) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || (quote && c == '"')) {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return builder.toString();
+    }
+}
@@ -21,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.fedai.osx.core.context.Protocol;
 
 
@@ -55,6 +56,16 @@ public class RouterInfo {
     @JsonProperty("ip")
     private String host;
     private Integer port;
+    /**
+     * 转发到该地址的grpc调用超时时间（毫秒），入站请求没有携带截止时间时使用
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer timeout;
+    /**
+     * 发往该地址的消息压缩方式，none 或 gzip ，为空时不压缩
+     */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private String compression;
     @JsonInclude(value = JsonInclude.Include.CUSTOM,valueFilter = BooleanFilter.class)
     private boolean useSSL = false;
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
@@ -99,6 +110,9 @@ public class RouterInfo {
             if (useSSL){
                 sb.append("_").append("tls").append(md5TlsInfo());
             }
+            if (StringUtils.isNotEmpty(compression)) {
+                sb.append("_").append(compression);
+            }
         } else {
             sb.append(url);
             if (useSSL){
@@ -8,6 +8,9 @@ import org.fedai.osx.core.constant.StatusCode;
 import org.fedai.osx.core.context.OsxContext;
 import org.fedai.osx.core.exceptions.ErrorMessageUtil;
 import org.fedai.osx.core.exceptions.ExceptionInfo;
+import org.fedai.osx.core.metric.MetricsRegistry;
+import org.fedai.osx.core.trace.Span;
+import org.fedai.osx.core.trace.Tracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -82,6 +85,8 @@ public abstract class AbstractServiceAdaptorNew<req, resp> implements ServiceAda
      */
     @Override
     public resp service(OsxContext context, req data) throws RuntimeException {
+        long begin = System.nanoTime();
+        Span span = context.startSpan(serviceName != null ? serviceName : this.getClass().getSimpleName());
         resp result = null;
         List<Throwable> exceptions = Lists.newArrayList();
         context.setReturnCode(StatusCode.PTP_SUCCESS);
@@ -113,6 +118,9 @@ public abstract class AbstractServiceAdaptorNew<req, resp> implements ServiceAda
         } catch (Exception e) {
             logger.error("service PostDoProcess error", e);
         }
+        MetricsRegistry.recordService(serviceName != null ? serviceName : this.getClass().getSimpleName(), context.getReturnCode(), System.nanoTime() - begin);
+        span.setAttribute("return.code", context.getReturnCode()).end();
+        Tracer.finish(context);
         return result;
     }
 
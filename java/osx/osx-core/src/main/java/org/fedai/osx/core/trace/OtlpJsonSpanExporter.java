@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 默认输出方式，每个span一行，写入名为 trace 的日志（见 log4j2.xml ），
+ * 字段与 OTLP/JSON 的 Span 一致，可由 collector 的 filelog 接收器直接采集
+ */
+public class OtlpJsonSpanExporter implements SpanExporter {
+
+    static Logger logger = LoggerFactory.getLogger("trace");
+
+    @Override
+    public void export(String traceId, String selfPartyId, List<Span> spans) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        for (Span span : spans) {
+            logger.info(toJson(traceId, selfPartyId, span));
+        }
+    }
+
+    static String toJson(String traceId, String selfPartyId, Span span) {
+        long startNanos = span.getStartEpochMicros() * 1000;
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"traceId\":");
+        appendString(sb, traceId);
+        sb.append(",\"spanId\":");
+        appendString(sb, span.getSpanId());
+        if (span.getParentSpanId() != null) {
+            sb.append(",\"parentSpanId\":");
+            appendString(sb, span.getParentSpanId());
+        }
+        sb.append(",\"name\":");
+        appendString(sb, span.getName());
+        sb.append(",\"startTimeUnixNano\":\"").append(startNanos)
+                .append("\",\"endTimeUnixNano\":\"").append(startNanos + span.getDurationNanos())
+                .append("\",\"attributes\":[");
+        appendAttribute(sb, "party.id", selfPartyId);
+        Map<String, String> attributes = span.getAttributes();
+        if (attributes != null) {
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                sb.append(',');
+                appendAttribute(sb, entry.getKey(), entry.getValue());
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static void appendAttribute(StringBuilder sb, String key, String value) {
+        sb.append("{\"key\":");
+        appendString(sb, key);
+        sb.append(",\"value\":{\"stringValue\":");
+        appendString(sb, value);
+        sb.append("}}");
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("\"\"");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
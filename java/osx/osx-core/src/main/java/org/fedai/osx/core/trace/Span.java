@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一个处理阶段的耗时，由 {@link org.fedai.osx.core.context.OsxContext#startSpan(String)} 创建，
+ * 未被采样的请求得到的是 {@link #NOOP} ，调用方不需要判断是否采样
+ */
+public class Span {
+
+    public static final Span NOOP = new Span(null, null, null, 0, 0) {
+        @Override
+        public Span setAttribute(String key, Object value) {
+            return this;
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    final String name;
+    final String spanId;
+    final String parentSpanId;
+    final long startEpochMicros;
+    final long startNanos;
+    volatile long durationNanos = -1;
+    Map<String, String> attributes;
+
+    Span(String name, String spanId, String parentSpanId, long startEpochMicros, long startNanos) {
+        this.name = name;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.startEpochMicros = startEpochMicros;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * @param startNanos 开始时的 System.nanoTime() ，用于记录已经发生的阶段，如长轮询的挂起时间
+     */
+    public static Span create(String name, String parentSpanId, long startNanos) {
+        long startEpochMicros = System.currentTimeMillis() * 1000 - (System.nanoTime() - startNanos) / 1000;
+        return new Span(name, Tracer.newSpanId(), parentSpanId, startEpochMicros, startNanos);
+    }
+
+    public synchronized Span setAttribute(String key, Object value) {
+        if (attributes == null) {
+            attributes = new LinkedHashMap<>(4);
+        }
+        attributes.put(key, String.valueOf(value));
+        return this;
+    }
+
+    public void end() {
+        if (durationNanos < 0) {
+            durationNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    public boolean isEnded() {
+        return durationNanos >= 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public long getStartEpochMicros() {
+        return startEpochMicros;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public synchronized Map<String, String> getAttributes() {
+        return attributes;
+    }
+}
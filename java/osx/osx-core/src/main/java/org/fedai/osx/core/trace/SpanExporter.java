@@ -0,0 +1,30 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.trace;
+
+import java.util.List;
+
+/**
+ * 已结束的span的输出方式，实现类通过 trace.exporter 配置，在处理请求的线程中调用，不应阻塞
+ */
+public interface SpanExporter {
+
+    /**
+     * @param traceId    链路追踪ID，即 x-ptp-trace-id
+     * @param selfPartyId 本方partyId，用于区分两方记录的span
+     */
+    void export(String traceId, String selfPartyId, List<Span> spans);
+}
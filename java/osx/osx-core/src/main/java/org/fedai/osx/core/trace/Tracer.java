@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 The FATE Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fedai.osx.core.trace;
+
+import org.fedai.osx.core.config.MetaInfo;
+import org.fedai.osx.core.context.OsxContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 请求在各阶段的耗时追踪。采样在请求进入第一个节点时决定（trace.sample.rate），
+ * 决定结果和当前节点的根span通过 x-ptp-sampled 、x-ptp-parent-span-id 传给下游，两方据此关联同一条链路
+ */
+public class Tracer {
+
+    private static final int SAMPLE_BASE = 10000;
+    static Logger logger = LoggerFactory.getLogger(Tracer.class);
+    private static volatile SpanExporter exporter = new OtlpJsonSpanExporter();
+
+    public static void setExporter(SpanExporter spanExporter) {
+        if (spanExporter != null) {
+            exporter = spanExporter;
+        }
+    }
+
+    public static boolean sample() {
+        int rate = MetaInfo.PROPERTY_TRACE_SAMPLE_RATE;
+        if (rate <= 0) {
+            return false;
+        }
+        return rate >= SAMPLE_BASE || ThreadLocalRandom.current().nextInt(SAMPLE_BASE) < rate;
+    }
+
+    public static String newSpanId() {
+        return toHex(ThreadLocalRandom.current().nextLong());
+    }
+
+    public static String newTraceId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return toHex(random.nextLong()) + toHex(random.nextLong());
+    }
+
+    private static String toHex(long value) {
+        String hex = Long.toHexString(value);
+        return hex.length() < 16 ? "0000000000000000".substring(hex.length()) + hex : hex;
+    }
+
+    /**
+     * 输出上下文中已结束的span，可以多次调用，每个span只输出一次
+     */
+    public static void finish(OsxContext context) {
+        if (context == null || !Boolean.TRUE.equals(context.getSampled())) {
+            return;
+        }
+        List<Span> ended = context.drainEndedSpans();
+        if (ended.isEmpty()) {
+            return;
+        }
+        try {
+            exporter.export(context.getTraceId(), context.getSelfPartyId(), ended);
+        } catch (Exception e) {
+            logger.error("export trace {} error", context.getTraceId(), e);
+        }
+    }
+}